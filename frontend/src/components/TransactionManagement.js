@@ -24,7 +24,7 @@ function TransactionManagement() {
   const [transactions, setTransactions] = useState([]);
   const [isLoading, setIsLoading] = useState(false);
   const [error, setError] = useState(null);
-  const [totalPages, setTotalPages] = useState(1);
+  const [totalCount, setTotalCount] = useState(0);
   const [page, setPage] = useState(1);
   const [rowsPerPage] = useState(5);
   const [transactionForm, setTransactionForm] = useState({
@@ -67,11 +67,9 @@ function TransactionManagement() {
         }
       });
 
-      const totalPages = await axios.get('http://localhost:8080/api/transactions/count');
-      console.log(totalPages);
-      console.log(response.data);
+      const countResponse = await axios.get('http://localhost:8080/api/transactions/count');
       setTransactions(response.data || []);
-      setTotalPages(totalPages || 1);
+      setTotalCount(countResponse.data > 0 ? countResponse.data : 0);
     } catch (error) {
       console.error('获取交易数据失败:', error);
       setError(error);
@@ -92,6 +90,28 @@ function TransactionManagement() {
     refreshData();
   }, [page, rowsPerPage]);
 
+  // 订阅实时交易推送：余额事件直接更新账户，交易事件直接插到第一页并更新总数，不再重新请求列表
+  useEffect(() => {
+    const source = new EventSource('http://localhost:8080/api/transactions/stream');
+    source.addEventListener('balance', (event) => {
+      const { accountNumber, balance } = JSON.parse(event.data);
+      setAccounts((current) => current.map((account) =>
+        account.accountNumber === accountNumber ? { ...account, balance } : account
+      ));
+    });
+    source.addEventListener('transaction', (event) => {
+      const transaction = JSON.parse(event.data);
+      setTotalCount((count) => count + 1);
+      if (page === 1) {
+        setTransactions((current) => [
+          transaction,
+          ...current.filter((t) => t.id !== transaction.id)
+        ].slice(0, rowsPerPage));
+      }
+    });
+    return () => source.close();
+  }, [page, rowsPerPage]);
+
 
   // 处理表单变化
   const handleFormChange = (e) => {
@@ -113,8 +133,8 @@ function TransactionManagement() {
         toAccountNumber: transactionForm.toAccountNumber,
         timestamp: new Date().toISOString()
       });
-      // 刷新数据
-      await refreshData();
+      // 新交易和总数由推送带回，这里只刷新账户；再取一次列表会和推送重复计数
+      await fetchAccounts();
       // 清空表单
       setTransactionForm({
         fromAccountNumber: '',
@@ -412,7 +432,7 @@ function TransactionManagement() {
         </TableContainer>
         <Box sx={{ display: 'flex', justifyContent: 'center', mt: 2 }}>
           <Pagination
-            count={totalPages}
+            count={Math.max(1, Math.ceil(totalCount / rowsPerPage))}
             page={page}
             onChange={handlePageChange}
             color="primary"
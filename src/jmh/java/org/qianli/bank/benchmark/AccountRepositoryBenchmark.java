@@ -0,0 +1,68 @@
+package org.qianli.bank.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.qianli.bank.repository.AccountRepository;
+import org.qianli.bank.repository.AtomicAccountRepository;
+import org.qianli.bank.repository.InMemoryAccountRepository;
+
+import org.qianli.bank.model.Account;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 账户仓库的存取款、转账和快照读取（单线程）。
+ * 每轮迭代重建仓库并存入足够的余额，保证取款和转账基准始终走成功路径。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+public class AccountRepositoryBenchmark {
+    private static final BigDecimal AMOUNT = new BigDecimal("0.01");
+    private static final BigDecimal FUNDING = new BigDecimal("1000000000000.00");
+
+    @Param({"memory", "atomic"})
+    public String store;
+
+    private AccountRepository repository;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        repository = "atomic".equals(store) ? new AtomicAccountRepository() : new InMemoryAccountRepository();
+        for (String account : BenchmarkAccounts.ACCOUNTS) {
+            repository.deposit(account, FUNDING);
+        }
+    }
+
+    @Benchmark
+    public boolean deposit() {
+        return repository.deposit(BenchmarkAccounts.uniform(), AMOUNT);
+    }
+
+    @Benchmark
+    public boolean withdraw() {
+        return repository.withdraw(BenchmarkAccounts.uniform(), AMOUNT);
+    }
+
+    @Benchmark
+    public boolean transfer() {
+        String from = BenchmarkAccounts.uniform();
+        return repository.transfer(from, BenchmarkAccounts.other(from, "uniform"), AMOUNT);
+    }
+
+    @Benchmark
+    public List<Account> findAll() {
+        return repository.findAll();
+    }
+}
@@ -0,0 +1,41 @@
+package org.qianli.bank.benchmark;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 基准测试使用的账户及账户选择分布，账户与仓库初始化的A001~A010一致
+ */
+final class BenchmarkAccounts {
+    static final String[] ACCOUNTS = {
+            "A001", "A002", "A003", "A004", "A005", "A006", "A007", "A008", "A009", "A010"
+    };
+    static final String HOT = ACCOUNTS[0];
+
+    private BenchmarkAccounts() {
+    }
+
+    static String uniform() {
+        return ACCOUNTS[ThreadLocalRandom.current().nextInt(ACCOUNTS.length)];
+    }
+
+    /**
+     * 热点分布：80%的概率选中热点账户，其余均匀分布
+     */
+    static String pick(String distribution) {
+        if ("hot".equals(distribution) && ThreadLocalRandom.current().nextInt(100) < 80) {
+            return HOT;
+        }
+        return uniform();
+    }
+
+    /**
+     * 选一个与from不同的账户
+     */
+    static String other(String from, String distribution) {
+        String to = pick(distribution);
+        while (to.equals(from)) {
+            to = uniform();
+        }
+        return to;
+    }
+}
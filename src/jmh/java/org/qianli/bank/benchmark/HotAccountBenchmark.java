@@ -0,0 +1,94 @@
+package org.qianli.bank.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.qianli.bank.model.Transaction;
+import org.qianli.bank.repository.AccountRegistry;
+import org.qianli.bank.repository.AccountRepository;
+import org.qianli.bank.repository.AtomicAccountRepository;
+import org.qianli.bank.repository.CommitSequence;
+import org.qianli.bank.repository.InMemoryAccountRepository;
+import org.qianli.bank.repository.IndexedTransactionRepository;
+import org.qianli.bank.service.TransactionService;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 全部入账都落在同一个热点账户上时TransactionService.createTransaction的吞吐。
+ * striped=on时每轮迭代开始前就把热点账户标记为热点并拆分余额，与不拆分对比，
+ * 只衡量拆分后的记账路径，不含检测过程。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+public class HotAccountBenchmark {
+    private static final BigDecimal AMOUNT = new BigDecimal("0.01");
+
+    @Param({"memory", "atomic"})
+    public String accountStore;
+
+    @Param({"off", "on"})
+    public String striped;
+
+    private TransactionService service;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        service = new TransactionService();
+        AccountRegistry accounts = new AccountRegistry();
+        CommitSequence commits = new CommitSequence();
+        AccountRepository accountRepository = "atomic".equals(accountStore)
+                ? new AtomicAccountRepository(accounts, commits) : new InMemoryAccountRepository(accounts, commits);
+        ReflectionTestUtils.setField(service, "transactionRepository", new IndexedTransactionRepository(accounts));
+        ReflectionTestUtils.setField(service, "accountRepository", accountRepository);
+        ReflectionTestUtils.setField(service, "listeners", List.of());
+        if ("on".equals(striped)) {
+            // 阈值为1，在锁内记一次竞争即触发拆分
+            ReflectionTestUtils.setField(service, "hotThreshold", 1);
+            ReflectionTestUtils.setField(service, "hotWindowMillis", 60_000L);
+            ReflectionTestUtils.setField(service, "hotStripes", Math.max(4, Runtime.getRuntime().availableProcessors()));
+            int hot = accounts.idOf(BenchmarkAccounts.HOT);
+            ReentrantLock lock = ReflectionTestUtils.invokeMethod(service, "lockFor", hot);
+            lock.lock();
+            try {
+                ReflectionTestUtils.invokeMethod(service, "recordLoad", lock, hot, System.nanoTime(), 1);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private Transaction nextDeposit() {
+        Transaction transaction = new Transaction(AMOUNT, "benchmark", LocalDateTime.now());
+        transaction.setType(Transaction.Type.DEPOSIT);
+        transaction.setToAccountNumber(BenchmarkAccounts.HOT);
+        return transaction;
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Transaction deposit1Thread() {
+        return service.createTransaction(nextDeposit());
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Transaction deposit4Threads() {
+        return service.createTransaction(nextDeposit());
+    }
+}
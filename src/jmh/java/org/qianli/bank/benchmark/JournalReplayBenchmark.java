@@ -0,0 +1,104 @@
+package org.qianli.bank.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.qianli.bank.journal.FsyncPolicy;
+import org.qianli.bank.journal.JournalRecord;
+import org.qianli.bank.journal.JournalRecovery;
+import org.qianli.bank.journal.TransactionJournal;
+import org.qianli.bank.model.Transaction;
+import org.qianli.bank.repository.InMemoryAccountRepository;
+import org.qianli.bank.repository.IndexedTransactionRepository;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * 启动恢复的日志回放吞吐，结果单位即每秒回放的记录数。
+ * <p>
+ * 试验开始时向临时目录的日志写入RECORDS条记录：A001~A010之间的转账，每100条中有1条是对之前交易的修改。
+ * 每次调用用空的交易仓库和初始余额的账户仓库执行一次完整的recover()，不使用快照，
+ * 包含读取分段、解码、校验CRC、重建交易仓库和索引、累加并写回余额。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+public class JournalReplayBenchmark {
+    static final int RECORDS = 200_000;
+
+    private Path directory;
+    private TransactionJournal journal;
+    private JournalRecovery recovery;
+
+    @Setup(Level.Trial)
+    public void writeJournal() throws IOException {
+        directory = Files.createTempDirectory("journal-replay");
+        journal = new TransactionJournal(directory.toString(), 64 * 1024 * 1024, FsyncPolicy.ASYNC, 1000);
+        Random random = new Random(42);
+        LocalDateTime start = LocalDateTime.of(2024, 1, 1, 0, 0);
+        long id = 0;
+        for (int i = 0; i < RECORDS; i++) {
+            if (i % 100 == 99) {
+                Transaction update = transfer(1 + random.nextInt((int) id), random, start);
+                update.setModifyFlg("1");
+                journal.append(JournalRecord.Kind.UPDATE, update);
+            } else {
+                journal.append(JournalRecord.Kind.SAVE, transfer(++id, random, start));
+            }
+        }
+    }
+
+    private static Transaction transfer(long id, Random random, LocalDateTime start) {
+        String from = BenchmarkAccounts.ACCOUNTS[random.nextInt(BenchmarkAccounts.ACCOUNTS.length)];
+        String to = from;
+        while (to.equals(from)) {
+            to = BenchmarkAccounts.ACCOUNTS[random.nextInt(BenchmarkAccounts.ACCOUNTS.length)];
+        }
+        Transaction transaction = new Transaction(BigDecimal.valueOf(1 + random.nextInt(10_000), 2),
+                "replay " + id, start.plusSeconds(id));
+        transaction.setId(id);
+        transaction.setType(Transaction.Type.TRANSFER);
+        transaction.setFromAccountNumber(from);
+        transaction.setToAccountNumber(to);
+        return transaction;
+    }
+
+    @Setup(Level.Invocation)
+    public void emptyStores() {
+        recovery = new JournalRecovery(journal, new IndexedTransactionRepository(), new InMemoryAccountRepository(), null);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public long recover() {
+        recovery.recover();
+        return recovery.getRecoveredRecords();
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteJournal() throws IOException, InterruptedException {
+        journal.close();
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+}
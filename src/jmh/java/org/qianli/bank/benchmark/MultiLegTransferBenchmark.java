@@ -0,0 +1,99 @@
+package org.qianli.bank.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.qianli.bank.model.Account;
+import org.qianli.bank.model.MultiLegTransfer;
+import org.qianli.bank.model.Transaction;
+import org.qianli.bank.repository.AccountRegistry;
+import org.qianli.bank.repository.AccountRepository;
+import org.qianli.bank.repository.AtomicAccountRepository;
+import org.qianli.bank.repository.CommitSequence;
+import org.qianli.bank.repository.InMemoryAccountRepository;
+import org.qianli.bank.repository.IndexedTransactionRepository;
+import org.qianli.bank.service.TransactionService;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 一次代发：从同一个转出账户向legs个账户各转一笔。
+ * separateTransfers逐笔调用createTransaction，每笔都重新锁转出账户、检查余额；
+ * multiLeg用一次createMultiLegTransfer完成，结果同样是legs笔转账记录。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+public class MultiLegTransferBenchmark {
+    private static final BigDecimal AMOUNT = new BigDecimal("0.01");
+
+    @Param({"memory", "atomic"})
+    public String accountStore;
+
+    @Param({"10", "100"})
+    public int legs;
+
+    private TransactionService service;
+    private String[] payees;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        service = new TransactionService();
+        AccountRegistry accounts = new AccountRegistry();
+        CommitSequence commits = new CommitSequence();
+        AccountRepository accountRepository = "atomic".equals(accountStore)
+                ? new AtomicAccountRepository(accounts, commits) : new InMemoryAccountRepository(accounts, commits);
+        accountRepository.save(new Account(1L, BenchmarkAccounts.HOT, "payer", new BigDecimal("1000000000.00")));
+        payees = new String[legs];
+        for (int i = 0; i < legs; i++) {
+            payees[i] = String.format("P%04d", i);
+            accountRepository.save(new Account(100L + i, payees[i], "payee" + i, BigDecimal.ZERO));
+        }
+        ReflectionTestUtils.setField(service, "transactionRepository", new IndexedTransactionRepository(accounts));
+        ReflectionTestUtils.setField(service, "accountRepository", accountRepository);
+        ReflectionTestUtils.setField(service, "listeners", List.of());
+        ReflectionTestUtils.setField(service, "maxBatchSize", 10_000);
+    }
+
+    @Benchmark
+    public Transaction separateTransfers() {
+        Transaction last = null;
+        for (String payee : payees) {
+            Transaction transaction = new Transaction(AMOUNT, "payroll", LocalDateTime.now());
+            transaction.setType(Transaction.Type.TRANSFER);
+            transaction.setFromAccountNumber(BenchmarkAccounts.HOT);
+            transaction.setToAccountNumber(payee);
+            last = service.createTransaction(transaction);
+        }
+        return last;
+    }
+
+    @Benchmark
+    public List<Transaction> multiLeg() {
+        MultiLegTransfer request = new MultiLegTransfer();
+        request.setFromAccountNumber(BenchmarkAccounts.HOT);
+        request.setDescription("payroll");
+        List<MultiLegTransfer.Leg> requestLegs = new ArrayList<>(payees.length);
+        for (String payee : payees) {
+            MultiLegTransfer.Leg leg = new MultiLegTransfer.Leg();
+            leg.setToAccountNumber(payee);
+            leg.setAmount(AMOUNT);
+            requestLegs.add(leg);
+        }
+        request.setLegs(requestLegs);
+        return service.createMultiLegTransfer(request);
+    }
+}
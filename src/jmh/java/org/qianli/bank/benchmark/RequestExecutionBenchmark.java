@@ -0,0 +1,160 @@
+package org.qianli.bank.benchmark;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.qianli.bank.model.Transaction;
+import org.qianli.bank.repository.InMemoryAccountRepository;
+import org.qianli.bank.service.TransactionListener;
+import org.qianli.bank.service.TransactionService;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 平台线程池与虚拟线程执行请求的对比。
+ * <p>
+ * platform模拟Tomcat默认的200个请求线程，virtual每个请求一个虚拟线程（spring.threads.virtual.enabled=true）。
+ * clients个闭环客户端持续提交转账请求并等待结果；每笔交易提交后有ioMillis的阻塞（模拟日志组提交、下游调用），
+ * 余额路径上的账户锁竞争由10个账户自然产生。
+ * Throughput模式的total为全部客户端的总吞吐，SampleTime模式给出单个请求含排队的延迟分布（p99）。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Threads(1)
+public class RequestExecutionBenchmark {
+    private static final int PLATFORM_THREADS = 200;
+    private static final BigDecimal AMOUNT = new BigDecimal("0.01");
+
+    @Param({"platform", "virtual"})
+    public String threads;
+
+    @Param({"1000", "10000"})
+    public int clients;
+
+    @Param({"1"})
+    public long ioMillis;
+
+    private TransactionService service;
+    private ExecutorService executor;
+    private List<Thread> clientThreads;
+    private final LongAdder completed = new LongAdder();
+    private volatile boolean running;
+
+    /**
+     * 全部客户端在本轮迭代中完成的请求数，按迭代时长折算为吞吐
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Requests {
+        public long total;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            total = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        service = new TransactionService();
+        ReflectionTestUtils.setField(service, "transactionRepository",
+                TransactionRepositoryBenchmark.create("indexed"));
+        ReflectionTestUtils.setField(service, "accountRepository", new InMemoryAccountRepository());
+        ReflectionTestUtils.setField(service, "listeners", List.of(new BlockingListener(ioMillis)));
+        executor = "virtual".equals(threads)
+                ? Executors.newVirtualThreadPerTaskExecutor()
+                : Executors.newFixedThreadPool(PLATFORM_THREADS);
+
+        // 客户端本身不是被测对象，一律用虚拟线程
+        running = true;
+        clientThreads = new ArrayList<>(clients);
+        for (int i = 0; i < clients; i++) {
+            clientThreads.add(Thread.ofVirtual().start(() -> {
+                while (running) {
+                    try {
+                        call();
+                        completed.increment();
+                    } catch (Exception e) {
+                        return;
+                    }
+                }
+            }));
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void resetCounter() {
+        completed.reset();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        running = false;
+        for (Thread client : clientThreads) {
+            client.join();
+        }
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    public Transaction request(Requests requests) throws Exception {
+        Transaction result = call();
+        completed.increment();
+        requests.total = completed.sum();
+        return result;
+    }
+
+    private Transaction call() throws Exception {
+        String from = BenchmarkAccounts.uniform();
+        String to = BenchmarkAccounts.other(from, "uniform");
+        Callable<Transaction> task = () -> {
+            Transaction transaction = new Transaction(AMOUNT, "benchmark", LocalDateTime.now());
+            transaction.setType(Transaction.Type.TRANSFER);
+            transaction.setFromAccountNumber(from);
+            transaction.setToAccountNumber(to);
+            return service.createTransaction(transaction);
+        };
+        return executor.submit(task).get();
+    }
+
+    /**
+     * 交易提交后阻塞固定时间，代替真实的日志刷盘等待
+     */
+    private static final class BlockingListener implements TransactionListener {
+        private final long millis;
+
+        BlockingListener(long millis) {
+            this.millis = millis;
+        }
+
+        @Override
+        public void onSaved(Transaction transaction) {
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
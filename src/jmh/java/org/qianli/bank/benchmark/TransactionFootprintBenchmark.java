@@ -0,0 +1,128 @@
+package org.qianli.bank.benchmark;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.qianli.bank.model.Transaction;
+import org.qianli.bank.repository.TransactionRepository;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 对象布局（indexed）与列式布局（columnar）的内存占用和GC停顿。
+ * <p>
+ * 每次迭代从空仓库开始写入rows条交易，交易的账户号、描述、金额都是新对象，与从JSON请求反序列化的情况一致。
+ * 辅助计数器给出：写入期间GC的累计停顿与次数，以及写完后Full GC存活的堆增量折算到每条交易的字节数。
+ * EVENTS计数器在各次测量迭代间累加，除以Cnt得到单次写入的值。
+ * 计时包含最后一次Full GC，只用于对比两种布局，不代表写入吞吐。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g", "-XX:+UseG1GC"})
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+public class TransactionFootprintBenchmark {
+
+    @Param({"indexed", "columnar"})
+    public String store;
+
+    @Param({"1000000"})
+    public int rows;
+
+    // 保持上一次写入的仓库存活，直到下一次迭代开始前
+    private TransactionRepository loaded;
+    private long baselineHeap;
+    private long baselineGcMillis;
+    private long baselineGcCount;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Footprint {
+        public long bytesPerTransaction;
+        public long gcPauseMillis;
+        public long gcCount;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytesPerTransaction = 0;
+            gcPauseMillis = 0;
+            gcCount = 0;
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void baseline() {
+        loaded = null;
+        System.gc();
+        baselineHeap = usedHeap();
+        baselineGcMillis = gcMillis();
+        baselineGcCount = gcCount();
+    }
+
+    @Benchmark
+    public TransactionRepository load(Footprint footprint) {
+        TransactionRepository repository = TransactionRepositoryBenchmark.create(store);
+        LocalDateTime start = LocalDateTime.of(2024, 1, 1, 0, 0);
+        for (int i = 0; i < rows; i++) {
+            repository.save(transaction(i, start));
+        }
+        footprint.gcPauseMillis = gcMillis() - baselineGcMillis;
+        footprint.gcCount = gcCount() - baselineGcCount;
+        System.gc();
+        footprint.bytesPerTransaction = (usedHeap() - baselineHeap) / rows;
+        loaded = repository;
+        return repository;
+    }
+
+    private static Transaction transaction(int i, LocalDateTime start) {
+        String[] accounts = BenchmarkAccounts.ACCOUNTS;
+        Transaction transaction = new Transaction(new BigDecimal((i % 100_000) + "." + (i % 100)),
+                "transfer #" + i, start.plusNanos(i * 1_000_000L));
+        transaction.setType(Transaction.Type.TRANSFER);
+        transaction.setFromAccountNumber(new String(accounts[i % accounts.length]));
+        transaction.setToAccountNumber(new String(accounts[(i + 1) % accounts.length]));
+        return transaction;
+    }
+
+    private static long usedHeap() {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    // 只统计停顿：G1 Concurrent GC记录的是并发阶段的耗时
+    private static long gcMillis() {
+        long total = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (gc.getName().contains("Concurrent")) {
+                continue;
+            }
+            total += Math.max(0, gc.getCollectionTime());
+        }
+        return total;
+    }
+
+    private static long gcCount() {
+        long total = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (gc.getName().contains("Concurrent")) {
+                continue;
+            }
+            total += Math.max(0, gc.getCollectionCount());
+        }
+        return total;
+    }
+}
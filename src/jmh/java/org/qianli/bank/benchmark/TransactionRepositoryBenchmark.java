@@ -0,0 +1,99 @@
+package org.qianli.bank.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.qianli.bank.model.Transaction;
+import org.qianli.bank.repository.ColumnarTransactionRepository;
+import org.qianli.bank.repository.InMemoryTransactionRepository;
+import org.qianli.bank.repository.IndexedTransactionRepository;
+import org.qianli.bank.repository.TransactionRepository;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 交易仓库的save/findById/findAll。
+ * 查询基准在预先写入的history条交易上执行；save基准每轮迭代重建仓库，避免数据无限增长。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+public class TransactionRepositoryBenchmark {
+
+    @Param({"memory", "indexed", "columnar"})
+    public String store;
+
+    @Param({"10000"})
+    public int history;
+
+    private TransactionRepository queryRepository;
+    private TransactionRepository saveRepository;
+
+    static TransactionRepository create(String store) {
+        return switch (store) {
+            case "memory" -> new InMemoryTransactionRepository();
+            case "columnar" -> new ColumnarTransactionRepository();
+            default -> new IndexedTransactionRepository();
+        };
+    }
+
+    static Transaction transaction(int i) {
+        Transaction transaction = new Transaction(new BigDecimal("12.34"), "benchmark", LocalDateTime.now());
+        Transaction.Type type = Transaction.Type.values()[i % 3];
+        transaction.setType(type);
+        String account = BenchmarkAccounts.ACCOUNTS[i % BenchmarkAccounts.ACCOUNTS.length];
+        if (type != Transaction.Type.DEPOSIT) {
+            transaction.setFromAccountNumber(account);
+        }
+        if (type != Transaction.Type.WITHDRAWAL) {
+            transaction.setToAccountNumber(BenchmarkAccounts.ACCOUNTS[(i + 1) % BenchmarkAccounts.ACCOUNTS.length]);
+        }
+        return transaction;
+    }
+
+    @Setup(Level.Trial)
+    public void populate() {
+        queryRepository = create(store);
+        for (int i = 0; i < history; i++) {
+            queryRepository.save(transaction(i));
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void resetSaveRepository() {
+        saveRepository = create(store);
+    }
+
+    @Benchmark
+    public Transaction save() {
+        return saveRepository.save(transaction(ThreadLocalRandom.current().nextInt(1024)));
+    }
+
+    @Benchmark
+    public Object findById() {
+        return queryRepository.findById((long) ThreadLocalRandom.current().nextInt(history) + 1);
+    }
+
+    @Benchmark
+    public List<Transaction> findAllFirstPage() {
+        return queryRepository.findAll(0, 20, null, null);
+    }
+
+    @Benchmark
+    public List<Transaction> findAllByTypeAndAccount() {
+        String account = BenchmarkAccounts.ACCOUNTS[ThreadLocalRandom.current().nextInt(BenchmarkAccounts.ACCOUNTS.length)];
+        return queryRepository.findAll(5, 20, "TRANSFER", account);
+    }
+}
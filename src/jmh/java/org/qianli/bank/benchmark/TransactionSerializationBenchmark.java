@@ -0,0 +1,64 @@
+package org.qianli.bank.benchmark;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.qianli.bank.model.Transaction;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Transaction的Jackson序列化/反序列化，ObjectMapper与Spring MVC使用的配置一致
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+public class TransactionSerializationBenchmark {
+    private ObjectMapper objectMapper;
+    private Transaction transaction;
+    private List<Transaction> page;
+    private String json;
+
+    @Setup
+    public void setUp() throws JsonProcessingException {
+        objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        transaction = new Transaction(new BigDecimal("1234.56"), "benchmark transfer", LocalDateTime.now().withNano(0));
+        transaction.setId(42L);
+        transaction.setType(Transaction.Type.TRANSFER);
+        transaction.setFromAccountNumber("A001");
+        transaction.setToAccountNumber("A002");
+        page = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            page.add(transaction);
+        }
+        json = objectMapper.writeValueAsString(transaction);
+    }
+
+    @Benchmark
+    public byte[] serialize() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(transaction);
+    }
+
+    @Benchmark
+    public byte[] serializePage() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(page);
+    }
+
+    @Benchmark
+    public Transaction deserialize() throws JsonProcessingException {
+        return objectMapper.readValue(json, Transaction.class);
+    }
+}
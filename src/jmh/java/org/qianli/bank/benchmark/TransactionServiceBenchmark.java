@@ -0,0 +1,115 @@
+package org.qianli.bank.benchmark;
+
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.qianli.bank.model.Transaction;
+import org.qianli.bank.repository.AccountRegistry;
+import org.qianli.bank.repository.AtomicAccountRepository;
+import org.qianli.bank.repository.CommitSequence;
+import org.qianli.bank.repository.InMemoryAccountRepository;
+import org.qianli.bank.repository.IndexedTransactionRepository;
+import org.qianli.bank.service.TransactionMetrics;
+import org.qianli.bank.service.TransactionService;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TransactionService.createTransaction在不同线程数、账户分布下的吞吐。
+ * <p>
+ * 交易均为0.01的转账，热点分布下一半方向转入热点账户、一半转出，余额不会单向耗尽。
+ * 服务直接组装（locking模式，无日志），每轮迭代重建仓库，避免交易历史无限增长；
+ * 两个仓库与Spring中一样共用一个账户号字典。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+public class TransactionServiceBenchmark {
+    private static final BigDecimal AMOUNT = new BigDecimal("0.01");
+
+    @Param({"uniform", "hot"})
+    public String distribution;
+
+    @Param({"memory", "atomic"})
+    public String accountStore;
+
+    // off：不记录指标；on：按默认配置记录到Prometheus注册表（分阶段耗时1/16抽样）；full：每笔都记录全部阶段，用于衡量埋点开销
+    @Param({"off", "on", "full"})
+    public String metrics;
+
+    // shared：账户号是常量字符串（哈希值已缓存）；fresh：每笔交易新建字符串，与从JSON请求反序列化的情况一致
+    @Param({"shared", "fresh"})
+    public String accountStrings;
+
+    private TransactionService service;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        service = new TransactionService();
+        AccountRegistry accounts = new AccountRegistry();
+        ReflectionTestUtils.setField(service, "transactionRepository", new IndexedTransactionRepository(accounts));
+        CommitSequence commits = new CommitSequence();
+        ReflectionTestUtils.setField(service, "accountRepository", "atomic".equals(accountStore)
+                ? new AtomicAccountRepository(accounts, commits) : new InMemoryAccountRepository(accounts, commits));
+        ReflectionTestUtils.setField(service, "listeners", List.of());
+        ReflectionTestUtils.setField(service, "maxBatchSize", 10000);
+        ReflectionTestUtils.setField(service, "metrics", switch (metrics) {
+            case "on" -> new TransactionMetrics(new PrometheusMeterRegistry(PrometheusConfig.DEFAULT), false, 16);
+            case "full" -> new TransactionMetrics(new PrometheusMeterRegistry(PrometheusConfig.DEFAULT), false, 1);
+            default -> TransactionMetrics.NOOP;
+        });
+    }
+
+    private Transaction nextTransfer() {
+        String from = BenchmarkAccounts.pick(distribution);
+        String to = BenchmarkAccounts.other(from, distribution);
+        if (ThreadLocalRandom.current().nextBoolean()) {
+            String swap = from;
+            from = to;
+            to = swap;
+        }
+        if ("fresh".equals(accountStrings)) {
+            from = new String(from);
+            to = new String(to);
+        }
+        Transaction transaction = new Transaction(AMOUNT, "benchmark", LocalDateTime.now());
+        transaction.setType(Transaction.Type.TRANSFER);
+        transaction.setFromAccountNumber(from);
+        transaction.setToAccountNumber(to);
+        return transaction;
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Transaction createTransaction1Thread() {
+        return service.createTransaction(nextTransfer());
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Transaction createTransaction4Threads() {
+        return service.createTransaction(nextTransfer());
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public Transaction createTransactionMaxThreads() {
+        return service.createTransaction(nextTransfer());
+    }
+}
@@ -0,0 +1,21 @@
+package org.qianli.bank.config;
+
+import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 账户读缓存。
+ * <p>
+ * 缓存实现与容量、过期时间由spring.cache.*配置（Caffeine）；关闭缓存用spring.cache.type=none。
+ * 余额变更都经过AccountRepository，失效注解声明在接口的写方法上，
+ * 因此不论请求线程还是分片线程改了余额，对应条目都会在写入完成后被清除。
+ */
+@Configuration
+@EnableCaching
+public class CacheConfig {
+    // 单个账户，key为账号
+    public static final String ACCOUNTS = "accounts";
+    // 账户列表，只有一个条目
+    public static final String ACCOUNT_LIST = "accountList";
+    public static final String ACCOUNT_LIST_KEY = "'all'";
+}
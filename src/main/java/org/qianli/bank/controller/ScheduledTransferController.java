@@ -0,0 +1,96 @@
+package org.qianli.bank.controller;
+
+import org.qianli.bank.model.ScheduledTransfer;
+import org.qianli.bank.schedule.TransferScheduler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+
+/**
+ * REST controller for scheduled and recurring transfers
+ */
+@RestController
+@RequestMapping("/api/scheduled-transfers")
+@CrossOrigin(origins = "*", allowedHeaders = "*", methods = {RequestMethod.GET, RequestMethod.POST, RequestMethod.DELETE})
+public class ScheduledTransferController {
+    private static final Logger logger = LoggerFactory.getLogger(ScheduledTransferController.class);
+    private final TransferScheduler transferScheduler;
+
+    public ScheduledTransferController(TransferScheduler transferScheduler) {
+        this.transferScheduler = transferScheduler;
+    }
+
+    /**
+     * Schedule a deposit, withdrawal or transfer at {@code executeAt}.
+     * With {@code intervalSeconds} set it repeats every interval from {@code executeAt} until cancelled.
+     * Execution times already in the past run on the next scheduler tick.
+     *
+     * @param request Transaction fields plus the execution time and optional interval
+     * @return Created schedule with its id
+     */
+    @PostMapping
+    public ResponseEntity<?> createScheduledTransfer(@RequestBody ScheduledTransfer request) {
+        logger.info("Scheduling {} at {} every {}s", request.getType(), request.getExecuteAt(),
+            request.getIntervalSeconds());
+        try {
+            return new ResponseEntity<>(transferScheduler.schedule(request), HttpStatus.CREATED);
+        } catch (IllegalArgumentException e) {
+            logger.error("Invalid scheduled transfer: {}", e.getMessage());
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
+    /**
+     * Get a pending or recently finished schedule, including the outcome of its last execution
+     *
+     * @param id Schedule ID
+     * @return Schedule details
+     */
+    @GetMapping("/{id}")
+    public ResponseEntity<ScheduledTransfer> getScheduledTransfer(@PathVariable Long id) {
+        return transferScheduler.findById(id)
+            .map(ResponseEntity::ok)
+            .orElseGet(() -> new ResponseEntity<>(HttpStatus.NOT_FOUND));
+    }
+
+    /**
+     * List pending schedules in id order
+     *
+     * @param afterId Return schedules with an id greater than this
+     * @param limit Maximum number of schedules to return
+     * @return Pending schedules
+     */
+    @GetMapping
+    public ResponseEntity<List<ScheduledTransfer>> getPendingScheduledTransfers(
+            @RequestParam(defaultValue = "0") long afterId,
+            @RequestParam(defaultValue = "100") int limit) {
+        try {
+            return ResponseEntity.ok(transferScheduler.getPending(afterId, limit));
+        } catch (IllegalArgumentException e) {
+            logger.error("Invalid request parameters: {}", e.getMessage());
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+    }
+
+    /**
+     * Cancel a pending schedule
+     *
+     * @param id Schedule ID
+     * @return 204 when cancelled, 409 if it already finished or is executing right now
+     */
+    @DeleteMapping("/{id}")
+    public ResponseEntity<?> cancelScheduledTransfer(@PathVariable Long id) {
+        logger.info("Cancelling scheduled transfer {}", id);
+        try {
+            return transferScheduler.cancel(id)
+                .<ResponseEntity<?>>map(schedule -> ResponseEntity.noContent().build())
+                .orElseGet(() -> new ResponseEntity<>(HttpStatus.NOT_FOUND));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getMessage());
+        }
+    }
+}
@@ -1,16 +1,39 @@
 package org.qianli.bank.controller;
 
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.qianli.bank.model.BatchItemResult;
+import org.qianli.bank.model.MultiLegTransfer;
 import org.qianli.bank.model.Transaction;
+import org.qianli.bank.model.TransactionPage;
+import org.qianli.bank.model.TransactionStats;
+import org.qianli.bank.service.AsyncTransactionSubmitter;
+import org.qianli.bank.service.IdempotencyStore;
+import org.qianli.bank.service.TransactionExporter;
+import org.qianli.bank.service.TransactionFeed;
 import org.qianli.bank.service.TransactionService;
+import org.qianli.bank.service.TransactionStatistics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import jakarta.validation.Valid;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * REST controller for managing financial transactions
@@ -20,32 +43,78 @@ import java.util.List;
 @CrossOrigin(origins = "*", allowedHeaders = "*", methods = {RequestMethod.GET, RequestMethod.POST, RequestMethod.PUT, RequestMethod.DELETE})
 public class TransactionController {
     private static final Logger logger = LoggerFactory.getLogger(TransactionController.class);
+    private static final String APPLICATION_NDJSON = "application/x-ndjson";
+    private static final String IDEMPOTENCY_KEY = "Idempotency-Key";
+    private static final String IDEMPOTENT_REPLAYED = "Idempotent-Replayed";
     private final TransactionService transactionService;
+    private final TransactionExporter transactionExporter;
+    private final IdempotencyStore idempotencyStore;
+    private final TransactionStatistics transactionStatistics;
+    private final AsyncTransactionSubmitter asyncSubmitter;
+    private final TransactionFeed transactionFeed;
+    private final ObjectMapper objectMapper;
 
-    public TransactionController(TransactionService transactionService) {
+    public TransactionController(TransactionService transactionService, TransactionExporter transactionExporter,
+                                 IdempotencyStore idempotencyStore, TransactionStatistics transactionStatistics,
+                                 AsyncTransactionSubmitter asyncSubmitter, TransactionFeed transactionFeed,
+                                 ObjectMapper objectMapper) {
         this.transactionService = transactionService;
+        this.transactionExporter = transactionExporter;
+        this.idempotencyStore = idempotencyStore;
+        this.transactionStatistics = transactionStatistics;
+        this.asyncSubmitter = asyncSubmitter;
+        this.transactionFeed = transactionFeed;
+        this.objectMapper = objectMapper;
     }
 
     /**
-     * Get all transactions with optional filtering and pagination
+     * Get all transactions with optional filtering and pagination.
+     * Offset pagination ({@code page}/{@code size}) returns a plain list; passing {@code cursor},
+     * {@code afterId}, {@code limit}, {@code from} or {@code to} switches to keyset pagination, which
+     * returns the items with an opaque {@code nextCursor} for the following page.
+     * A time range is resolved through the repository's time index and combines with
+     * {@code type} and {@code accountId}; pass the same range again with the cursor.
      * 
      * @param page Page number (starting from 0)
      * @param size Page size
      * @param type Transaction type filter (optional)
      * @param accountId Account ID filter (optional)
-     * @return Paginated list of transactions
+     * @param cursor Opaque cursor from a previous {@code nextCursor} (optional)
+     * @param afterId Return transactions with an id greater than this (optional)
+     * @param limit Keyset page size (optional, defaults to {@code size})
+     * @param from Inclusive lower bound of the transaction date (optional)
+     * @param to Exclusive upper bound of the transaction date (optional)
+     * @return Paginated list of transactions, or a keyset page
      */
 
     @GetMapping
-    public ResponseEntity<List<Transaction>> getAllTransactions(
+    public ResponseEntity<?> getAllTransactions(
             @RequestParam(defaultValue = "0") int page,
             @RequestParam(defaultValue = "20") int size,
             @RequestParam(required = false) String type,
-            @RequestParam(required = false) String accountId) {
-        logger.info("Fetching transactions - page: {}, size: {}, type: {}, accountId: {}", 
-            page, size, type, accountId);
-            
+            @RequestParam(required = false) String accountId,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Long afterId,
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to) {
         try {
+            if (from != null || to != null) {
+                logger.info("Fetching transactions - cursor: {}, afterId: {}, limit: {}, type: {}, accountId: {}, from: {}, to: {}",
+                    cursor, afterId, limit, type, accountId, from, to);
+                TransactionPage result = transactionService.getTransactionsAfter(
+                    cursor, afterId, limit == null ? size : limit, type, accountId, from, to);
+                return new ResponseEntity<>(result, HttpStatus.OK);
+            }
+            if (cursor != null || afterId != null || limit != null) {
+                logger.info("Fetching transactions - cursor: {}, afterId: {}, limit: {}, type: {}, accountId: {}",
+                    cursor, afterId, limit, type, accountId);
+                TransactionPage result = transactionService.getTransactionsAfter(
+                    cursor, afterId, limit == null ? size : limit, type, accountId);
+                return new ResponseEntity<>(result, HttpStatus.OK);
+            }
+            logger.info("Fetching transactions - page: {}, size: {}, type: {}, accountId: {}", 
+                page, size, type, accountId);
             List<Transaction> transactions = transactionService.getAllTransactions(page, size, type, accountId);
             return new ResponseEntity<>(transactions, HttpStatus.OK);
         } catch (IllegalArgumentException e) {
@@ -55,13 +124,49 @@ public class TransactionController {
     }
 
     /**
-     * Create a new transaction
+     * Create a new transaction.
+     * With an {@code Idempotency-Key} header, a retry of the same request within the configured
+     * window gets the original response back (marked with {@code Idempotent-Replayed: true})
+     * instead of posting again; a concurrent duplicate waits for the first execution.
+     * Reusing a key for a different request is rejected with 422.
      * 
      * @param transaction Transaction to create
+     * @param idempotencyKey Client-generated key identifying this request (optional)
      * @return Created transaction
      */
     @PostMapping
-    public ResponseEntity<?> createTransaction(@Valid @RequestBody Transaction transaction) {
+    public ResponseEntity<?> createTransaction(@Valid @RequestBody Transaction transaction,
+                                               @RequestHeader(value = IDEMPOTENCY_KEY, required = false) String idempotencyKey) {
+        if (idempotencyKey == null) {
+            return doCreateTransaction(transaction);
+        }
+        try {
+            IdempotencyStore.Result<ResponseEntity<?>> result = idempotencyStore.execute(idempotencyKey,
+                fingerprint(transaction), () -> doCreateTransaction(transaction),
+                response -> !response.getStatusCode().is5xxServerError());
+            if (!result.replayed()) {
+                return result.value();
+            }
+            logger.info("Replaying response for Idempotency-Key {}", idempotencyKey);
+            return ResponseEntity.status(result.value().getStatusCode())
+                .header(IDEMPOTENT_REPLAYED, "true")
+                .body(result.value().getBody());
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (IllegalStateException e) {
+            logger.warn("Idempotency-Key {} reused: {}", idempotencyKey, e.getMessage());
+            return ResponseEntity.status(HttpStatus.UNPROCESSABLE_ENTITY).body(e.getMessage());
+        }
+    }
+
+    // 请求内容的指纹，在服务填充id、时间戳之前计算
+    private static String fingerprint(Transaction transaction) {
+        return transaction.getType() + "|" + transaction.getFromAccountNumber() + "|" + transaction.getToAccountNumber()
+            + "|" + (transaction.getAmount() == null ? null : transaction.getAmount().stripTrailingZeros().toPlainString())
+            + "|" + transaction.getDescription();
+    }
+
+    private ResponseEntity<?> doCreateTransaction(Transaction transaction) {
         logger.info("Creating new transaction: {}", transaction);
         try {
             Transaction createdTransaction = transactionService.createTransaction(transaction);
@@ -75,6 +180,242 @@ public class TransactionController {
         }
     }
 
+    /**
+     * Create a new transaction asynchronously. The request is queued on a bounded executor and the
+     * servlet thread is released until the transaction completes. When the queue is full, or the
+     * transaction waited longer than the configured limit, the request is shed with 429 and
+     * {@code Retry-After}.
+     *
+     * @param transaction Transaction to create
+     * @return Future of the created transaction
+     */
+    @PostMapping("/async")
+    public CompletableFuture<ResponseEntity<?>> createTransactionAsync(@Valid @RequestBody Transaction transaction) {
+        logger.info("Submitting transaction asynchronously: {}", transaction);
+        CompletableFuture<Transaction> future;
+        try {
+            future = asyncSubmitter.submit(transaction);
+        } catch (RejectedExecutionException e) {
+            logger.warn("Async queue full, shedding transaction");
+            return CompletableFuture.completedFuture(tooManyRequests());
+        }
+        return future.<ResponseEntity<?>>thenApply(created -> new ResponseEntity<>(created, HttpStatus.CREATED))
+            .exceptionally(e -> {
+                Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                if (cause instanceof RejectedExecutionException rejected) {
+                    logger.warn("Shedding queued transaction: {}", rejected.getMessage());
+                    return tooManyRequests();
+                }
+                // 服务把校验错误包装在RuntimeException中
+                if (cause instanceof IllegalArgumentException || cause.getCause() instanceof IllegalArgumentException) {
+                    logger.error("Invalid transaction data: {}", cause.getMessage());
+                    return ResponseEntity.badRequest().body(cause.getMessage());
+                }
+                logger.error("Error creating transaction: {}", cause.getMessage());
+                return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Transaction creation failed");
+            });
+    }
+
+    private ResponseEntity<?> tooManyRequests() {
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+            .header(HttpHeaders.RETRY_AFTER, String.valueOf(asyncSubmitter.getRetryAfterSeconds()))
+            .body("Too many pending transactions, retry later");
+    }
+
+    /**
+     * Create transactions in a batch from a JSON array
+     *
+     * @param transactions Transactions to create
+     * @return Result for each item, in request order
+     */
+    @PostMapping(value = "/batch", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<?> createTransactions(@RequestBody List<Transaction> transactions) {
+        logger.info("Creating batch of {} transactions", transactions.size());
+        return submitBatch(transactions);
+    }
+
+    /**
+     * Create transactions in a batch from an NDJSON stream (one transaction per line)
+     *
+     * @param body Request body stream
+     * @return Result for each item, in request order
+     */
+    @PostMapping(value = "/batch", consumes = APPLICATION_NDJSON)
+    public ResponseEntity<?> createTransactionsNdjson(InputStream body) {
+        List<Transaction> transactions = new ArrayList<>();
+        try (MappingIterator<Transaction> iterator = objectMapper.readerFor(Transaction.class).readValues(body)) {
+            while (iterator.hasNextValue()) {
+                transactions.add(iterator.nextValue());
+            }
+        } catch (IOException e) {
+            logger.error("Invalid NDJSON batch: {}", e.getMessage());
+            return ResponseEntity.badRequest().body("Invalid NDJSON at item " + transactions.size());
+        }
+        logger.info("Creating NDJSON batch of {} transactions", transactions.size());
+        return submitBatch(transactions);
+    }
+
+    private ResponseEntity<?> submitBatch(List<Transaction> transactions) {
+        try {
+            List<BatchItemResult> results = transactionService.createTransactions(transactions);
+            return ResponseEntity.ok(results);
+        } catch (IllegalArgumentException e) {
+            logger.error("Invalid batch: {}", e.getMessage());
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (Exception e) {
+            logger.error("Error creating batch: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Batch creation failed");
+        }
+    }
+
+    /**
+     * Create a multi-leg transfer: one debit from the source account, one credit per leg.
+     * The total is checked against the source balance once and all legs are applied together;
+     * if any leg is invalid or the balance is insufficient, nothing is applied.
+     * Each leg is recorded as a separate {@code TRANSFER} transaction.
+     *
+     * @param request Source account and legs
+     * @return Created transactions, one per leg in request order
+     */
+    @PostMapping("/multi-leg")
+    public ResponseEntity<?> createMultiLegTransfer(@RequestBody MultiLegTransfer request) {
+        logger.info("Creating multi-leg transfer from {} with {} legs", request.getFromAccountNumber(),
+            request.getLegs() == null ? 0 : request.getLegs().size());
+        try {
+            List<Transaction> transactions = transactionService.createMultiLegTransfer(request);
+            return new ResponseEntity<>(transactions, HttpStatus.CREATED);
+        } catch (IllegalArgumentException e) {
+            logger.error("Invalid multi-leg transfer: {}", e.getMessage());
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (Exception e) {
+            logger.error("Error creating multi-leg transfer: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Transaction creation failed");
+        }
+    }
+
+    /**
+     * Get the most recent transactions of an account, newest first
+     *
+     * @param accountId Account ID
+     * @param type Transaction type filter (optional)
+     * @param limit Number of transactions to return
+     * @return Latest transactions of the account
+     */
+    @GetMapping("/latest")
+    public ResponseEntity<List<Transaction>> getLatestTransactions(
+            @RequestParam String accountId,
+            @RequestParam(required = false) String type,
+            @RequestParam(defaultValue = "10") int limit) {
+        logger.info("Fetching latest transactions - accountId: {}, type: {}, limit: {}", accountId, type, limit);
+        try {
+            return ResponseEntity.ok(transactionService.getLatestTransactions(accountId, type, limit));
+        } catch (IllegalArgumentException e) {
+            logger.error("Invalid request parameters: {}", e.getMessage());
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+    }
+
+    /**
+     * Get running aggregates: totals and per-type counts and amounts, optionally the inflow and
+     * outflow of one account and the daily totals of the most recent days. The aggregates are
+     * maintained as transactions are saved, so reading them does not scan the history.
+     *
+     * @param accountId Account ID whose inflow/outflow to include (optional)
+     * @param days Number of most recent days to include (0 for none)
+     * @return Aggregated statistics
+     */
+    @GetMapping("/stats")
+    public ResponseEntity<TransactionStats> getStatistics(
+            @RequestParam(required = false) String accountId,
+            @RequestParam(defaultValue = "30") int days) {
+        try {
+            return ResponseEntity.ok(transactionStatistics.snapshot(accountId, days));
+        } catch (IllegalArgumentException e) {
+            logger.error("Invalid request parameters: {}", e.getMessage());
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+    }
+
+    /**
+     * Subscribe to a live feed of saved transactions as server-sent events. Each transaction is
+     * sent as a {@code transaction} event followed by {@code balance} events carrying the current
+     * balance of the accounts it touched. Subscribers that fall too far behind are disconnected
+     * and should reconnect and reload.
+     *
+     * @param accountId Only send events involving this account (optional)
+     * @return Event stream, or 503 when the subscriber limit is reached
+     */
+    @GetMapping(value = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> streamTransactions(@RequestParam(required = false) String accountId) {
+        logger.info("Opening live transaction feed - accountId: {}", accountId);
+        // 连接的生命周期由订阅控制，不设超时
+        SseEmitter emitter = new SseEmitter(0L);
+        TransactionFeed.Subscription subscription;
+        try {
+            subscription = transactionFeed.subscribe(accountId, new TransactionFeed.Sink() {
+                @Override
+                public void send(TransactionFeed.FeedEvent event) throws IOException {
+                    if (event.isHeartbeat()) {
+                        emitter.send(SseEmitter.event().comment("heartbeat"));
+                    } else {
+                        emitter.send(SseEmitter.event().name(event.name()).data(event.data(), MediaType.APPLICATION_JSON));
+                    }
+                }
+
+                @Override
+                public void close() {
+                    emitter.complete();
+                }
+            });
+        } catch (IllegalStateException e) {
+            logger.warn("Rejecting live feed subscriber: {}", e.getMessage());
+            return new ResponseEntity<>(HttpStatus.SERVICE_UNAVAILABLE);
+        }
+        emitter.onCompletion(subscription::cancel);
+        emitter.onTimeout(subscription::cancel);
+        emitter.onError(e -> subscription.cancel());
+        return ResponseEntity.ok(emitter);
+    }
+
+    /**
+     * Stream the transaction history as NDJSON or CSV. Rows are written as the store is walked,
+     * so memory use does not grow with the size of the export.
+     *
+     * @param format {@code ndjson} (default) or {@code csv}
+     * @param type Transaction type filter (optional)
+     * @param accountId Account ID filter (optional)
+     * @param from Inclusive lower bound of the transaction date (optional)
+     * @param to Exclusive upper bound of the transaction date (optional)
+     * @return Streaming response body
+     */
+    @GetMapping("/export")
+    public ResponseEntity<StreamingResponseBody> exportTransactions(
+            @RequestParam(defaultValue = "ndjson") String format,
+            @RequestParam(required = false) String type,
+            @RequestParam(required = false) String accountId,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to) {
+        logger.info("Exporting transactions - format: {}, type: {}, accountId: {}, from: {}, to: {}",
+            format, type, accountId, from, to);
+        TransactionExporter.Format exportFormat;
+        TransactionExporter.Filter filter;
+        try {
+            exportFormat = TransactionExporter.Format.parse(format);
+            filter = new TransactionExporter.Filter(type, accountId, from, to);
+        } catch (IllegalArgumentException e) {
+            logger.error("Invalid export parameters: {}", e.getMessage());
+            return ResponseEntity.badRequest().build();
+        }
+        StreamingResponseBody body = out -> {
+            long count = transactionExporter.export(exportFormat, filter, out);
+            logger.info("Exported {} transactions as {}", count, exportFormat);
+        };
+        return ResponseEntity.ok()
+            .contentType(MediaType.parseMediaType(exportFormat.getContentType()))
+            .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"transactions." + exportFormat.getExtension() + "\"")
+            .body(body);
+    }
+
     /**
      * Get total count of transactions
      * 
@@ -127,6 +468,9 @@ public class TransactionController {
         } catch (IllegalArgumentException e) {
             logger.error("Invalid transaction data: {}", e.getMessage());
             return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (IllegalStateException e) {
+            logger.warn("Conflicting transaction update: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getMessage());
         } catch (Exception e) {
             logger.error("Error updating transaction: {}", e.getMessage());
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Transaction update failed");
@@ -145,6 +489,12 @@ public class TransactionController {
         try {
             transactionService.deleteTransaction(id);
             return new ResponseEntity<>(HttpStatus.NO_CONTENT);
+        } catch (IllegalArgumentException e) {
+            logger.error("Invalid transaction deletion: {}", e.getMessage());
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (IllegalStateException e) {
+            logger.warn("Conflicting transaction deletion: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getMessage());
         } catch (Exception e) {
             logger.error("Error deleting transaction: {}", e.getMessage());
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Transaction deletion failed");
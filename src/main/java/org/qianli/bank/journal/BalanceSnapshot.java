@@ -0,0 +1,15 @@
+package org.qianli.bank.journal;
+
+import java.math.BigDecimal;
+import java.util.Map;
+
+/**
+ * 某个日志位置上的余额快照
+ *
+ * @param cutLsn     快照对应的日志位置，恢复时从这里继续回放
+ * @param nextId     该位置之后下一笔交易的id
+ * @param balances   账户号 -> 余额
+ * @param historyLsn 快照文件中的交易历史覆盖到的日志位置，0表示不带交易历史
+ */
+public record BalanceSnapshot(long cutLsn, long nextId, Map<String, BigDecimal> balances, long historyLsn) {
+}
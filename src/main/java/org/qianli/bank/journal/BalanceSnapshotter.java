@@ -0,0 +1,411 @@
+package org.qianli.bank.journal;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.qianli.bank.model.Transaction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * 后台余额快照。
+ * <p>
+ * 快照不读取线上的账户对象，而是在上一个快照的基础上折叠日志中新增的记录，
+ * 因此天然是日志某个位置上的一致性切面，写入方完全不受影响。
+ * 启动时JournalRecovery先加载最新快照，余额只累加快照之后的日志尾部。
+ * <p>
+ * restore-history开启（默认）时快照还带上快照位置之前的全部交易（修改已合并），
+ * 启动时从快照文件加载历史，不再解码快照之前的日志。新快照顺序读出上一个快照的历史，
+ * 合并期间的修改后写出，再追加期间新增的交易，内存中只保留两次快照之间的交易。
+ * 关闭restore-history后快照不带历史，启动时只加载日志尾部，查询和统计都看不到快照之前的交易。
+ * <pre>
+ * 文件: int MAGIC | int VERSION | long cutLsn | long nextId | int 账户数 | 账户余额...
+ *       | boolean 有无历史 [| (int 长度 | 交易编码)... | int -1] | long CRC32
+ * 交易编码同日志记录负载（JournalCodec）
+ * </pre>
+ */
+@Component
+@ConditionalOnProperty(name = {"bank.journal.enabled", "bank.snapshot.enabled"}, havingValue = "true")
+public class BalanceSnapshotter {
+    private static final Logger logger = LoggerFactory.getLogger(BalanceSnapshotter.class);
+    private static final int MAGIC = 0x42534E50; // "BSNP"
+    private static final int VERSION = 2;
+    // 版本1的快照不带交易历史，仍然可以读取
+    private static final int VERSION_WITHOUT_HISTORY = 1;
+    private static final String SUFFIX = ".snapshot";
+
+    private final TransactionJournal journal;
+    private final Path directory;
+    private final long intervalSeconds;
+    private final int retain;
+    private final boolean restoreHistory;
+    private final Timer durationTimer;
+    private final DistributionSummary sizeSummary;
+    private final MeterRegistry registry;
+
+    // 当前折叠到的位置，只在snapshotLock内访问
+    private final ReentrantLock snapshotLock = new ReentrantLock();
+    private Map<String, BigDecimal> balances = new HashMap<>();
+    private long cutLsn;
+    private long nextId = 1;
+    // 最新快照文件中的交易历史覆盖到的位置，0表示还没有带历史的快照，需要从日志开头补齐
+    private long historyLsn;
+    private volatile long lastCutLsn;
+    private ScheduledExecutorService scheduler;
+
+    public BalanceSnapshotter(TransactionJournal journal,
+                              @Value("${bank.snapshot.dir:./data/snapshots}") String directory,
+                              @Value("${bank.snapshot.interval-seconds:300}") long intervalSeconds,
+                              @Value("${bank.snapshot.retain:2}") int retain,
+                              @Value("${bank.snapshot.restore-history:true}") boolean restoreHistory,
+                              MeterRegistry registry) throws IOException {
+        this.journal = journal;
+        this.directory = Paths.get(directory);
+        this.intervalSeconds = intervalSeconds;
+        this.retain = Math.max(1, retain);
+        this.restoreHistory = restoreHistory;
+        Files.createDirectories(this.directory);
+        this.durationTimer = Timer.builder("bank.snapshot.duration")
+                .description("Time to fold the journal tail and write a balance snapshot")
+                .register(registry);
+        this.sizeSummary = DistributionSummary.builder("bank.snapshot.size")
+                .baseUnit("bytes")
+                .description("Size of written balance snapshots")
+                .register(registry);
+        this.registry = registry;
+    }
+
+    // 构造完成后再把自身交给gauge，避免构造函数中泄漏this
+    @PostConstruct
+    void registerGauges() {
+        registry.gauge("bank.snapshot.lsn", this, s -> s.lastCutLsn);
+    }
+
+    /**
+     * 恢复时是否还要把快照之前的交易历史加载进内存
+     */
+    public boolean isRestoreHistory() {
+        return restoreHistory;
+    }
+
+    /**
+     * 读取最新的有效快照，损坏的文件会被跳过
+     */
+    public Optional<BalanceSnapshot> loadLatest() {
+        for (Path path : listSnapshots()) {
+            try {
+                return Optional.of(read(path, null));
+            } catch (IOException | RuntimeException e) {
+                logger.warn("Ignoring unreadable snapshot {}: {}", path, e.getMessage());
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * 读取快照文件中的交易历史（修改已合并）；快照不带历史或文件已不可读时为空
+     */
+    public Optional<List<Transaction>> loadHistory(BalanceSnapshot snapshot) {
+        if (snapshot.historyLsn() == 0) {
+            return Optional.empty();
+        }
+        Path path = pathOf(snapshot.historyLsn());
+        List<Transaction> history = new ArrayList<>();
+        try {
+            read(path, history::add);
+            return Optional.of(history);
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Ignoring history of unreadable snapshot {}: {}", path, e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * 由恢复流程在回放结束后调用，以恢复后的状态作为后续快照的起点并启动定时任务
+     */
+    public void start(BalanceSnapshot base) {
+        snapshotLock.lock();
+        try {
+            this.balances = new HashMap<>(base.balances());
+            this.cutLsn = base.cutLsn();
+            this.nextId = base.nextId();
+            this.historyLsn = restoreHistory ? base.historyLsn() : 0;
+            this.lastCutLsn = base.cutLsn();
+        } finally {
+            snapshotLock.unlock();
+        }
+        if (intervalSeconds > 0 && scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "balance-snapshotter");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.scheduleWithFixedDelay(this::snapshotQuietly, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    private void snapshotQuietly() {
+        try {
+            takeSnapshot();
+        } catch (RuntimeException e) {
+            logger.error("Balance snapshot failed: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 折叠上次快照之后的日志并写出新快照；没有新记录时不写文件
+     *
+     * @return 写出的快照，没有新记录时为空
+     */
+    public Optional<BalanceSnapshot> takeSnapshot() {
+        snapshotLock.lock();
+        try {
+            if (journal.getWrittenLsn() == cutLsn) {
+                return Optional.empty();
+            }
+            long start = System.nanoTime();
+            Map<String, BigDecimal> deltas = new HashMap<>();
+            // 上一份历史之后新增的交易，以及对更早交易的修改
+            Map<Long, Transaction> added = new LinkedHashMap<>();
+            Map<Long, Transaction> updates = new HashMap<>();
+            long balanceLsn = cutLsn;
+            long[] position = {cutLsn, nextId};
+            // 历史可能比余额落后（重启后从旧快照续写，或还没有带历史的快照），从历史的位置开始读
+            journal.replay(restoreHistory ? historyLsn : cutLsn, record -> {
+                position[0] = record.endLsn();
+                Transaction transaction = record.transaction();
+                if (record.kind() == JournalRecord.Kind.SAVE) {
+                    // 余额起点之前的交易已经计入余额，只补进历史
+                    if (record.endLsn() > balanceLsn) {
+                        JournalRecovery.accumulate(deltas, transaction);
+                    }
+                    position[1] = Math.max(position[1], transaction.getId() + 1);
+                    if (restoreHistory) {
+                        added.put(transaction.getId(), transaction);
+                    }
+                } else if (restoreHistory) {
+                    Transaction existing = added.get(transaction.getId());
+                    if (existing != null) {
+                        JournalRecovery.applyUpdate(existing, transaction);
+                    } else {
+                        updates.put(transaction.getId(), transaction);
+                    }
+                }
+            });
+            deltas.forEach((account, delta) -> balances.merge(account, delta, BigDecimal::add));
+            cutLsn = position[0];
+            nextId = position[1];
+
+            BalanceSnapshot snapshot = new BalanceSnapshot(cutLsn, nextId, Map.copyOf(balances),
+                    restoreHistory ? cutLsn : 0);
+            long bytes = write(snapshot, added.values(), updates);
+            historyLsn = snapshot.historyLsn();
+            long nanos = System.nanoTime() - start;
+            durationTimer.record(nanos, TimeUnit.NANOSECONDS);
+            sizeSummary.record(bytes);
+            lastCutLsn = cutLsn;
+            logger.info("Balance snapshot at lsn {} ({} accounts, {} bytes) written in {} ms",
+                    cutLsn, balances.size(), bytes, nanos / 1_000_000);
+            prune();
+            return Optional.of(snapshot);
+        } finally {
+            snapshotLock.unlock();
+        }
+    }
+
+    private List<Path> listSnapshots() {
+        try (Stream<Path> files = Files.list(directory)) {
+            // 文件名是定长十六进制的lsn，倒序即最新在前
+            return files.filter(p -> p.getFileName().toString().endsWith(SUFFIX))
+                    .sorted(Comparator.comparing((Path p) -> p.getFileName().toString()).reversed())
+                    .toList();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to list snapshots in " + directory, e);
+        }
+    }
+
+    private void prune() {
+        List<Path> snapshots = listSnapshots();
+        for (int i = retain; i < snapshots.size(); i++) {
+            try {
+                Files.deleteIfExists(snapshots.get(i));
+            } catch (IOException e) {
+                logger.warn("Failed to delete old snapshot {}: {}", snapshots.get(i), e.getMessage());
+            }
+        }
+    }
+
+    private Path pathOf(long lsn) {
+        return directory.resolve(String.format("%016x%s", lsn, SUFFIX));
+    }
+
+    // 快照文件中的一笔交易，复用日志记录的负载编码
+    private static void writeTransaction(DataOutputStream out, Transaction transaction) throws IOException {
+        JournalCodec.Encoded encoded = new JournalCodec.Encoded(JournalRecord.Kind.SAVE, transaction);
+        ByteBuffer buffer = ByteBuffer.allocate(encoded.payloadSize);
+        JournalCodec.encode(buffer, encoded);
+        out.writeInt(encoded.payloadSize);
+        out.write(buffer.array());
+    }
+
+    // 带历史时先顺序拷贝上一个快照的历史（合并期间的修改），再追加新增的交易
+    private void writeHistory(DataOutputStream out, Collection<Transaction> added, Map<Long, Transaction> updates)
+            throws IOException {
+        if (historyLsn > 0) {
+            Path previous = pathOf(historyLsn);
+            try {
+                read(previous, transaction -> {
+                    Transaction update = updates.get(transaction.getId());
+                    if (update != null) {
+                        JournalRecovery.applyUpdate(transaction, update);
+                    }
+                    writeTransaction(out, transaction);
+                });
+            } catch (IOException | RuntimeException e) {
+                // 下一次从日志开头重建历史
+                historyLsn = 0;
+                throw new IOException("Failed to copy history from " + previous, e);
+            }
+        }
+        for (Transaction transaction : added) {
+            writeTransaction(out, transaction);
+        }
+        out.writeInt(-1);
+    }
+
+    private long write(BalanceSnapshot snapshot, Collection<Transaction> added, Map<Long, Transaction> updates) {
+        Path target = pathOf(snapshot.cutLsn());
+        Path temp = directory.resolve(target.getFileName() + ".tmp");
+        try {
+            CRC32 crc = new CRC32();
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                OutputStream file = new BufferedOutputStream(Channels.newOutputStream(channel));
+                DataOutputStream out = new DataOutputStream(new CheckedOutputStream(file, crc));
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(snapshot.cutLsn());
+                out.writeLong(snapshot.nextId());
+                out.writeInt(snapshot.balances().size());
+                for (Map.Entry<String, BigDecimal> entry : snapshot.balances().entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    byte[] unscaled = entry.getValue().unscaledValue().toByteArray();
+                    out.writeInt(entry.getValue().scale());
+                    out.writeShort(unscaled.length);
+                    out.write(unscaled);
+                }
+                out.writeBoolean(snapshot.historyLsn() > 0);
+                if (snapshot.historyLsn() > 0) {
+                    writeHistory(out, added, updates);
+                }
+                out.flush();
+                // 校验和写在末尾，不参与自身的计算
+                new DataOutputStream(file).writeLong(crc.getValue());
+                file.flush();
+                channel.force(true);
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return Files.size(target);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to write snapshot " + target, e);
+        }
+    }
+
+    // 读取快照时交给调用方的交易历史
+    private interface HistoryReader {
+        void accept(Transaction transaction) throws IOException;
+    }
+
+    /**
+     * 读取并校验快照文件；history为null时只校验、不解码交易历史。
+     * 校验和在文件末尾，history收到的交易要等返回后才算有效。
+     */
+    private static BalanceSnapshot read(Path path, HistoryReader history) throws IOException {
+        CRC32 crc = new CRC32();
+        try (BufferedInputStream raw = new BufferedInputStream(Files.newInputStream(path));
+             DataInputStream in = new DataInputStream(new CheckedInputStream(raw, crc))) {
+            int version = in.readInt() == MAGIC ? in.readInt() : -1;
+            if (version != VERSION && version != VERSION_WITHOUT_HISTORY) {
+                throw new IOException("Unknown snapshot format");
+            }
+            long cutLsn = in.readLong();
+            long nextId = in.readLong();
+            int count = in.readInt();
+            Map<String, BigDecimal> balances = new HashMap<>(count * 2);
+            for (int i = 0; i < count; i++) {
+                String accountNumber = in.readUTF();
+                int scale = in.readInt();
+                byte[] unscaled = new byte[in.readShort()];
+                in.readFully(unscaled);
+                balances.put(accountNumber, new BigDecimal(new BigInteger(unscaled), scale));
+            }
+            long historyLsn = 0;
+            if (version == VERSION && in.readBoolean()) {
+                historyLsn = cutLsn;
+                for (int length = in.readInt(); length >= 0; length = in.readInt()) {
+                    byte[] payload = new byte[length];
+                    in.readFully(payload);
+                    if (history != null) {
+                        history.accept(JournalCodec.decode(ByteBuffer.wrap(payload), 0).transaction());
+                    }
+                }
+            }
+            long expected = crc.getValue();
+            if (new DataInputStream(raw).readLong() != expected) {
+                throw new IOException("Snapshot checksum mismatch");
+            }
+            return new BalanceSnapshot(cutLsn, nextId, balances, historyLsn);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    // 供测试使用：列出当前快照文件
+    List<Path> snapshotFiles() {
+        return new ArrayList<>(listSnapshots());
+    }
+}
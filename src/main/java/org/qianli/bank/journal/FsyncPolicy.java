@@ -0,0 +1,10 @@
+package org.qianli.bank.journal;
+
+/**
+ * 日志刷盘策略
+ */
+public enum FsyncPolicy {
+    EVERY_WRITE, // 每条记录写入后立即force，最安全也最慢
+    GROUP,       // 组提交：后台线程每N微秒force一次，写入方等到覆盖自己记录的那次force后才返回
+    ASYNC        // 后台定期force，写入方不等待，宕机可能丢失最近一个周期内的记录
+}
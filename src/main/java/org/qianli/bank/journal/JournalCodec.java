@@ -0,0 +1,131 @@
+package org.qianli.bank.journal;
+
+import org.qianli.bank.model.Transaction;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * 日志记录的二进制编码。
+ * <pre>
+ * 记录头: int 负载长度 | int 负载CRC32
+ * 负载:   byte kind | long id | byte type(-1为空) | int scale | short 非标度值长度 | 非标度值字节
+ *         | byte 有无时间 [| long epochSecond | int nano] | 字符串 from | to | description | modifyFlg
+ * 字符串: int 字节数(-1为null) | UTF-8字节
+ * </pre>
+ */
+final class JournalCodec {
+    static final int HEADER_SIZE = 8;
+    private static final Transaction.Type[] TYPES = Transaction.Type.values();
+    private static final JournalRecord.Kind[] KINDS = JournalRecord.Kind.values();
+
+    private JournalCodec() {
+    }
+
+    /**
+     * 预先编码好的变长字段，用于先算出记录长度再写入映射缓冲区
+     */
+    static final class Encoded {
+        final JournalRecord.Kind kind;
+        final Transaction transaction;
+        final byte[] unscaled;
+        final byte[] from;
+        final byte[] to;
+        final byte[] description;
+        final byte[] modifyFlg;
+        final int payloadSize;
+
+        Encoded(JournalRecord.Kind kind, Transaction transaction) {
+            this.kind = kind;
+            this.transaction = transaction;
+            BigDecimal amount = transaction.getAmount();
+            this.unscaled = amount == null ? new byte[0] : amount.unscaledValue().toByteArray();
+            this.from = utf8(transaction.getFromAccountNumber());
+            this.to = utf8(transaction.getToAccountNumber());
+            this.description = utf8(transaction.getDescription());
+            this.modifyFlg = utf8(transaction.getModifyFlg());
+            this.payloadSize = 1 + 8 + 1 + 4 + 2 + unscaled.length
+                    + 1 + (transaction.getTimestamp() == null ? 0 : 12)
+                    + sizeOf(from) + sizeOf(to) + sizeOf(description) + sizeOf(modifyFlg);
+        }
+
+        int recordSize() {
+            return HEADER_SIZE + payloadSize;
+        }
+    }
+
+    private static byte[] utf8(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int sizeOf(byte[] bytes) {
+        return 4 + (bytes == null ? 0 : bytes.length);
+    }
+
+    static void encode(ByteBuffer buffer, Encoded encoded) {
+        Transaction t = encoded.transaction;
+        buffer.put((byte) encoded.kind.ordinal());
+        buffer.putLong(t.getId() == null ? 0L : t.getId());
+        buffer.put(t.getType() == null ? (byte) -1 : (byte) t.getType().ordinal());
+        buffer.putInt(t.getAmount() == null ? 0 : t.getAmount().scale());
+        buffer.putShort((short) encoded.unscaled.length);
+        buffer.put(encoded.unscaled);
+        LocalDateTime timestamp = t.getTimestamp();
+        if (timestamp == null) {
+            buffer.put((byte) 0);
+        } else {
+            buffer.put((byte) 1);
+            buffer.putLong(timestamp.toEpochSecond(ZoneOffset.UTC));
+            buffer.putInt(timestamp.getNano());
+        }
+        putString(buffer, encoded.from);
+        putString(buffer, encoded.to);
+        putString(buffer, encoded.description);
+        putString(buffer, encoded.modifyFlg);
+    }
+
+    private static void putString(ByteBuffer buffer, byte[] bytes) {
+        if (bytes == null) {
+            buffer.putInt(-1);
+        } else {
+            buffer.putInt(bytes.length);
+            buffer.put(bytes);
+        }
+    }
+
+    static JournalRecord decode(ByteBuffer buffer, long endLsn) {
+        JournalRecord.Kind kind = KINDS[buffer.get()];
+        Transaction t = new Transaction();
+        t.setId(buffer.getLong());
+        byte type = buffer.get();
+        t.setType(type < 0 ? null : TYPES[type]);
+        int scale = buffer.getInt();
+        byte[] unscaled = new byte[buffer.getShort()];
+        buffer.get(unscaled);
+        t.setAmount(unscaled.length == 0 ? null : new BigDecimal(new BigInteger(unscaled), scale));
+        if (buffer.get() == 1) {
+            long epochSecond = buffer.getLong();
+            int nano = buffer.getInt();
+            t.setTimestamp(LocalDateTime.ofEpochSecond(epochSecond, nano, ZoneOffset.UTC));
+        }
+        t.setFromAccountNumber(getString(buffer));
+        t.setToAccountNumber(getString(buffer));
+        t.setDescription(getString(buffer));
+        t.setModifyFlg(getString(buffer));
+        return new JournalRecord(kind, t, endLsn);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,18 @@
+package org.qianli.bank.journal;
+
+import org.qianli.bank.model.Transaction;
+
+/**
+ * 日志中的一条记录
+ *
+ * @param kind        记录类型
+ * @param transaction 记录时的交易内容
+ * @param endLsn      记录结束位置（全局字节偏移），从该位置继续回放即可跳过本条
+ */
+public record JournalRecord(Kind kind, Transaction transaction, long endLsn) {
+
+    public enum Kind {
+        SAVE,   // 新交易入账
+        UPDATE  // 已有交易被修改（modifyFlg等）
+    }
+}
@@ -0,0 +1,219 @@
+package org.qianli.bank.journal;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import jakarta.annotation.PostConstruct;
+import org.qianli.bank.model.Account;
+import org.qianli.bank.model.Transaction;
+import org.qianli.bank.repository.AccountRepository;
+import org.qianli.bank.repository.TransactionRepository;
+import org.qianli.bank.service.TransactionListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 启动时回放日志，重建交易仓库（含索引）和账户余额。
+ * 在Bean初始化阶段执行，早于Web服务开始接收请求。
+ * <p>
+ * 余额按账户累加日志中每笔交易的净额，再叠加到初始余额上；累加与顺序无关，
+ * 所以并发写入导致的日志顺序与id顺序不一致不会影响结果。
+ * <p>
+ * 开启快照时先加载最新快照作为余额起点，只回放快照位置之后的日志；
+ * 快照之前的交易历史默认从快照文件中加载（修改已经合并），不再解码快照之前的日志，
+ * 快照不带历史（如restore-history曾关闭）时才退回从头回放。
+ * {@code bank.snapshot.restore-history=false}时只加载快照之后的交易，并在恢复前通过onHistoryTruncated告知监听器历史不完整。
+ */
+@Component
+@ConditionalOnProperty(name = "bank.journal.enabled", havingValue = "true")
+public class JournalRecovery {
+    private static final Logger logger = LoggerFactory.getLogger(JournalRecovery.class);
+
+    private final TransactionJournal journal;
+    private final TransactionRepository transactionRepository;
+    private final AccountRepository accountRepository;
+    private final BalanceSnapshotter snapshotter;
+    private final MeterRegistry registry;
+    private final List<TransactionListener> listeners;
+
+    private long recoveredRecords;
+    private long recoveryMillis;
+
+    @Autowired
+    public JournalRecovery(TransactionJournal journal, TransactionRepository transactionRepository,
+                           AccountRepository accountRepository, ObjectProvider<BalanceSnapshotter> snapshotter,
+                           ObjectProvider<MeterRegistry> registry, ObjectProvider<TransactionListener> listeners) {
+        this(journal, transactionRepository, accountRepository, snapshotter.getIfAvailable(), registry.getIfAvailable(),
+                listeners.orderedStream().toList());
+    }
+
+    /**
+     * 手工组装（测试、基准测试）用，不注册指标、不通知监听器；snapshotter可以为null
+     */
+    public JournalRecovery(TransactionJournal journal, TransactionRepository transactionRepository,
+                           AccountRepository accountRepository, BalanceSnapshotter snapshotter) {
+        this(journal, transactionRepository, accountRepository, snapshotter, null, List.of());
+    }
+
+    // 测试用：不注册指标，但通知给定的监听器
+    JournalRecovery(TransactionJournal journal, TransactionRepository transactionRepository,
+                    AccountRepository accountRepository, BalanceSnapshotter snapshotter, MeterRegistry registry,
+                    List<TransactionListener> listeners) {
+        this.journal = journal;
+        this.transactionRepository = transactionRepository;
+        this.accountRepository = accountRepository;
+        this.snapshotter = snapshotter;
+        this.registry = registry;
+        this.listeners = listeners;
+    }
+
+    @PostConstruct
+    public void recover() {
+        long start = System.nanoTime();
+        Optional<BalanceSnapshot> snapshot = snapshotter == null ? Optional.empty() : snapshotter.loadLatest();
+        long cutLsn = snapshot.map(BalanceSnapshot::cutLsn).orElse(0L);
+        boolean restoreHistory = snapshotter != null && snapshotter.isRestoreHistory();
+        List<Transaction> history = restoreHistory ? snapshot.flatMap(snapshotter::loadHistory).orElse(null) : null;
+        // 需要历史但快照里没有时才从头回放
+        long fromLsn = restoreHistory && history == null ? 0 : cutLsn;
+        Map<Long, Transaction> transactions = new HashMap<>();
+        if (history != null) {
+            history.forEach(transaction -> transactions.put(transaction.getId(), transaction));
+        }
+        List<Transaction> updates = new ArrayList<>();
+        Map<String, BigDecimal> deltas = new HashMap<>();
+        long[] records = new long[1];
+
+        journal.replay(fromLsn, record -> {
+            records[0]++;
+            Transaction transaction = record.transaction();
+            if (record.kind() == JournalRecord.Kind.SAVE) {
+                transactions.put(transaction.getId(), transaction);
+                // 快照之前的交易已经计入快照余额
+                if (record.endLsn() > cutLsn) {
+                    accumulate(deltas, transaction);
+                }
+            } else {
+                updates.add(transaction);
+            }
+        });
+
+        // 修改记录只改交易本身，余额变动已经体现在对应的补偿交易中
+        for (Transaction update : updates) {
+            Transaction existing = transactions.get(update.getId());
+            if (existing != null) {
+                applyUpdate(existing, update);
+            }
+        }
+
+        List<Transaction> ordered = new ArrayList<>(transactions.values());
+        ordered.sort(Comparator.comparing(Transaction::getId));
+        long nextId = snapshot.map(BalanceSnapshot::nextId).orElse(1L);
+        transactionRepository.restoreAll(ordered, nextId);
+        // 统计等派生数据随恢复的交易一起重建；快照之前的交易没有加载时先告知监听器
+        for (TransactionListener listener : listeners) {
+            if (fromLsn > 0 && history == null) {
+                listener.onHistoryTruncated();
+            }
+            ordered.forEach(listener::onRestored);
+        }
+        snapshot.ifPresent(s -> applySnapshot(s.balances()));
+        applyBalances(deltas);
+
+        recoveredRecords = records[0];
+        recoveryMillis = (System.nanoTime() - start) / 1_000_000;
+        long perSecond = recoveryMillis == 0 ? recoveredRecords * 1000 : recoveredRecords * 1000 / recoveryMillis;
+        logger.info("Journal recovery from lsn {} (snapshot at {}) replayed {} records ({} transactions, {} accounts) in {} ms, {} records/s",
+                fromLsn, cutLsn, recoveredRecords, ordered.size(), deltas.size(), recoveryMillis, perSecond);
+        if (registry != null) {
+            TimeGauge.builder("bank.recovery.duration", this, TimeUnit.MILLISECONDS, JournalRecovery::getRecoveryMillis)
+                    .description("Time spent replaying the journal at startup")
+                    .register(registry);
+            Gauge.builder("bank.recovery.records", this, JournalRecovery::getRecoveredRecords)
+                    .description("Journal records replayed at startup")
+                    .register(registry);
+        }
+
+        if (snapshotter != null) {
+            // 以恢复后的余额作为后续快照的起点
+            Map<String, BigDecimal> balances = new HashMap<>();
+            for (Account account : accountRepository.findAll()) {
+                balances.put(account.getAccountNumber(), account.getBalance());
+            }
+            long next = ordered.isEmpty() ? nextId : Math.max(nextId, ordered.get(ordered.size() - 1).getId() + 1);
+            // 已有带历史的快照时，后续快照在它的基础上续写历史
+            snapshotter.start(new BalanceSnapshot(journal.getWrittenLsn(), next, balances, history == null ? 0 : cutLsn));
+        }
+    }
+
+    /**
+     * 把一笔交易对各账户余额的影响累加到deltas中
+     */
+    static void accumulate(Map<String, BigDecimal> deltas, Transaction transaction) {
+        BigDecimal amount = transaction.getAmount();
+        if (amount == null || transaction.getType() == null) {
+            return;
+        }
+        switch (transaction.getType()) {
+            case DEPOSIT -> deltas.merge(transaction.getToAccountNumber(), amount, BigDecimal::add);
+            case WITHDRAWAL -> deltas.merge(transaction.getFromAccountNumber(), amount.negate(), BigDecimal::add);
+            case TRANSFER -> {
+                deltas.merge(transaction.getFromAccountNumber(), amount.negate(), BigDecimal::add);
+                deltas.merge(transaction.getToAccountNumber(), amount, BigDecimal::add);
+            }
+            default -> {
+            }
+        }
+    }
+
+    /**
+     * 把修改记录中的字段写回交易本身
+     */
+    static void applyUpdate(Transaction existing, Transaction update) {
+        existing.setType(update.getType());
+        existing.setAmount(update.getAmount());
+        existing.setDescription(update.getDescription());
+        existing.setModifyFlg(update.getModifyFlg());
+    }
+
+    private void applySnapshot(Map<String, BigDecimal> balances) {
+        balances.forEach((accountNumber, balance) -> accountRepository.findByAccountNumber(accountNumber)
+                .ifPresentOrElse(account -> {
+                    account.setBalance(balance);
+                    accountRepository.update(account);
+                }, () -> logger.warn("Snapshot references unknown account {}, skipping", accountNumber)));
+    }
+
+    private void applyBalances(Map<String, BigDecimal> deltas) {
+        deltas.forEach((accountNumber, delta) -> {
+            Account account = accountNumber == null ? null : accountRepository.findByAccountNumber(accountNumber).orElse(null);
+            if (account == null) {
+                logger.warn("Journal references unknown account {}, skipping balance delta {}", accountNumber, delta);
+                return;
+            }
+            account.setBalance(account.getBalance().add(delta));
+            accountRepository.update(account);
+        });
+    }
+
+    public long getRecoveredRecords() {
+        return recoveredRecords;
+    }
+
+    public long getRecoveryMillis() {
+        return recoveryMillis;
+    }
+}
@@ -0,0 +1,334 @@
+package org.qianli.bank.journal;
+
+import jakarta.annotation.PreDestroy;
+import org.qianli.bank.model.Transaction;
+import org.qianli.bank.service.TransactionListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * 交易预写日志。
+ * <p>
+ * 每条已提交的交易以二进制记录追加到预分配的定长分段文件中，分段通过MappedByteBuffer写入。
+ * 全局位置（LSN）= 分段序号 * 分段大小 + 段内偏移。记录头的长度字段最后写入，
+ * 长度为0即表示分段内已无数据；启动时扫描最后一个分段，CRC不符的残缺尾部会被清零。
+ */
+@Component
+@ConditionalOnProperty(name = "bank.journal.enabled", havingValue = "true")
+public class TransactionJournal implements TransactionListener {
+    private static final Logger logger = LoggerFactory.getLogger(TransactionJournal.class);
+
+    private final Path directory;
+    private final int segmentSize;
+    private final FsyncPolicy fsyncPolicy;
+    private final long flushIntervalNanos;
+
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private int segmentIndex;
+    private MappedByteBuffer segment;
+    // 已写入（对读取方可见）的位置
+    private volatile long writtenLsn;
+
+    // 组提交：后台线程刷盘后唤醒等待者
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final Condition flushedCondition = flushLock.newCondition();
+    private volatile long flushedLsn;
+    private volatile boolean running = true;
+    private final Thread flusher;
+
+    public TransactionJournal(@Value("${bank.journal.dir:./data/journal}") String directory,
+                              @Value("${bank.journal.segment-size:67108864}") int segmentSize,
+                              @Value("${bank.journal.fsync:GROUP}") FsyncPolicy fsyncPolicy,
+                              @Value("${bank.journal.group-commit-micros:1000}") long groupCommitMicros) throws IOException {
+        this.directory = Paths.get(directory);
+        this.segmentSize = segmentSize;
+        this.fsyncPolicy = fsyncPolicy;
+        this.flushIntervalNanos = TimeUnit.MICROSECONDS.toNanos(Math.max(1, groupCommitMicros));
+        Files.createDirectories(this.directory);
+        open();
+        if (fsyncPolicy == FsyncPolicy.EVERY_WRITE) {
+            this.flusher = null;
+        } else {
+            this.flusher = new Thread(this::flushLoop, "journal-flusher");
+            this.flusher.setDaemon(true);
+            this.flusher.start();
+        }
+        logger.info("Journal opened at {} (segment {}, position {}, fsync {})",
+                this.directory.toAbsolutePath(), segmentIndex, writtenLsn, fsyncPolicy);
+    }
+
+    private Path segmentPath(int index) {
+        return directory.resolve(String.format("%08d.journal", index));
+    }
+
+    // 定位到最后一个分段的末尾
+    private void open() throws IOException {
+        int index = 0;
+        while (Files.exists(segmentPath(index + 1))) {
+            index++;
+        }
+        segmentIndex = index;
+        segment = map(index);
+        int end = scan(segment, 0, segmentSize, null, (long) index * segmentSize);
+        if (end + JournalCodec.HEADER_SIZE <= segmentSize && segment.getInt(end) != 0) {
+            // 宕机时写了一半的记录，清零残缺部分
+            logger.warn("Truncating torn journal tail in segment {} at offset {}", index, end);
+            for (int i = end; i < segmentSize; i++) {
+                segment.put(i, (byte) 0);
+            }
+            segment.force();
+        }
+        segment.position(end);
+        writtenLsn = (long) index * segmentSize + end;
+        flushedLsn = writtenLsn;
+    }
+
+    private MappedByteBuffer map(int index) throws IOException {
+        try (FileChannel channel = FileChannel.open(segmentPath(index),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        }
+    }
+
+    /**
+     * 从offset开始顺序解码，直到遇到空记录、越界或CRC不符；返回最后一条有效记录的结束偏移
+     */
+    private int scan(ByteBuffer buffer, int offset, int limit, Consumer<JournalRecord> consumer, long baseLsn) {
+        CRC32 crc = new CRC32();
+        while (offset + JournalCodec.HEADER_SIZE <= limit) {
+            int length = buffer.getInt(offset);
+            if (length <= 0 || offset + JournalCodec.HEADER_SIZE + length > limit) {
+                break;
+            }
+            ByteBuffer payload = buffer.slice(offset + JournalCodec.HEADER_SIZE, length);
+            crc.reset();
+            crc.update(payload.duplicate());
+            if ((int) crc.getValue() != buffer.getInt(offset + 4)) {
+                break;
+            }
+            offset += JournalCodec.HEADER_SIZE + length;
+            if (consumer != null) {
+                consumer.accept(JournalCodec.decode(payload, baseLsn + offset));
+            }
+        }
+        return offset;
+    }
+
+    @Override
+    public void onSaved(Transaction transaction) {
+        append(JournalRecord.Kind.SAVE, transaction);
+    }
+
+    /**
+     * 整批记录连续写入，组提交模式下只等待最后一条落盘，一批只等一次刷盘
+     */
+    @Override
+    public void onSavedAll(List<Transaction> transactions) {
+        appendAll(JournalRecord.Kind.SAVE, transactions);
+    }
+
+    @Override
+    public void onUpdated(Transaction transaction) {
+        append(JournalRecord.Kind.UPDATE, transaction);
+    }
+
+    /**
+     * 追加一条记录，按刷盘策略决定是否等待落盘
+     *
+     * @return 记录结束位置
+     */
+    public long append(JournalRecord.Kind kind, Transaction transaction) {
+        return appendAll(kind, List.of(transaction));
+    }
+
+    /**
+     * 在一次加锁内连续追加多条记录，EVERY_WRITE只在最后同步一次，GROUP只等待最后一条记录落盘
+     *
+     * @return 最后一条记录的结束位置
+     */
+    public long appendAll(JournalRecord.Kind kind, List<Transaction> transactions) {
+        if (transactions.isEmpty()) {
+            return writtenLsn;
+        }
+        // 负载序列化和大小检查在锁外完成
+        List<JournalCodec.Encoded> records = new ArrayList<>(transactions.size());
+        for (Transaction transaction : transactions) {
+            JournalCodec.Encoded encoded = new JournalCodec.Encoded(kind, transaction);
+            int recordSize = encoded.recordSize();
+            if (recordSize > segmentSize) {
+                throw new IllegalArgumentException("Journal record too large: " + recordSize + " bytes");
+            }
+            records.add(encoded);
+        }
+
+        long lsn;
+        appendLock.lock();
+        try {
+            lsn = writtenLsn;
+            CRC32 crc = new CRC32();
+            for (JournalCodec.Encoded encoded : records) {
+                lsn = write(encoded, crc);
+            }
+            if (fsyncPolicy == FsyncPolicy.EVERY_WRITE) {
+                segment.force();
+                flushedLsn = lsn;
+            }
+        } finally {
+            appendLock.unlock();
+        }
+
+        if (fsyncPolicy == FsyncPolicy.GROUP) {
+            awaitFlushed(lsn);
+        }
+        return lsn;
+    }
+
+    // 持有appendLock时调用：写入一条记录并推进已写入位置，返回记录结束位置
+    private long write(JournalCodec.Encoded encoded, CRC32 crc) {
+        if (segment.remaining() < encoded.recordSize()) {
+            roll();
+        }
+        int start = segment.position();
+        segment.position(start + JournalCodec.HEADER_SIZE);
+        JournalCodec.encode(segment, encoded);
+        crc.reset();
+        crc.update(segment.slice(start + JournalCodec.HEADER_SIZE, encoded.payloadSize));
+        // 长度最后写，读到非0长度时负载一定已经写完
+        segment.putInt(start + 4, (int) crc.getValue());
+        segment.putInt(start, encoded.payloadSize);
+        long lsn = (long) segmentIndex * segmentSize + segment.position();
+        writtenLsn = lsn;
+        return lsn;
+    }
+
+    // 当前分段写满：先落盘再切换到下一个预分配分段
+    private void roll() {
+        segment.force();
+        try {
+            segment = map(segmentIndex + 1);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to allocate journal segment " + (segmentIndex + 1), e);
+        }
+        segmentIndex++;
+        writtenLsn = (long) segmentIndex * segmentSize;
+    }
+
+    private void awaitFlushed(long lsn) {
+        if (flushedLsn >= lsn) {
+            return;
+        }
+        flushLock.lock();
+        try {
+            while (flushedLsn < lsn && running) {
+                flushedCondition.awaitUninterruptibly();
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private void flushLoop() {
+        while (running) {
+            LockSupport.parkNanos(flushIntervalNanos);
+            flush();
+        }
+        flush();
+    }
+
+    private void flush() {
+        long target = writtenLsn;
+        if (target <= flushedLsn) {
+            return;
+        }
+        // 切换分段时旧分段已经同步落盘，这里只需要刷当前分段
+        MappedByteBuffer current;
+        appendLock.lock();
+        try {
+            current = segment;
+            target = writtenLsn;
+        } finally {
+            appendLock.unlock();
+        }
+        current.force();
+        flushLock.lock();
+        try {
+            flushedLsn = target;
+            flushedCondition.signalAll();
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * 从fromLsn开始按写入顺序回放到当前已写入位置
+     */
+    public void replay(long fromLsn, Consumer<JournalRecord> consumer) {
+        long endLsn = writtenLsn;
+        int lastIndex = (int) (endLsn / segmentSize);
+        for (int index = (int) (fromLsn / segmentSize); index <= lastIndex; index++) {
+            Path path = segmentPath(index);
+            if (!Files.exists(path)) {
+                break;
+            }
+            int from = index == fromLsn / segmentSize ? (int) (fromLsn % segmentSize) : 0;
+            int limit = index == lastIndex ? (int) (endLsn % segmentSize) : segmentSize;
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, segmentSize);
+                scan(buffer, from, limit, consumer, (long) index * segmentSize);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to read journal segment " + index, e);
+            }
+        }
+    }
+
+    public long getWrittenLsn() {
+        return writtenLsn;
+    }
+
+    public FsyncPolicy getFsyncPolicy() {
+        return fsyncPolicy;
+    }
+
+    @PreDestroy
+    public void close() throws InterruptedException {
+        running = false;
+        if (flusher != null) {
+            LockSupport.unpark(flusher);
+            flusher.join(TimeUnit.SECONDS.toMillis(5));
+        }
+        appendLock.lock();
+        try {
+            segment.force();
+            flushedLsn = writtenLsn;
+        } finally {
+            appendLock.unlock();
+        }
+        flushLock.lock();
+        try {
+            flushedCondition.signalAll();
+        } finally {
+            flushLock.unlock();
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package org.qianli.bank.model;
+
+import lombok.Data;
+
+/**
+ * 批量提交中单条交易的处理结果
+ */
+@Data
+public class BatchItemResult {
+
+    public enum Status {
+        CREATED,  // 已记账
+        REJECTED  // 被拒绝，见error
+    }
+
+    // 在请求中的下标，从0开始
+    private int index;
+    private Status status;
+    private Transaction transaction;
+    private String error;
+
+    public static BatchItemResult created(int index, Transaction transaction) {
+        BatchItemResult result = new BatchItemResult();
+        result.index = index;
+        result.status = Status.CREATED;
+        result.transaction = transaction;
+        return result;
+    }
+
+    public static BatchItemResult rejected(int index, String error) {
+        BatchItemResult result = new BatchItemResult();
+        result.index = index;
+        result.status = Status.REJECTED;
+        result.error = error;
+        return result;
+    }
+}
@@ -0,0 +1,28 @@
+package org.qianli.bank.model;
+
+import lombok.Data;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+/**
+ * 多腿转账请求：从一个转出账户一次扣款，分别转入多个账户（代发工资、清算等）
+ */
+@Data
+public class MultiLegTransfer {
+
+    /**
+     * 一条转入腿，记为一笔转账交易
+     */
+    @Data
+    public static class Leg {
+        private String toAccountNumber;
+        private BigDecimal amount;
+        // 为空时使用请求的description
+        private String description;
+    }
+
+    private String fromAccountNumber;
+    private String description;
+    private List<Leg> legs;
+}
@@ -0,0 +1,66 @@
+package org.qianli.bank.model;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.Data;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+/**
+ * 预约交易：在executeAt执行一次，或从executeAt起每隔intervalSeconds秒执行一次（定期转账）
+ */
+@Data
+public class ScheduledTransfer {
+
+    public enum Status {
+        SCHEDULED,  // 等待执行
+        COMPLETED,  // 一次性预约已执行
+        FAILED,     // 一次性预约执行失败，见lastError
+        CANCELLED   // 已取消
+    }
+
+    private Long id;
+    private Transaction.Type type;
+    private String fromAccountNumber;
+    private String toAccountNumber;
+    private BigDecimal amount;
+    private String description;
+
+    // 下一次执行时间；定期预约每执行一次向后推进
+    @JsonFormat(pattern = "yyyy-MM-dd'T'HH:mm:ss")
+    private LocalDateTime executeAt;
+    // 执行间隔秒数，为空表示只执行一次
+    private Long intervalSeconds;
+
+    private Status status;
+    private int executions;
+    private Long lastTransactionId;
+    private String lastError;
+    // 已取出执行、尚未记录结果的那一次的时间；重启时不为空说明该次结果未知
+    @JsonFormat(pattern = "yyyy-MM-dd'T'HH:mm:ss")
+    private LocalDateTime runningAt;
+
+    @JsonIgnore
+    public boolean isRecurring() {
+        return intervalSeconds != null;
+    }
+
+    public ScheduledTransfer copy() {
+        ScheduledTransfer copy = new ScheduledTransfer();
+        copy.setId(id);
+        copy.setType(type);
+        copy.setFromAccountNumber(fromAccountNumber);
+        copy.setToAccountNumber(toAccountNumber);
+        copy.setAmount(amount);
+        copy.setDescription(description);
+        copy.setExecuteAt(executeAt);
+        copy.setIntervalSeconds(intervalSeconds);
+        copy.setStatus(status);
+        copy.setExecutions(executions);
+        copy.setLastTransactionId(lastTransactionId);
+        copy.setLastError(lastError);
+        copy.setRunningAt(runningAt);
+        return copy;
+    }
+}
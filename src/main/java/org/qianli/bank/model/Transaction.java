@@ -54,6 +54,19 @@ public class Transaction {
     //仅可为1或0，1表示该记录被更新过，0表示该记录未被更新过
     private String modifyFlg="0"; // 删除标志,一条记录被更新和删除过一次之后，不可再次更新
 
+    /**
+     * 浅拷贝：仓库中保存的交易对读取方共享，修改前先复制，再通过仓库的update写回
+     */
+    public Transaction copy() {
+        Transaction copy = new Transaction(amount, description, timestamp);
+        copy.setId(id);
+        copy.setType(type);
+        copy.setFromAccountNumber(fromAccountNumber);
+        copy.setToAccountNumber(toAccountNumber);
+        copy.setModifyFlg(modifyFlg);
+        return copy;
+    }
+
     @Override
     public String toString() {
         return "Transaction{" +
@@ -0,0 +1,20 @@
+package org.qianli.bank.model;
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * 游标分页的一页结果
+ */
+@Data
+public class TransactionPage {
+    private List<Transaction> items;
+    // 下一页的游标，已到末尾时为null
+    private String nextCursor;
+
+    public TransactionPage(List<Transaction> items, String nextCursor) {
+        this.items = items;
+        this.nextCursor = nextCursor;
+    }
+}
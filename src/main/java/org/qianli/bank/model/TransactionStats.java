@@ -0,0 +1,63 @@
+package org.qianli.bank.model;
+
+import lombok.Data;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 交易汇总统计，由增量维护的计数器直接读出
+ */
+@Data
+public class TransactionStats {
+    // 重启时只恢复了快照之后的交易（bank.snapshot.restore-history=false），统计不含快照之前的历史
+    private boolean partial;
+    private Totals total;
+    private Map<Transaction.Type, Totals> byType;
+    // 只在请求指定账户时返回
+    private AccountFlow account;
+    // 最近若干天，按日期升序
+    private List<DailyTotals> daily;
+
+    @Data
+    public static class Totals {
+        private long count;
+        private BigDecimal amount;
+
+        public Totals(long count, BigDecimal amount) {
+            this.count = count;
+            this.amount = amount;
+        }
+    }
+
+    /**
+     * 账户的流入（存款、转入）与流出（取款、转出）
+     */
+    @Data
+    public static class AccountFlow {
+        private String accountId;
+        private Totals inflow;
+        private Totals outflow;
+
+        public AccountFlow(String accountId, Totals inflow, Totals outflow) {
+            this.accountId = accountId;
+            this.inflow = inflow;
+            this.outflow = outflow;
+        }
+    }
+
+    @Data
+    public static class DailyTotals {
+        private LocalDate date;
+        private long count;
+        private BigDecimal amount;
+
+        public DailyTotals(LocalDate date, long count, BigDecimal amount) {
+            this.date = date;
+            this.count = count;
+            this.amount = amount;
+        }
+    }
+}
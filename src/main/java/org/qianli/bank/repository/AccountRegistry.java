@@ -0,0 +1,86 @@
+package org.qianli.bank.repository;
+
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 账户号字典：把账户号映射为从1开始的连续int编号，0表示没有账户或未登记。
+ * <p>
+ * 账户号只在入口处查一次字典，之后的账户锁、余额槽位、交易索引和汇总都用编号直接访问数组，
+ * 不再对字符串求哈希、比较相等，转账加锁的顺序也按编号比较。编号一经分配不再回收，
+ * 账户删除后重新创建仍得到同一个编号。Spring中各组件共用同一个实例；手工组装时每个仓库各自持有一个，
+ * 编号只在持有它的组件内部有意义。
+ * <p>
+ * 只有账户创建和交易写入会登记新账户号；查询和余额操作使用{@link #idOf}，不存在的账户号不会进入字典。
+ * 查找无锁；登记在一把锁内进行（不使用synchronized，避免钉住虚拟线程）。
+ */
+@Component
+public class AccountRegistry {
+    public static final int NONE = 0;
+
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    private final ReentrantLock registerLock = new ReentrantLock();
+    // 下标为编号，0号位不用
+    private volatile String[] names = new String[64];
+    private volatile int size;
+
+    /**
+     * 账户号对应的编号，必要时登记；null或空串返回NONE
+     */
+    public int intern(String accountNumber) {
+        if (accountNumber == null || accountNumber.isEmpty()) {
+            return NONE;
+        }
+        Integer id = ids.get(accountNumber);
+        return id != null ? id : register(accountNumber);
+    }
+
+    private int register(String accountNumber) {
+        registerLock.lock();
+        try {
+            Integer existing = ids.get(accountNumber);
+            if (existing != null) {
+                return existing;
+            }
+            int id = size + 1;
+            String[] current = names;
+            if (id == current.length) {
+                current = Arrays.copyOf(current, current.length << 1);
+            }
+            current[id] = accountNumber;
+            // 先发布名字再发布编号，拿到编号的线程一定能读到名字
+            names = current;
+            size = id;
+            ids.put(accountNumber, id);
+            return id;
+        } finally {
+            registerLock.unlock();
+        }
+    }
+
+    /**
+     * 已登记账户号的编号，未登记时返回NONE（不登记）
+     */
+    public int idOf(String accountNumber) {
+        if (accountNumber == null || accountNumber.isEmpty()) {
+            return NONE;
+        }
+        Integer id = ids.get(accountNumber);
+        return id == null ? NONE : id;
+    }
+
+    public String nameOf(int id) {
+        return id == NONE ? null : names[id];
+    }
+
+    /**
+     * 最大的已分配编号，按编号建的数组长度为 size() + 1 即可容纳全部账户
+     */
+    public int size() {
+        return size;
+    }
+}
@@ -1,19 +1,161 @@
 package org.qianli.bank.repository;
 
+import org.qianli.bank.config.CacheConfig;
 import org.qianli.bank.model.Account;
+import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.cache.annotation.Caching;
 
 import java.math.BigDecimal;
 import java.util.List;
 import java.util.Optional;
 
+/**
+ * 账户仓库。写方法上的@CacheEvict在方法返回后清除账户读缓存（见CacheConfig）
+ */
 public interface AccountRepository {
+    // 按编号操作时，缓存键为编号对应的账户号
+    String ACCOUNT_NAME = "#root.target.registry.nameOf(#accountId)";
+
     List<Account> findAll();
     Optional<Account> findByAccountNumber(String accountNumber);
+
+    @Caching(evict = {
+            @CacheEvict(cacheNames = CacheConfig.ACCOUNTS, key = "#account.accountNumber"),
+            @CacheEvict(cacheNames = CacheConfig.ACCOUNT_LIST, key = CacheConfig.ACCOUNT_LIST_KEY)
+    })
     Account save(Account account);
+
+    @Caching(evict = {
+            @CacheEvict(cacheNames = CacheConfig.ACCOUNTS, key = "#accountNumber"),
+            @CacheEvict(cacheNames = CacheConfig.ACCOUNT_LIST, key = CacheConfig.ACCOUNT_LIST_KEY)
+    })
     void deleteByAccountNumber(String accountNumber);
+
+    @Caching(evict = {
+            @CacheEvict(cacheNames = CacheConfig.ACCOUNTS, key = "#account.accountNumber"),
+            @CacheEvict(cacheNames = CacheConfig.ACCOUNT_LIST, key = CacheConfig.ACCOUNT_LIST_KEY)
+    })
     Account update(Account account);
     
     // 余额相关操作
+    @Caching(evict = {
+            @CacheEvict(cacheNames = CacheConfig.ACCOUNTS, key = "#accountNumber"),
+            @CacheEvict(cacheNames = CacheConfig.ACCOUNT_LIST, key = CacheConfig.ACCOUNT_LIST_KEY)
+    })
     boolean deposit(String accountNumber, BigDecimal amount);
+
+    @Caching(evict = {
+            @CacheEvict(cacheNames = CacheConfig.ACCOUNTS, key = "#accountNumber"),
+            @CacheEvict(cacheNames = CacheConfig.ACCOUNT_LIST, key = CacheConfig.ACCOUNT_LIST_KEY)
+    })
     boolean withdraw(String accountNumber, BigDecimal amount);
+
+    /**
+     * 转账：先从转出账户扣款，成功后再存入转入账户；转入失败时退回转出账户。
+     * 默认实现本身不是原子的，调用方需要持有两个账户的锁。
+     */
+    @Caching(evict = {
+            @CacheEvict(cacheNames = CacheConfig.ACCOUNTS, key = "#fromAccountNumber"),
+            @CacheEvict(cacheNames = CacheConfig.ACCOUNTS, key = "#toAccountNumber"),
+            @CacheEvict(cacheNames = CacheConfig.ACCOUNT_LIST, key = CacheConfig.ACCOUNT_LIST_KEY)
+    })
+    default boolean transfer(String fromAccountNumber, String toAccountNumber, BigDecimal amount) {
+        if (findByAccountNumber(toAccountNumber).isEmpty() || !withdraw(fromAccountNumber, amount)) {
+            return false;
+        }
+        if (!deposit(toAccountNumber, amount)) {
+            deposit(fromAccountNumber, amount);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 账户号字典。下面以int编号为参数的方法使用其中的编号：调用方在入口处查一次编号，
+     * 之后的余额操作按编号直接访问槽位数组，不再按账户号查哈希表
+     */
+    AccountRegistry getRegistry();
+
+    Optional<Account> findByAccountId(int accountId);
+
+    @Caching(evict = {
+            @CacheEvict(cacheNames = CacheConfig.ACCOUNTS, key = ACCOUNT_NAME),
+            @CacheEvict(cacheNames = CacheConfig.ACCOUNT_LIST, key = CacheConfig.ACCOUNT_LIST_KEY)
+    })
+    boolean deposit(int accountId, BigDecimal amount);
+
+    @Caching(evict = {
+            @CacheEvict(cacheNames = CacheConfig.ACCOUNTS, key = ACCOUNT_NAME),
+            @CacheEvict(cacheNames = CacheConfig.ACCOUNT_LIST, key = CacheConfig.ACCOUNT_LIST_KEY)
+    })
+    boolean withdraw(int accountId, BigDecimal amount);
+
+    /**
+     * 与按账户号的transfer相同，账户以编号给出
+     */
+    @Caching(evict = {
+            @CacheEvict(cacheNames = CacheConfig.ACCOUNTS, key = "#root.target.registry.nameOf(#fromAccountId)"),
+            @CacheEvict(cacheNames = CacheConfig.ACCOUNTS, key = "#root.target.registry.nameOf(#toAccountId)"),
+            @CacheEvict(cacheNames = CacheConfig.ACCOUNT_LIST, key = CacheConfig.ACCOUNT_LIST_KEY)
+    })
+    default boolean transfer(int fromAccountId, int toAccountId, BigDecimal amount) {
+        if (findByAccountId(toAccountId).isEmpty() || !withdraw(fromAccountId, amount)) {
+            return false;
+        }
+        if (!deposit(toAccountId, amount)) {
+            deposit(fromAccountId, amount);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 一借多贷：从转出账户一次扣除amounts之和，toAccountIds[i]入账amounts[i]；
+     * 任一转入账户不存在或余额不足时都不修改并返回false。toAccountIds须按编号升序、互不相同且不含转出账户。
+     * 转入账户数不定，清除整个账户缓存。默认实现本身不是原子的，调用方需要持有全部账户的锁。
+     */
+    @Caching(evict = {
+            @CacheEvict(cacheNames = CacheConfig.ACCOUNTS, allEntries = true),
+            @CacheEvict(cacheNames = CacheConfig.ACCOUNT_LIST, key = CacheConfig.ACCOUNT_LIST_KEY)
+    })
+    default boolean transfer(int fromAccountId, int[] toAccountIds, BigDecimal[] amounts) {
+        BigDecimal total = BigDecimal.ZERO;
+        for (int i = 0; i < toAccountIds.length; i++) {
+            if (toAccountIds[i] == fromAccountId || findByAccountId(toAccountIds[i]).isEmpty()) {
+                return false;
+            }
+            total = total.add(amounts[i]);
+        }
+        if (!withdraw(fromAccountId, total)) {
+            return false;
+        }
+        for (int i = 0; i < toAccountIds.length; i++) {
+            if (!deposit(toAccountIds[i], amounts[i])) {
+                for (int j = i - 1; j >= 0; j--) {
+                    withdraw(toAccountIds[j], amounts[j]);
+                }
+                deposit(fromAccountId, total);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 把热点账户的余额拆成stripes个子余额：入账落在任意一个子余额上，并发入账不再争用同一个余额；
+     * 扣款在一个子余额不够时跨子余额合并扣款，总额不会透支；读取返回各子余额之和。
+     * 余额总数不变，不需要清除缓存。
+     *
+     * @return 调用后账户是否处于拆分状态；不支持拆分或账户不存在时为false
+     */
+    default boolean stripe(int accountId, int stripes) {
+        return false;
+    }
+
+    /**
+     * 余额操作是否自身保证原子性（含余额不足检查），为true时调用方无需再加账户锁
+     */
+    default boolean isLockFree() {
+        return false;
+    }
 }
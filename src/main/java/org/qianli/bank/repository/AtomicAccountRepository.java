@@ -0,0 +1,273 @@
+package org.qianli.bank.repository;
+
+import org.qianli.bank.model.Account;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Repository;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * 无锁余额引擎。
+ * <p>
+ * 余额以定点数（分，long）保存在每个账户的不可变版本中，版本链的写入协议见{@link BalanceVersions}：
+ * 取款的余额检查和扣减是同一次CAS，不需要任何账户锁；
+ * 转账在两个链头上各放一个预留标记，以同一个提交序号挂上扣款和入账两个版本，持续时间只有几次CAS。
+ * findAll在提交快照上读取，转账的两边同时可见；单个账户的读取返回最新版本。
+ * 对外返回的Account都是快照副本，修改它们不会影响余额。
+ * 热点账户拆分成子余额后（见{@link #stripe}），入账分散到各子余额的链头上，读取返回各子余额之和。
+ */
+@Repository
+@ConditionalOnProperty(name = "bank.account.store", havingValue = "atomic")
+public class AtomicAccountRepository implements AccountRepository {
+    // 金额精度：两位小数
+    private static final int SCALE = 2;
+
+    private final AccountRegistry registry;
+    private final BalanceVersions<Version> versions;
+
+    public AtomicAccountRepository() {
+        this(new AccountRegistry(), new CommitSequence());
+    }
+
+    @Autowired
+    public AtomicAccountRepository(AccountRegistry registry, CommitSequence commits) {
+        this.registry = registry;
+        this.versions = new BalanceVersions<>(commits);
+        // 与InMemoryAccountRepository相同的10个模拟账户
+        for (int i = 1; i <= 10; i++) {
+            String accountNumber = String.format("A%03d", i); // A001-A010
+            put(new Account((long) i, accountNumber, "账户" + i, new BigDecimal("10000.00")));
+        }
+    }
+
+    // 账户的一个版本；deleted表示账户在此版本被删除
+    private static final class Version extends BalanceVersion {
+        final Long id;
+        final String accountHolder;
+        final long balance;
+        final boolean deleted;
+
+        Version(long seq, BalanceVersion previous, Long id, String accountHolder, long balance, boolean deleted) {
+            super(seq, previous);
+            this.id = id;
+            this.accountHolder = accountHolder;
+            this.balance = balance;
+            this.deleted = deleted;
+        }
+
+        Version withBalance(long seq, long balance) {
+            return new Version(seq, this, id, accountHolder, balance, false);
+        }
+
+        // 余额不足时返回null
+        Version withdraw(long seq, long amount) {
+            return balance < amount ? null : withBalance(seq, Math.subtractExact(balance, amount));
+        }
+
+        Version deposit(long seq, long amount) {
+            return withBalance(seq, Math.addExact(balance, amount));
+        }
+    }
+
+    private static boolean exists(Version version) {
+        return version != null && !version.deleted;
+    }
+
+    // version为账户单元在snapshot下的版本，拆分过的账户加上同一快照点下其他子余额的余额
+    private Account snapshot(int accountId, Version version, long snapshot) {
+        long balance = version.balance;
+        for (int stripe = 1, stripes = versions.stripes(accountId); stripe < stripes; stripe++) {
+            Version part = versions.visibleAt(accountId, stripe, snapshot);
+            if (exists(part)) {
+                balance = Math.addExact(balance, part.balance);
+            }
+        }
+        return new Account(version.id, registry.nameOf(accountId), version.accountHolder,
+                BigDecimal.valueOf(balance, SCALE));
+    }
+
+    private static BalanceVersions.Step<Version> debit(long amount) {
+        return (current, seq) -> exists(current) ? current.withdraw(seq, amount) : null;
+    }
+
+    private static BalanceVersions.Step<Version> credit(long amount) {
+        return (current, seq) -> exists(current) ? current.deposit(seq, amount) : null;
+    }
+
+    // 从heads[0..count)这些子余额中依次扣款，合计不够时不修改
+    private static BalanceVersions.MultiStep borrow(long amount) {
+        return (heads, count, seq) -> {
+            long total = 0;
+            for (int i = 0; i < count; i++) {
+                Version part = (Version) heads[i];
+                if (!exists(part)) {
+                    return false;
+                }
+                total = Math.addExact(total, part.balance);
+            }
+            if (total < amount) {
+                return false;
+            }
+            long remaining = amount;
+            for (int i = 0; i < count && remaining > 0; i++) {
+                Version part = (Version) heads[i];
+                long taken = Math.min(part.balance, remaining);
+                if (taken > 0) {
+                    heads[i] = part.withBalance(seq, part.balance - taken);
+                    remaining -= taken;
+                }
+            }
+            return true;
+        };
+    }
+
+    static long toMinor(BigDecimal amount) {
+        try {
+            return amount.setScale(SCALE, RoundingMode.UNNECESSARY).unscaledValue().longValueExact();
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException("Amount must have at most " + SCALE + " decimal places: " + amount);
+        }
+    }
+
+    @Override
+    public AccountRegistry getRegistry() {
+        return registry;
+    }
+
+    @Override
+    public List<Account> findAll() {
+        List<Account> result = new ArrayList<>();
+        try (CommitSequence.Snapshot snapshot = versions.commits().openSnapshot()) {
+            int capacity = versions.capacity();
+            for (int id = 1; id < capacity; id++) {
+                Version version = versions.visibleAt(id, snapshot.seq());
+                if (exists(version)) {
+                    result.add(snapshot(id, version, snapshot.seq()));
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Optional<Account> findByAccountNumber(String accountNumber) {
+        return findByAccountId(registry.idOf(accountNumber));
+    }
+
+    @Override
+    public Optional<Account> findByAccountId(int accountId) {
+        Version version = versions.latest(accountId);
+        return exists(version) ? Optional.of(snapshot(accountId, version, BalanceVersions.LATEST)) : Optional.empty();
+    }
+
+    @Override
+    public Account save(Account account) {
+        return put(account);
+    }
+
+    // 构造函数也通过这里写入初始账户，不调用可被覆盖的save
+    private Account put(Account account) {
+        if (account.getAccountNumber() == null || account.getAccountNumber().isEmpty()) {
+            throw new IllegalArgumentException("Account number is required");
+        }
+        long balance = toMinor(account.getBalance());
+        int id = registry.intern(account.getAccountNumber());
+        // 拆分过的账户：余额放在账户单元上，其他子余额清零
+        versions.replace(id, true, (heads, count, seq) -> {
+            for (int i = 0; i < count; i++) {
+                heads[i] = new Version(seq, heads[i], account.getId(), account.getAccountHolder(),
+                        i == 0 ? balance : 0, false);
+            }
+            return true;
+        });
+        return account;
+    }
+
+    @Override
+    public void deleteByAccountNumber(String accountNumber) {
+        versions.replace(registry.idOf(accountNumber), false, (heads, count, seq) -> {
+            if (!exists((Version) heads[0])) {
+                return false;
+            }
+            for (int i = 0; i < count; i++) {
+                Version current = (Version) heads[i];
+                heads[i] = new Version(seq, current, current.id, current.accountHolder, current.balance, true);
+            }
+            return true;
+        });
+    }
+
+    @Override
+    public Account update(Account account) {
+        return save(account);
+    }
+
+    @Override
+    public boolean deposit(String accountNumber, BigDecimal amount) {
+        return deposit(registry.idOf(accountNumber), amount);
+    }
+
+    @Override
+    public boolean withdraw(String accountNumber, BigDecimal amount) {
+        return withdraw(registry.idOf(accountNumber), amount);
+    }
+
+    @Override
+    public boolean transfer(String fromAccountNumber, String toAccountNumber, BigDecimal amount) {
+        return transfer(registry.idOf(fromAccountNumber), registry.idOf(toAccountNumber), amount);
+    }
+
+    @Override
+    public boolean deposit(int accountId, BigDecimal amount) {
+        return versions.credit(accountId, credit(toMinor(amount)));
+    }
+
+    @Override
+    public boolean withdraw(int accountId, BigDecimal amount) {
+        long minor = toMinor(amount);
+        return versions.debit(accountId, debit(minor), borrow(minor));
+    }
+
+    @Override
+    public boolean transfer(int fromAccountId, int toAccountId, BigDecimal amount) {
+        if (fromAccountId == toAccountId) {
+            return false;
+        }
+        long minor = toMinor(amount);
+        return versions.transfer(fromAccountId, toAccountId, debit(minor), borrow(minor), credit(minor));
+    }
+
+    /**
+     * 合计扣款和全部入账以同一个提交序号写入，快照中同时可见
+     */
+    @Override
+    public boolean transfer(int fromAccountId, int[] toAccountIds, BigDecimal[] amounts) {
+        long total = 0;
+        List<BalanceVersions.Step<Version>> credits = new ArrayList<>(amounts.length);
+        for (BigDecimal amount : amounts) {
+            long minor = toMinor(amount);
+            total = Math.addExact(total, minor);
+            credits.add(credit(minor));
+        }
+        return versions.transfer(fromAccountId, toAccountIds, borrow(total), credits);
+    }
+
+    /**
+     * 把账户余额拆成stripes个子余额，新拆出的子余额从零开始
+     */
+    @Override
+    public boolean stripe(int accountId, int stripes) {
+        return versions.stripe(accountId, stripes, (current, seq) -> exists(current)
+                ? new Version(seq, null, current.id, current.accountHolder, 0, false) : null);
+    }
+
+    @Override
+    public boolean isLockFree() {
+        return true;
+    }
+}
@@ -0,0 +1,40 @@
+package org.qianli.bank.repository;
+
+/**
+ * 账户余额版本链上的一个不可变版本，seq为写入它的提交序号（见{@link CommitSequence}）。
+ * 链从新到旧，序号递减；只有previous会在回收时被截断。
+ */
+abstract class BalanceVersion {
+    final long seq;
+    BalanceVersion previous;
+
+    BalanceVersion(long seq, BalanceVersion previous) {
+        this.seq = seq;
+        this.previous = previous;
+    }
+
+    /**
+     * 快照点snapshot下可见的版本：序号不大于它的最新版本，没有则返回null（账户在快照之后才创建）
+     */
+    @SuppressWarnings("unchecked")
+    static <V extends BalanceVersion> V visibleAt(V head, long snapshot) {
+        BalanceVersion version = head;
+        while (version != null && version.seq > snapshot) {
+            version = version.previous;
+        }
+        return (V) version;
+    }
+
+    /**
+     * 截断边界horizon以前的版本：保留边界上可见的那个版本，更早的版本不再可达
+     */
+    static void truncate(BalanceVersion head, long horizon) {
+        BalanceVersion version = head;
+        while (version != null && version.seq > horizon) {
+            version = version.previous;
+        }
+        if (version != null) {
+            version.previous = null;
+        }
+    }
+}
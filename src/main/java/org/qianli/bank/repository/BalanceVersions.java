@@ -0,0 +1,500 @@
+package org.qianli.bank.repository;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 按账户编号存放的余额版本链，两个余额引擎共用的多版本写入协议。
+ * <p>
+ * 单账户写入是CAS重试循环：读链头、取提交序号、在链头上构造新版本、CAS换上，失败则放弃该序号重来，
+ * 所以同一账户链上的序号一定递增。转账需要在两个账户上用同一个序号挂链，
+ * 先按编号顺序在两个链头各CAS一个预留标记（其他写入方遇到标记时自旋等待，读取方把它当作未提交的版本跳过），
+ * 取号挂链后再换成新版本；预留只持续几次CAS，期间不做任何阻塞操作。
+ * 挂上新版本后按{@link CommitSequence#horizon()}截断该账户链上不再可见的旧版本。
+ * <p>
+ * 热点账户可以用{@link #stripe}把余额拆成多个子余额，每个子余额是一条独立的版本链，账户单元本身是第0个。
+ * 入账落在任意一个子余额上，并发入账分散到不同链头；扣款先在一个子余额上尝试，不够时预留全部子余额合并扣款，
+ * 每个子余额都不会为负，所以账户总额也不会透支。读取方把同一快照点下各子余额的版本相加。
+ * 多个单元的预留一律按(账户编号, 子余额下标)升序进行。
+ *
+ * @param <V> 引擎自己的版本类型
+ */
+final class BalanceVersions<V extends BalanceVersion> {
+    /**
+     * 在当前版本current（账户从未创建过时为null）上构造序号为seq的新版本，返回null表示不修改
+     */
+    interface Step<V> {
+        V apply(V current, long seq);
+    }
+
+    /**
+     * 在heads[0..count)这组单元的当前版本上构造序号为seq的新版本：把要修改的元素就地换成新版本，
+     * 其余保持原样；返回false表示全部不修改
+     */
+    interface MultiStep {
+        boolean apply(BalanceVersion[] heads, int count, long seq);
+    }
+
+    /**
+     * 作为快照点时取各单元的最新版本（跳过预留标记）
+     */
+    static final long LATEST = Long.MAX_VALUE - 1;
+
+    // 预留标记：序号最大，任何快照都看不到它，previous是被预留时的链头
+    private static final class Reservation extends BalanceVersion {
+        Reservation(BalanceVersion previous) {
+            super(Long.MAX_VALUE, previous);
+        }
+    }
+
+    private static final class Cell {
+        private static final VarHandle HEAD;
+
+        static {
+            try {
+                HEAD = MethodHandles.lookup().findVarHandle(Cell.class, "head", BalanceVersion.class);
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        volatile BalanceVersion head;
+        // 拆分后的子余额单元，下标0是账户单元本身；未拆分时为null，拆分后不再改变
+        volatile Cell[] stripes;
+
+        boolean compareAndSet(BalanceVersion expected, BalanceVersion update) {
+            return HEAD.compareAndSet(this, expected, update);
+        }
+
+        // 链头，遇到其他写入方的预留标记时等待
+        BalanceVersion awaitHead() {
+            BalanceVersion current = head;
+            while (current instanceof Reservation) {
+                Thread.onSpinWait();
+                Thread.yield();
+                current = head;
+            }
+            return current;
+        }
+    }
+
+    private final CommitSequence commits;
+    // 下标为账户编号，单元创建后不再移动；只在growLock内创建单元和替换数组
+    private volatile Cell[] cells = new Cell[64];
+    private final ReentrantLock growLock = new ReentrantLock();
+
+    BalanceVersions(CommitSequence commits) {
+        this.commits = commits;
+    }
+
+    CommitSequence commits() {
+        return commits;
+    }
+
+    /**
+     * 已分配单元的编号上界（不含），遍历全部账户时使用
+     */
+    int capacity() {
+        return cells.length;
+    }
+
+    /**
+     * 子余额个数，未拆分时为1
+     */
+    int stripes(int accountId) {
+        Cell cell = cell(accountId);
+        Cell[] stripes = cell == null ? null : cell.stripes;
+        return stripes == null ? 1 : stripes.length;
+    }
+
+    /**
+     * 最新版本（可能尚未提交），写入方在此基础上做余额检查；有预留时返回预留前的版本
+     */
+    V latest(int accountId) {
+        return visibleAt(accountId, 0, LATEST);
+    }
+
+    /**
+     * 快照点snapshot下可见的版本
+     */
+    V visibleAt(int accountId, long snapshot) {
+        return visibleAt(accountId, 0, snapshot);
+    }
+
+    /**
+     * 第stripe个子余额在快照点snapshot下可见的版本；子余额在快照之后才拆出时返回null
+     */
+    @SuppressWarnings("unchecked")
+    V visibleAt(int accountId, int stripe, long snapshot) {
+        Cell cell = cell(accountId, stripe);
+        return cell == null ? null : (V) BalanceVersion.visibleAt(cell.head, snapshot);
+    }
+
+    /**
+     * 在单个账户上提交一个新版本；账户单元不存在且create为false时返回false，step返回null时也返回false
+     */
+    boolean apply(int accountId, boolean create, Step<V> step) {
+        return apply(create ? cellOrCreate(accountId) : cell(accountId), step);
+    }
+
+    /**
+     * 入账：在任意一个子余额上提交新版本，未拆分时即账户单元
+     */
+    boolean credit(int accountId, Step<V> step) {
+        return apply(cell(accountId, anyStripe(stripes(accountId))), step);
+    }
+
+    /**
+     * 扣款：先在一个子余额上用step扣款；拆分过的账户在该子余额不够时，预留全部子余额用borrow合并扣款
+     */
+    boolean debit(int accountId, Step<V> step, MultiStep borrow) {
+        int stripes = stripes(accountId);
+        if (apply(cell(accountId, anyStripe(stripes)), step)) {
+            return true;
+        }
+        return stripes > 1 && applyAll(accountId, borrow);
+    }
+
+    /**
+     * 转账：转出方按{@link #debit}的方式扣款，入账落在转入方任意一个子余额上，扣款和入账以同一个提交序号可见。
+     * 两个账户都未拆分时就是两个账户单元上的{@link #apply(int, int, Step, Step)}
+     */
+    @SuppressWarnings("unchecked")
+    boolean transfer(int from, int to, Step<V> debit, MultiStep borrow, Step<V> credit) {
+        int fromStripes = stripes(from);
+        int toStripes = stripes(to);
+        if (fromStripes == 1 && toStripes == 1) {
+            return apply(from, to, debit, credit);
+        }
+        int toStripe = anyStripe(toStripes);
+        MultiStep single = (heads, count, seq) -> transfer(heads, debit, credit, seq);
+        if (apply(new int[]{from, to}, new int[]{anyStripe(fromStripes), toStripe}, single)) {
+            return true;
+        }
+        if (fromStripes == 1) {
+            return false;
+        }
+        int[] accounts = new int[fromStripes + 1];
+        int[] stripes = new int[fromStripes + 1];
+        for (int i = 0; i < fromStripes; i++) {
+            accounts[i] = from;
+            stripes[i] = i;
+        }
+        accounts[fromStripes] = to;
+        stripes[fromStripes] = toStripe;
+        return apply(accounts, stripes, (heads, count, seq) -> {
+            if (!borrow.apply(heads, fromStripes, seq)) {
+                return false;
+            }
+            heads[fromStripes] = credit.apply((V) heads[fromStripes], seq);
+            return heads[fromStripes] != null;
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private boolean transfer(BalanceVersion[] heads, Step<V> debit, Step<V> credit, long seq) {
+        V from = debit.apply((V) heads[0], seq);
+        V to = from == null ? null : credit.apply((V) heads[1], seq);
+        if (to == null) {
+            return false;
+        }
+        heads[0] = from;
+        heads[1] = to;
+        return true;
+    }
+
+    /**
+     * 一借多贷：预留转出账户的全部子余额和每个转入账户的任意一个子余额，以同一个提交序号提交。
+     * heads中前面是转出账户的子余额，由borrow合并扣款；其后依次是to[i]的子余额，由credits.get(i)入账。
+     * to须升序、互不相同且不含from，预留顺序由此直接得到，不需要排序
+     */
+    @SuppressWarnings("unchecked")
+    boolean transfer(int from, int[] to, MultiStep borrow, List<Step<V>> credits) {
+        int fromStripes = stripes(from);
+        int count = fromStripes + to.length;
+        Cell[] targets = new Cell[count];
+        for (int i = 0; i < fromStripes; i++) {
+            targets[i] = cell(from, i);
+        }
+        for (int i = 0; i < to.length; i++) {
+            targets[fromStripes + i] = cell(to[i], anyStripe(stripes(to[i])));
+        }
+        // 转入账户按编号升序，转出账户的子余额插在编号小于它的转入账户之后
+        Cell[] reserveOrder = new Cell[count];
+        int before = 0;
+        while (before < to.length && to[before] < from) {
+            before++;
+        }
+        System.arraycopy(targets, fromStripes, reserveOrder, 0, before);
+        System.arraycopy(targets, 0, reserveOrder, before, fromStripes);
+        System.arraycopy(targets, fromStripes + before, reserveOrder, before + fromStripes, to.length - before);
+        for (Cell cell : targets) {
+            if (cell == null) {
+                return false;
+            }
+        }
+        return apply(targets, reserveOrder, (heads, size, seq) -> {
+            if (!borrow.apply(heads, fromStripes, seq)) {
+                return false;
+            }
+            for (int i = fromStripes; i < size; i++) {
+                heads[i] = credits.get(i - fromStripes).apply((V) heads[i], seq);
+                if (heads[i] == null) {
+                    return false;
+                }
+            }
+            return true;
+        });
+    }
+
+    /**
+     * 覆盖整个账户（保存、删除）：在账户的全部子余额上提交，与{@link #stripe}互斥，不会在拆分途中覆盖。
+     * 账户单元不存在且create为false时返回false
+     */
+    boolean replace(int accountId, boolean create, MultiStep step) {
+        growLock.lock();
+        try {
+            if (create) {
+                cellOrCreate(accountId);
+            }
+            return applyAll(accountId, step);
+        } finally {
+            growLock.unlock();
+        }
+    }
+
+    /**
+     * 把账户拆成count个子余额；新的子余额由init在账户当前版本上构造（返回null表示不拆分）。
+     * 返回账户此后是否处于拆分状态，已拆分过时直接返回true
+     */
+    @SuppressWarnings("unchecked")
+    boolean stripe(int accountId, int count, Step<V> init) {
+        growLock.lock();
+        try {
+            Cell cell = cell(accountId);
+            if (cell == null || count < 2) {
+                return false;
+            }
+            if (cell.stripes != null) {
+                return true;
+            }
+            long seq = commits.begin();
+            try {
+                V current = (V) BalanceVersion.visibleAt(cell.head, LATEST);
+                Cell[] stripes = new Cell[count];
+                stripes[0] = cell;
+                for (int i = 1; i < count; i++) {
+                    V version = init.apply(current, seq);
+                    if (version == null) {
+                        return false;
+                    }
+                    stripes[i] = new Cell();
+                    stripes[i].head = version;
+                }
+                cell.stripes = stripes;
+                return true;
+            } finally {
+                commits.commit(seq);
+            }
+        } finally {
+            growLock.unlock();
+        }
+    }
+
+    private static int anyStripe(int stripes) {
+        return stripes == 1 ? 0 : ThreadLocalRandom.current().nextInt(stripes);
+    }
+
+    @SuppressWarnings("unchecked")
+    private boolean apply(Cell cell, Step<V> step) {
+        if (cell == null) {
+            return false;
+        }
+        while (true) {
+            BalanceVersion current = cell.awaitHead();
+            long seq = commits.begin();
+            V next;
+            boolean installed;
+            // step抛异常时也要提交序号，否则可见点永远停在这里
+            try {
+                next = step.apply((V) current, seq);
+                if (next == null) {
+                    return false;
+                }
+                installed = cell.compareAndSet(current, next);
+            } finally {
+                commits.commit(seq);
+            }
+            if (installed) {
+                BalanceVersion.truncate(next, commits.horizon());
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 在两个不同账户上以同一个提交序号挂新版本，两者对快照同时可见。
+     * step对first、second分别调用，任一返回null则两个账户都不修改并返回false
+     */
+    @SuppressWarnings("unchecked")
+    boolean apply(int first, int second, Step<V> firstStep, Step<V> secondStep) {
+        Cell firstCell = cell(first);
+        Cell secondCell = cell(second);
+        if (firstCell == null || secondCell == null) {
+            return false;
+        }
+        // 按编号顺序预留，避免两笔方向相反的转账互相等待
+        boolean ordered = first < second;
+        BalanceVersion lowHead = reserve(ordered ? firstCell : secondCell);
+        BalanceVersion highHead = reserve(ordered ? secondCell : firstCell);
+        BalanceVersion firstHead = ordered ? lowHead : highHead;
+        BalanceVersion secondHead = ordered ? highHead : lowHead;
+
+        long seq = commits.begin();
+        V firstNext = null;
+        V secondNext = null;
+        // step抛异常时同样撤下预留、提交序号，不留下挡住其他写入方的标记
+        try {
+            firstNext = firstStep.apply((V) firstHead, seq);
+            secondNext = firstNext == null ? null : secondStep.apply((V) secondHead, seq);
+        } finally {
+            boolean changed = secondNext != null;
+            firstCell.head = changed ? firstNext : firstHead;
+            secondCell.head = changed ? secondNext : secondHead;
+            commits.commit(seq);
+        }
+        if (secondNext == null) {
+            return false;
+        }
+        long horizon = commits.horizon();
+        BalanceVersion.truncate(firstNext, horizon);
+        BalanceVersion.truncate(secondNext, horizon);
+        return true;
+    }
+
+    /**
+     * 在账户的全部子余额上以同一个提交序号提交，heads按子余额下标排列
+     */
+    private boolean applyAll(int accountId, MultiStep step) {
+        Cell cell = cell(accountId);
+        if (cell == null) {
+            return false;
+        }
+        Cell[] stripes = cell.stripes;
+        Cell[] targets = stripes == null ? new Cell[]{cell} : stripes;
+        return apply(targets, targets, step);
+    }
+
+    /**
+     * 在accounts[i]的第stripes[i]个子余额上以同一个提交序号提交，heads与参数一一对应；单元不能重复
+     */
+    private boolean apply(int[] accounts, int[] stripes, MultiStep step) {
+        int count = accounts.length;
+        Cell[] targets = new Cell[count];
+        for (int i = 0; i < count; i++) {
+            targets[i] = cell(accounts[i], stripes[i]);
+            if (targets[i] == null) {
+                return false;
+            }
+        }
+        // 按(账户编号, 子余额下标)插入排序得到预留顺序，单元数不超过子余额数加一
+        Cell[] reserveOrder = targets.clone();
+        long[] keys = new long[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = (long) accounts[i] << 32 | stripes[i];
+            for (int j = i; j > 0 && keys[j - 1] > keys[j]; j--) {
+                long key = keys[j];
+                keys[j] = keys[j - 1];
+                keys[j - 1] = key;
+                Cell cell = reserveOrder[j];
+                reserveOrder[j] = reserveOrder[j - 1];
+                reserveOrder[j - 1] = cell;
+            }
+        }
+        return apply(targets, reserveOrder, step);
+    }
+
+    /**
+     * 按reserveOrder的顺序预留全部单元，取一个序号，step在targets顺序的heads上构造新版本后一起挂链
+     */
+    private boolean apply(Cell[] targets, Cell[] reserveOrder, MultiStep step) {
+        int count = targets.length;
+        for (Cell cell : reserveOrder) {
+            reserve(cell);
+        }
+        BalanceVersion[] heads = new BalanceVersion[count];
+        for (int i = 0; i < count; i++) {
+            heads[i] = targets[i].head.previous;
+        }
+        long seq = commits.begin();
+        BalanceVersion[] next = heads.clone();
+        boolean changed = false;
+        try {
+            changed = step.apply(next, count, seq);
+        } finally {
+            for (int i = 0; i < count; i++) {
+                targets[i].head = changed ? next[i] : heads[i];
+            }
+            commits.commit(seq);
+        }
+        if (changed) {
+            long horizon = commits.horizon();
+            for (int i = 0; i < count; i++) {
+                if (next[i] != heads[i]) {
+                    BalanceVersion.truncate(next[i], horizon);
+                }
+            }
+        }
+        return changed;
+    }
+
+    private static BalanceVersion reserve(Cell cell) {
+        while (true) {
+            BalanceVersion current = cell.awaitHead();
+            if (cell.compareAndSet(current, new Reservation(current))) {
+                return current;
+            }
+        }
+    }
+
+    private Cell cell(int accountId) {
+        Cell[] current = cells;
+        return accountId > 0 && accountId < current.length ? current[accountId] : null;
+    }
+
+    private Cell cell(int accountId, int stripe) {
+        Cell cell = cell(accountId);
+        if (cell == null || stripe == 0) {
+            return cell;
+        }
+        Cell[] stripes = cell.stripes;
+        return stripes != null && stripe < stripes.length ? stripes[stripe] : null;
+    }
+
+    private Cell cellOrCreate(int accountId) {
+        Cell cell = cell(accountId);
+        if (cell != null || accountId <= 0) {
+            return cell;
+        }
+        growLock.lock();
+        try {
+            Cell[] current = cells;
+            if (accountId >= current.length) {
+                current = Arrays.copyOf(current, Math.max(current.length << 1, accountId + 1));
+            }
+            cell = current[accountId];
+            if (cell == null) {
+                cell = new Cell();
+                current[accountId] = cell;
+            }
+            cells = current;
+            return cell;
+        } finally {
+            growLock.unlock();
+        }
+    }
+}
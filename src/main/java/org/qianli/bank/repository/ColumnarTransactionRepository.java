@@ -0,0 +1,276 @@
+package org.qianli.bank.repository;
+
+import org.qianli.bank.model.Transaction;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Repository;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 列式存储的交易仓库。
+ * <p>
+ * 每条交易拆成基本类型的列，按与分段日志相同的定长分段存放：金额（long，分）、时间（long，UTC微秒）、
+ * 转出/转入账户（int，{@link AccountRegistry}中的编号，物化时返回字典中的同一个String实例）、类型与标志（byte），以及描述在字节区中的引用（long）。
+ * id由位置推出，不单独存储。每条交易约33字节加上描述的UTF-8字节，对象布局下则是数百字节和七八个对象，
+ * 历史数据量大时堆占用和GC扫描量都小得多。
+ * <p>
+ * 只有查询实际返回的交易才物化为Transaction对象，时间范围过滤直接比较时间列。
+ * 物化的金额统一为两位小数；无法精确表示为分的金额（更多小数位或超出long）单独保存原值。
+ * 时间截断到微秒。修改交易时新描述追加到字节区，旧描述不回收（每笔交易至多被修改一次）。
+ * <p>
+ * 读取不加锁，所以修改和删除不就地改列：复制所在分段的全部列（约130KB），在副本上改完后换上新的分段数组发布，
+ * 读取方要么看到旧行、要么看到新行，不会看到新类型配旧金额这样改了一半的行。
+ */
+@Repository
+@ConditionalOnProperty(name = "bank.transaction.store", havingValue = "columnar")
+public class ColumnarTransactionRepository extends SegmentedTransactionRepository {
+    private static final int SCALE = 2;
+    // 金额列中的占位值：实际金额在分段的wideAmounts中，不在其中表示没有金额
+    private static final long WIDE_AMOUNT = Long.MIN_VALUE;
+    private static final long NO_TIME = Long.MIN_VALUE;
+    // 账户列中空串账户号的占位值（字典不登记空串），0即AccountRegistry.NONE表示没有账户
+    private static final int EMPTY_ACCOUNT = -1;
+    private static final long NO_DESCRIPTION = -1;
+    // 标志字节：低3位为类型序号+1（0表示没有类型），另有修改标志和存在标志（0表示空洞或已删除）
+    private static final int TYPE_MASK = 0x07;
+    private static final int MODIFIED = 0x08;
+    private static final int PRESENT = 0x10;
+
+    // 一个分段的全部列
+    private static final class Columns {
+        final long[] amount;
+        final long[] micros;
+        final int[] from;
+        final int[] to;
+        final byte[] flags;
+        final long[] description;
+        // 无法用分表示的金额，键为段内下标；随分段一起复制，旧分段上的读取仍能取到旧金额
+        final Map<Integer, BigDecimal> wideAmounts;
+
+        Columns() {
+            amount = new long[SEGMENT_SIZE];
+            micros = new long[SEGMENT_SIZE];
+            from = new int[SEGMENT_SIZE];
+            to = new int[SEGMENT_SIZE];
+            flags = new byte[SEGMENT_SIZE];
+            description = new long[SEGMENT_SIZE];
+            wideAmounts = new ConcurrentHashMap<>();
+        }
+
+        Columns(Columns source) {
+            amount = source.amount.clone();
+            micros = source.micros.clone();
+            from = source.from.clone();
+            to = source.to.clone();
+            flags = source.flags.clone();
+            description = source.description.clone();
+            wideAmounts = new ConcurrentHashMap<>(source.wideAmounts);
+        }
+    }
+
+    private volatile Columns[] segments = new Columns[16];
+    private final ByteArena descriptions = new ByteArena();
+
+    public ColumnarTransactionRepository() {
+        this(new AccountRegistry());
+    }
+
+    @Autowired
+    public ColumnarTransactionRepository(AccountRegistry accounts) {
+        super(accounts);
+    }
+
+    @Override
+    void store(int position, Transaction transaction) {
+        Columns columns = slotFor(position);
+        int i = position & SEGMENT_MASK;
+        writeMutable(columns, i, transaction);
+        columns.micros[i] = transaction.getTimestamp() == null ? NO_TIME : micros(transaction.getTimestamp());
+        columns.from[i] = accountColumn(transaction.getFromAccountNumber());
+        columns.to[i] = accountColumn(transaction.getToAccountNumber());
+    }
+
+    private int accountColumn(String accountNumber) {
+        return accountNumber != null && accountNumber.isEmpty() ? EMPTY_ACCOUNT : accounts.intern(accountNumber);
+    }
+
+    private String accountName(int id) {
+        return id == EMPTY_ACCOUNT ? "" : accounts.nameOf(id);
+    }
+
+    // store已经查过字典，索引直接使用列中的编号
+    @Override
+    int fromAccountId(int position, Transaction transaction) {
+        return Math.max(AccountRegistry.NONE, segments[position >>> SEGMENT_SHIFT].from[position & SEGMENT_MASK]);
+    }
+
+    @Override
+    int toAccountId(int position, Transaction transaction) {
+        return Math.max(AccountRegistry.NONE, segments[position >>> SEGMENT_SHIFT].to[position & SEGMENT_MASK]);
+    }
+
+    // 类型、金额、描述和修改标志，写入与修改共用；只写尚未发布的行或分段副本
+    private void writeMutable(Columns columns, int i, Transaction transaction) {
+        long amount = toMinor(transaction.getAmount());
+        if (amount == WIDE_AMOUNT && transaction.getAmount() != null) {
+            columns.wideAmounts.put(i, transaction.getAmount());
+        } else if (columns.amount[i] == WIDE_AMOUNT) {
+            columns.wideAmounts.remove(i);
+        }
+        columns.amount[i] = amount;
+        columns.description[i] = transaction.getDescription() == null
+                ? NO_DESCRIPTION : descriptions.append(transaction.getDescription());
+        Transaction.Type type = transaction.getType();
+        int flags = PRESENT | (type == null ? 0 : type.ordinal() + 1);
+        if ("1".equals(transaction.getModifyFlg())) {
+            flags |= MODIFIED;
+        }
+        columns.flags[i] = (byte) flags;
+    }
+
+    @Override
+    void storeHole(int position) {
+        slotFor(position);
+    }
+
+    @Override
+    Transaction load(int position) {
+        Columns columns = segments[position >>> SEGMENT_SHIFT];
+        int i = position & SEGMENT_MASK;
+        int flags = columns.flags[i];
+        if ((flags & PRESENT) == 0) {
+            return null;
+        }
+        Transaction transaction = new Transaction();
+        transaction.setId(idAt(position));
+        int type = flags & TYPE_MASK;
+        transaction.setType(type == 0 ? null : TYPES[type - 1]);
+        long amount = columns.amount[i];
+        transaction.setAmount(amount == WIDE_AMOUNT ? columns.wideAmounts.get(i) : BigDecimal.valueOf(amount, SCALE));
+        long description = columns.description[i];
+        transaction.setDescription(description == NO_DESCRIPTION ? null : descriptions.read(description));
+        long micros = columns.micros[i];
+        transaction.setTimestamp(micros == NO_TIME ? null : LocalDateTime.ofEpochSecond(
+                Math.floorDiv(micros, 1_000_000L), (int) Math.floorMod(micros, 1_000_000L) * 1_000, ZoneOffset.UTC));
+        transaction.setFromAccountNumber(accountName(columns.from[i]));
+        transaction.setToAccountNumber(accountName(columns.to[i]));
+        transaction.setModifyFlg((flags & MODIFIED) != 0 ? "1" : "0");
+        return transaction;
+    }
+
+    @Override
+    boolean matchesTime(int position, LocalDateTime from, LocalDateTime to) {
+        Columns columns = segments[position >>> SEGMENT_SHIFT];
+        int i = position & SEGMENT_MASK;
+        if ((columns.flags[i] & PRESENT) == 0 || columns.micros[i] == NO_TIME) {
+            return false;
+        }
+        // 列中的时间是微秒精度，t >= from 等价于 t >= from向上取整到微秒，to同理
+        long micros = columns.micros[i];
+        return (from == null || micros >= ceilMicros(from)) && (to == null || micros < ceilMicros(to));
+    }
+
+    private static long ceilMicros(LocalDateTime time) {
+        return micros(time) + (time.getNano() % 1_000 == 0 ? 0 : 1);
+    }
+
+    @Override
+    boolean erase(int position) {
+        int i = position & SEGMENT_MASK;
+        if ((segments[position >>> SEGMENT_SHIFT].flags[i] & PRESENT) == 0) {
+            return false;
+        }
+        Columns copy = new Columns(segments[position >>> SEGMENT_SHIFT]);
+        copy.flags[i] = 0;
+        copy.wideAmounts.remove(i);
+        publish(position, copy);
+        return true;
+    }
+
+    @Override
+    Transaction rewrite(int position, Transaction existing, Transaction update) {
+        Columns copy = new Columns(segments[position >>> SEGMENT_SHIFT]);
+        writeMutable(copy, position & SEGMENT_MASK, update);
+        publish(position, copy);
+        return load(position);
+    }
+
+    // 换上改好的分段副本：外层数组也复制一份再发布，读取方经由volatile读到新数组时一定能看到副本的全部内容
+    private void publish(int position, Columns copy) {
+        Columns[] segs = segments.clone();
+        segs[position >>> SEGMENT_SHIFT] = copy;
+        segments = segs;
+    }
+
+    private Columns slotFor(int position) {
+        int segmentIndex = position >>> SEGMENT_SHIFT;
+        Columns[] segs = segments;
+        if (segmentIndex == segs.length) {
+            segs = Arrays.copyOf(segs, segs.length << 1);
+            segments = segs;
+        }
+        Columns columns = segs[segmentIndex];
+        if (columns == null) {
+            columns = new Columns();
+            segs[segmentIndex] = columns;
+        }
+        return columns;
+    }
+
+    // 能精确表示为分时返回分，否则返回占位值；绝对值不超过2^62，不会与占位值冲突
+    private static long toMinor(BigDecimal amount) {
+        if (amount == null || amount.scale() > SCALE && amount.stripTrailingZeros().scale() > SCALE) {
+            return WIDE_AMOUNT;
+        }
+        BigInteger minor = amount.setScale(SCALE).unscaledValue();
+        return minor.bitLength() < Long.SIZE - 1 ? minor.longValue() : WIDE_AMOUNT;
+    }
+
+    /**
+     * 描述的字节区：UTF-8字节依次追加到1MB的块中，引用为 块号 << 40 | 块内偏移 << 20 | 长度。
+     * 只在追加锁内写入，块写入后不再移动。
+     */
+    private static final class ByteArena {
+        private static final int CHUNK_SHIFT = 20;
+        private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+        private static final long FIELD_MASK = CHUNK_SIZE - 1;
+
+        private volatile byte[][] chunks = new byte[16][];
+        private int chunk = -1;
+        private int offset = CHUNK_SIZE;
+
+        long append(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > FIELD_MASK) {
+                throw new IllegalArgumentException("Description is too long: " + bytes.length + " bytes");
+            }
+            if (offset + bytes.length > CHUNK_SIZE) {
+                byte[][] current = chunks;
+                if (++chunk == current.length) {
+                    current = Arrays.copyOf(current, current.length << 1);
+                }
+                current[chunk] = new byte[CHUNK_SIZE];
+                chunks = current;
+                offset = 0;
+            }
+            System.arraycopy(bytes, 0, chunks[chunk], offset, bytes.length);
+            long ref = (long) chunk << (2 * CHUNK_SHIFT) | (long) offset << CHUNK_SHIFT | bytes.length;
+            offset += bytes.length;
+            return ref;
+        }
+
+        String read(long ref) {
+            byte[] bytes = chunks[(int) (ref >>> (2 * CHUNK_SHIFT))];
+            return new String(bytes, (int) (ref >>> CHUNK_SHIFT & FIELD_MASK), (int) (ref & FIELD_MASK),
+                    StandardCharsets.UTF_8);
+        }
+    }
+}
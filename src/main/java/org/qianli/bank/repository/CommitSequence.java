@@ -0,0 +1,158 @@
+package org.qianli.bank.repository;
+
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 余额多版本的全局提交序号、可见水位和版本回收边界。
+ * <p>
+ * 每次余额提交用{@link #begin}取得一个递增的序号，把新版本挂到所涉及账户的版本链上之后调用{@link #commit}。
+ * 提交可能乱序完成，可见水位只推进到"此前的序号全部已提交"的位置：
+ * 读取方以水位为快照点，每个账户取序号不大于快照点的最新版本，得到的一定是某个提交前后的完整状态，
+ * 转账不会只看到扣款不见入账。已完成的序号记在环形数组中，任何一个写入方完成后都会顺带推进水位，
+ * 读取方和写入方都不加锁。
+ * <p>
+ * 版本链按纪元回收：读取方打开快照时在读者槽位中登记快照点，关闭时注销；
+ * 没有活跃读者时写入方直接以当前水位为回收边界；有读者时每{@link #EPOCH}个提交
+ * 先发布候选边界（当前水位）再扫描一次读者槽位，边界取两者的较小值。
+ * 写入方挂新版本时截断该账户链上边界以前的版本，之后再没有快照能看到它们。
+ * <p>
+ * 调用方须保证：同一账户上的提交按序号顺序挂链，即取号到挂链期间独占所涉及的账户（账户锁或CAS重试），
+ * 且取号到提交之间不等待其他线程。
+ */
+@Component
+public class CommitSequence {
+    // 一个纪元的提交数，有活跃读者时每个纪元重新计算一次回收边界
+    static final int EPOCH = 1024;
+    private static final int RING_SIZE = 1 << 16;
+    private static final int RING_MASK = RING_SIZE - 1;
+    private static final int READER_SLOTS = 128;
+    private static final long IDLE = Long.MAX_VALUE;
+
+    private final AtomicLong next = new AtomicLong();
+    private final AtomicLong visible = new AtomicLong();
+    // 下标为序号对环长取模，值为已提交的序号
+    private final AtomicLongArray committed = new AtomicLongArray(RING_SIZE);
+    private final AtomicLongArray readers = new AtomicLongArray(READER_SLOTS);
+    private final AtomicInteger activeReaders = new AtomicInteger();
+    // 写入方发布的候选边界，读取方登记快照点后据此校验
+    private final AtomicLong candidate = new AtomicLong();
+    private final AtomicLong horizon = new AtomicLong();
+
+    public CommitSequence() {
+        for (int i = 0; i < READER_SLOTS; i++) {
+            readers.set(i, IDLE);
+        }
+    }
+
+    /**
+     * 取得下一个提交序号。未推进的序号占满环形数组时等待水位推进
+     */
+    public long begin() {
+        long seq = next.incrementAndGet();
+        while (seq - visible.get() > RING_SIZE) {
+            Thread.onSpinWait();
+            Thread.yield();
+        }
+        return seq;
+    }
+
+    /**
+     * 标记seq已提交（版本已挂链，或者取号后放弃），并推进水位和回收边界
+     */
+    public void commit(long seq) {
+        committed.set((int) (seq & RING_MASK), seq);
+        // 逐个越过已提交的序号；没越过seq说明更早的序号未完成，由它的提交方继续推进
+        long current = visible.get();
+        while (committed.get((int) ((current + 1) & RING_MASK)) == current + 1) {
+            if (visible.compareAndSet(current, current + 1)) {
+                current++;
+            } else {
+                current = visible.get();
+            }
+        }
+        advanceHorizon(seq);
+    }
+
+    private void advanceHorizon(long seq) {
+        // 先读水位再读读者数：读者数为0时，之后打开的快照的快照点都不小于bound
+        long bound = visible.get();
+        if (activeReaders.get() == 0) {
+            // 并发写入方可能写入较旧的bound，边界偶尔回退只是少回收，不影响正确性
+            if (bound > horizon.get()) {
+                horizon.setRelease(bound);
+            }
+        } else if ((seq & (EPOCH - 1)) == 0) {
+            // 扫描前发布候选边界，扫描时尚未登记的读者会据此重新取快照点
+            candidate.accumulateAndGet(bound, Math::max);
+            for (int i = 0; i < READER_SLOTS; i++) {
+                bound = Math.min(bound, readers.get(i));
+            }
+            horizon.accumulateAndGet(bound, Math::max);
+        }
+    }
+
+    /**
+     * 当前的可见水位：不大于它的序号都已提交
+     */
+    public long visible() {
+        return visible.get();
+    }
+
+    /**
+     * 回收边界：所有已打开和之后打开的快照的快照点都不小于它，版本链上它以前的版本可以截断
+     */
+    public long horizon() {
+        return horizon.get();
+    }
+
+    /**
+     * 打开一个快照，快照点为当前水位；用完必须关闭，否则它以后的版本都无法回收
+     */
+    public Snapshot openSnapshot() {
+        activeReaders.incrementAndGet();
+        int start = (int) Thread.currentThread().threadId() & (READER_SLOTS - 1);
+        for (int probe = 0; ; probe++) {
+            int slot = (start + probe) & (READER_SLOTS - 1);
+            long seq = visible.get();
+            if (readers.get(slot) == IDLE && readers.compareAndSet(slot, IDLE, seq)) {
+                // 登记之后候选边界仍不超过快照点，扫描读者槽位的写入方一定会看到这次登记
+                while (candidate.get() > seq) {
+                    seq = visible.get();
+                    readers.set(slot, seq);
+                }
+                return new Snapshot(slot, seq);
+            }
+            if (probe > 0 && slot == start) {
+                Thread.yield();
+            }
+        }
+    }
+
+    public final class Snapshot implements AutoCloseable {
+        private final int slot;
+        private final long seq;
+        private boolean closed;
+
+        private Snapshot(int slot, long seq) {
+            this.slot = slot;
+            this.seq = seq;
+        }
+
+        public long seq() {
+            return seq;
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                readers.set(slot, IDLE);
+                activeReaders.decrementAndGet();
+            }
+        }
+    }
+}
@@ -1,71 +1,247 @@
 package org.qianli.bank.repository;
 
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Repository;
 import org.qianli.bank.model.Account;
 
 import java.math.BigDecimal;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * BigDecimal余额的账户仓库，余额检查与扣减的原子性由TransactionService的账户锁保证。
+ * <p>
+ * 每个账户是一条不可变版本链（见{@link BalanceVersions}），余额变更追加新版本而不是修改对象：
+ * findAll在一个提交快照上读取全部账户，转账的扣款和入账同时可见，读取方不加锁也不阻塞写入方；
+ * 单个账户的读取返回最新版本。返回的Account都是副本，修改它们不会影响余额。
+ * 热点账户拆分成子余额后（见{@link #stripe}），读取返回各子余额之和。
+ */
 @Repository
+@ConditionalOnProperty(name = "bank.account.store", havingValue = "memory", matchIfMissing = true)
 public class InMemoryAccountRepository implements AccountRepository {
-    private final Map<String, Account> accounts = new ConcurrentHashMap<>();
+    private final AccountRegistry registry;
+    private final BalanceVersions<Version> versions;
+
+    // 账户的一个版本；balance为null表示账户在此版本被删除
+    private static final class Version extends BalanceVersion {
+        final Long id;
+        final String accountHolder;
+        final BigDecimal balance;
+
+        Version(long seq, BalanceVersion previous, Long id, String accountHolder, BigDecimal balance) {
+            super(seq, previous);
+            this.id = id;
+            this.accountHolder = accountHolder;
+            this.balance = balance;
+        }
+
+        boolean exists() {
+            return balance != null;
+        }
+
+        Version withBalance(long seq, BigDecimal balance) {
+            return new Version(seq, this, id, accountHolder, balance);
+        }
+    }
 
     public InMemoryAccountRepository() {
+        this(new AccountRegistry(), new CommitSequence());
+    }
+
+    @Autowired
+    public InMemoryAccountRepository(AccountRegistry registry, CommitSequence commits) {
+        this.registry = registry;
+        this.versions = new BalanceVersions<>(commits);
         // 初始化10个模拟账户
         for (int i = 1; i <= 10; i++) {
             String accountNumber = String.format("A%03d", i); // A001-A010
             String accountName = "账户" + i;
             BigDecimal balance = new BigDecimal("10000.00");
             Account account = new Account((long)i,accountNumber, accountName, balance);
-            accounts.put(accountNumber, account);
+            put(account);
+        }
+    }
+
+    private static boolean exists(Version version) {
+        return version != null && version.exists();
+    }
+
+    // version为账户单元在snapshot下的版本，拆分过的账户加上同一快照点下其他子余额的余额
+    private Account toAccount(int accountId, Version version, long snapshot) {
+        BigDecimal balance = version.balance;
+        for (int stripe = 1, stripes = versions.stripes(accountId); stripe < stripes; stripe++) {
+            Version part = versions.visibleAt(accountId, stripe, snapshot);
+            if (exists(part)) {
+                balance = balance.add(part.balance);
+            }
         }
+        return new Account(version.id, registry.nameOf(accountId), version.accountHolder, balance);
+    }
+
+    private static BalanceVersions.Step<Version> debit(BigDecimal amount) {
+        return (current, seq) -> exists(current) && current.balance.compareTo(amount) >= 0
+                ? current.withBalance(seq, current.balance.subtract(amount)) : null;
+    }
+
+    private static BalanceVersions.Step<Version> credit(BigDecimal amount) {
+        return (current, seq) -> exists(current) ? current.withBalance(seq, current.balance.add(amount)) : null;
+    }
+
+    // 从heads[0..count)这些子余额中依次扣款，合计不够时不修改
+    private static BalanceVersions.MultiStep borrow(BigDecimal amount) {
+        return (heads, count, seq) -> {
+            BigDecimal total = BigDecimal.ZERO;
+            for (int i = 0; i < count; i++) {
+                Version part = (Version) heads[i];
+                if (!exists(part)) {
+                    return false;
+                }
+                total = total.add(part.balance);
+            }
+            if (total.compareTo(amount) < 0) {
+                return false;
+            }
+            BigDecimal remaining = amount;
+            for (int i = 0; i < count && remaining.signum() > 0; i++) {
+                Version part = (Version) heads[i];
+                BigDecimal taken = part.balance.min(remaining);
+                if (taken.signum() > 0) {
+                    heads[i] = part.withBalance(seq, part.balance.subtract(taken));
+                    remaining = remaining.subtract(taken);
+                }
+            }
+            return true;
+        };
+    }
+
+    @Override
+    public AccountRegistry getRegistry() {
+        return registry;
     }
 
     @Override
     public List<Account> findAll() {
-        return new ArrayList<>(accounts.values());
+        List<Account> result = new ArrayList<>();
+        try (CommitSequence.Snapshot snapshot = versions.commits().openSnapshot()) {
+            int capacity = versions.capacity();
+            for (int id = 1; id < capacity; id++) {
+                Version version = versions.visibleAt(id, snapshot.seq());
+                if (exists(version)) {
+                    result.add(toAccount(id, version, snapshot.seq()));
+                }
+            }
+        }
+        return result;
     }
 
     @Override
     public Optional<Account> findByAccountNumber(String accountNumber) {
-        return Optional.ofNullable(accounts.get(accountNumber));
+        return findByAccountId(registry.idOf(accountNumber));
+    }
+
+    @Override
+    public Optional<Account> findByAccountId(int accountId) {
+        Version version = versions.latest(accountId);
+        return exists(version) ? Optional.of(toAccount(accountId, version, BalanceVersions.LATEST)) : Optional.empty();
     }
 
     @Override
     public Account save(Account account) {
-        accounts.put(account.getAccountNumber(), account);
+        return put(account);
+    }
+
+    // 构造函数也通过这里写入初始账户，不调用可被覆盖的save
+    private Account put(Account account) {
+        if (account.getAccountNumber() == null || account.getAccountNumber().isEmpty()) {
+            throw new IllegalArgumentException("Account number is required");
+        }
+        int id = registry.intern(account.getAccountNumber());
+        // 拆分过的账户：余额放在账户单元上，其他子余额清零
+        versions.replace(id, true, (heads, count, seq) -> {
+            for (int i = 0; i < count; i++) {
+                heads[i] = new Version(seq, heads[i], account.getId(), account.getAccountHolder(),
+                        i == 0 ? account.getBalance() : BigDecimal.ZERO);
+            }
+            return true;
+        });
         return account;
     }
 
     @Override
     public void deleteByAccountNumber(String accountNumber) {
-        accounts.remove(accountNumber);
+        versions.replace(registry.idOf(accountNumber), false, (heads, count, seq) -> {
+            if (!exists((Version) heads[0])) {
+                return false;
+            }
+            for (int i = 0; i < count; i++) {
+                Version current = (Version) heads[i];
+                heads[i] = new Version(seq, current, current.id, current.accountHolder, null);
+            }
+            return true;
+        });
     }
 
     @Override
     public Account update(Account account) {
-        accounts.put(account.getAccountNumber(), account);
-        return account;
+        return save(account);
     }
 
     @Override
     public boolean deposit(String accountNumber, BigDecimal amount) {
-        Account account = accounts.get(accountNumber);
-        if (account != null) {
-            account.setBalance(account.getBalance().add(amount));
-            return true;
-        }
-        return false;
+        return deposit(registry.idOf(accountNumber), amount);
     }
 
     @Override
     public boolean withdraw(String accountNumber, BigDecimal amount) {
-        Account account = accounts.get(accountNumber);
-        if (account != null && account.getBalance().compareTo(amount) >= 0) {
-            account.setBalance(account.getBalance().subtract(amount));
-            return true;
+        return withdraw(registry.idOf(accountNumber), amount);
+    }
+
+    @Override
+    public boolean deposit(int accountId, BigDecimal amount) {
+        return versions.credit(accountId, credit(amount));
+    }
+
+    @Override
+    public boolean withdraw(int accountId, BigDecimal amount) {
+        return versions.debit(accountId, debit(amount), borrow(amount));
+    }
+
+    /**
+     * 扣款和入账以同一个提交序号写入，快照中同时可见
+     */
+    @Override
+    public boolean transfer(int fromAccountId, int toAccountId, BigDecimal amount) {
+        if (fromAccountId == toAccountId) {
+            return false;
+        }
+        return versions.transfer(fromAccountId, toAccountId, debit(amount), borrow(amount), credit(amount));
+    }
+
+    @Override
+    public boolean transfer(String fromAccountNumber, String toAccountNumber, BigDecimal amount) {
+        return transfer(registry.idOf(fromAccountNumber), registry.idOf(toAccountNumber), amount);
+    }
+
+    /**
+     * 合计扣款和全部入账以同一个提交序号写入，快照中同时可见
+     */
+    @Override
+    public boolean transfer(int fromAccountId, int[] toAccountIds, BigDecimal[] amounts) {
+        BigDecimal total = BigDecimal.ZERO;
+        List<BalanceVersions.Step<Version>> credits = new ArrayList<>(amounts.length);
+        for (BigDecimal amount : amounts) {
+            total = total.add(amount);
+            credits.add(credit(amount));
         }
-        return false;
+        return versions.transfer(fromAccountId, toAccountIds, borrow(total), credits);
+    }
+
+    /**
+     * 把账户余额拆成stripes个子余额，新拆出的子余额从零开始
+     */
+    @Override
+    public boolean stripe(int accountId, int stripes) {
+        return versions.stripe(accountId, stripes, (current, seq) -> exists(current)
+                ? new Version(seq, null, current.id, current.accountHolder, BigDecimal.ZERO) : null);
     }
 }
@@ -1,15 +1,19 @@
 package org.qianli.bank.repository;
 
 import org.qianli.bank.model.Transaction;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Repository;
 
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.ListIterator;
 import java.util.Optional;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicLong;
 
 @Repository
+@ConditionalOnProperty(name = "bank.transaction.store", havingValue = "memory")
 public class InMemoryTransactionRepository implements TransactionRepository {
     // 使用CopyOnWriteArrayList保证线程安全
     private final List<Transaction> transactions = new CopyOnWriteArrayList<>();
@@ -44,6 +48,64 @@ public class InMemoryTransactionRepository implements TransactionRepository {
         return result.subList(start, end);
     }
 
+    @Override
+    public List<Transaction> findAfter(long afterId, int limit, String type, String accountId) {
+        // 列表按id升序，二分定位起点；并发删除可能使下标偏移，遍历时再按id过滤一次
+        int low = 0;
+        int high = transactions.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            Long id;
+            try {
+                id = transactions.get(mid).getId();
+            } catch (IndexOutOfBoundsException e) {
+                high = mid;
+                continue;
+            }
+            if (id <= afterId) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        List<Transaction> result = new ArrayList<>(limit);
+        Iterator<Transaction> iterator = transactions.listIterator(Math.min(low, transactions.size()));
+        while (iterator.hasNext() && result.size() < limit) {
+            Transaction t = iterator.next();
+            if (t.getId() <= afterId) {
+                continue;
+            }
+            if (type != null && !type.isEmpty() && !t.getType().toString().equalsIgnoreCase(type)) {
+                continue;
+            }
+            if (accountId != null && !accountId.isEmpty()
+                    && !accountId.equals(t.getFromAccountNumber()) && !accountId.equals(t.getToAccountNumber())) {
+                continue;
+            }
+            result.add(t);
+        }
+        return result;
+    }
+
+    @Override
+    public List<Transaction> findLatest(String accountId, String type, int limit) {
+        // 没有账户索引，从尾部往前扫描直到取满
+        List<Transaction> result = new ArrayList<>(limit);
+        ListIterator<Transaction> iterator = transactions.listIterator(transactions.size());
+        while (iterator.hasPrevious() && result.size() < limit) {
+            Transaction t = iterator.previous();
+            if (!accountId.equals(t.getFromAccountNumber()) && !accountId.equals(t.getToAccountNumber())) {
+                continue;
+            }
+            if (type != null && !type.isEmpty() && !t.getType().toString().equalsIgnoreCase(type)) {
+                continue;
+            }
+            result.add(t);
+        }
+        return result;
+    }
+
     @Override
     public Optional<Transaction> findById(Long id) {
         return transactions.stream()
@@ -58,6 +120,25 @@ public class InMemoryTransactionRepository implements TransactionRepository {
         return transaction;
     }
 
+    @Override
+    public List<Transaction> saveAll(List<Transaction> batch) {
+        for (Transaction transaction : batch) {
+            transaction.setId(nextId.getAndIncrement());
+        }
+        // 整批只复制一次数组
+        transactions.addAll(batch);
+        return batch;
+    }
+
+    @Override
+    public void restoreAll(List<Transaction> restored, long next) {
+        transactions.addAll(restored);
+        nextId.accumulateAndGet(next, Math::max);
+        for (Transaction transaction : restored) {
+            nextId.accumulateAndGet(transaction.getId() + 1, Math::max);
+        }
+    }
+
     @Override
     public void deleteById(Long id) {
         transactions.removeIf(t -> t.getId().equals(id));
@@ -68,10 +149,14 @@ public class InMemoryTransactionRepository implements TransactionRepository {
         Transaction existing = findById(transaction.getId())
                 .orElseThrow(() -> new RuntimeException("Transaction not found with id: " + transaction.getId()));
         
-        existing.setType(transaction.getType());
-        existing.setAmount(transaction.getAmount());
-        existing.setDescription(transaction.getDescription());
-        return existing;
+        // 替换为修改后的副本，正在遍历的读取方仍看到修改前的完整记录
+        Transaction updated = existing.copy();
+        updated.setType(transaction.getType());
+        updated.setAmount(transaction.getAmount());
+        updated.setDescription(transaction.getDescription());
+        updated.setModifyFlg(transaction.getModifyFlg());
+        transactions.replaceAll(t -> t.getId().equals(updated.getId()) ? updated : t);
+        return updated;
     }
 
     @Override
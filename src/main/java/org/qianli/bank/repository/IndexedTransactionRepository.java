@@ -0,0 +1,86 @@
+package org.qianli.bank.repository;
+
+import org.qianli.bank.model.Transaction;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Repository;
+
+import java.util.Arrays;
+
+/**
+ * 基于分段追加日志的交易仓库。
+ * <p>
+ * 交易对象按写入顺序直接存放在定长分段中，id寻址、倒排索引与时间索引见{@link SegmentedTransactionRepository}。
+ * 查询返回的就是仓库中保存的对象本身，调用方不能修改；修改交易时整行替换为新对象（写时复制）。
+ */
+@Repository
+@ConditionalOnProperty(name = "bank.transaction.store", havingValue = "indexed", matchIfMissing = true)
+public class IndexedTransactionRepository extends SegmentedTransactionRepository {
+    // 分段日志，外层数组按需倍增，分段本身写满后不再移动
+    private volatile Transaction[][] segments = new Transaction[16][];
+
+    public IndexedTransactionRepository() {
+        this(new AccountRegistry());
+    }
+
+    @Autowired
+    public IndexedTransactionRepository(AccountRegistry accounts) {
+        super(accounts);
+    }
+
+    @Override
+    void store(int position, Transaction transaction) {
+        slotFor(position)[position & SEGMENT_MASK] = transaction;
+    }
+
+    @Override
+    void storeHole(int position) {
+        slotFor(position);
+    }
+
+    @Override
+    Transaction load(int position) {
+        return segments[position >>> SEGMENT_SHIFT][position & SEGMENT_MASK];
+    }
+
+    @Override
+    boolean erase(int position) {
+        Transaction[] segment = segments[position >>> SEGMENT_SHIFT];
+        if (segment[position & SEGMENT_MASK] == null) {
+            return false;
+        }
+        segment[position & SEGMENT_MASK] = null;
+        return true;
+    }
+
+    // 写时复制：读取方可能持有旧对象，替换为新对象而不是原地修改，读到的每个对象都是某一时刻的完整版本
+    @Override
+    Transaction rewrite(int position, Transaction existing, Transaction update) {
+        Transaction rewritten = existing.copy();
+        rewritten.setType(update.getType());
+        rewritten.setAmount(update.getAmount());
+        rewritten.setDescription(update.getDescription());
+        rewritten.setModifyFlg(update.getModifyFlg());
+        Transaction[][] segs = segments;
+        segs[position >>> SEGMENT_SHIFT][position & SEGMENT_MASK] = rewritten;
+        // 重新发布外层数组，之后读取的线程一定能看到新对象的全部字段
+        segments = segs;
+        return rewritten;
+    }
+
+    // 返回position所在的分段，必要时分配新分段
+    private Transaction[] slotFor(int position) {
+        int segmentIndex = position >>> SEGMENT_SHIFT;
+        Transaction[][] segs = segments;
+        if (segmentIndex == segs.length) {
+            segs = Arrays.copyOf(segs, segs.length << 1);
+            segments = segs;
+        }
+        Transaction[] segment = segs[segmentIndex];
+        if (segment == null) {
+            segment = new Transaction[SEGMENT_SIZE];
+            segs[segmentIndex] = segment;
+        }
+        return segment;
+    }
+}
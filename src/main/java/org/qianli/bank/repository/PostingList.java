@@ -0,0 +1,93 @@
+package org.qianli.bank.repository;
+
+import java.util.Arrays;
+
+/**
+ * 只追加的int列表，用作二级索引的倒排表（记录在日志中的位置，严格递增）。
+ * 写入方必须持有仓库的写锁；读取方无锁：先读size再读元素，
+ * 数组只会变大且旧内容会被完整复制，所以 index < size 的元素总是可见的。
+ */
+final class PostingList {
+    private volatile int[] elements;
+    private volatile int size;
+
+    PostingList() {
+        this.elements = new int[8];
+    }
+
+    private PostingList(int[] elements, int size) {
+        this.elements = elements;
+        this.size = size;
+    }
+
+    // 仅在写锁内调用
+    void add(int position) {
+        int[] array = elements;
+        int n = size;
+        if (n == array.length) {
+            array = Arrays.copyOf(array, n << 1);
+            elements = array;
+        }
+        array[n] = position;
+        size = n + 1;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int get(int index) {
+        return elements[index];
+    }
+
+    /**
+     * 第一个不小于position的元素下标，用于游标分页从任意位置开始遍历
+     */
+    int indexOf(int position) {
+        int n = size;
+        return lowerBound(elements, n, position);
+    }
+
+    /**
+     * 复制出一份新的倒排表并有序插入position（写时复制，用于罕见的重建索引场景）
+     */
+    PostingList copyWith(int position) {
+        int n = size;
+        int[] array = elements;
+        int index = lowerBound(array, n, position);
+        int[] copy = new int[Math.max(8, n + 1)];
+        System.arraycopy(array, 0, copy, 0, index);
+        copy[index] = position;
+        System.arraycopy(array, index, copy, index + 1, n - index);
+        return new PostingList(copy, n + 1);
+    }
+
+    /**
+     * 复制出一份去掉position的新倒排表（写时复制）
+     */
+    PostingList copyWithout(int position) {
+        int n = size;
+        int[] array = elements;
+        int index = lowerBound(array, n, position);
+        int[] copy = Arrays.copyOf(array, Math.max(8, n));
+        if (index < n && array[index] == position) {
+            System.arraycopy(array, index + 1, copy, index, n - index - 1);
+            return new PostingList(copy, n - 1);
+        }
+        return new PostingList(copy, n);
+    }
+
+    private static int lowerBound(int[] array, int n, int position) {
+        int low = 0;
+        int high = n;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (array[mid] < position) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
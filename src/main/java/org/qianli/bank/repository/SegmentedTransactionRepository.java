@@ -0,0 +1,545 @@
+package org.qianli.bank.repository;
+
+import org.qianli.bank.model.Transaction;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+
+/**
+ * 分段追加日志的公共部分：id分配、倒排索引、时间索引与查询，行的存储格式由子类决定。
+ * <p>
+ * 交易按写入顺序追加，id与日志位置一一对应（position = id - 1 - idBase），主键查询直接寻址；
+ * 另外维护按交易类型、按账户、按账户+类型的倒排表，带过滤条件的分页只访问命中的那一页，不再随历史数据量增长。
+ * 按账户的倒排表存放在以账户号字典编号为下标的数组中，查询时账户号只查一次字典。
+ * 写入由一把追加锁串行化（存储钩子除load外都在锁内调用），读取无锁：写入方先写行再发布size，读取方先读size。
+ * <p>
+ * 时间范围查询使用每个分段一个值的时间索引。交易时间在加锁前生成，写入顺序与时间顺序可能略有出入，
+ * 索引保存的是截至该分段末尾的最大时间（单调不减），可以直接二分定位起始分段；
+ * 同时记录所有交易中"截至当前的最大时间 - 实际时间"的最大差值maxLag，
+ * 前一分段的索引值超过 to + maxLag 之后不可能再有落在范围内的交易，遍历在此停止。
+ */
+abstract class SegmentedTransactionRepository implements TransactionRepository {
+    static final int SEGMENT_SHIFT = 12;
+    static final int SEGMENT_SIZE = 1 << SEGMENT_SHIFT;
+    static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+    static final Transaction.Type[] TYPES = Transaction.Type.values();
+
+    private final ReentrantLock appendLock = new ReentrantLock();
+    // 已发布的记录数，读取方先读size再访问行
+    private volatile int size;
+    private volatile int deleted;
+    // 从快照恢复且未加载更早的历史时，内存中第一条记录之前的id数
+    private volatile long idBase;
+    // 时间索引（UTC微秒）：每个分段截至末尾的最大时间，按需倍增
+    private volatile long[] segmentMaxMicros = new long[16];
+    // 截至目前的最大时间和最大偏差，只在追加锁内写
+    private long lastMicros = Long.MIN_VALUE;
+    private volatile long maxLag;
+
+    final AccountRegistry accounts;
+    // 类型被修改时整体替换元素，读取方无锁读取，用原子数组保证替换后的倒排表对读取方可见
+    private final AtomicReferenceArray<PostingList> byType = new AtomicReferenceArray<>(TYPES.length);
+    // 下标为账户编号，只在追加锁内创建元素和替换数组
+    private volatile AccountPostings[] byAccount = new AccountPostings[64];
+
+    SegmentedTransactionRepository(AccountRegistry accounts) {
+        this.accounts = accounts;
+        for (int i = 0; i < byType.length(); i++) {
+            byType.set(i, new PostingList());
+        }
+    }
+
+    // 单个账户的倒排表：全部交易 + 按类型拆分
+    private static final class AccountPostings {
+        final PostingList all = new PostingList();
+        final AtomicReferenceArray<PostingList> byType = new AtomicReferenceArray<>(TYPES.length);
+
+        AccountPostings() {
+            for (int i = 0; i < byType.length(); i++) {
+                byType.set(i, new PostingList());
+            }
+        }
+    }
+
+    /**
+     * 在position写入一行，必要时分配新分段；id已经设置好
+     */
+    abstract void store(int position, Transaction transaction);
+
+    /**
+     * 为position分配存储但不写入内容（恢复时缺失的id）
+     */
+    abstract void storeHole(int position);
+
+    /**
+     * 读取position上的交易，空洞返回null；无锁，position小于已发布的size
+     */
+    abstract Transaction load(int position);
+
+    /**
+     * 删除position上的行，返回该位置原先是否有记录
+     */
+    abstract boolean erase(int position);
+
+    /**
+     * 把修改写入position上的现有行（类型、金额、描述、修改标志），返回修改后的交易
+     */
+    abstract Transaction rewrite(int position, Transaction existing, Transaction update);
+
+    /**
+     * position上的交易是否存在且时间在[from, to)内；子类可以不物化交易直接比较
+     */
+    boolean matchesTime(int position, LocalDateTime from, LocalDateTime to) {
+        Transaction t = load(position);
+        return t != null && TransactionRepository.inRange(t, from, to);
+    }
+
+    @Override
+    public List<Transaction> findAll(int page, int size, String type, String accountId) {
+        Transaction.Type typeFilter = null;
+        if (type != null && !type.isEmpty()) {
+            typeFilter = parseType(type);
+            if (typeFilter == null) {
+                return List.of();
+            }
+        }
+        long start = (long) page * size;
+
+        if (accountId != null && !accountId.isEmpty()) {
+            AccountPostings postings = postingsOf(accountId);
+            if (postings == null) {
+                return List.of();
+            }
+            PostingList list = typeFilter == null ? postings.all : postings.byType.get(typeFilter.ordinal());
+            return collect(list, start, size);
+        }
+        if (typeFilter != null) {
+            return collect(byType.get(typeFilter.ordinal()), start, size);
+        }
+
+        return scan(start, size);
+    }
+
+    @Override
+    public List<Transaction> findAfter(long afterId, int limit, String type, String accountId) {
+        List<Transaction> result = new ArrayList<>(Math.min(limit, 1024));
+        scanAfter(afterId, type, accountId, t -> {
+            result.add(t);
+            return result.size() < limit;
+        });
+        return result;
+    }
+
+    @Override
+    public List<Transaction> findLatest(String accountId, String type, int limit) {
+        AccountPostings postings = postingsOf(accountId);
+        if (postings == null) {
+            return List.of();
+        }
+        PostingList list = postings.all;
+        if (type != null && !type.isEmpty()) {
+            Transaction.Type typeFilter = parseType(type);
+            if (typeFilter == null) {
+                return List.of();
+            }
+            list = postings.byType.get(typeFilter.ordinal());
+        }
+        // 倒排表按位置递增，从尾部往前读，代价只与limit（及其间的空洞）有关
+        int total = size;
+        List<Transaction> result = new ArrayList<>(Math.min(limit, 1024));
+        for (int i = list.size() - 1; i >= 0 && result.size() < limit; i--) {
+            int position = list.get(i);
+            if (position >= total) {
+                continue;
+            }
+            Transaction t = load(position);
+            if (t != null) {
+                result.add(t);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void scanAfter(long afterId, String type, String accountId, Predicate<Transaction> visitor) {
+        scanRange(afterId, null, null, type, accountId, visitor);
+    }
+
+    @Override
+    public void scanRange(long afterId, LocalDateTime fromTime, LocalDateTime toTime, String type, String accountId,
+                          Predicate<Transaction> visitor) {
+        Transaction.Type typeFilter = null;
+        if (type != null && !type.isEmpty()) {
+            typeFilter = parseType(type);
+            if (typeFilter == null) {
+                return;
+            }
+        }
+        // afterId之后第一条记录的位置；位置与id单调对应，直接从这里开始遍历
+        int total = size;
+        long from = Math.max(0, afterId - idBase);
+        // 第一个最大时间不早于fromTime的分段，之前分段中的交易实际时间都早于fromTime
+        if (fromTime != null) {
+            from = Math.max(from, timeLowerBound(micros(fromTime), total));
+        }
+        if (from >= total) {
+            return;
+        }
+        boolean timed = fromTime != null || toTime != null;
+        // 先读size再读maxLag，写入方在发布size之前已更新maxLag
+        long stop = toTime == null ? Long.MAX_VALUE : saturatedAdd(micros(toTime), maxLag);
+        long[] maxMicros = segmentMaxMicros;
+
+        PostingList list = null;
+        if (accountId != null && !accountId.isEmpty()) {
+            AccountPostings postings = postingsOf(accountId);
+            if (postings == null) {
+                return;
+            }
+            list = typeFilter == null ? postings.all : postings.byType.get(typeFilter.ordinal());
+        } else if (typeFilter != null) {
+            list = byType.get(typeFilter.ordinal());
+        }
+
+        int count = list == null ? total : list.size();
+        int segment = -1;
+        for (int i = list == null ? (int) from : list.indexOf((int) from); i < count; i++) {
+            int position = list == null ? i : list.get(i);
+            // 倒排表可能比本次读到的size更新，超出的部分不在本次遍历范围内
+            if (position >= total) {
+                return;
+            }
+            if (position >>> SEGMENT_SHIFT != segment) {
+                segment = position >>> SEGMENT_SHIFT;
+                if (segment > 0 && maxMicros[segment - 1] > stop) {
+                    return;
+                }
+            }
+            if (timed && !matchesTime(position, fromTime, toTime)) {
+                continue;
+            }
+            Transaction t = load(position);
+            if (t != null && !visitor.test(t)) {
+                return;
+            }
+        }
+    }
+
+    // 第一个最大时间不小于micros的分段的起始位置，没有则返回total
+    private int timeLowerBound(long micros, int total) {
+        if (total == 0) {
+            return 0;
+        }
+        long[] maxMicros = segmentMaxMicros;
+        int low = 0;
+        int high = ((total - 1) >>> SEGMENT_SHIFT) + 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (maxMicros[mid] < micros) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return Math.min(total, low << SEGMENT_SHIFT);
+    }
+
+    // 向下取整到微秒：范围比较按实际时间再做一次，这里只需保守
+    static long micros(LocalDateTime time) {
+        return time.toEpochSecond(ZoneOffset.UTC) * 1_000_000L + time.getNano() / 1_000;
+    }
+
+    private static long saturatedAdd(long a, long b) {
+        long sum = a + b;
+        return ((a ^ sum) & (b ^ sum)) < 0 ? Long.MAX_VALUE : sum;
+    }
+
+    // 从日志位置start开始顺序读取，跳过已删除的空洞
+    private List<Transaction> scan(long start, int size) {
+        int total = this.size;
+        if (start >= total) {
+            return List.of();
+        }
+        List<Transaction> result = new ArrayList<>(size);
+        for (int position = (int) start; position < total && result.size() < size; position++) {
+            Transaction t = load(position);
+            if (t != null) {
+                result.add(t);
+            }
+        }
+        return result;
+    }
+
+    private List<Transaction> collect(PostingList list, long start, int size) {
+        int total = list.size();
+        int published = this.size;
+        if (start >= total) {
+            return List.of();
+        }
+        List<Transaction> result = new ArrayList<>(size);
+        for (int i = (int) start; i < total && result.size() < size; i++) {
+            int position = list.get(i);
+            if (position >= published) {
+                break;
+            }
+            Transaction t = load(position);
+            if (t != null) {
+                result.add(t);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Optional<Transaction> findById(Long id) {
+        int position = positionOf(id);
+        return position < 0 ? Optional.empty() : Optional.ofNullable(load(position));
+    }
+
+    // 日志位置对应的id
+    long idAt(int position) {
+        return idBase + position + 1;
+    }
+
+    // id对应的日志位置，不在已发布范围内时返回-1
+    private int positionOf(Long id) {
+        if (id == null) {
+            return -1;
+        }
+        long position = id - 1 - idBase;
+        return position < 0 || position >= size ? -1 : (int) position;
+    }
+
+    @Override
+    public Transaction save(Transaction transaction) {
+        appendLock.lock();
+        try {
+            int position = size;
+            transaction.setId(idBase + position + 1);
+            append(position, transaction);
+            size = position + 1;
+            return transaction;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    @Override
+    public List<Transaction> saveAll(List<Transaction> transactions) {
+        appendLock.lock();
+        try {
+            int position = size;
+            for (Transaction transaction : transactions) {
+                transaction.setId(idBase + position + 1);
+                append(position, transaction);
+                position++;
+            }
+            // 整批一次发布
+            size = position;
+            return transactions;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    private void append(int position, Transaction transaction) {
+        store(position, transaction);
+        recordTime(position, transaction.getTimestamp());
+        index(transaction, position);
+    }
+
+    @Override
+    public void restoreAll(List<Transaction> transactions, long nextId) {
+        appendLock.lock();
+        try {
+            if (size == 0) {
+                // 空仓库从快照恢复时，id从第一条记录（或快照的nextId）开始，不为更早的id保留位置
+                long firstId = transactions.isEmpty() ? nextId : Math.min(transactions.get(0).getId(), nextId);
+                idBase = Math.max(0, firstId - 1);
+            }
+            int end = size;
+            for (Transaction transaction : transactions) {
+                long position = transaction.getId() - 1 - idBase;
+                if (position < end) {
+                    throw new IllegalStateException("Restored transaction id " + transaction.getId() + " is not after " + (idBase + end));
+                }
+                // 日志中缺失的id（例如异步刷盘丢失的尾部）留作空洞
+                end = fillHoles(end, (int) position);
+                append((int) position, transaction);
+                end++;
+            }
+            end = fillHoles(end, (int) Math.max(end, nextId - 1 - idBase));
+            size = end;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    private int fillHoles(int from, int to) {
+        for (int hole = from; hole < to; hole++) {
+            storeHole(hole);
+            recordTime(hole, null);
+            deleted++;
+        }
+        return Math.max(from, to);
+    }
+
+    // 更新时间索引：没有时间的交易和空洞沿用上一个值
+    private void recordTime(int position, LocalDateTime timestamp) {
+        if (timestamp != null) {
+            long actual = micros(timestamp);
+            if (actual > lastMicros) {
+                lastMicros = actual;
+            } else if (lastMicros - actual > maxLag) {
+                maxLag = lastMicros - actual;
+            }
+        }
+        int segment = position >>> SEGMENT_SHIFT;
+        long[] maxMicros = segmentMaxMicros;
+        if (segment == maxMicros.length) {
+            maxMicros = Arrays.copyOf(maxMicros, maxMicros.length << 1);
+            segmentMaxMicros = maxMicros;
+        }
+        maxMicros[segment] = lastMicros;
+    }
+
+    // 没有该账户的交易时返回null
+    private AccountPostings postingsOf(String accountNumber) {
+        return postingsOf(accounts.idOf(accountNumber));
+    }
+
+    private AccountPostings postingsOf(int accountId) {
+        AccountPostings[] postings = byAccount;
+        return accountId > 0 && accountId < postings.length ? postings[accountId] : null;
+    }
+
+    private void index(Transaction transaction, int position) {
+        Transaction.Type type = transaction.getType();
+        if (type != null) {
+            byType.get(type.ordinal()).add(position);
+        }
+        int from = fromAccountId(position, transaction);
+        int to = toAccountId(position, transaction);
+        if (from != AccountRegistry.NONE) {
+            indexAccount(from, type, position);
+        }
+        if (to != AccountRegistry.NONE && to != from) {
+            indexAccount(to, type, position);
+        }
+    }
+
+    /**
+     * 已写入position的交易的转出账户编号（必要时登记），没有账户时返回NONE；
+     * 子类在store中已经查过字典时可以直接返回存下的编号
+     */
+    int fromAccountId(int position, Transaction transaction) {
+        return accounts.intern(transaction.getFromAccountNumber());
+    }
+
+    int toAccountId(int position, Transaction transaction) {
+        return accounts.intern(transaction.getToAccountNumber());
+    }
+
+    private void indexAccount(int accountId, Transaction.Type type, int position) {
+        AccountPostings[] all = byAccount;
+        if (accountId >= all.length) {
+            all = Arrays.copyOf(all, Math.max(all.length << 1, accountId + 1));
+        }
+        AccountPostings postings = all[accountId];
+        if (postings == null) {
+            postings = new AccountPostings();
+            all[accountId] = postings;
+            byAccount = all;
+        }
+        postings.all.add(position);
+        if (type != null) {
+            postings.byType.get(type.ordinal()).add(position);
+        }
+    }
+
+    @Override
+    public void deleteById(Long id) {
+        appendLock.lock();
+        try {
+            int position = positionOf(id);
+            // 只留下空洞，倒排表在读取时跳过空位
+            if (position >= 0 && erase(position)) {
+                deleted++;
+            }
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    @Override
+    public Transaction update(Transaction transaction) {
+        appendLock.lock();
+        try {
+            int position = positionOf(transaction.getId());
+            Transaction existing = position < 0 ? null : load(position);
+            if (existing == null) {
+                throw new RuntimeException("Transaction not found with id: " + transaction.getId());
+            }
+
+            Transaction.Type oldType = existing.getType();
+            Transaction updated = rewrite(position, existing, transaction);
+            if (oldType != updated.getType()) {
+                reindexType(updated, oldType, position);
+            }
+            return updated;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    // 类型被修改时重建类型相关的倒排表，写时复制后通过原子数组整体替换，读取方不受影响
+    private void reindexType(Transaction transaction, Transaction.Type oldType, int position) {
+        Transaction.Type newType = transaction.getType();
+        if (oldType != null) {
+            byType.set(oldType.ordinal(), byType.get(oldType.ordinal()).copyWithout(position));
+        }
+        if (newType != null) {
+            byType.set(newType.ordinal(), byType.get(newType.ordinal()).copyWith(position));
+        }
+        String from = transaction.getFromAccountNumber();
+        String to = transaction.getToAccountNumber();
+        reindexAccountType(from, oldType, newType, position);
+        if (to != null && !to.equals(from)) {
+            reindexAccountType(to, oldType, newType, position);
+        }
+    }
+
+    private void reindexAccountType(String accountNumber, Transaction.Type oldType, Transaction.Type newType, int position) {
+        AccountPostings postings = postingsOf(accountNumber);
+        if (postings == null) {
+            return;
+        }
+        if (oldType != null) {
+            postings.byType.set(oldType.ordinal(), postings.byType.get(oldType.ordinal()).copyWithout(position));
+        }
+        if (newType != null) {
+            postings.byType.set(newType.ordinal(), postings.byType.get(newType.ordinal()).copyWith(position));
+        }
+    }
+
+    @Override
+    public int getTransactionCount() {
+        return size - deleted;
+    }
+
+    static Transaction.Type parseType(String type) {
+        for (Transaction.Type t : TYPES) {
+            if (t.name().equalsIgnoreCase(type)) {
+                return t;
+            }
+        }
+        return null;
+    }
+}
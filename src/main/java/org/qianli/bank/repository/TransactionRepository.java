@@ -2,13 +2,103 @@ package org.qianli.bank.repository;
 
 import org.qianli.bank.model.Transaction;
 
+import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Predicate;
 
 public interface TransactionRepository {
     List<Transaction> findAll(int page, int size, String type, String accountId);
+
+    /**
+     * 游标分页：按id升序返回id大于afterId的前limit条交易
+     */
+    List<Transaction> findAfter(long afterId, int limit, String type, String accountId);
+
+    /**
+     * 账户最近的limit条交易（可按类型过滤），按id倒序，即最新的在前
+     */
+    List<Transaction> findLatest(String accountId, String type, int limit);
+
+    /**
+     * 从afterId之后按id升序逐条访问交易，visitor返回false时停止；用于导出等全量遍历，不构建中间列表。
+     * 默认实现按页拉取，每次只持有一页。
+     */
+    default void scanAfter(long afterId, String type, String accountId, Predicate<Transaction> visitor) {
+        long after = afterId;
+        while (true) {
+            List<Transaction> page = findAfter(after, SCAN_PAGE_SIZE, type, accountId);
+            for (Transaction transaction : page) {
+                if (!visitor.test(transaction)) {
+                    return;
+                }
+            }
+            if (page.size() < SCAN_PAGE_SIZE) {
+                return;
+            }
+            after = page.get(page.size() - 1).getId();
+        }
+    }
+
+    int SCAN_PAGE_SIZE = 1024;
+
+    /**
+     * 在scanAfter的基础上再按时间范围[from, to)过滤，from、to为空表示该端不限。
+     * 默认实现遍历afterId之后的全部交易再逐条比较时间。
+     */
+    default void scanRange(long afterId, LocalDateTime from, LocalDateTime to, String type, String accountId,
+                           Predicate<Transaction> visitor) {
+        if (from == null && to == null) {
+            scanAfter(afterId, type, accountId, visitor);
+            return;
+        }
+        scanAfter(afterId, type, accountId, t -> !inRange(t, from, to) || visitor.test(t));
+    }
+
+    /**
+     * 按时间范围的游标分页：id大于afterId、时间在[from, to)内的前limit条交易，按id升序
+     */
+    default List<Transaction> findRange(long afterId, int limit, LocalDateTime from, LocalDateTime to,
+                                        String type, String accountId) {
+        List<Transaction> result = new ArrayList<>(Math.min(limit, SCAN_PAGE_SIZE));
+        scanRange(afterId, from, to, type, accountId, t -> {
+            result.add(t);
+            return result.size() < limit;
+        });
+        return result;
+    }
+
+    /**
+     * 交易时间是否在[from, to)内；没有时间的交易不属于任何有界范围
+     */
+    static boolean inRange(Transaction transaction, LocalDateTime from, LocalDateTime to) {
+        if (from == null && to == null) {
+            return true;
+        }
+        LocalDateTime timestamp = transaction.getTimestamp();
+        return timestamp != null
+                && (from == null || !timestamp.isBefore(from))
+                && (to == null || timestamp.isBefore(to));
+    }
+
     Optional<Transaction> findById(Long id);
     Transaction save(Transaction transaction);
+
+    /**
+     * 批量追加（组提交），按列表顺序分配id
+     */
+    default List<Transaction> saveAll(List<Transaction> transactions) {
+        for (Transaction transaction : transactions) {
+            save(transaction);
+        }
+        return transactions;
+    }
+    /**
+     * 恢复时按原id写回交易（列表需按id升序），之后新分配的id不小于nextId且在最大id之后
+     */
+    void restoreAll(List<Transaction> transactions, long nextId);
+
     void deleteById(Long id);
     Transaction update(Transaction transaction);
     int getTransactionCount();
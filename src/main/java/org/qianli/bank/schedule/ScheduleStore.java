@@ -0,0 +1,264 @@
+package org.qianli.bank.schedule;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import org.qianli.bank.model.ScheduledTransfer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 预约交易的持久化。
+ * <p>
+ * 每次状态变化把预约的完整状态以一行JSON追加到日志文件，同一预约后写的行覆盖先写的；
+ * 一次调用写入的多行只刷一次盘。启动时回放日志得到每个预约的最终状态，
+ * 只把未结束的预约写进新文件替换旧文件（压缩）；运行中追加的行数远超存活预约数时由调度器再压缩一次。
+ * 编号最大的预约即使已结束也保留，重启后新预约的编号不会与之前的重复。
+ * <p>
+ * bank.schedule.persist=false时不落盘，重启后预约丢失。
+ */
+@Component
+public class ScheduleStore {
+    private static final Logger logger = LoggerFactory.getLogger(ScheduleStore.class);
+
+    private final Path file;
+    private final boolean fsync;
+    private final ObjectMapper objectMapper;
+
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private FileChannel channel;
+    // 上次压缩以来追加的行数
+    private long appended;
+    private long maxId;
+    // 编号最大的预约最后写入的一行，压缩时保留
+    private String maxIdLine;
+
+    public ScheduleStore(@Value("${bank.schedule.persist:false}") boolean persist,
+                         @Value("${bank.schedule.file:./data/schedules.jsonl}") String file,
+                         @Value("${bank.schedule.fsync:true}") boolean fsync,
+                         ObjectMapper objectMapper) {
+        this.file = persist ? Paths.get(file) : null;
+        this.fsync = fsync;
+        this.objectMapper = objectMapper;
+    }
+
+    public boolean isPersistent() {
+        return file != null;
+    }
+
+    /**
+     * 回放日志并压缩，返回未结束（SCHEDULED）的预约，按编号升序
+     */
+    public List<ScheduledTransfer> load() {
+        if (file == null) {
+            return List.of();
+        }
+        writeLock.lock();
+        try {
+            Map<Long, ScheduledTransfer> latest = new HashMap<>();
+            if (Files.exists(file)) {
+                try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                    String line;
+                    int number = 0;
+                    while ((line = reader.readLine()) != null) {
+                        number++;
+                        if (line.isBlank()) {
+                            continue;
+                        }
+                        try {
+                            ScheduledTransfer schedule = objectMapper.readValue(line, ScheduledTransfer.class);
+                            latest.put(schedule.getId(), schedule);
+                        } catch (JsonProcessingException e) {
+                            // 宕机时写了一半的最后一行
+                            logger.warn("Skipping unreadable schedule record at line {}: {}", number, e.getOriginalMessage());
+                        }
+                    }
+                }
+            }
+            List<ScheduledTransfer> live = new ArrayList<>();
+            for (ScheduledTransfer schedule : latest.values()) {
+                if (schedule.getId() > maxId) {
+                    maxId = schedule.getId();
+                    maxIdLine = toJson(schedule);
+                }
+                if (schedule.getStatus() == ScheduledTransfer.Status.SCHEDULED) {
+                    live.add(schedule);
+                }
+            }
+            live.sort((a, b) -> Long.compare(a.getId(), b.getId()));
+            rewrite(live);
+            logger.info("Loaded {} pending scheduled transfers from {}", live.size(), file.toAbsolutePath());
+            return live;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to load scheduled transfers from " + file, e);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * 日志中出现过的最大编号
+     */
+    public long getMaxId() {
+        return maxId;
+    }
+
+    /**
+     * 追加预约的当前状态，返回前已刷盘（bank.schedule.fsync=false时只写入页缓存）
+     */
+    public void write(Collection<ScheduledTransfer> schedules) {
+        if (file == null || schedules.isEmpty()) {
+            return;
+        }
+        StringBuilder lines = new StringBuilder();
+        long lastId = 0;
+        String lastLine = null;
+        for (ScheduledTransfer schedule : schedules) {
+            String line = toJson(schedule);
+            lines.append(line).append('\n');
+            if (schedule.getId() >= lastId) {
+                lastId = schedule.getId();
+                lastLine = line;
+            }
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8));
+        writeLock.lock();
+        try {
+            if (channel == null) {
+                open();
+            }
+            if (lastId >= maxId) {
+                maxId = lastId;
+                maxIdLine = lastLine;
+            }
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            if (fsync) {
+                channel.force(false);
+            }
+            appended += schedules.size();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to write scheduled transfers to " + file, e);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * 追加的行数是否已远超存活预约数，值得压缩
+     */
+    public boolean shouldCompact(int live) {
+        return file != null && appended > 2L * live + 1024;
+    }
+
+    /**
+     * 用存活预约重写日志文件。调用方须保证期间没有并发的write，否则新状态可能被旧快照覆盖
+     */
+    public void compact(Collection<ScheduledTransfer> live) {
+        if (file == null) {
+            return;
+        }
+        writeLock.lock();
+        try {
+            rewrite(live);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to compact scheduled transfers in " + file, e);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // 写临时文件、刷盘后原子替换，再以追加方式打开新文件
+    private void rewrite(Collection<ScheduledTransfer> live) throws IOException {
+        createDirectories();
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        long lines = 0;
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            StringBuilder chunk = new StringBuilder();
+            boolean maxIdLive = false;
+            for (ScheduledTransfer schedule : live) {
+                chunk.append(toJson(schedule)).append('\n');
+                lines++;
+                maxIdLive |= schedule.getId() == maxId;
+                if (chunk.length() > 1 << 16) {
+                    writeFully(out, chunk);
+                }
+            }
+            if (!maxIdLive && maxIdLine != null) {
+                chunk.append(maxIdLine).append('\n');
+                lines++;
+            }
+            writeFully(out, chunk);
+            out.force(true);
+        }
+        if (channel != null) {
+            channel.close();
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        appended = lines;
+    }
+
+    private void open() throws IOException {
+        createDirectories();
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private void createDirectories() throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+    }
+
+    private static void writeFully(FileChannel out, StringBuilder chunk) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(chunk.toString().getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+        chunk.setLength(0);
+    }
+
+    private String toJson(ScheduledTransfer schedule) {
+        try {
+            return objectMapper.writeValueAsString(schedule);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Failed to serialize scheduled transfer " + schedule.getId(), e);
+        }
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        writeLock.lock();
+        try {
+            if (channel != null) {
+                channel.close();
+                channel = null;
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+}
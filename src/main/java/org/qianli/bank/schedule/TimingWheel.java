@@ -0,0 +1,223 @@
+package org.qianli.bank.schedule;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * 分层时间轮。
+ * <p>
+ * 第0层每格tick毫秒、共size格；第i层每格是第i-1层的一整圈，按需向上加层，
+ * 所以几年以后的条目也只占几层，加入和取消都是O(1)，不随待执行条目数增长。
+ * 每层的格子是双向链表，条目记着自己所在的层和格，取消时直接摘下。
+ * <p>
+ * 时间推进一格时，先把各上层中恰好走到的那一格整体取下、按剩余时间重新放入更低的层，
+ * 再把第0层当前格的条目全部交给调用方。没有条目时直接跳到目标时间，空闲期间不逐格空转。
+ * 非线程安全，由调用方加锁。
+ */
+final class TimingWheel<T> {
+
+    /**
+     * 时间轮中的一个条目，取消时传回
+     */
+    static final class Entry<T> {
+        final T item;
+        final long deadline;
+        private Entry<T> previous;
+        private Entry<T> next;
+        // 所在的层和格；不在时间轮中时level为null
+        private Level<T> level;
+        private int slot;
+
+        private Entry(T item, long deadline) {
+            this.item = item;
+            this.deadline = deadline;
+        }
+    }
+
+    private static final class Level<T> {
+        final long tick;
+        final long span;
+        // 当前格的起点，按tick对齐
+        long current;
+        final Entry<T>[] slots;
+
+        @SuppressWarnings("unchecked")
+        Level(long tick, int size, long current) {
+            this.tick = tick;
+            this.span = Math.multiplyExact(tick, size);
+            this.current = current;
+            this.slots = (Entry<T>[]) new Entry<?>[size];
+        }
+    }
+
+    private final int wheelSize;
+    private final int mask;
+    private final List<Level<T>> levels = new ArrayList<>();
+    private int size;
+
+    /**
+     * @param tickMillis 第0层每格的毫秒数
+     * @param wheelSize 每层格数，2的幂
+     * @param startMillis 起始时间
+     */
+    TimingWheel(long tickMillis, int wheelSize, long startMillis) {
+        if (tickMillis < 1 || wheelSize < 2 || Integer.bitCount(wheelSize) != 1) {
+            throw new IllegalArgumentException("tick must be >= 1 and wheel size a power of two");
+        }
+        this.wheelSize = wheelSize;
+        this.mask = wheelSize - 1;
+        levels.add(new Level<>(tickMillis, wheelSize, startMillis - Math.floorMod(startMillis, tickMillis)));
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * 当前格的起点：早于它加一格的条目都已到期
+     */
+    long currentTime() {
+        return levels.get(0).current;
+    }
+
+    /**
+     * 加入一个条目。已到期（deadline在当前格内或更早）时不加入，返回null，由调用方立即处理
+     */
+    Entry<T> add(T item, long deadline) {
+        Entry<T> entry = new Entry<>(item, deadline);
+        return insert(entry) ? entry : null;
+    }
+
+    /**
+     * 取消一个条目，条目已经到期交出时返回false
+     */
+    boolean cancel(Entry<T> entry) {
+        if (entry.level == null) {
+            return false;
+        }
+        unlink(entry);
+        return true;
+    }
+
+    /**
+     * 把时间推进到now所在的格，到期的条目按格的先后交给due（同一格内无序）
+     */
+    void advance(long now, Consumer<T> due) {
+        Level<T> base = levels.get(0);
+        long target = now - Math.floorMod(now, base.tick);
+        while (base.current < target) {
+            if (size == 0) {
+                realign(target);
+                return;
+            }
+            base.current += base.tick;
+            // 先对齐所有走到新格的层，再从最高层往下取下：上层取下的条目要按低层的新位置放入，
+            // 也可能落进同一时刻要取下的低层格
+            int crossed = 1;
+            while (crossed < levels.size() && base.current % levels.get(crossed).tick == 0) {
+                levels.get(crossed).current = base.current;
+                crossed++;
+            }
+            for (int i = crossed - 1; i > 0; i--) {
+                Level<T> level = levels.get(i);
+                Entry<T> entry = detach(level, slotOf(level, base.current));
+                while (entry != null) {
+                    Entry<T> next = entry.next;
+                    entry.previous = null;
+                    entry.next = null;
+                    if (!insert(entry)) {
+                        due.accept(entry.item);
+                    }
+                    entry = next;
+                }
+            }
+            Entry<T> entry = detach(base, slotOf(base, base.current));
+            while (entry != null) {
+                Entry<T> next = entry.next;
+                entry.previous = null;
+                entry.next = null;
+                due.accept(entry.item);
+                entry = next;
+            }
+        }
+    }
+
+    private boolean insert(Entry<T> entry) {
+        Level<T> base = levels.get(0);
+        if (entry.deadline < base.current + base.tick) {
+            return false;
+        }
+        for (int i = 0; ; i++) {
+            Level<T> level = i < levels.size() ? levels.get(i) : addLevel();
+            // 低层放不下时逐层向上；能放进第i层（i>0）的条目不会落在它的当前格，那部分时间由低层覆盖
+            if (entry.deadline - level.current < level.span) {
+                link(level, entry);
+                return true;
+            }
+        }
+    }
+
+    private Level<T> addLevel() {
+        Level<T> top = levels.get(levels.size() - 1);
+        long current = levels.get(0).current;
+        Level<T> level;
+        try {
+            level = new Level<>(top.span, wheelSize, current - current % top.span);
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException("Deadline too far in the future");
+        }
+        levels.add(level);
+        return level;
+    }
+
+    // 空时间轮直接跳到target，各层当前格重新对齐
+    private void realign(long target) {
+        for (Level<T> level : levels) {
+            level.current = target - target % level.tick;
+        }
+    }
+
+    private int slotOf(Level<T> level, long time) {
+        return (int) ((time / level.tick) & mask);
+    }
+
+    private void link(Level<T> level, Entry<T> entry) {
+        int slot = slotOf(level, entry.deadline);
+        Entry<T> head = level.slots[slot];
+        entry.next = head;
+        if (head != null) {
+            head.previous = entry;
+        }
+        level.slots[slot] = entry;
+        entry.level = level;
+        entry.slot = slot;
+        size++;
+    }
+
+    private void unlink(Entry<T> entry) {
+        if (entry.previous != null) {
+            entry.previous.next = entry.next;
+        } else {
+            entry.level.slots[entry.slot] = entry.next;
+        }
+        if (entry.next != null) {
+            entry.next.previous = entry.previous;
+        }
+        entry.previous = null;
+        entry.next = null;
+        entry.level = null;
+        size--;
+    }
+
+    // 取下整格，返回链表头；链上条目的层信息已清除
+    private Entry<T> detach(Level<T> level, int slot) {
+        Entry<T> head = level.slots[slot];
+        level.slots[slot] = null;
+        for (Entry<T> entry = head; entry != null; entry = entry.next) {
+            entry.level = null;
+            size--;
+        }
+        return head;
+    }
+}
@@ -0,0 +1,476 @@
+package org.qianli.bank.schedule;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.qianli.bank.model.BatchItemResult;
+import org.qianli.bank.model.ScheduledTransfer;
+import org.qianli.bank.model.Transaction;
+import org.qianli.bank.service.TransactionService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 预约交易和定期转账的调度器。
+ * <p>
+ * 待执行的预约放在分层时间轮（{@link TimingWheel}）中，加入、取消都是O(1)，几百万条也只占链表节点。
+ * 后台线程每个tick推进一次时间轮，到期的预约进入就绪队列，再按bank.schedule.max-per-second限速、
+ * 每bank.schedule.batch-size条一批交给{@link TransactionService#createTransactions}执行，
+ * 整点集中到期的预约被摊平到之后的若干秒，不会同时冲击账户锁。
+ * 放入时间轮时还会在执行时间上加0~bank.schedule.jitter-ms的随机延迟，进一步打散同一时刻的预约。
+ * <p>
+ * 每批执行前先把这一批记为"执行中"（runningAt）写入{@link ScheduleStore}，执行后再写入结果。
+ * 重启时：停机期间错过的执行立即补执行一次（同样受限速），定期预约之后从下一个未来的时间点继续；
+ * 仍标记为执行中的那一次结果未知，不再重试（避免重复扣款），记入lastError，一次性预约标记为FAILED。
+ */
+@Component
+public class TransferScheduler {
+    private static final Logger logger = LoggerFactory.getLogger(TransferScheduler.class);
+    private static final int WHEEL_SIZE = 512;
+
+    private final TransactionService transactionService;
+    private final ScheduleStore store;
+    private final boolean enabled;
+    private final long tickMillis;
+    private final int batchSize;
+    private final int maxPerSecond;
+    private final long jitterMillis;
+    private final int retainFinished;
+    private final Counter succeeded;
+    private final Counter failed;
+    private final MeterRegistry registry;
+
+    // 以下状态只在lock内访问
+    private final ReentrantLock lock = new ReentrantLock();
+    private TimingWheel<ScheduledTransfer> wheel;
+    // 未结束的预约（含执行中的），按编号排序
+    private final TreeMap<Long, ScheduledTransfer> active = new TreeMap<>();
+    private final Map<Long, TimingWheel.Entry<ScheduledTransfer>> entries = new HashMap<>();
+    private final ArrayDeque<ScheduledTransfer> ready = new ArrayDeque<>();
+    // 最近结束的预约，供查询结果
+    private final LinkedHashMap<Long, ScheduledTransfer> finished;
+    private final AtomicLong nextId = new AtomicLong();
+    private volatile int pendingCount;
+    private volatile int readyCount;
+
+    private ScheduledExecutorService executor;
+
+    public TransferScheduler(TransactionService transactionService, ScheduleStore store, MeterRegistry registry,
+                             @Value("${bank.schedule.enabled:true}") boolean enabled,
+                             @Value("${bank.schedule.tick-ms:1000}") long tickMillis,
+                             @Value("${bank.schedule.batch-size:500}") int batchSize,
+                             @Value("${bank.schedule.max-per-second:2000}") int maxPerSecond,
+                             @Value("${bank.schedule.jitter-ms:0}") long jitterMillis,
+                             @Value("${bank.schedule.retain-finished:10000}") int retainFinished) {
+        this.transactionService = transactionService;
+        this.store = store;
+        this.enabled = enabled;
+        this.tickMillis = Math.max(1, tickMillis);
+        this.batchSize = Math.max(1, batchSize);
+        this.maxPerSecond = maxPerSecond;
+        this.jitterMillis = Math.max(0, jitterMillis);
+        this.retainFinished = retainFinished;
+        this.finished = new LinkedHashMap<>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, ScheduledTransfer> eldest) {
+                return size() > TransferScheduler.this.retainFinished;
+            }
+        };
+        this.wheel = new TimingWheel<>(this.tickMillis, WHEEL_SIZE, System.currentTimeMillis());
+
+        this.succeeded = Counter.builder("bank.schedule.executed")
+                .description("Scheduled transfer executions")
+                .tag("outcome", "success")
+                .register(registry);
+        this.failed = Counter.builder("bank.schedule.executed")
+                .description("Scheduled transfer executions")
+                .tag("outcome", "failure")
+                .register(registry);
+        this.registry = registry;
+    }
+
+    // 构造完成后再把自身交给gauge，避免构造函数中泄漏this
+    @PostConstruct
+    void registerGauges() {
+        Gauge.builder("bank.schedule.pending", this, s -> s.pendingCount)
+                .description("Scheduled transfers waiting for their execution time")
+                .register(registry);
+        Gauge.builder("bank.schedule.ready", this, s -> s.readyCount)
+                .description("Due scheduled transfers waiting for the rate limit")
+                .register(registry);
+    }
+
+    /**
+     * 应用就绪（日志回放完成）后再恢复预约并开始调度
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        recover(System.currentTimeMillis());
+        if (enabled && executor == null) {
+            executor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "transfer-scheduler");
+                thread.setDaemon(true);
+                return thread;
+            });
+            executor.scheduleWithFixedDelay(this::tickQuietly, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 从存储恢复未结束的预约，时间轮从now开始；已过执行时间的预约直接进入就绪队列
+     */
+    void recover(long now) {
+        List<ScheduledTransfer> loaded = store.load();
+        List<ScheduledTransfer> resolved = new ArrayList<>();
+        lock.lock();
+        try {
+            wheel = new TimingWheel<>(tickMillis, WHEEL_SIZE, now);
+            active.clear();
+            entries.clear();
+            ready.clear();
+            nextId.set(store.getMaxId());
+            for (ScheduledTransfer schedule : loaded) {
+                if (schedule.getRunningAt() != null) {
+                    resolveInDoubt(schedule);
+                    resolved.add(schedule);
+                }
+                if (schedule.getStatus() == ScheduledTransfer.Status.SCHEDULED) {
+                    active.put(schedule.getId(), schedule);
+                    enqueue(schedule);
+                } else {
+                    finished.put(schedule.getId(), schedule);
+                }
+            }
+            store.write(resolved);
+            updateGauges();
+            if (!loaded.isEmpty()) {
+                logger.info("Recovered {} scheduled transfers, {} due now, {} in doubt",
+                        loaded.size(), ready.size(), resolved.size());
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 停机前已取出执行、结果未知的一次：不重试，定期预约跳到下一次
+    private void resolveInDoubt(ScheduledTransfer schedule) {
+        schedule.setLastError("Execution at " + schedule.getRunningAt()
+                + " was interrupted by a restart and not retried; check the transaction history");
+        if (schedule.isRecurring()) {
+            schedule.setExecuteAt(schedule.getRunningAt().plusSeconds(schedule.getIntervalSeconds()));
+        } else {
+            schedule.setStatus(ScheduledTransfer.Status.FAILED);
+        }
+        schedule.setRunningAt(null);
+    }
+
+    /**
+     * 新建预约，写入存储后才进入时间轮
+     */
+    public ScheduledTransfer schedule(ScheduledTransfer request) {
+        validate(request);
+        ScheduledTransfer schedule = new ScheduledTransfer();
+        schedule.setType(request.getType());
+        schedule.setFromAccountNumber(request.getFromAccountNumber());
+        schedule.setToAccountNumber(request.getToAccountNumber());
+        schedule.setAmount(request.getAmount());
+        schedule.setDescription(request.getDescription());
+        schedule.setExecuteAt(request.getExecuteAt());
+        schedule.setIntervalSeconds(request.getIntervalSeconds());
+        schedule.setStatus(ScheduledTransfer.Status.SCHEDULED);
+        lock.lock();
+        try {
+            schedule.setId(nextId.incrementAndGet());
+            store.write(List.of(schedule));
+            active.put(schedule.getId(), schedule);
+            enqueue(schedule);
+            updateGauges();
+            return schedule.copy();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void validate(ScheduledTransfer request) {
+        if (request.getType() == null) {
+            throw new IllegalArgumentException("Type is required");
+        }
+        switch (request.getType()) {
+            case DEPOSIT -> requireAccount(request.getToAccountNumber(), "To account is required for deposit");
+            case WITHDRAWAL -> requireAccount(request.getFromAccountNumber(), "From account is required for withdrawal");
+            case TRANSFER -> {
+                requireAccount(request.getFromAccountNumber(), "From account is required for transfer");
+                requireAccount(request.getToAccountNumber(), "To account is required for transfer");
+                if (request.getFromAccountNumber().equals(request.getToAccountNumber())) {
+                    throw new IllegalArgumentException("Cannot transfer to the same account");
+                }
+            }
+            default -> throw new IllegalArgumentException("Invalid transaction type");
+        }
+        if (request.getAmount() == null || request.getAmount().compareTo(BigDecimal.ZERO) <= 0) {
+            throw new IllegalArgumentException("Amount must be greater than 0");
+        }
+        if (request.getAmount().scale() > 2 && request.getAmount().stripTrailingZeros().scale() > 2) {
+            throw new IllegalArgumentException("Amount must have at most 2 decimal places: " + request.getAmount());
+        }
+        if (request.getExecuteAt() == null) {
+            throw new IllegalArgumentException("Execution time is required");
+        }
+        if (request.getIntervalSeconds() != null && request.getIntervalSeconds() < 1) {
+            throw new IllegalArgumentException("Interval must be at least 1 second");
+        }
+    }
+
+    private static void requireAccount(String accountNumber, String message) {
+        if (accountNumber == null || accountNumber.isEmpty()) {
+            throw new IllegalArgumentException(message);
+        }
+    }
+
+    public Optional<ScheduledTransfer> findById(Long id) {
+        lock.lock();
+        try {
+            ScheduledTransfer schedule = active.get(id);
+            if (schedule == null) {
+                schedule = finished.get(id);
+            }
+            return Optional.ofNullable(schedule).map(ScheduledTransfer::copy);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 编号大于afterId的未结束预约，按编号升序最多limit条
+     */
+    public List<ScheduledTransfer> getPending(long afterId, int limit) {
+        if (limit < 1 || limit > 1000) {
+            throw new IllegalArgumentException("Limit must be between 1 and 1000");
+        }
+        lock.lock();
+        try {
+            List<ScheduledTransfer> page = new ArrayList<>(Math.min(limit, active.size()));
+            for (ScheduledTransfer schedule : active.tailMap(afterId, false).values()) {
+                if (page.size() == limit) {
+                    break;
+                }
+                page.add(schedule.copy());
+            }
+            return page;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 取消预约
+     *
+     * @return 不存在时为空
+     * @throws IllegalStateException 预约已结束或正在执行
+     */
+    public Optional<ScheduledTransfer> cancel(Long id) {
+        lock.lock();
+        try {
+            ScheduledTransfer schedule = active.get(id);
+            if (schedule == null) {
+                if (finished.containsKey(id)) {
+                    throw new IllegalStateException("Scheduled transfer has already finished");
+                }
+                return Optional.empty();
+            }
+            if (schedule.getRunningAt() != null) {
+                throw new IllegalStateException("Scheduled transfer is executing, retry later");
+            }
+            schedule.setStatus(ScheduledTransfer.Status.CANCELLED);
+            store.write(List.of(schedule));
+            TimingWheel.Entry<ScheduledTransfer> entry = entries.remove(id);
+            if (entry != null) {
+                wheel.cancel(entry);
+            }
+            // 已在就绪队列中的由出队时跳过
+            active.remove(id);
+            finished.put(id, schedule);
+            updateGauges();
+            return Optional.of(schedule.copy());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void tickQuietly() {
+        try {
+            tick(System.currentTimeMillis());
+        } catch (Exception e) {
+            logger.error("Scheduled transfer tick failed", e);
+        }
+    }
+
+    /**
+     * 推进时间轮到now，在本tick的限额内分批执行就绪的预约
+     *
+     * @return 本次执行的预约数
+     */
+    int tick(long now) {
+        int budget = maxPerSecond > 0 ? (int) Math.max(1, maxPerSecond * tickMillis / 1000) : Integer.MAX_VALUE;
+        lock.lock();
+        try {
+            wheel.advance(now, this::makeReady);
+        } finally {
+            lock.unlock();
+        }
+        int executed = 0;
+        while (executed < budget) {
+            List<ScheduledTransfer> batch = claim(Math.min(batchSize, budget - executed));
+            if (batch.isEmpty()) {
+                break;
+            }
+            execute(batch, now);
+            executed += batch.size();
+        }
+        return executed;
+    }
+
+    // 取出一批就绪的预约，记为执行中并写入存储
+    private List<ScheduledTransfer> claim(int limit) {
+        lock.lock();
+        try {
+            List<ScheduledTransfer> batch = new ArrayList<>(Math.min(limit, ready.size()));
+            while (batch.size() < limit && !ready.isEmpty()) {
+                ScheduledTransfer schedule = ready.poll();
+                if (schedule.getStatus() == ScheduledTransfer.Status.SCHEDULED) {
+                    schedule.setRunningAt(schedule.getExecuteAt());
+                    batch.add(schedule);
+                }
+            }
+            store.write(batch);
+            updateGauges();
+            return batch;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void execute(List<ScheduledTransfer> batch, long now) {
+        List<Transaction> transactions = new ArrayList<>(batch.size());
+        for (ScheduledTransfer schedule : batch) {
+            Transaction transaction = new Transaction();
+            transaction.setType(schedule.getType());
+            transaction.setFromAccountNumber(schedule.getFromAccountNumber());
+            transaction.setToAccountNumber(schedule.getToAccountNumber());
+            transaction.setAmount(schedule.getAmount());
+            transaction.setDescription(schedule.getDescription());
+            transactions.add(transaction);
+        }
+        List<BatchItemResult> results;
+        try {
+            results = transactionService.createTransactions(transactions);
+        } catch (Exception e) {
+            logger.error("Scheduled batch of {} failed: {}", batch.size(), e.getMessage());
+            results = new ArrayList<>(batch.size());
+            for (int i = 0; i < batch.size(); i++) {
+                results.add(BatchItemResult.rejected(i, e.getMessage()));
+            }
+        }
+
+        lock.lock();
+        try {
+            for (int i = 0; i < batch.size(); i++) {
+                complete(batch.get(i), results.get(i), now);
+            }
+            store.write(batch);
+            if (store.shouldCompact(active.size())) {
+                store.compact(active.values());
+            }
+            updateGauges();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void complete(ScheduledTransfer schedule, BatchItemResult result, long now) {
+        boolean created = result.getStatus() == BatchItemResult.Status.CREATED;
+        if (created) {
+            succeeded.increment();
+            schedule.setLastTransactionId(result.getTransaction().getId());
+            schedule.setLastError(null);
+        } else {
+            failed.increment();
+            schedule.setLastError(result.getError());
+        }
+        schedule.setExecutions(schedule.getExecutions() + 1);
+        schedule.setRunningAt(null);
+
+        if (schedule.isRecurring()) {
+            // 错过的多次只补一次，下一次取晚于now的第一个时间点
+            long interval = schedule.getIntervalSeconds();
+            long behind = Math.max(0, (now - toMillis(schedule.getExecuteAt())) / 1000);
+            schedule.setExecuteAt(schedule.getExecuteAt().plusSeconds((behind / interval + 1) * interval));
+            enqueue(schedule);
+        } else {
+            schedule.setStatus(created ? ScheduledTransfer.Status.COMPLETED : ScheduledTransfer.Status.FAILED);
+            active.remove(schedule.getId());
+            finished.put(schedule.getId(), schedule);
+        }
+    }
+
+    // 按执行时间加随机延迟放入时间轮，已到期的直接就绪
+    private void enqueue(ScheduledTransfer schedule) {
+        long deadline = toMillis(schedule.getExecuteAt());
+        if (jitterMillis > 0) {
+            deadline += ThreadLocalRandom.current().nextLong(jitterMillis + 1);
+        }
+        TimingWheel.Entry<ScheduledTransfer> entry = wheel.add(schedule, deadline);
+        if (entry == null) {
+            entries.remove(schedule.getId());
+            ready.add(schedule);
+        } else {
+            entries.put(schedule.getId(), entry);
+        }
+    }
+
+    private void makeReady(ScheduledTransfer schedule) {
+        entries.remove(schedule.getId());
+        ready.add(schedule);
+    }
+
+    private void updateGauges() {
+        pendingCount = active.size();
+        readyCount = ready.size();
+    }
+
+    private static long toMillis(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        if (executor != null) {
+            executor.shutdown();
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        }
+    }
+}
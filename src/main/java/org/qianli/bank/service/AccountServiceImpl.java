@@ -1,7 +1,9 @@
 package org.qianli.bank.service;
 
+import org.qianli.bank.config.CacheConfig;
 import org.qianli.bank.model.Account;
 import org.qianli.bank.repository.AccountRepository;
+import org.springframework.cache.annotation.Cacheable;
 import org.springframework.stereotype.Service;
 
 import java.util.List;
@@ -15,12 +17,15 @@ public class AccountServiceImpl implements AccountService {
         this.accountRepository = accountRepository;
     }
 
+    // sync=true：同一个key同时只有一个线程加载，加载期间的失效会等加载结束后再清除，不会留下旧余额
     @Override
+    @Cacheable(cacheNames = CacheConfig.ACCOUNT_LIST, key = CacheConfig.ACCOUNT_LIST_KEY, sync = true)
     public List<Account> getAllAccounts() {
         return accountRepository.findAll();
     }
 
     @Override
+    @Cacheable(cacheNames = CacheConfig.ACCOUNTS, key = "#accountNumber", sync = true)
     public Optional<Account> getAccountByAccountNumber(String accountNumber) {
         return accountRepository.findByAccountNumber(accountNumber);
     }
@@ -0,0 +1,121 @@
+package org.qianli.bank.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.qianli.bank.model.Transaction;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 异步提交交易。
+ * <p>
+ * 请求线程只负责把交易放入有界队列并立即返回Future，由固定数量的工作线程调用TransactionService执行。
+ * 两道闸门保证过载时延迟有界：队列满时直接拒绝；排队超过max-queue-wait的任务出队时不再执行，
+ * 同样以拒绝结束（客户端多半已经超时，执行只会加重积压）。拒绝统一表现为RejectedExecutionException，
+ * 由接口层转换为429和Retry-After。
+ */
+@Component
+public class AsyncTransactionSubmitter {
+    private final TransactionService transactionService;
+    private final ThreadPoolExecutor executor;
+    private final long maxQueueWaitNanos;
+    private final long retryAfterSeconds;
+    private final Timer queueWait;
+    private final Counter rejectedFull;
+    private final Counter rejectedExpired;
+
+    public AsyncTransactionSubmitter(TransactionService transactionService, MeterRegistry registry,
+                                     @Value("${bank.async.workers:0}") int workers,
+                                     @Value("${bank.async.queue-capacity:1024}") int queueCapacity,
+                                     @Value("${bank.async.max-queue-wait-ms:2000}") long maxQueueWaitMillis,
+                                     @Value("${bank.async.retry-after-seconds:1}") long retryAfterSeconds) {
+        this.transactionService = transactionService;
+        this.maxQueueWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxQueueWaitMillis);
+        this.retryAfterSeconds = retryAfterSeconds;
+        int threads = workers > 0 ? workers : Runtime.getRuntime().availableProcessors();
+        AtomicInteger sequence = new AtomicInteger();
+        // AbortPolicy：队列满时execute抛出RejectedExecutionException
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), r -> {
+                    Thread thread = new Thread(r, "transaction-async-" + sequence.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.AbortPolicy());
+
+        this.queueWait = Timer.builder("bank.async.queue.wait")
+                .description("Time a submitted transaction waited in the async queue")
+                .publishPercentileHistogram()
+                .register(registry);
+        this.rejectedFull = Counter.builder("bank.async.rejected")
+                .description("Async submissions shed under overload")
+                .tag("reason", "queue_full")
+                .register(registry);
+        this.rejectedExpired = Counter.builder("bank.async.rejected")
+                .description("Async submissions shed under overload")
+                .tag("reason", "wait_expired")
+                .register(registry);
+        Gauge.builder("bank.async.queue.depth", executor, e -> e.getQueue().size())
+                .description("Transactions waiting in the async queue")
+                .register(registry);
+        Gauge.builder("bank.async.active", executor, ThreadPoolExecutor::getActiveCount)
+                .description("Async workers currently executing a transaction")
+                .register(registry);
+    }
+
+    /**
+     * 提交一笔交易，返回的Future在执行完成、执行失败或被丢弃时结束
+     *
+     * @throws RejectedExecutionException 队列已满
+     */
+    public CompletableFuture<Transaction> submit(Transaction transaction) {
+        CompletableFuture<Transaction> future = new CompletableFuture<>();
+        long enqueued = System.nanoTime();
+        try {
+            executor.execute(() -> {
+                long waited = System.nanoTime() - enqueued;
+                queueWait.record(waited, TimeUnit.NANOSECONDS);
+                if (waited > maxQueueWaitNanos) {
+                    rejectedExpired.increment();
+                    future.completeExceptionally(new RejectedExecutionException("Transaction waited too long in queue"));
+                    return;
+                }
+                try {
+                    future.complete(transactionService.createTransaction(transaction));
+                } catch (Throwable e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejectedFull.increment();
+            throw e;
+        }
+        return future;
+    }
+
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * 被拒绝的客户端建议的重试间隔
+     */
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+}
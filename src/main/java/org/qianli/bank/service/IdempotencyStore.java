@@ -0,0 +1,162 @@
+package org.qianli.bank.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * 幂等键去重表。
+ * <p>
+ * 每个键对应首次执行的Future：首个请求占位后执行，并发的重复请求直接等待同一个Future，
+ * 窗口期内的重试拿到首次的结果而不再执行。占位只是一次putIfAbsent，不经过账户锁。
+ * <p>
+ * 执行中的键放在单独的表里，从不淘汰，否则重试可能在首次执行完成前拿不到占位而再执行一次；
+ * 完成的结果移入另一张表，按完成顺序排队，超过bank.idempotency.max-keys或窗口期时从最早完成的开始淘汰。
+ * 首个请求先把结果放进完成表、再离开执行表；抢到占位的请求执行前再查一次完成表，两表交接时不会重复执行。
+ * 不可缓存的结果（服务端错误、异常）不进入完成表，之后的重试会重新执行。
+ */
+@Component
+public class IdempotencyStore {
+    // 与RFC草案一致的键长度上限，避免超长键占用内存
+    public static final int MAX_KEY_LENGTH = 255;
+
+    private final long windowNanos;
+    private final long maxKeys;
+    private final ConcurrentHashMap<String, Entry> inFlight = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Completed> completed = new ConcurrentHashMap<>();
+    // 完成表中的条目按完成顺序排列，淘汰从队首开始
+    private final ConcurrentLinkedQueue<Completed> completionOrder = new ConcurrentLinkedQueue<>();
+
+    public IdempotencyStore(@Value("${bank.idempotency.window-seconds:86400}") long windowSeconds,
+                            @Value("${bank.idempotency.max-keys:100000}") long maxKeys) {
+        this.windowNanos = Duration.ofSeconds(windowSeconds).toNanos();
+        this.maxKeys = maxKeys;
+    }
+
+    /**
+     * 执行结果及其是否来自之前的执行
+     */
+    public record Result<T>(T value, boolean replayed) {
+    }
+
+    private record Entry(String fingerprint, CompletableFuture<Object> future) {
+    }
+
+    private record Completed(String key, Entry entry, long completedAt) {
+    }
+
+    /**
+     * 按幂等键执行action，同一个键在窗口期内只执行一次
+     *
+     * @param key         幂等键
+     * @param fingerprint 请求内容的指纹，同一个键配不同的请求视为客户端错误
+     * @param action      首次执行的动作
+     * @param cacheable   结果是否可以保留给后续重试
+     * @throws IllegalArgumentException 键为空或过长
+     * @throws IllegalStateException    键已用于内容不同的请求
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Result<T> execute(String key, String fingerprint, Supplier<T> action, Predicate<T> cacheable) {
+        if (key == null || key.isBlank() || key.length() > MAX_KEY_LENGTH) {
+            throw new IllegalArgumentException("Idempotency-Key must be 1 to " + MAX_KEY_LENGTH + " characters");
+        }
+        Entry done = completedEntry(key);
+        if (done != null) {
+            return replay(done, fingerprint);
+        }
+        Entry entry = new Entry(fingerprint, new CompletableFuture<>());
+        Entry existing = inFlight.putIfAbsent(key, entry);
+        if (existing != null) {
+            return replay(existing, fingerprint);
+        }
+        // 首次执行可能恰好在上面两步之间完成并离开执行表
+        done = completedEntry(key);
+        if (done != null) {
+            // 结果（或指纹不符的错误）先交给可能已在等待本占位的请求，再让出占位
+            try {
+                Result<T> result = replay(done, fingerprint);
+                entry.future().complete(result.value());
+                return result;
+            } catch (RuntimeException e) {
+                entry.future().completeExceptionally(e);
+                throw e;
+            } finally {
+                inFlight.remove(key, entry);
+            }
+        }
+
+        T value;
+        try {
+            value = action.get();
+        } catch (RuntimeException | Error e) {
+            inFlight.remove(key, entry);
+            entry.future().completeExceptionally(e);
+            throw e;
+        }
+        entry.future().complete(value);
+        if (cacheable.test(value)) {
+            Completed record = new Completed(key, entry, System.nanoTime());
+            completed.put(key, record);
+            completionOrder.add(record);
+            evict(record.completedAt());
+        }
+        inFlight.remove(key, entry);
+        return new Result<>(value, false);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> Result<T> replay(Entry entry, String fingerprint) {
+        if (!Objects.equals(entry.fingerprint(), fingerprint)) {
+            throw new IllegalStateException("Idempotency-Key was already used for a different request");
+        }
+        return new Result<>((T) join(entry.future()), true);
+    }
+
+    // 窗口期内完成的结果，过期的顺手删除
+    private Entry completedEntry(String key) {
+        Completed record = completed.get(key);
+        if (record == null) {
+            return null;
+        }
+        if (System.nanoTime() - record.completedAt() > windowNanos) {
+            completed.remove(key, record);
+            return null;
+        }
+        return record.entry();
+    }
+
+    // 从最早完成的开始淘汰，直到不超过上限且队首仍在窗口期内
+    private void evict(long now) {
+        Completed head;
+        while ((head = completionOrder.peek()) != null
+                && (completed.size() > maxKeys || now - head.completedAt() > windowNanos)) {
+            Completed oldest = completionOrder.poll();
+            if (oldest != null) {
+                completed.remove(oldest.key(), oldest);
+            }
+        }
+    }
+
+    private static Object join(CompletableFuture<Object> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    public long size() {
+        return inFlight.size() + completed.size();
+    }
+}
@@ -0,0 +1,194 @@
+package org.qianli.bank.service;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * 单写者分片执行器。
+ * <p>
+ * 账户按账户号字典中的编号取模分配到N个分片（编号连续，分布均匀），每个分片由一个专属线程消费自己的环形队列，
+ * 同一账户的所有余额操作都在其所属分片线程上按提交顺序串行执行，因此余额路径上不需要任何锁。
+ * 外部线程提交到有界环形队列（队列满时阻塞，形成背压）；
+ * 分片线程之间的交接（例如转账的入账步骤）走无界的交接队列并优先处理，避免两个分片互相等待。
+ * <p>
+ * 停止后不再接受外部提交（返回的future以IllegalStateException失败，包括正阻塞在满队列上的提交），
+ * 分片线程处理完已入队的任务后退出，shutdown最多等待SHUTDOWN_TIMEOUT_MILLIS。
+ * 停止时未完成的余额变动对应的交易不会写入日志，重启后余额按日志重建，不受影响。
+ */
+@Component
+@ConditionalOnProperty(name = "bank.execution.mode", havingValue = "sharded")
+public class ShardedLedgerExecutor {
+    // 唤醒分片线程用的空任务
+    private static final Runnable WAKEUP = () -> { };
+    private static final Logger logger = LoggerFactory.getLogger(ShardedLedgerExecutor.class);
+    private static final long SHUTDOWN_TIMEOUT_MILLIS = 5_000;
+    // 队列满时阻塞的提交每隔这么久检查一次是否已停止
+    private static final long OFFER_RECHECK_MILLIS = 10;
+
+    private final Shard[] shards;
+    private volatile boolean stopped;
+
+    public ShardedLedgerExecutor(@Value("${bank.execution.shards:0}") int shardCount,
+                                 @Value("${bank.execution.ring-size:1024}") int ringSize) {
+        int count = shardCount > 0 ? shardCount : Runtime.getRuntime().availableProcessors();
+        this.shards = new Shard[count];
+        for (int i = 0; i < count; i++) {
+            shards[i] = new Shard(i, ringSize);
+            shards[i].start();
+        }
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    public int shardOf(int accountId) {
+        return accountId % shards.length;
+    }
+
+    /**
+     * 在账户（以编号给出）所属分片上执行task。
+     * 从分片线程内调用时：目标是当前分片则直接执行，否则放入目标分片的交接队列。
+     */
+    public <T> CompletableFuture<T> submit(int accountId, Supplier<T> task) {
+        Shard target = shards[shardOf(accountId)];
+        CompletableFuture<T> future = new CompletableFuture<>();
+        Runnable runnable = () -> {
+            try {
+                future.complete(task.get());
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        };
+
+        Thread current = Thread.currentThread();
+        if (current instanceof ShardThread shardThread && shardThread.executor == this) {
+            if (shardThread.shard == target) {
+                runnable.run();
+            } else {
+                target.handoff(runnable);
+                // 停止过程中目标分片已经退出：撤回并拒绝，避免调用方一直等待
+                if (stopped && !target.thread.isAlive() && target.handoffs.remove(runnable)) {
+                    future.completeExceptionally(rejected());
+                }
+            }
+            return future;
+        }
+
+        if (stopped) {
+            future.completeExceptionally(rejected());
+            return future;
+        }
+        try {
+            while (!target.ring.offer(runnable, OFFER_RECHECK_MILLIS, TimeUnit.MILLISECONDS)) {
+                if (stopped) {
+                    future.completeExceptionally(rejected());
+                    return future;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.completeExceptionally(e);
+            return future;
+        }
+        // 入队与停止并发时分片线程可能已经退出：撤回并拒绝；撤回不到说明已被分片线程取走执行
+        if (stopped && target.ring.remove(runnable)) {
+            future.completeExceptionally(rejected());
+        }
+        return future;
+    }
+
+    private static IllegalStateException rejected() {
+        return new IllegalStateException("Ledger executor is shut down");
+    }
+
+    /**
+     * 停止接受外部提交，等待分片线程处理完已入队的任务后退出
+     */
+    @PreDestroy
+    public void shutdown() {
+        stopped = true;
+        for (Shard shard : shards) {
+            shard.stop();
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(SHUTDOWN_TIMEOUT_MILLIS);
+        try {
+            for (Shard shard : shards) {
+                long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remaining > 0) {
+                    shard.thread.join(remaining);
+                }
+                if (shard.thread.isAlive()) {
+                    logger.warn("Ledger shard {} did not finish within {} ms", shard.index, SHUTDOWN_TIMEOUT_MILLIS);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private final class ShardThread extends Thread {
+        final ShardedLedgerExecutor executor = ShardedLedgerExecutor.this;
+        final Shard shard;
+
+        ShardThread(Shard shard) {
+            super(shard, "ledger-shard-" + shard.index);
+            this.shard = shard;
+            setDaemon(true);
+        }
+    }
+
+    private final class Shard implements Runnable {
+        final int index;
+        final ArrayBlockingQueue<Runnable> ring;
+        final ConcurrentLinkedQueue<Runnable> handoffs = new ConcurrentLinkedQueue<>();
+        final Thread thread;
+        volatile boolean running = true;
+
+        Shard(int index, int ringSize) {
+            this.index = index;
+            this.ring = new ArrayBlockingQueue<>(ringSize);
+            this.thread = new ShardThread(this);
+        }
+
+        void start() {
+            thread.start();
+        }
+
+        void handoff(Runnable runnable) {
+            handoffs.add(runnable);
+            // 环形队列已满说明分片线程正忙，不需要唤醒
+            ring.offer(WAKEUP);
+        }
+
+        void stop() {
+            running = false;
+            ring.offer(WAKEUP);
+        }
+
+        @Override
+        public void run() {
+            while (running || !ring.isEmpty() || !handoffs.isEmpty()) {
+                Runnable task = handoffs.poll();
+                if (task == null) {
+                    try {
+                        task = ring.take();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                task.run();
+            }
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package org.qianli.bank.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.qianli.bank.model.Transaction;
+import org.qianli.bank.repository.TransactionRepository;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * 交易历史导出。
+ * 通过仓库的scanRange逐条遍历，每条交易直接写入输出流，内存占用与导出的数据量无关。
+ */
+@Service
+public class TransactionExporter {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // 与Transaction的JSON日期格式保持一致
+    private static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss'Z'");
+    private static final String CSV_HEADER = "id,type,amount,description,fromAccountNumber,toAccountNumber,modifyFlg,date\n";
+
+    public enum Format {
+        NDJSON("application/x-ndjson", "ndjson"),
+        CSV("text/csv", "csv");
+
+        private final String contentType;
+        private final String extension;
+
+        Format(String contentType, String extension) {
+            this.contentType = contentType;
+            this.extension = extension;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+
+        public static Format parse(String value) {
+            for (Format format : values()) {
+                if (format.name().equalsIgnoreCase(value)) {
+                    return format;
+                }
+            }
+            throw new IllegalArgumentException("Unsupported export format: " + value);
+        }
+    }
+
+    /**
+     * 导出条件，所有字段可为空；时间范围为[from, to)
+     */
+    public record Filter(String type, String accountId, LocalDateTime from, LocalDateTime to) {
+        public Filter {
+            if (from != null && to != null && !from.isBefore(to)) {
+                throw new IllegalArgumentException("'from' must be before 'to'");
+            }
+        }
+    }
+
+    private final TransactionRepository transactionRepository;
+    private final ObjectMapper objectMapper;
+
+    public TransactionExporter(TransactionRepository transactionRepository, ObjectMapper objectMapper) {
+        this.transactionRepository = transactionRepository;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * 按格式把符合条件的交易写入out，返回写出的条数；out由调用方关闭
+     */
+    public long export(Format format, Filter filter, OutputStream out) throws IOException {
+        return format == Format.CSV ? writeCsv(filter, out) : writeNdjson(filter, out);
+    }
+
+    private long writeNdjson(Filter filter, OutputStream out) throws IOException {
+        long[] count = new long[1];
+        // 默认每写一条就flush一次，会让每行都成为一个HTTP chunk
+        try (SequenceWriter writer = objectMapper.writerFor(Transaction.class)
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE)
+                .without(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+                .withRootValueSeparator("\n")
+                .writeValues(out)) {
+            scan(filter, transaction -> {
+                try {
+                    writer.write(transaction);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                count[0]++;
+            });
+        }
+        if (count[0] > 0) {
+            // 分隔符只写在记录之间，最后一行的换行在生成器刷出后补上
+            out.write('\n');
+        }
+        return count[0];
+    }
+
+    private long writeCsv(Filter filter, OutputStream out) throws IOException {
+        long[] count = new long[1];
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE);
+        writer.write(CSV_HEADER);
+        CsvRowFormatter formatter = new CsvRowFormatter();
+        scan(filter, transaction -> {
+            try {
+                writer.append(formatter.format(transaction));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            count[0]++;
+        });
+        writer.flush();
+        return count[0];
+    }
+
+    private void scan(Filter filter, Consumer<Transaction> sink) throws IOException {
+        Predicate<Transaction> visitor = transaction -> {
+            sink.accept(transaction);
+            return true;
+        };
+        try {
+            // 时间范围由仓库的时间索引定位，不再遍历范围之外的历史
+            transactionRepository.scanRange(0, filter.from(), filter.to(), filter.type(), filter.accountId(), visitor);
+        } catch (UncheckedIOException e) {
+            // 客户端断开等写出错误，还原成IOException交给调用方
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * 单次导出内复用的行格式化器；同一秒内的交易很多，缓存上一次格式化的时间
+     */
+    static final class CsvRowFormatter {
+        private final StringBuilder row = new StringBuilder(128);
+        private LocalDateTime lastTimestamp;
+        private String lastFormatted;
+
+        CharSequence format(Transaction t) {
+            row.setLength(0);
+            row.append(t.getId()).append(',');
+            if (t.getType() != null) {
+                row.append(t.getType().name());
+            }
+            row.append(',');
+            if (t.getAmount() != null) {
+                row.append(t.getAmount().toPlainString());
+            }
+            row.append(',');
+            appendCsvField(row, t.getDescription());
+            row.append(',');
+            appendCsvField(row, t.getFromAccountNumber());
+            row.append(',');
+            appendCsvField(row, t.getToAccountNumber());
+            row.append(',');
+            appendCsvField(row, t.getModifyFlg());
+            row.append(',');
+            LocalDateTime timestamp = t.getTimestamp();
+            if (timestamp != null) {
+                if (lastTimestamp == null || lastTimestamp.toEpochSecond(ZoneOffset.UTC) != timestamp.toEpochSecond(ZoneOffset.UTC)) {
+                    lastTimestamp = timestamp;
+                    lastFormatted = TIMESTAMP_FORMAT.format(timestamp);
+                }
+                row.append(lastFormatted);
+            }
+            row.append('\n');
+            return row;
+        }
+    }
+
+    // RFC 4180：含逗号、引号或换行的字段加引号，内部引号写两次
+    private static void appendCsvField(StringBuilder row, String value) {
+        if (value == null) {
+            return;
+        }
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            row.append(value);
+            return;
+        }
+        row.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                row.append('"');
+            }
+            row.append(c);
+        }
+        row.append('"');
+    }
+}
@@ -0,0 +1,309 @@
+package org.qianli.bank.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.qianli.bank.model.Account;
+import org.qianli.bank.model.Transaction;
+import org.qianli.bank.repository.AccountRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 实时交易推送（SSE）的扇出广播器。
+ * <p>
+ * 写入路径上的onSaved只做一次非阻塞的offer，把交易放进有界收件箱，不给save增加延迟；收件箱满时丢弃并计数。
+ * 单个分发线程从收件箱取出交易，生成交易事件和相关账户的余额事件，按账户索引找到订阅者，
+ * 放入每个订阅者自己的有界缓冲；缓冲满说明该订阅者跟不上，直接断开，不影响其他订阅者。
+ * 每个订阅者由一个虚拟线程把缓冲中的事件写给客户端，慢网络只阻塞它自己的虚拟线程，
+ * 因此可以支撑数千个并发订阅。空闲时定期发送心跳，及时发现已断开的连接。
+ */
+@Component
+public class TransactionFeed implements TransactionListener {
+    private static final Logger logger = LoggerFactory.getLogger(TransactionFeed.class);
+    public static final String TRANSACTION_EVENT = "transaction";
+    public static final String BALANCE_EVENT = "balance";
+    private static final FeedEvent HEARTBEAT = new FeedEvent(null, null);
+
+    /**
+     * 推送给订阅者的事件；name为空表示心跳
+     */
+    public record FeedEvent(String name, Object data) {
+        public boolean isHeartbeat() {
+            return name == null;
+        }
+    }
+
+    /**
+     * 余额事件的内容：事件生成时账户的最新余额
+     */
+    public record BalanceChange(String accountNumber, BigDecimal balance) {
+    }
+
+    /**
+     * 事件的输出端（SSE连接等），send可能阻塞
+     */
+    public interface Sink {
+        void send(FeedEvent event) throws IOException;
+
+        void close();
+    }
+
+    private final AccountRepository accountRepository;
+    private final int bufferSize;
+    private final int maxSubscribers;
+    private final long heartbeatMillis;
+    private final ArrayBlockingQueue<Transaction> inbox;
+    // 不过滤账户的订阅者，以及按账户过滤的订阅者
+    private final Set<Subscriber> unfiltered = ConcurrentHashMap.newKeySet();
+    private final Map<String, Set<Subscriber>> byAccount = new ConcurrentHashMap<>();
+    private final AtomicInteger subscriberCount = new AtomicInteger();
+    private final Counter droppedInbox;
+    private final Counter disconnectedSlow;
+    private final Thread dispatcher;
+    private volatile boolean running = true;
+
+    public TransactionFeed(AccountRepository accountRepository, MeterRegistry registry,
+                           @Value("${bank.feed.inbox-capacity:65536}") int inboxCapacity,
+                           @Value("${bank.feed.buffer-size:256}") int bufferSize,
+                           @Value("${bank.feed.max-subscribers:10000}") int maxSubscribers,
+                           @Value("${bank.feed.heartbeat-seconds:15}") long heartbeatSeconds) {
+        this.accountRepository = accountRepository;
+        this.bufferSize = bufferSize;
+        this.maxSubscribers = maxSubscribers;
+        this.heartbeatMillis = TimeUnit.SECONDS.toMillis(heartbeatSeconds);
+        this.inbox = new ArrayBlockingQueue<>(inboxCapacity);
+        this.droppedInbox = Counter.builder("bank.feed.dropped")
+                .description("Feed events dropped or subscribers disconnected because a buffer was full")
+                .tag("reason", "inbox_full")
+                .register(registry);
+        this.disconnectedSlow = Counter.builder("bank.feed.dropped")
+                .description("Feed events dropped or subscribers disconnected because a buffer was full")
+                .tag("reason", "slow_subscriber")
+                .register(registry);
+        Gauge.builder("bank.feed.subscribers", subscriberCount, AtomicInteger::get)
+                .description("Connected live feed subscribers")
+                .register(registry);
+        Gauge.builder("bank.feed.inbox", inbox, ArrayBlockingQueue::size)
+                .description("Saved transactions waiting to be fanned out")
+                .register(registry);
+        this.dispatcher = new Thread(this::dispatchLoop, "transaction-feed");
+        this.dispatcher.setDaemon(true);
+        this.dispatcher.start();
+    }
+
+    @Override
+    public void onSaved(Transaction transaction) {
+        // 没有订阅者时不入队；入队失败说明分发线程严重落后，宁可丢事件也不阻塞写入方
+        if (subscriberCount.get() > 0 && !inbox.offer(transaction)) {
+            droppedInbox.increment();
+        }
+    }
+
+    /**
+     * 新增订阅
+     *
+     * @param accountId 只接收与该账户相关的事件，为空表示全部
+     * @throws IllegalStateException 订阅数已达上限
+     */
+    public Subscription subscribe(String accountId, Sink sink) {
+        if (subscriberCount.incrementAndGet() > maxSubscribers) {
+            subscriberCount.decrementAndGet();
+            throw new IllegalStateException("Too many live feed subscribers");
+        }
+        Subscriber subscriber = new Subscriber(accountId == null || accountId.isEmpty() ? null : accountId, sink);
+        if (subscriber.accountId == null) {
+            unfiltered.add(subscriber);
+        } else {
+            // 在compute内加入，与remove删除空集合互斥，不会加进已被摘掉的集合
+            byAccount.compute(subscriber.accountId, (k, subscribers) -> {
+                Set<Subscriber> set = subscribers == null ? ConcurrentHashMap.newKeySet() : subscribers;
+                set.add(subscriber);
+                return set;
+            });
+        }
+        subscriber.sender = Thread.ofVirtual().name("transaction-feed-sender").start(subscriber::sendLoop);
+        return subscriber;
+    }
+
+    /**
+     * 订阅句柄，连接结束时取消
+     */
+    public interface Subscription {
+        void cancel();
+    }
+
+    public int getSubscriberCount() {
+        return subscriberCount.get();
+    }
+
+    private void dispatchLoop() {
+        long lastEvent = System.currentTimeMillis();
+        while (running) {
+            Transaction transaction;
+            try {
+                transaction = inbox.poll(heartbeatMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                if (transaction != null) {
+                    dispatch(transaction);
+                    lastEvent = System.currentTimeMillis();
+                } else if (System.currentTimeMillis() - lastEvent >= heartbeatMillis) {
+                    heartbeat();
+                    lastEvent = System.currentTimeMillis();
+                }
+            } catch (RuntimeException e) {
+                logger.error("Live feed dispatch failed: {}", e.getMessage(), e);
+            }
+        }
+    }
+
+    private void dispatch(Transaction transaction) {
+        FeedEvent transactionEvent = new FeedEvent(TRANSACTION_EVENT, transaction);
+        String from = transaction.getFromAccountNumber();
+        String to = transaction.getToAccountNumber();
+        Set<Subscriber> fromSubscribers = from == null ? null : byAccount.get(from);
+        Set<Subscriber> toSubscribers = to == null || to.equals(from) ? null : byAccount.get(to);
+        if (unfiltered.isEmpty() && fromSubscribers == null && toSubscribers == null) {
+            return;
+        }
+        FeedEvent fromBalance = balanceEvent(from);
+        FeedEvent toBalance = to == null || to.equals(from) ? null : balanceEvent(to);
+        for (Subscriber subscriber : unfiltered) {
+            subscriber.offer(transactionEvent, fromBalance, toBalance);
+        }
+        if (fromSubscribers != null) {
+            for (Subscriber subscriber : fromSubscribers) {
+                subscriber.offer(transactionEvent, fromBalance, null);
+            }
+        }
+        if (toSubscribers != null) {
+            for (Subscriber subscriber : toSubscribers) {
+                subscriber.offer(transactionEvent, toBalance, null);
+            }
+        }
+    }
+
+    private FeedEvent balanceEvent(String accountNumber) {
+        if (accountNumber == null || accountNumber.isEmpty()) {
+            return null;
+        }
+        return accountRepository.findByAccountNumber(accountNumber)
+                .map(Account::getBalance)
+                .map(balance -> new FeedEvent(BALANCE_EVENT, new BalanceChange(accountNumber, balance)))
+                .orElse(null);
+    }
+
+    private void heartbeat() {
+        List<Subscriber> all = new ArrayList<>(unfiltered);
+        byAccount.values().forEach(all::addAll);
+        for (Subscriber subscriber : all) {
+            // 缓冲非空时不需要心跳
+            if (subscriber.buffer.isEmpty()) {
+                subscriber.buffer.offer(HEARTBEAT);
+            }
+        }
+    }
+
+    private void remove(Subscriber subscriber) {
+        boolean removed;
+        if (subscriber.accountId == null) {
+            removed = unfiltered.remove(subscriber);
+        } else {
+            // 账户的最后一个订阅者离开时删掉整项，否则订阅过的每个账户都会留下一个空集合
+            boolean[] found = new boolean[1];
+            byAccount.computeIfPresent(subscriber.accountId, (k, subscribers) -> {
+                found[0] = subscribers.remove(subscriber);
+                return subscribers.isEmpty() ? null : subscribers;
+            });
+            removed = found[0];
+        }
+        if (removed) {
+            subscriberCount.decrementAndGet();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        dispatcher.interrupt();
+        List<Subscriber> all = new ArrayList<>(unfiltered);
+        byAccount.values().forEach(all::addAll);
+        all.forEach(Subscriber::cancel);
+    }
+
+    private final class Subscriber implements Subscription {
+        final String accountId;
+        final Sink sink;
+        final ArrayBlockingQueue<FeedEvent> buffer;
+        volatile Thread sender;
+        volatile boolean closed;
+
+        Subscriber(String accountId, Sink sink) {
+            this.accountId = accountId;
+            this.sink = sink;
+            this.buffer = new ArrayBlockingQueue<>(bufferSize);
+        }
+
+        // 只由分发线程调用
+        void offer(FeedEvent... events) {
+            if (closed) {
+                return;
+            }
+            for (FeedEvent event : events) {
+                if (event != null && !buffer.offer(event)) {
+                    logger.warn("Disconnecting slow live feed subscriber (account {})", accountId);
+                    disconnectedSlow.increment();
+                    cancel();
+                    return;
+                }
+            }
+        }
+
+        void sendLoop() {
+            try {
+                while (!closed) {
+                    FeedEvent event = buffer.take();
+                    sink.send(event);
+                }
+            } catch (InterruptedException e) {
+                // 被取消
+            } catch (IOException | RuntimeException e) {
+                // 客户端断开
+            } finally {
+                cancel();
+                sink.close();
+            }
+        }
+
+        @Override
+        public void cancel() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            remove(this);
+            buffer.clear();
+            Thread thread = sender;
+            if (thread != null && thread != Thread.currentThread()) {
+                thread.interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package org.qianli.bank.service;
+
+import org.qianli.bank.model.Transaction;
+
+import java.util.List;
+
+/**
+ * 交易提交后的回调，由TransactionService在请求线程上、账户锁释放之后同步调用。
+ * 实现类注册为Spring Bean即可生效。
+ */
+public interface TransactionListener {
+
+    /**
+     * 交易已写入仓库
+     */
+    void onSaved(Transaction transaction);
+
+    /**
+     * 一批交易已一起写入仓库（批量提交、多腿转账、预约批次），按写入顺序；
+     * 默认逐条调用onSaved，需要按批摊薄开销的实现（如日志的组提交）可以覆盖
+     */
+    default void onSavedAll(List<Transaction> transactions) {
+        for (Transaction transaction : transactions) {
+            onSaved(transaction);
+        }
+    }
+
+    /**
+     * 已有交易被修改后写回仓库
+     */
+    default void onUpdated(Transaction transaction) {
+    }
+
+    /**
+     * 启动时从日志恢复到仓库的交易（按id升序），早于任何新的写入
+     */
+    default void onRestored(Transaction transaction) {
+    }
+
+    /**
+     * 启动时只恢复了快照之后的交易（bank.snapshot.restore-history=false），在onRestored之前调用；
+     * 之后收到的交易不是完整的历史
+     */
+    default void onHistoryTruncated() {
+    }
+}
@@ -0,0 +1,177 @@
+package org.qianli.bank.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import org.qianli.bank.model.Transaction;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * 交易热路径的指标。
+ * <p>
+ * 每种交易类型、每个失败原因各有一个Timer，其count即对应的计数器；
+ * 所有Timer在首次使用时创建并缓存，记录时只有一次map查找和直方图写入；
+ * 分阶段耗时和整笔耗时只输出直方图桶，由Prometheus在服务端计算分位数，客户端不做分位数估算；
+ * 账户锁的等待/持有时间只记录次数、总和与最大值，避免按账户的直方图占用过多内存。
+ * <p>
+ * 每笔交易只有整笔耗时一定记录（其count即按类型的计数）；分阶段耗时和锁持有时间按1/stageSample抽样记录，
+ * 抽样后的分布与全量一致，count只是全量的1/stageSample。锁等待只在发生竞争时记录，不抽样。
+ */
+@Component
+public class TransactionMetrics {
+    public enum Stage {
+        BALANCE,   // 余额变更（锁模式下含等锁时间，分片模式下为分片上的执行与排队时间）
+        APPEND,    // 写入交易仓库
+        PUBLISH    // 通知监听器（日志刷盘等）
+    }
+
+    private static final Transaction.Type[] TYPES = Transaction.Type.values();
+
+    /**
+     * 不向任何注册表输出的实例，用于手工组装的服务（基准测试等）；须在TYPES之后初始化
+     */
+    public static final TransactionMetrics NOOP = new TransactionMetrics(new CompositeMeterRegistry(), false, 1);
+
+    private final MeterRegistry registry;
+    private final boolean accountTags;
+    private final int stageSample;
+    private final Timer[] stageTimers = new Timer[Stage.values().length];
+    private final Timer[] completedTimers = new Timer[TYPES.length];
+    private final Map<String, Timer> failedTimers = new ConcurrentHashMap<>();
+    private final Map<String, Timer> lockWaitTimers = new ConcurrentHashMap<>();
+    private final Map<String, Timer> lockHoldTimers = new ConcurrentHashMap<>();
+
+    public TransactionMetrics(MeterRegistry registry,
+                              @Value("${bank.metrics.account-tags:false}") boolean accountTags,
+                              @Value("${bank.metrics.stage-sample:16}") int stageSample) {
+        if (stageSample < 1) {
+            throw new IllegalArgumentException("bank.metrics.stage-sample must be >= 1");
+        }
+        this.registry = registry;
+        this.accountTags = accountTags;
+        this.stageSample = stageSample;
+        for (Stage stage : Stage.values()) {
+            stageTimers[stage.ordinal()] = Timer.builder("bank.transaction.stage")
+                    .description("Time spent in each stage of creating a transaction")
+                    .tag("stage", stage.name().toLowerCase(Locale.ROOT))
+                    .publishPercentileHistogram()
+                    .register(registry);
+        }
+        for (Transaction.Type type : TYPES) {
+            completedTimers[type.ordinal()] = createTimer(type, "success");
+        }
+    }
+
+    private Timer createTimer(Transaction.Type type, String outcome) {
+        return Timer.builder("bank.transaction.create")
+                .description("End-to-end time of createTransaction")
+                .tag("type", type == null ? "none" : type.name())
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    /**
+     * 注册交易仓库大小、账户锁表大小、热点账户数和待对账记账数的仪表
+     */
+    public void registerGauges(Supplier<Number> transactionCount, Supplier<Number> lockCount, Supplier<Number> hotAccounts,
+                               Supplier<Number> unreconciled) {
+        Gauge.builder("bank.transactions.stored", transactionCount)
+                .description("Transactions in the repository")
+                .register(registry);
+        Gauge.builder("bank.account.locks", lockCount)
+                .description("Entries in the per-account lock map")
+                .register(registry);
+        Gauge.builder("bank.account.hot", hotAccounts)
+                .description("Accounts whose balance is striped across sub-balances")
+                .register(registry);
+        Gauge.builder("bank.transaction.unreconciled", unreconciled)
+                .description("Balance movements that could not be reversed and have no ledger entry")
+                .register(registry);
+    }
+
+    /**
+     * 是否记录这一次的分阶段耗时或锁持有时间；stageSample为1时总是记录
+     */
+    public boolean sampled() {
+        return stageSample == 1 || ThreadLocalRandom.current().nextInt(stageSample) == 0;
+    }
+
+    public void recordStage(Stage stage, long nanos) {
+        if (sampled()) {
+            stageTimers[stage.ordinal()].record(nanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    public void recordCompleted(Transaction.Type type, long nanos) {
+        if (type != null) {
+            completedTimers[type.ordinal()].record(nanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * 失败按类型和原因计数；原因取自IllegalArgumentException的消息（取值有限），其他异常取类名。
+     * 失败使用单独的指标名：Prometheus注册表要求同名指标的标签键一致，多出reason标签的失败Timer无法与成功的Timer同名
+     */
+    public void recordFailed(Transaction.Type type, Throwable failure, long nanos) {
+        String reason = reasonOf(failure);
+        String key = (type == null ? "none" : type.name()) + '|' + reason;
+        failedTimers.computeIfAbsent(key, k -> Timer.builder("bank.transaction.failed")
+                .description("End-to-end time of failed createTransaction calls")
+                .tag("type", type == null ? "none" : type.name())
+                .tag("reason", reason)
+                .register(registry))
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    static String reasonOf(Throwable failure) {
+        Throwable cause = failure;
+        while (cause instanceof RuntimeException && !(cause instanceof IllegalArgumentException) && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        if (cause instanceof IllegalArgumentException && cause.getMessage() != null) {
+            return cause.getMessage().toLowerCase(Locale.ROOT).replaceAll("[^a-z0-9]+", "_");
+        }
+        return cause.getClass().getSimpleName();
+    }
+
+    public void recordLockWait(String account, long nanos) {
+        lockWaitTimer(account).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordLockHold(String account, long nanos) {
+        lockHoldTimer(account).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 账户的锁等待Timer；调用方可以把它和账户锁放在一起缓存，记录时省去按账户号的查找
+     */
+    public Timer lockWaitTimer(String account) {
+        return lockTimer(lockWaitTimers, "bank.account.lock.wait", "Time spent waiting for an account lock", account);
+    }
+
+    public Timer lockHoldTimer(String account) {
+        return lockTimer(lockHoldTimers, "bank.account.lock.hold", "Time an account lock was held", account);
+    }
+
+    private Timer lockTimer(Map<String, Timer> timers, String name, String description, String account) {
+        String key = accountTags ? account : "all";
+        Timer timer = timers.get(key);
+        if (timer == null) {
+            timer = timers.computeIfAbsent(key, k -> Timer.builder(name)
+                    .description(description)
+                    .tag("account", k)
+                    .register(registry));
+        }
+        return timer;
+    }
+}
@@ -1,29 +1,87 @@
 package org.qianli.bank.service;
 
+import org.qianli.bank.model.BatchItemResult;
+import org.qianli.bank.model.MultiLegTransfer;
 import org.qianli.bank.model.Transaction;
+import org.qianli.bank.model.TransactionPage;
 import org.qianli.bank.model.Account;
+import io.micrometer.core.instrument.Timer;
+import org.qianli.bank.repository.AccountRegistry;
 import org.qianli.bank.repository.TransactionRepository;
 import org.qianli.bank.repository.AccountRepository;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.io.Serial;
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.locks.Lock;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
 
 @Service
 public class TransactionService {
+    private static final Logger logger = LoggerFactory.getLogger(TransactionService.class);
+    private static final int MAX_PAGE_LIMIT = 1000;
+    private static final int AMOUNT_SCALE = 2;
+    private static final String CURSOR_PREFIX = "t1:";
+
     @Autowired
     private TransactionRepository transactionRepository;
     
     @Autowired
     private AccountRepository accountRepository;
-    
-   
+
+    // 仅在 bank.execution.mode=sharded 时存在
+    @Autowired(required = false)
+    private ShardedLedgerExecutor ledgerExecutor;
+
+    // 交易提交后的回调（日志等），没有时为空列表
+    @Autowired(required = false)
+    private List<TransactionListener> listeners = List.of();
+
+    @Value("${bank.batch.max-size:10000}")
+    private int maxBatchSize;
+
+    // 热点账户：一个窗口内的竞争次数达到阈值后拆分余额，入账不再取账户锁；阈值为0（手工组装时）关闭检测
+    @Value("${bank.account.hot.threshold:0}")
+    private int hotThreshold;
+
+    @Value("${bank.account.hot.window-ms:1000}")
+    private long hotWindowMillis;
+
+    // 子余额个数，0表示CPU核数（至少2）
+    @Value("${bank.account.hot.stripes:0}")
+    private int hotStripes;
+
+    // 手工组装（基准测试）时没有注入，使用不输出的实例
+    @Autowired(required = false)
+    private TransactionMetrics metrics = TransactionMetrics.NOOP;
+
+    @PostConstruct
+    void registerGauges() {
+        metrics.registerGauges(transactionRepository::getTransactionCount, () -> lockCount, hotAccounts::get,
+                unreconciled::size);
+    }
 
     public List<Transaction> getAllTransactions(int page, int size, String type, String accountId) {
         if (page < 0) {
@@ -35,165 +93,779 @@ public class TransactionService {
         return transactionRepository.findAll(page, size, type, accountId);
     }
 
+    /**
+     * 游标分页：从cursor（或afterId）之后开始取limit条，代价只与limit有关，与页的深度无关。
+     * cursor优先于afterId，两者都为空时从头开始。
+     */
+    public TransactionPage getTransactionsAfter(String cursor, Long afterId, int limit, String type, String accountId) {
+        return getTransactionsAfter(cursor, afterId, limit, type, accountId, null, null);
+    }
+
+    /**
+     * 带时间范围[from, to)的游标分页，from、to为空表示该端不限；翻页时沿用同样的范围
+     */
+    public TransactionPage getTransactionsAfter(String cursor, Long afterId, int limit, String type, String accountId,
+                                                java.time.LocalDateTime from, java.time.LocalDateTime to) {
+        if (limit <= 0 || limit > MAX_PAGE_LIMIT) {
+            throw new IllegalArgumentException("Limit must be between 1 and " + MAX_PAGE_LIMIT);
+        }
+        if (from != null && to != null && !from.isBefore(to)) {
+            throw new IllegalArgumentException("'from' must be before 'to'");
+        }
+        long after = cursor != null && !cursor.isEmpty() ? decodeCursor(cursor) : afterId == null ? 0 : afterId;
+        if (after < 0) {
+            throw new IllegalArgumentException("afterId must be >= 0");
+        }
+        List<Transaction> items = from == null && to == null
+                ? transactionRepository.findAfter(after, limit, type, accountId)
+                : transactionRepository.findRange(after, limit, from, to, type, accountId);
+        // 取满一页才可能还有下一页
+        String nextCursor = items.size() < limit ? null : encodeCursor(items.get(items.size() - 1).getId());
+        return new TransactionPage(items, nextCursor);
+    }
+
+    /**
+     * 账户最近的limit条交易，最新的在前
+     */
+    public List<Transaction> getLatestTransactions(String accountId, String type, int limit) {
+        if (accountId == null || accountId.isBlank()) {
+            throw new IllegalArgumentException("Account ID is required");
+        }
+        if (limit <= 0 || limit > MAX_PAGE_LIMIT) {
+            throw new IllegalArgumentException("Limit must be between 1 and " + MAX_PAGE_LIMIT);
+        }
+        return transactionRepository.findLatest(accountId, type, limit);
+    }
+
+    // 游标对客户端不透明：带版本前缀的id，Base64URL编码
+    static String encodeCursor(long id) {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString((CURSOR_PREFIX + id).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    static long decodeCursor(String cursor) {
+        try {
+            String decoded = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.US_ASCII);
+            if (!decoded.startsWith(CURSOR_PREFIX)) {
+                throw new IllegalArgumentException("Invalid cursor");
+            }
+            return Long.parseLong(decoded.substring(CURSOR_PREFIX.length()));
+        } catch (IllegalArgumentException e) {
+            // NumberFormatException也是IllegalArgumentException
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+    }
+
     @Transactional
     public Transaction createTransaction(Transaction transaction) {
         validateTransaction(transaction);
         
+        long start = System.nanoTime();
+        Transaction.Type type = transaction.getType();
         try {
             transaction.setTimestamp(java.time.LocalDateTime.now());
-            
-            switch (transaction.getType()) {
-                case DEPOSIT:
-                    handleDeposit(transaction);
-                    break;
-                case WITHDRAWAL:
-                    handleWithdrawal(transaction);
-                    break;
-                case TRANSFER:
-                    handleTransfer(transaction);
-                    break;
-                default:
-                    throw new IllegalArgumentException("Invalid transaction type");
+
+            if (ledgerExecutor != null) {
+                Transaction result = join(submitOnShards(transaction));
+                long applied = System.nanoTime();
+                metrics.recordStage(TransactionMetrics.Stage.BALANCE, applied - start);
+                Transaction saved = save(result, applied);
+                metrics.recordCompleted(type, System.nanoTime() - start);
+                return saved;
             }
             
-            return transactionRepository.save(transaction);
+            applyBalanceChange(transaction);
+            long applied = System.nanoTime();
+            metrics.recordStage(TransactionMetrics.Stage.BALANCE, applied - start);
+            
+            Transaction saved = save(transaction, applied);
+            metrics.recordCompleted(type, System.nanoTime() - start);
+            return saved;
             
         } catch (Exception e) {
+            metrics.recordFailed(type, e, System.nanoTime() - start);
             throw new RuntimeException("Transaction failed: " + e.getMessage(), e);
         }
     }
 
+    private void applyBalanceChange(Transaction transaction) {
+        switch (transaction.getType()) {
+            case DEPOSIT:
+                handleDeposit(transaction);
+                break;
+            case WITHDRAWAL:
+                handleWithdrawal(transaction);
+                break;
+            case TRANSFER:
+                handleTransfer(transaction);
+                break;
+            default:
+                throw new IllegalArgumentException("Invalid transaction type");
+        }
+    }
+
+    /**
+     * 批量创建交易。
+     * 锁模式下按账户号顺序一次性获取整批涉及的全部账户锁，逐条记账（单条失败不影响其他条目），
+     * 释放锁后把成功的交易一次组提交到仓库；分片模式下整批先全部提交到各分片再统一等待结果。
+     *
+     * @return 与请求一一对应的处理结果
+     */
+    public List<BatchItemResult> createTransactions(List<Transaction> transactions) {
+        if (transactions.size() > maxBatchSize) {
+            throw new IllegalArgumentException("Batch size must be <= " + maxBatchSize);
+        }
+        BatchItemResult[] results = new BatchItemResult[transactions.size()];
+        java.time.LocalDateTime now = java.time.LocalDateTime.now();
+        List<Transaction> applied = new ArrayList<>(transactions.size());
+        List<Integer> appliedIndexes = new ArrayList<>(transactions.size());
+
+        if (ledgerExecutor != null) {
+            List<CompletableFuture<Transaction>> futures = new ArrayList<>(transactions.size());
+            for (int i = 0; i < transactions.size(); i++) {
+                Transaction transaction = transactions.get(i);
+                try {
+                    validateTransaction(transaction);
+                    transaction.setTimestamp(now);
+                    futures.add(submitOnShards(transaction));
+                } catch (Exception e) {
+                    futures.add(CompletableFuture.failedFuture(e));
+                }
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    applied.add(join(futures.get(i)));
+                    appliedIndexes.add(i);
+                } catch (Exception e) {
+                    results[i] = BatchItemResult.rejected(i, e.getMessage());
+                }
+            }
+        } else {
+            // 按账户编号排序加锁，避免与其他批次或单笔交易死锁；账户锁可重入，单条处理时再次加锁不会阻塞
+            int[] accounts = accountRepository.isLockFree() ? new int[0] : batchAccounts(transactions);
+            int locked = 0;
+            try {
+                for (int account : accounts) {
+                    acquireLocks(account);
+                    locked++;
+                }
+                for (int i = 0; i < transactions.size(); i++) {
+                    Transaction transaction = transactions.get(i);
+                    try {
+                        validateTransaction(transaction);
+                        transaction.setTimestamp(now);
+                        applyBalanceChange(transaction);
+                        applied.add(transaction);
+                        appliedIndexes.add(i);
+                    } catch (Exception e) {
+                        results[i] = BatchItemResult.rejected(i, e.getMessage());
+                    }
+                }
+            } finally {
+                for (int i = locked - 1; i >= 0; i--) {
+                    releaseLocks(accounts[i]);
+                }
+            }
+        }
+
+        saveAll(applied);
+        for (int i = 0; i < applied.size(); i++) {
+            results[appliedIndexes.get(i)] = BatchItemResult.created(appliedIndexes.get(i), applied.get(i));
+        }
+        return List.of(results);
+    }
+
+    /**
+     * 多腿转账：一笔扣款、多笔入账，每条腿记为一笔转账交易。
+     * 转入同一账户的多条腿先合并金额；锁模式下按编号顺序一次性获取转出和全部转入账户的锁，
+     * 只检查一次转出余额是否够合计金额，再由仓库在一次提交中扣款并入账，全部腿要么都生效要么都不生效。
+     * 分片模式下与单笔转账一样：在转出账户的分片上检查转入账户并扣除合计金额，再把每个转入账户的入账交接到其所属分片，
+     * 各账户的余额仍只由自己的分片线程修改；扣款和各笔入账分别提交，快照读可能落在它们之间。
+     * 释放锁（或全部入账完成）后把全部腿一次组提交到仓库。
+     *
+     * @return 每条腿对应的转账交易，与请求顺序一致
+     */
+    public List<Transaction> createMultiLegTransfer(MultiLegTransfer request) {
+        List<MultiLegTransfer.Leg> legs = request.getLegs();
+        if (legs == null || legs.isEmpty()) {
+            throw new IllegalArgumentException("At least one leg is required");
+        }
+        if (legs.size() > maxBatchSize) {
+            throw new IllegalArgumentException("Number of legs must be <= " + maxBatchSize);
+        }
+        String fromNumber = request.getFromAccountNumber();
+        int from = accountId(fromNumber, "From account is required for transfer", "From account not found");
+
+        java.time.LocalDateTime now = java.time.LocalDateTime.now();
+        List<Transaction> transactions = new ArrayList<>(legs.size());
+        // 按转入账户编号合并，遍历顺序即加锁和预留顺序
+        TreeMap<Integer, BigDecimal> credits = new TreeMap<>();
+        BigDecimal total = BigDecimal.ZERO;
+        for (int i = 0; i < legs.size(); i++) {
+            MultiLegTransfer.Leg leg = legs.get(i);
+            int to;
+            try {
+                to = validateLeg(fromNumber, leg);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Leg " + i + ": " + e.getMessage());
+            }
+            credits.merge(to, leg.getAmount(), BigDecimal::add);
+            total = total.add(leg.getAmount());
+
+            String description = leg.getDescription() != null ? leg.getDescription() : request.getDescription();
+            Transaction transaction = new Transaction(leg.getAmount(), description, now);
+            transaction.setType(Transaction.Type.TRANSFER);
+            transaction.setFromAccountNumber(fromNumber);
+            transaction.setToAccountNumber(leg.getToAccountNumber());
+            transactions.add(transaction);
+        }
+        int[] toAccounts = new int[credits.size()];
+        BigDecimal[] amounts = new BigDecimal[credits.size()];
+        int next = 0;
+        for (Map.Entry<Integer, BigDecimal> credit : credits.entrySet()) {
+            toAccounts[next] = credit.getKey();
+            amounts[next++] = credit.getValue();
+        }
+
+        long start = System.nanoTime();
+        if (ledgerExecutor != null) {
+            try {
+                join(transferLegsOnShards(from, toAccounts, amounts, total));
+            } catch (IllegalArgumentException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new RuntimeException("Transaction failed: " + e.getMessage(), e);
+            }
+        } else if (accountRepository.isLockFree()) {
+            transferLegs(from, toAccounts, amounts);
+        } else {
+            int[] accounts = Arrays.copyOf(toAccounts, toAccounts.length + 1);
+            accounts[toAccounts.length] = from;
+            Arrays.sort(accounts);
+            int locked = 0;
+            try {
+                for (int account : accounts) {
+                    acquireLocks(account);
+                    locked++;
+                }
+                Account fromAccount = accountRepository.findByAccountId(from)
+                        .orElseThrow(() -> new IllegalArgumentException("From account not found"));
+                if (fromAccount.getBalance().compareTo(total) < 0) {
+                    throw new IllegalArgumentException("Insufficient balance");
+                }
+                transferLegs(from, toAccounts, amounts);
+            } finally {
+                for (int i = locked - 1; i >= 0; i--) {
+                    releaseLocks(accounts[i]);
+                }
+            }
+        }
+        metrics.recordStage(TransactionMetrics.Stage.BALANCE, System.nanoTime() - start);
+
+        saveAll(transactions);
+        return transactions;
+    }
+
+    // 校验一条腿，返回转入账户编号
+    private int validateLeg(String fromNumber, MultiLegTransfer.Leg leg) {
+        if (leg == null) {
+            throw new IllegalArgumentException("Leg is required");
+        }
+        if (leg.getAmount() == null) {
+            throw new IllegalArgumentException("Amount is required");
+        }
+        if (leg.getAmount().signum() <= 0) {
+            throw new IllegalArgumentException("Amount must be greater than 0");
+        }
+        validateScale(leg.getAmount());
+        requireAccountNumber(leg.getToAccountNumber(), "To account is required for transfer");
+        if (leg.getToAccountNumber().equals(fromNumber)) {
+            throw new IllegalArgumentException("Cannot transfer to the same account");
+        }
+        return accountId(leg.getToAccountNumber(), "To account is required for transfer", "To account not found");
+    }
+
+    // 仓库拒绝时区分转入账户不存在与转出账户的原因
+    private boolean transferLegs(int from, int[] toAccounts, BigDecimal[] amounts) {
+        if (!accountRepository.transfer(from, toAccounts, amounts)) {
+            for (int to : toAccounts) {
+                if (accountRepository.findByAccountId(to).isEmpty()) {
+                    throw new IllegalArgumentException("To account not found: " + accountRepository.getRegistry().nameOf(to));
+                }
+            }
+            throw withdrawalFailure(from, "From account not found");
+        }
+        return true;
+    }
+
+    /**
+     * 分片模式的多腿转账：转出分片上先确认全部转入账户存在并扣除合计金额，之后每笔入账交接到转入账户的分片执行。
+     * 入账失败（转入账户在交接期间被删除）时该腿金额退回转出分片
+     */
+    private CompletableFuture<Void> transferLegsOnShards(int from, int[] toAccounts, BigDecimal[] amounts, BigDecimal total) {
+        return ledgerExecutor.submit(from, () -> {
+            for (int to : toAccounts) {
+                if (accountRepository.findByAccountId(to).isEmpty()) {
+                    throw new IllegalArgumentException("To account not found: " + accountRepository.getRegistry().nameOf(to));
+                }
+            }
+            if (!accountRepository.withdraw(from, total)) {
+                throw withdrawalFailure(from, "From account not found");
+            }
+            return true;
+        }).thenCompose(debited -> {
+            CompletableFuture<?>[] credits = new CompletableFuture<?>[toAccounts.length];
+            for (int i = 0; i < toAccounts.length; i++) {
+                int to = toAccounts[i];
+                BigDecimal amount = amounts[i];
+                credits[i] = ledgerExecutor.submit(to, () -> {
+                    if (!accountRepository.deposit(to, amount)) {
+                        ledgerExecutor.submit(from, () -> accountRepository.deposit(from, amount));
+                        throw new IllegalArgumentException("To account not found: " + accountRepository.getRegistry().nameOf(to));
+                    }
+                    return true;
+                });
+            }
+            return CompletableFuture.allOf(credits);
+        });
+    }
+
+    // 写入仓库并通知监听器（日志等），在账户锁之外执行
+    private Transaction save(Transaction transaction) {
+        return save(transaction, System.nanoTime());
+    }
+
+    // start为调用方已经读取的当前时间，省去一次计时
+    private Transaction save(Transaction transaction, long start) {
+        Transaction saved = transactionRepository.save(transaction);
+        long appended = System.nanoTime();
+        metrics.recordStage(TransactionMetrics.Stage.APPEND, appended - start);
+        for (TransactionListener listener : listeners) {
+            listener.onSaved(saved);
+        }
+        metrics.recordStage(TransactionMetrics.Stage.PUBLISH, System.nanoTime() - appended);
+        return saved;
+    }
+
+    private void saveAll(List<Transaction> transactions) {
+        long start = System.nanoTime();
+        transactionRepository.saveAll(transactions);
+        long appended = System.nanoTime();
+        metrics.recordStage(TransactionMetrics.Stage.APPEND, appended - start);
+        for (TransactionListener listener : listeners) {
+            listener.onSavedAll(transactions);
+        }
+        metrics.recordStage(TransactionMetrics.Stage.PUBLISH, System.nanoTime() - appended);
+    }
+
+    // 整批涉及的已登记账户，去重后按编号升序；未登记的账户号在记账时按账户不存在拒绝
+    private int[] batchAccounts(List<Transaction> transactions) {
+        AccountRegistry registry = accountRepository.getRegistry();
+        int[] accounts = new int[transactions.size() * 2];
+        int count = 0;
+        for (Transaction transaction : transactions) {
+            if (transaction == null) {
+                continue;
+            }
+            int from = registry.idOf(transaction.getFromAccountNumber());
+            int to = registry.idOf(transaction.getToAccountNumber());
+            if (from != AccountRegistry.NONE) {
+                accounts[count++] = from;
+            }
+            if (to != AccountRegistry.NONE) {
+                accounts[count++] = to;
+            }
+        }
+        Arrays.sort(accounts, 0, count);
+        int distinct = 0;
+        for (int i = 0; i < count; i++) {
+            if (distinct == 0 || accounts[distinct - 1] != accounts[i]) {
+                accounts[distinct++] = accounts[i];
+            }
+        }
+        return Arrays.copyOf(accounts, distinct);
+    }
+
+    // 单笔、异步和批量提交共用
     private void validateTransaction(Transaction transaction) {
-        // if (transaction.getAmount() == null || transaction.getAmount().compareTo(BigDecimal.ZERO) <= 0) {
-        //     throw new IllegalArgumentException("Amount must be greater than 0");
-        // }
+        if (transaction == null) {
+            throw new IllegalArgumentException("Transaction is required");
+        }
+        if (transaction.getType() == null) {
+            throw new IllegalArgumentException("Type is required");
+        }
+        if (transaction.getAmount() == null) {
+            throw new IllegalArgumentException("Amount is required");
+        }
+        // 负数存款不检查余额就能扣光账户，拆分过的热点账户上还会让子余额变成负数
+        if (transaction.getAmount().signum() <= 0) {
+            throw new IllegalArgumentException("Amount must be greater than 0");
+        }
+        validateScale(transaction.getAmount());
+    }
+
+    // 金额最多两位小数，在入口拒绝：两个余额引擎、列式仓库和提交后的统计看到的是同一个金额，无需各自舍入
+    private static void validateScale(BigDecimal amount) {
+        if (amount.scale() > AMOUNT_SCALE && amount.stripTrailingZeros().scale() > AMOUNT_SCALE) {
+            throw new IllegalArgumentException("Amount must have at most " + AMOUNT_SCALE + " decimal places: " + amount);
+        }
+    }
+
+    private <T> T join(CompletableFuture<T> future) throws Exception {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof Exception cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 分片模式：存款、取款在所属分片上执行；转账先在转出分片扣款，再交接到转入分片入账。
+     * 余额路径全部由分片线程单写，不再使用账户锁；写仓库和日志由调用方线程在拿到结果后完成，
+     * 这样日志的组提交等待不会占住分片线程。
+     */
+    private CompletableFuture<Transaction> submitOnShards(Transaction transaction) {
+        String fromNumber = transaction.getFromAccountNumber();
+        String toNumber = transaction.getToAccountNumber();
+        BigDecimal amount = transaction.getAmount();
+
+        return switch (transaction.getType()) {
+            case DEPOSIT -> {
+                int to = accountId(toNumber, "To account is required for deposit", "Account not found");
+                yield ledgerExecutor.submit(to, () -> {
+                    if (!accountRepository.deposit(to, amount)) {
+                        throw new IllegalArgumentException("Account not found");
+                    }
+                    return transaction;
+                });
+            }
+            case WITHDRAWAL -> {
+                int from = accountId(fromNumber, "From account is required for withdrawal", "Account not found");
+                yield ledgerExecutor.submit(from, () -> {
+                    if (!accountRepository.withdraw(from, amount)) {
+                        throw withdrawalFailure(from, "Account not found");
+                    }
+                    return transaction;
+                });
+            }
+            case TRANSFER -> {
+                requireAccountNumber(fromNumber, "From account is required for transfer");
+                requireAccountNumber(toNumber, "To account is required for transfer");
+                if (fromNumber.equals(toNumber)) {
+                    throw new IllegalArgumentException("Cannot transfer to the same account");
+                }
+                int to = accountId(toNumber, "To account is required for transfer", "To account not found");
+                int from = accountId(fromNumber, "From account is required for transfer", "From account not found");
+                yield ledgerExecutor.submit(from, () -> {
+                    if (accountRepository.findByAccountId(to).isEmpty()) {
+                        throw new IllegalArgumentException("To account not found");
+                    }
+                    if (!accountRepository.withdraw(from, amount)) {
+                        throw withdrawalFailure(from, "From account not found");
+                    }
+                    return transaction;
+                }).thenCompose(debited -> ledgerExecutor.submit(to, () -> {
+                    if (!accountRepository.deposit(to, amount)) {
+                        // 转入账户在交接期间被删除，退款交回转出分片执行
+                        ledgerExecutor.submit(from, () -> accountRepository.deposit(from, amount));
+                        throw new IllegalArgumentException("To account not found");
+                    }
+                    return transaction;
+                }));
+            }
+            default -> throw new IllegalArgumentException("Invalid transaction type");
+        };
+    }
+
+    private void requireAccountNumber(String accountNumber, String message) {
+        if (accountNumber == null || accountNumber.isEmpty()) {
+            throw new IllegalArgumentException(message);
+        }
+    }
+
+    /**
+     * 入口处把账户号换成编号，之后的加锁和余额操作都使用编号；从未登记过的账户号一定不存在
+     */
+    private int accountId(String accountNumber, String requiredMessage, String notFoundMessage) {
+        requireAccountNumber(accountNumber, requiredMessage);
+        int id = accountRepository.getRegistry().idOf(accountNumber);
+        if (id == AccountRegistry.NONE) {
+            throw new IllegalArgumentException(notFoundMessage);
+        }
+        return id;
+    }
+
+    // 扣款失败时区分账户不存在与余额不足
+    private IllegalArgumentException withdrawalFailure(int accountId, String notFoundMessage) {
+        return accountRepository.findByAccountId(accountId).isPresent()
+                ? new IllegalArgumentException("Insufficient balance")
+                : new IllegalArgumentException(notFoundMessage);
     }
 
     private void handleDeposit(Transaction transaction) {
-        if (transaction.getToAccountNumber() == null || transaction.getToAccountNumber().isEmpty()) {
-            throw new IllegalArgumentException("To account is required for deposit");
+        int to = accountId(transaction.getToAccountNumber(), "To account is required for deposit", "Account not found");
+
+        boolean deposited;
+        if (accountRepository.isLockFree()) {
+            if (hotThreshold > 0) {
+                sampleArrival(to);
+            }
+            deposited = accountRepository.deposit(to, transaction.getAmount());
+        } else if (isHot(to)) {
+            // 余额已拆分：入账落在某个子余额上，仓库内CAS完成，与持锁的扣款并发也不会透支
+            deposited = accountRepository.deposit(to, transaction.getAmount());
+        } else {
+            acquireLocks(to);
+            try {
+                deposited = accountRepository.deposit(to, transaction.getAmount());
+            } finally {
+                releaseLocks(to);
+            }
+        }
+        if (!deposited) {
+            throw new IllegalArgumentException("Account not found");
         }
-        
-        Account account = accountRepository.findByAccountNumber(transaction.getToAccountNumber())
-                .orElseThrow(() -> new IllegalArgumentException("Account not found"));
-        
-        accountRepository.deposit(transaction.getToAccountNumber(), transaction.getAmount());
     }
 
     private void handleWithdrawal(Transaction transaction) {
-        if (transaction.getFromAccountNumber() == null || transaction.getFromAccountNumber().isEmpty()) {
-            throw new IllegalArgumentException("From account is required for withdrawal");
+        int from = accountId(transaction.getFromAccountNumber(), "From account is required for withdrawal", "Account not found");
+
+        if (accountRepository.isLockFree()) {
+            // 余额检查与扣减由仓库原子完成，失败时再区分原因
+            if (!accountRepository.withdraw(from, transaction.getAmount())) {
+                throw withdrawalFailure(from, "Account not found");
+            }
+            return;
         }
-        
-        Account account = accountRepository.findByAccountNumber(transaction.getFromAccountNumber())
-                .orElseThrow(() -> new IllegalArgumentException("Account not found"));
-        
-        if (account.getBalance().compareTo(transaction.getAmount()) < 0) {
-            throw new IllegalArgumentException("Insufficient balance");
+
+        acquireLocks(from);
+        try {
+            Account account = accountRepository.findByAccountId(from)
+                    .orElseThrow(() -> new IllegalArgumentException("Account not found"));
+
+            if (account.getBalance().compareTo(transaction.getAmount()) < 0) {
+                throw new IllegalArgumentException("Insufficient balance");
+            }
+
+            // 热点账户的入账不取锁，余额只会比检查时多；拆分的余额在子余额不够时跨子余额扣款
+            if (!accountRepository.withdraw(from, transaction.getAmount())) {
+                throw new IllegalArgumentException("Insufficient balance");
+            }
+        } finally {
+            releaseLocks(from);
         }
-        
-        accountRepository.withdraw(transaction.getFromAccountNumber(), transaction.getAmount());
     }
 
     private void handleTransfer(Transaction transaction) {
-        if (transaction.getFromAccountNumber() == null || transaction.getFromAccountNumber().isEmpty()) {
-            throw new IllegalArgumentException("From account is required for transfer");
-        }
-        if (transaction.getToAccountNumber() == null || transaction.getToAccountNumber().isEmpty()) {
-            throw new IllegalArgumentException("To account is required for transfer");
-        }
+        requireAccountNumber(transaction.getFromAccountNumber(), "From account is required for transfer");
+        requireAccountNumber(transaction.getToAccountNumber(), "To account is required for transfer");
         if (transaction.getFromAccountNumber().equals(transaction.getToAccountNumber())) {
             throw new IllegalArgumentException("Cannot transfer to the same account");
         }
+        int from = accountId(transaction.getFromAccountNumber(), "From account is required for transfer", "From account not found");
+        int to = accountId(transaction.getToAccountNumber(), "To account is required for transfer", "To account not found");
+
+        if (accountRepository.isLockFree()) {
+            // 无锁引擎：先扣款后入账，不需要账户锁
+            if (!accountRepository.transfer(from, to, transaction.getAmount())) {
+                accountRepository.findByAccountId(to)
+                        .orElseThrow(() -> new IllegalArgumentException("To account not found"));
+                throw withdrawalFailure(from, "From account not found");
+            }
+            return;
+        }
         
-        acquireLocks(transaction.getFromAccountNumber(), transaction.getToAccountNumber());
+        acquireLocks(from, to);
         try {
-            Account fromAccount = accountRepository.findByAccountNumber(transaction.getFromAccountNumber())
+            Account fromAccount = accountRepository.findByAccountId(from)
                     .orElseThrow(() -> new IllegalArgumentException("From account not found"));
-            Account toAccount = accountRepository.findByAccountNumber(transaction.getToAccountNumber())
+            Account toAccount = accountRepository.findByAccountId(to)
                     .orElseThrow(() -> new IllegalArgumentException("To account not found"));
 
             if (fromAccount.getBalance().compareTo(transaction.getAmount()) < 0) {
                 throw new IllegalArgumentException("Insufficient balance");
             }
 
-            accountRepository.withdraw(transaction.getFromAccountNumber(), transaction.getAmount());
-            accountRepository.deposit(transaction.getToAccountNumber(), transaction.getAmount());
+            if (!accountRepository.transfer(from, to, transaction.getAmount())) {
+                throw new IllegalArgumentException("Insufficient balance");
+            }
         } finally {
-            releaseLocks(transaction.getFromAccountNumber(), transaction.getToAccountNumber());
+            releaseLocks(from, to);
         }
     }
-   // 使用ConcurrentHashMap存储每个账户对应的锁
-    private static final ConcurrentHashMap<String, Lock> accountLocks = new ConcurrentHashMap<>();
 
-    private void acquireLocks(String fromAccount, String toAccount) {
-        //需要使用分布式锁或db账户行锁，当前仅模拟
+    // 账户锁表：下标为账户编号，按需倍增；只在lockTableLock内创建锁和替换数组
+    private volatile AccountLock[] accountLocks = new AccountLock[64];
+    private final ReentrantLock lockTableLock = new ReentrantLock();
+    private volatile int lockCount;
+    private final AtomicInteger hotAccounts = new AtomicInteger();
+    // 无锁引擎按此比例抽样统计入账到达次数
+    private static final int ARRIVAL_SAMPLE = 16;
 
-        if(fromAccount==null){
-            acquireLocks(toAccount);
-            return;
-        }else if(toAccount==null){
-            acquireLocks(fromAccount);
-            return;
+    /**
+     * 记录最外层加锁时刻的可重入锁，用于统计持有时间；acquiredAt只由持有者线程读写。
+     * 锁等待/持有的Timer在首次记录时取得并缓存在锁上，之后记录不再按账户号查找。
+     * <p>
+     * 必须基于j.u.c的锁而不是synchronized：虚拟线程在ReentrantLock上等待时会从载体线程卸载，
+     * 而在synchronized块内阻塞（等锁、等日志刷盘）会钉住载体线程，少量热点账户就能占满全部载体。
+     * 持锁期间同样不能进入synchronized代码。
+     * <p>
+     * 锁也记录热点检测的状态：窗口起点和窗口内的竞争次数只在持锁时读写，hot表示余额已拆分。
+     * 锁只存在于内存中，不会被序列化；Timer不可序列化，标记为transient。
+     */
+    private static final class AccountLock extends ReentrantLock {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        private final String accountNumber;
+        private long acquiredAt;
+        private transient volatile Timer waitTimer;
+        private transient volatile Timer holdTimer;
+        private long windowStart;
+        private int load;
+        private volatile boolean hot;
+
+        AccountLock(String accountNumber) {
+            this.accountNumber = accountNumber;
+        }
+    }
+
+    private AccountLock lockFor(int account) {
+        AccountLock[] locks = accountLocks;
+        AccountLock lock = account < locks.length ? locks[account] : null;
+        if (lock != null) {
+            return lock;
+        }
+        lockTableLock.lock();
+        try {
+            locks = accountLocks;
+            if (account >= locks.length) {
+                locks = Arrays.copyOf(locks, Math.max(locks.length << 1, account + 1));
+            }
+            lock = locks[account];
+            if (lock == null) {
+                lock = new AccountLock(accountRepository.getRegistry().nameOf(account));
+                locks[account] = lock;
+                lockCount++;
+            }
+            accountLocks = locks;
+            return lock;
+        } finally {
+            lockTableLock.unlock();
         }
-        String firstAccount = fromAccount.compareTo(toAccount) < 0 ? fromAccount : toAccount;
-        String secondAccount = fromAccount.compareTo(toAccount) < 0 ? toAccount : fromAccount;
+    }
 
-        // 获取或创建锁对象（线程安全）
-        Lock firstLock = accountLocks.computeIfAbsent(firstAccount, k -> new ReentrantLock());
-        Lock secondLock = accountLocks.computeIfAbsent(secondAccount, k -> new ReentrantLock());
+    private void acquireLocks(int fromAccount, int toAccount) {
+        //需要使用分布式锁或db账户行锁，当前仅模拟
 
-        // 按顺序获取锁
-        firstLock.lock();
+        // 按编号顺序获取锁
+        int firstAccount = Math.min(fromAccount, toAccount);
+        int secondAccount = Math.max(fromAccount, toAccount);
+        acquireLocks(firstAccount);
         try {
-            secondLock.lock();
+            acquireLocks(secondAccount);
         } catch (Exception e) {
             // 如果获取第二个锁失败，释放第一个锁
-            firstLock.unlock();
+            releaseLocks(firstAccount);
             throw new RuntimeException("Failed to acquire locks", e);
         }
     }
 
-    private void releaseLocks(String fromAccount, String toAccount) {
-        if(fromAccount==null){
-            releaseLocks(toAccount);
-            return;
-        }else if(toAccount==null){
-            releaseLocks(fromAccount);
-            return;
-        }
-        // 确定锁的释放顺序（必须与获取顺序相反）
-        String firstAccount = fromAccount.compareTo(toAccount) < 0 ? fromAccount : toAccount;
-        String secondAccount = fromAccount.compareTo(toAccount) < 0 ? toAccount : fromAccount;
+    private void releaseLocks(int fromAccount, int toAccount) {
+        // 释放顺序与获取顺序相反
+        releaseLocks(Math.max(fromAccount, toAccount));
+        releaseLocks(Math.min(fromAccount, toAccount));
+    }
 
-        Lock secondLock = accountLocks.get(secondAccount);
-        Lock firstLock = accountLocks.get(firstAccount);
+    private void acquireLocks(int account) {
+        //需要使用分布式锁或db账户行锁，当前仅模拟
+        AccountLock lock = lockFor(account);
 
-        if (secondLock != null) {
-            secondLock.unlock();
+        // 无竞争时直接拿到锁，只有发生等待时才计时，等待计时器的次数即竞争次数
+        if (lock.tryLock()) {
+            if (lock.getHoldCount() == 1) {
+                lock.acquiredAt = System.nanoTime();
+            }
+            return;
+        }
+        long start = System.nanoTime();
+        lock.lock();
+        long acquired = System.nanoTime();
+        lock.acquiredAt = acquired;
+        Timer timer = lock.waitTimer;
+        if (timer == null) {
+            timer = metrics.lockWaitTimer(lock.accountNumber);
+            lock.waitTimer = timer;
         }
-        if (firstLock != null) {
-            firstLock.unlock();
+        timer.record(acquired - start, TimeUnit.NANOSECONDS);
+        if (hotThreshold > 0) {
+            recordLoad(lock, account, acquired, 1);
         }
     }
 
-    
-    private void acquireLocks(String account) {
-        //需要使用分布式锁或db账户行锁，当前仅模拟
+    private boolean isHot(int account) {
+        AccountLock[] locks = accountLocks;
+        AccountLock lock = account < locks.length ? locks[account] : null;
+        return lock != null && lock.hot;
+    }
 
-        // 获取或创建锁对象（线程安全）
-        Lock firstLock = accountLocks.computeIfAbsent(account, k -> new ReentrantLock());
+    /**
+     * 无锁引擎不取账户锁，改为抽样统计入账次数；计数仍在账户锁内更新，锁被占用时放弃这次抽样
+     */
+    private void sampleArrival(int account) {
+        if (ThreadLocalRandom.current().nextInt(ARRIVAL_SAMPLE) != 0) {
+            return;
+        }
+        AccountLock lock = lockFor(account);
+        if (!lock.hot && lock.tryLock()) {
+            try {
+                recordLoad(lock, account, System.nanoTime(), ARRIVAL_SAMPLE);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
 
-        // 按顺序获取锁
-        firstLock.lock();
-        
+    /**
+     * 持有lock时调用：累计当前窗口内的竞争次数，达到阈值后把账户余额拆成子余额。
+     * 拆分后不再合并，账户一直按热点处理
+     */
+    private void recordLoad(AccountLock lock, int account, long now, int weight) {
+        if (lock.hot) {
+            return;
+        }
+        if (now - lock.windowStart > TimeUnit.MILLISECONDS.toNanos(hotWindowMillis)) {
+            lock.windowStart = now;
+            lock.load = 0;
+        }
+        lock.load += weight;
+        if (lock.load >= hotThreshold) {
+            int stripes = hotStripes > 0 ? hotStripes : Math.max(2, Runtime.getRuntime().availableProcessors());
+            if (accountRepository.stripe(account, stripes)) {
+                lock.hot = true;
+                hotAccounts.incrementAndGet();
+            }
+            lock.load = 0;
+        }
     }
 
-    private void releaseLocks(String account) {
-        Lock firstLock = accountLocks.get(account);
+    private void releaseLocks(int account) {
+        AccountLock[] locks = accountLocks;
+        AccountLock lock = account < locks.length ? locks[account] : null;
 
-        if (firstLock != null) {
-            firstLock.unlock();
+        if (lock != null) {
+            if (lock.getHoldCount() == 1 && metrics.sampled()) {
+                Timer timer = lock.holdTimer;
+                if (timer == null) {
+                    timer = metrics.lockHoldTimer(lock.accountNumber);
+                    lock.holdTimer = timer;
+                }
+                timer.record(System.nanoTime() - lock.acquiredAt, TimeUnit.NANOSECONDS);
+            }
+            lock.unlock();
         }
     }
 
@@ -202,38 +874,196 @@ public class TransactionService {
     }
 
     public Transaction updateTransaction(Long id, Transaction updatedTransaction) {
-        //获取原来的交易
-        Transaction transaction = transactionRepository.findById(id).orElseThrow(() -> new RuntimeException("Transaction not found"));
-        //获取与当前的交易的差额，生成一条差额交易，金额可以为负数
-        Transaction differenceTransaction = new Transaction();
-        //bigdecimal的减法
-        //differenceTransaction.setAmount(updatedTransaction.getAmount() - transaction.getAmount());
-        differenceTransaction.setAmount(updatedTransaction.getAmount().subtract(transaction.getAmount()));
-        differenceTransaction.setFromAccountNumber(updatedTransaction.getFromAccountNumber());
-        differenceTransaction.setToAccountNumber(updatedTransaction.getToAccountNumber());
-        differenceTransaction.setType(updatedTransaction.getType());
-        differenceTransaction.setTimestamp(java.time.LocalDateTime.now());
-        differenceTransaction.setDescription(updatedTransaction.getDescription());
-        //TODO 此处为事务，需要回滚
-        transaction.setModifyFlg("1");
-        transactionRepository.update(transaction);
-        return  createTransaction(differenceTransaction);
+        if (updatedTransaction.getAmount() != null) {
+            validateScale(updatedTransaction.getAmount());
+        }
+        return compensate(id, transaction -> {
+            //获取与当前的交易的差额，生成一条差额交易，金额可以为负数
+            Transaction differenceTransaction = new Transaction();
+            //bigdecimal的减法
+            //differenceTransaction.setAmount(updatedTransaction.getAmount() - transaction.getAmount());
+            differenceTransaction.setAmount(updatedTransaction.getAmount().subtract(transaction.getAmount()));
+            differenceTransaction.setFromAccountNumber(updatedTransaction.getFromAccountNumber());
+            differenceTransaction.setToAccountNumber(updatedTransaction.getToAccountNumber());
+            differenceTransaction.setType(updatedTransaction.getType());
+            differenceTransaction.setTimestamp(java.time.LocalDateTime.now());
+            differenceTransaction.setDescription(updatedTransaction.getDescription());
+            return differenceTransaction;
+        });
     }
 
     public void deleteTransaction(Long id) {
         // transactionRepository.deleteById(id);
         //删除即插入一条新的交易，金额为负数
-        Transaction transaction = transactionRepository.findById(id).orElseThrow(() -> new RuntimeException("Transaction not found"));
-        Transaction differenceTransaction = new Transaction();
-        differenceTransaction.setAmount(transaction.getAmount().negate());
-        differenceTransaction.setFromAccountNumber(transaction.getFromAccountNumber());
-        differenceTransaction.setToAccountNumber(transaction.getToAccountNumber());
-        differenceTransaction.setType(transaction.getType());
-        differenceTransaction.setTimestamp(java.time.LocalDateTime.now());
-        //TODO 此处为事务，需要回滚
-        transaction.setModifyFlg("1");
-        transactionRepository.update(transaction);
-        createTransaction(differenceTransaction);
+        compensate(id, transaction -> {
+            Transaction differenceTransaction = new Transaction();
+            differenceTransaction.setAmount(transaction.getAmount().negate());
+            differenceTransaction.setFromAccountNumber(transaction.getFromAccountNumber());
+            differenceTransaction.setToAccountNumber(transaction.getToAccountNumber());
+            differenceTransaction.setType(transaction.getType());
+            differenceTransaction.setTimestamp(java.time.LocalDateTime.now());
+            return differenceTransaction;
+        });
+    }
+
+    // 正在修改（更新或删除）的交易id，同一笔交易同时只允许一个修改
+    private final Set<Long> modifying = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 修改已有交易：原交易打上修改标记、追加差额交易、按差额记账，三步作为一个工作单元完成，任一步失败则全部撤销。
+     * <p>
+     * 同一笔交易的并发修改由modifying中的占位互斥，已打过标记的交易不能再修改，不同交易之间没有共享的锁。
+     * 锁模式下整个工作单元持有差额涉及的账户锁。记账放在第一步，余额不足等失败时仓库还没有写入，无需撤销；
+     * 之后才写入修改标记和差额交易，读取方看到标记时余额已经变动。仓库写入失败时反向记账撤销余额变动，
+     * 锁模式下账户锁一直持有，反向记账不会因余额被其他请求动用而失败。
+     * 无锁引擎和分片模式不加账户锁，记账之后到反向记账之前，移入的资金可能已被其他请求动用，反向记账会因余额不足失败；
+     * 这时余额保持已变动的状态，这笔记账登记到待对账列表并记录错误日志，修改以非参数错误的异常失败，不会被当作普通冲突吞掉。
+     * 监听器（日志、统计、推送）在提交并释放账户锁之后才收到这两条变更，回滚的步骤不会对外可见。
+     *
+     * @return 追加的差额交易
+     */
+    private Transaction compensate(Long id, Function<Transaction, Transaction> differenceOf) {
+        if (!modifying.add(id)) {
+            throw new IllegalStateException("Transaction is being modified: " + id);
+        }
+        try {
+            Transaction original = transactionRepository.findById(id).orElseThrow(() -> new RuntimeException("Transaction not found"));
+            if ("1".equals(original.getModifyFlg())) {
+                throw new IllegalStateException("Transaction has already been modified: " + id);
+            }
+            Transaction difference = differenceOf.apply(original);
+            Transaction movement = movementOf(difference);
+            // 仓库中的交易可能正被其他读取方使用，改在副本上
+            Transaction modified = original.copy();
+            modified.setModifyFlg("1");
+
+            UnitOfWork work = new UnitOfWork();
+            Transaction saved;
+            int[] accounts = movementAccounts(movement);
+            if (accounts.length == 2) {
+                acquireLocks(accounts[0], accounts[1]);
+            } else if (accounts.length == 1) {
+                acquireLocks(accounts[0]);
+            }
+            try {
+                applyMovement(movement);
+                work.onRollback(() -> reverseMovement(id, movement));
+                transactionRepository.update(modified);
+                work.onRollback(() -> transactionRepository.update(original));
+                Transaction appended = transactionRepository.save(difference);
+                work.commit();
+                saved = appended;
+            } catch (RuntimeException e) {
+                if (!work.rollback(e)) {
+                    throw new RuntimeException("Modification of transaction " + id + " failed and could not be fully undone: "
+                            + e.getMessage(), e);
+                }
+                throw e;
+            } finally {
+                if (accounts.length == 2) {
+                    releaseLocks(accounts[0], accounts[1]);
+                } else if (accounts.length == 1) {
+                    releaseLocks(accounts[0]);
+                }
+            }
+            for (TransactionListener listener : listeners) {
+                listener.onUpdated(modified);
+                listener.onSaved(saved);
+            }
+            return saved;
+        } finally {
+            modifying.remove(id);
+        }
+    }
+
+    // 余额已变动但没有对应交易记录的记账，等待人工对账
+    private final ConcurrentLinkedQueue<Transaction> unreconciled = new ConcurrentLinkedQueue<>();
+
+    /**
+     * 撤销修改交易时已完成的记账；反向记账失败时把这笔记账登记为待对账后再抛出
+     */
+    private void reverseMovement(Long id, Transaction movement) {
+        try {
+            applyMovement(reversalOf(movement));
+        } catch (RuntimeException e) {
+            unreconciled.add(movement);
+            logger.error("Balance movement of transaction {} could not be reversed and has no ledger entry: {} {} {} -> {}",
+                    id, movement.getType(), movement.getAmount(), movement.getFromAccountNumber(),
+                    movement.getToAccountNumber(), e);
+            throw e;
+        }
+    }
+
+    /**
+     * 已记账但反向记账失败、仓库中没有对应交易的记账，按发生顺序
+     */
+    public List<Transaction> getUnreconciledMovements() {
+        return List.copyOf(unreconciled);
+    }
+
+    /**
+     * 差额交易的金额可以为负，记账时换成等价的正金额交易：负的存款按取款检查余额，负的取款即存款，负的转账反向转账
+     */
+    private static Transaction movementOf(Transaction difference) {
+        if (difference.getAmount().signum() >= 0) {
+            return difference;
+        }
+        Transaction movement = difference.copy();
+        movement.setAmount(difference.getAmount().negate());
+        switch (difference.getType()) {
+            case DEPOSIT -> {
+                movement.setType(Transaction.Type.WITHDRAWAL);
+                movement.setFromAccountNumber(difference.getToAccountNumber());
+                movement.setToAccountNumber(null);
+            }
+            case WITHDRAWAL -> {
+                movement.setType(Transaction.Type.DEPOSIT);
+                movement.setToAccountNumber(difference.getFromAccountNumber());
+                movement.setFromAccountNumber(null);
+            }
+            case TRANSFER -> {
+                movement.setFromAccountNumber(difference.getToAccountNumber());
+                movement.setToAccountNumber(difference.getFromAccountNumber());
+            }
+        }
+        return movement;
+    }
+
+    // 撤销一笔已记账的正金额交易：存款换成取款、取款换成存款、转账反向
+    private static Transaction reversalOf(Transaction movement) {
+        Transaction negated = movement.copy();
+        negated.setAmount(movement.getAmount().negate());
+        return movementOf(negated);
+    }
+
+    // 锁模式下记账涉及的已登记账户（0~2个）；无锁引擎和分片模式不加锁，返回空数组
+    private int[] movementAccounts(Transaction movement) {
+        if (ledgerExecutor != null || accountRepository.isLockFree()) {
+            return new int[0];
+        }
+        AccountRegistry registry = accountRepository.getRegistry();
+        int from = registry.idOf(movement.getFromAccountNumber());
+        int to = registry.idOf(movement.getToAccountNumber());
+        if (from == AccountRegistry.NONE || to == AccountRegistry.NONE || from == to) {
+            int account = Math.max(from, to);
+            return account == AccountRegistry.NONE ? new int[0] : new int[]{account};
+        }
+        return new int[]{from, to};
+    }
+
+    // 账户锁可重入，锁模式下记账路径在已持有的锁上再加一次
+    private void applyMovement(Transaction movement) {
+        if (ledgerExecutor == null) {
+            applyBalanceChange(movement);
+            return;
+        }
+        try {
+            join(submitOnShards(movement));
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException("Transaction failed: " + e.getMessage(), e);
+        }
     }
 
     public int getTransactionCount() {
@@ -0,0 +1,213 @@
+package org.qianli.bank.service;
+
+import org.qianli.bank.model.Transaction;
+import org.qianli.bank.model.TransactionStats;
+import org.qianli.bank.repository.AccountRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 增量维护的交易汇总。
+ * <p>
+ * 作为TransactionListener在每笔交易写入后累加：总计、按类型、按账户流入/流出、按自然日。
+ * 计数器都是LongAdder，写入方在各自的分散单元上累加互不竞争，读取只是对单元求和，不加锁；
+ * 金额按分（两位小数，四舍五入）累加为long。按账户的计数器存放在以账户编号为下标的数组中。
+ * 修改交易只改修改标志，金额差额以新交易的形式记入，因此不需要处理onUpdated。
+ * 从日志恢复时由JournalRecovery逐条回调onRestored，统计范围与内存中加载的历史一致；
+ * 只恢复了快照之后的交易时，读出的统计标记为partial。
+ */
+@Component
+public class TransactionStatistics implements TransactionListener {
+    private static final int SCALE = 2;
+    private static final Transaction.Type[] TYPES = Transaction.Type.values();
+
+    private final AccountRegistry accounts;
+    private final int retainDays;
+    private final Counter total = new Counter();
+    private final Counter[] byType = new Counter[TYPES.length];
+    // 下标为账户编号，只在accountLock内创建元素和替换数组
+    private volatile AccountCounters[] byAccount = new AccountCounters[64];
+    private final ReentrantLock accountLock = new ReentrantLock();
+    private final ConcurrentSkipListMap<LocalDate, Counter> byDay = new ConcurrentSkipListMap<>();
+    private volatile boolean partial;
+
+    public TransactionStatistics(AccountRegistry accounts, @Value("${bank.stats.retain-days:400}") int retainDays) {
+        this.accounts = accounts;
+        this.retainDays = Math.max(1, retainDays);
+        for (int i = 0; i < byType.length; i++) {
+            byType[i] = new Counter();
+        }
+    }
+
+    // 一组计数与金额
+    private static final class Counter {
+        final LongAdder count = new LongAdder();
+        final LongAdder minor = new LongAdder();
+
+        void add(long amount) {
+            count.increment();
+            minor.add(amount);
+        }
+
+        TransactionStats.Totals read() {
+            return new TransactionStats.Totals(count.sum(), fromMinor(minor.sum()));
+        }
+    }
+
+    private static final class AccountCounters {
+        final Counter inflow = new Counter();
+        final Counter outflow = new Counter();
+    }
+
+    @Override
+    public void onSaved(Transaction transaction) {
+        record(transaction);
+    }
+
+    @Override
+    public void onRestored(Transaction transaction) {
+        record(transaction);
+    }
+
+    @Override
+    public void onHistoryTruncated() {
+        partial = true;
+    }
+
+    private void record(Transaction transaction) {
+        Transaction.Type type = transaction.getType();
+        if (type == null || transaction.getAmount() == null) {
+            return;
+        }
+        long amount = toMinor(transaction.getAmount());
+        total.add(amount);
+        byType[type.ordinal()].add(amount);
+        if (transaction.getTimestamp() != null) {
+            day(transaction.getTimestamp().toLocalDate()).add(amount);
+        }
+        switch (type) {
+            case DEPOSIT, TRANSFER_IN -> inflow(transaction.getToAccountNumber(), amount);
+            case WITHDRAWAL, TRANSFER_OUT -> outflow(transaction.getFromAccountNumber(), amount);
+            case TRANSFER -> {
+                outflow(transaction.getFromAccountNumber(), amount);
+                inflow(transaction.getToAccountNumber(), amount);
+            }
+        }
+    }
+
+    private void inflow(String accountNumber, long amount) {
+        int id = accounts.intern(accountNumber);
+        if (id != AccountRegistry.NONE) {
+            account(id).inflow.add(amount);
+        }
+    }
+
+    private void outflow(String accountNumber, long amount) {
+        int id = accounts.intern(accountNumber);
+        if (id != AccountRegistry.NONE) {
+            account(id).outflow.add(amount);
+        }
+    }
+
+    private AccountCounters account(int id) {
+        AccountCounters counters = find(id);
+        return counters != null ? counters : create(id);
+    }
+
+    private AccountCounters find(int id) {
+        AccountCounters[] all = byAccount;
+        return id > 0 && id < all.length ? all[id] : null;
+    }
+
+    private AccountCounters create(int id) {
+        accountLock.lock();
+        try {
+            AccountCounters[] all = byAccount;
+            if (id >= all.length) {
+                all = Arrays.copyOf(all, Math.max(all.length << 1, id + 1));
+            }
+            AccountCounters counters = all[id];
+            if (counters == null) {
+                counters = new AccountCounters();
+                all[id] = counters;
+            }
+            byAccount = all;
+            return counters;
+        } finally {
+            accountLock.unlock();
+        }
+    }
+
+    private Counter day(LocalDate date) {
+        Counter counter = byDay.get(date);
+        if (counter != null) {
+            return counter;
+        }
+        counter = byDay.computeIfAbsent(date, k -> new Counter());
+        // 只在新的一天出现时清理，超出保留天数的最早的桶被丢弃
+        while (byDay.size() > retainDays) {
+            byDay.pollFirstEntry();
+        }
+        return counter;
+    }
+
+    /**
+     * 读取统计：总计与按类型始终返回；accountId非空时返回该账户的流入流出；days为最近的天数（0表示不返回按日数据）
+     */
+    public TransactionStats snapshot(String accountId, int days) {
+        if (days < 0 || days > retainDays) {
+            throw new IllegalArgumentException("Days must be between 0 and " + retainDays);
+        }
+        TransactionStats stats = new TransactionStats();
+        stats.setPartial(partial);
+        stats.setTotal(total.read());
+        Map<Transaction.Type, TransactionStats.Totals> types = new EnumMap<>(Transaction.Type.class);
+        for (Transaction.Type type : TYPES) {
+            types.put(type, byType[type.ordinal()].read());
+        }
+        stats.setByType(types);
+        if (accountId != null && !accountId.isEmpty()) {
+            AccountCounters counters = find(accounts.idOf(accountId));
+            stats.setAccount(counters == null
+                    ? new TransactionStats.AccountFlow(accountId, zero(), zero())
+                    : new TransactionStats.AccountFlow(accountId, counters.inflow.read(), counters.outflow.read()));
+        }
+        List<TransactionStats.DailyTotals> daily = new ArrayList<>(Math.min(days, byDay.size()));
+        if (days > 0) {
+            for (Map.Entry<LocalDate, Counter> entry : byDay.descendingMap().entrySet()) {
+                if (daily.size() == days) {
+                    break;
+                }
+                daily.add(new TransactionStats.DailyTotals(entry.getKey(),
+                        entry.getValue().count.sum(), fromMinor(entry.getValue().minor.sum())));
+            }
+        }
+        stats.setDaily(daily.reversed());
+        return stats;
+    }
+
+    private static TransactionStats.Totals zero() {
+        return new TransactionStats.Totals(0, fromMinor(0));
+    }
+
+    // 与AtomicAccountRepository一致不做舍入；服务入口已拒绝超过两位小数的金额
+    private static long toMinor(BigDecimal amount) {
+        return amount.setScale(SCALE, RoundingMode.UNNECESSARY).unscaledValue().longValueExact();
+    }
+
+    private static BigDecimal fromMinor(long minor) {
+        return BigDecimal.valueOf(minor, SCALE);
+    }
+}
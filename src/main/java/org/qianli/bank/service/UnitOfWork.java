@@ -0,0 +1,48 @@
+package org.qianli.bank.service;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * 内存仓库上的工作单元：每完成一步登记对应的撤销动作，提交前失败时按相反顺序撤销已完成的步骤。
+ * <p>
+ * 本身不加锁，也不是线程安全的，只在一个请求线程内使用；步骤之间的隔离由调用方持有的锁保证。
+ * 撤销动作抛出异常时继续撤销其余步骤，异常附加到导致回滚的原始异常上。
+ */
+final class UnitOfWork {
+    private final Deque<Runnable> undo = new ArrayDeque<>();
+    private boolean committed;
+
+    /**
+     * 登记刚完成的一步的撤销动作
+     */
+    void onRollback(Runnable action) {
+        if (committed) {
+            throw new IllegalStateException("Unit of work already committed");
+        }
+        undo.push(action);
+    }
+
+    void commit() {
+        committed = true;
+        undo.clear();
+    }
+
+    /**
+     * 未提交时撤销全部已完成的步骤；已提交时不做任何事
+     *
+     * @return 全部撤销动作都成功时为true；有撤销动作失败时为false，调用方不能再把结果当作未发生
+     */
+    boolean rollback(Throwable cause) {
+        boolean undone = true;
+        while (!undo.isEmpty()) {
+            try {
+                undo.pop().run();
+            } catch (RuntimeException e) {
+                cause.addSuppressed(e);
+                undone = false;
+            }
+        }
+        return undone;
+    }
+}
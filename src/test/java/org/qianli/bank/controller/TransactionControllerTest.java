@@ -3,27 +3,46 @@ package org.qianli.bank.controller;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.qianli.bank.model.BatchItemResult;
+import org.qianli.bank.model.MultiLegTransfer;
 import org.qianli.bank.model.Transaction;
+import org.qianli.bank.model.TransactionPage;
+import org.qianli.bank.repository.AccountRegistry;
+import org.qianli.bank.service.AsyncTransactionSubmitter;
+import org.qianli.bank.service.IdempotencyStore;
+import org.qianli.bank.service.TransactionExporter;
+import org.qianli.bank.service.TransactionFeed;
 import org.qianli.bank.service.TransactionService;
+import org.qianli.bank.service.TransactionStatistics;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
 import org.springframework.http.MediaType;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 
 import java.math.BigDecimal;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
 
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.BDDMockito.given;
 import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
 @ExtendWith(SpringExtension.class)
 @WebMvcTest(TransactionController.class)
+@Import({IdempotencyStore.class, TransactionStatistics.class, AccountRegistry.class})
 public class TransactionControllerTest {
 
     @Autowired
@@ -32,6 +51,15 @@ public class TransactionControllerTest {
     @MockBean
     private TransactionService transactionService;
 
+    @MockBean
+    private TransactionExporter transactionExporter;
+
+    @MockBean
+    private AsyncTransactionSubmitter asyncSubmitter;
+
+    @MockBean
+    private TransactionFeed transactionFeed;
+
     private Transaction testTransaction;
 
     @BeforeEach
@@ -58,6 +86,76 @@ public class TransactionControllerTest {
             .andExpect(jsonPath("$.description").value("Test transaction"));
     }
 
+    @Test
+    void createTransaction_withIdempotencyKey_shouldReplayOriginalResponse() throws Exception {
+        given(transactionService.createTransaction(any(Transaction.class)))
+            .willReturn(testTransaction);
+        String body = "{\"amount\":100.0,\"type\":\"DEPOSIT\",\"description\":\"Test transaction\"}";
+
+        mockMvc.perform(post("/api/transactions")
+                .header("Idempotency-Key", "retry-1")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(body))
+            .andExpect(status().isCreated())
+            .andExpect(header().doesNotExist("Idempotent-Replayed"));
+        mockMvc.perform(post("/api/transactions")
+                .header("Idempotency-Key", "retry-1")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(body))
+            .andExpect(status().isCreated())
+            .andExpect(header().string("Idempotent-Replayed", "true"))
+            .andExpect(jsonPath("$.id").value(1));
+
+        verify(transactionService, times(1)).createTransaction(any(Transaction.class));
+    }
+
+    @Test
+    void createTransaction_withReusedIdempotencyKey_shouldReturnUnprocessable() throws Exception {
+        given(transactionService.createTransaction(any(Transaction.class)))
+            .willReturn(testTransaction);
+
+        mockMvc.perform(post("/api/transactions")
+                .header("Idempotency-Key", "reused")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"amount\":100.0,\"type\":\"DEPOSIT\"}"))
+            .andExpect(status().isCreated());
+        mockMvc.perform(post("/api/transactions")
+                .header("Idempotency-Key", "reused")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"amount\":200.0,\"type\":\"DEPOSIT\"}"))
+            .andExpect(status().isUnprocessableEntity());
+    }
+
+    @Test
+    void createTransactionAsync_shouldCompleteWithCreated() throws Exception {
+        given(asyncSubmitter.submit(any(Transaction.class)))
+            .willReturn(CompletableFuture.completedFuture(testTransaction));
+
+        MvcResult result = mockMvc.perform(post("/api/transactions/async")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"amount\":100.0,\"type\":\"DEPOSIT\"}"))
+            .andExpect(request().asyncStarted())
+            .andReturn();
+        mockMvc.perform(asyncDispatch(result))
+            .andExpect(status().isCreated())
+            .andExpect(jsonPath("$.id").value(1));
+    }
+
+    @Test
+    void createTransactionAsync_whenQueueFull_shouldReturnTooManyRequests() throws Exception {
+        given(asyncSubmitter.submit(any(Transaction.class)))
+            .willThrow(new RejectedExecutionException());
+        given(asyncSubmitter.getRetryAfterSeconds()).willReturn(2L);
+
+        MvcResult result = mockMvc.perform(post("/api/transactions/async")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"amount\":100.0,\"type\":\"DEPOSIT\"}"))
+            .andReturn();
+        mockMvc.perform(asyncDispatch(result))
+            .andExpect(status().isTooManyRequests())
+            .andExpect(header().string("Retry-After", "2"));
+    }
+
     @Test
     void getTransaction_shouldReturnTransaction() throws Exception {
         given(transactionService.getTransactionById(testTransaction.getId()))
@@ -84,6 +182,27 @@ public class TransactionControllerTest {
             .andExpect(jsonPath("$[0].description").value("Test transaction"));
     }
 
+    @Test
+    void getAllTransactions_withCursor_shouldReturnKeysetPage() throws Exception {
+        given(transactionService.getTransactionsAfter(null, 0L, 1, null, null))
+            .willReturn(new TransactionPage(List.of(testTransaction), "dDE6MQ"));
+
+        mockMvc.perform(get("/api/transactions?afterId=0&limit=1"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.items[0].id").value(testTransaction.getId()))
+            .andExpect(jsonPath("$.nextCursor").value("dDE6MQ"));
+    }
+
+    @Test
+    void getLatestTransactions_shouldReturnNewestFirst() throws Exception {
+        given(transactionService.getLatestTransactions("A001", null, 5))
+            .willReturn(List.of(testTransaction));
+
+        mockMvc.perform(get("/api/transactions/latest?accountId=A001&limit=5"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$[0].id").value(testTransaction.getId()));
+    }
+
     @Test
     void updateTransaction_shouldReturnUpdatedTransaction() throws Exception {
         given(transactionService.updateTransaction(any(Long.class), any(Transaction.class)))
@@ -106,4 +225,72 @@ public class TransactionControllerTest {
         mockMvc.perform(delete("/api/transactions/" + testTransaction.getId()))
             .andExpect(status().isNoContent());
     }
+
+    @Test
+    void createTransactions_shouldReturnResultPerItem() throws Exception {
+        given(transactionService.createTransactions(anyList()))
+            .willReturn(Arrays.asList(
+                BatchItemResult.created(0, testTransaction),
+                BatchItemResult.rejected(1, "Insufficient balance")));
+
+        mockMvc.perform(post("/api/transactions/batch")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("[{\"amount\":100.0,\"type\":\"DEPOSIT\",\"toAccountNumber\":\"A001\"},"
+                        + "{\"amount\":1e9,\"type\":\"WITHDRAWAL\",\"fromAccountNumber\":\"A001\"}]"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$[0].status").value("CREATED"))
+            .andExpect(jsonPath("$[0].transaction.id").value(testTransaction.getId()))
+            .andExpect(jsonPath("$[1].status").value("REJECTED"))
+            .andExpect(jsonPath("$[1].error").value("Insufficient balance"));
+    }
+
+    @Test
+    void createTransactions_shouldAcceptNdjson() throws Exception {
+        given(transactionService.createTransactions(argThat(list -> list.size() == 2)))
+            .willReturn(Arrays.asList(
+                BatchItemResult.created(0, testTransaction),
+                BatchItemResult.created(1, testTransaction)));
+
+        mockMvc.perform(post("/api/transactions/batch")
+                .contentType("application/x-ndjson")
+                .content("{\"amount\":100.0,\"type\":\"DEPOSIT\",\"toAccountNumber\":\"A001\"}\n"
+                        + "{\"amount\":5.0,\"type\":\"DEPOSIT\",\"toAccountNumber\":\"A002\"}\n"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.length()").value(2));
+    }
+
+    @Test
+    void createMultiLegTransfer_shouldReturnCreatedLegs() throws Exception {
+        given(transactionService.createMultiLegTransfer(argThat(request -> request.getLegs().size() == 2)))
+            .willReturn(Arrays.asList(testTransaction, testTransaction));
+
+        mockMvc.perform(post("/api/transactions/multi-leg")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"fromAccountNumber\":\"A001\",\"description\":\"payroll\",\"legs\":["
+                        + "{\"toAccountNumber\":\"A002\",\"amount\":100.0},"
+                        + "{\"toAccountNumber\":\"A003\",\"amount\":50.0}]}"))
+            .andExpect(status().isCreated())
+            .andExpect(jsonPath("$.length()").value(2));
+    }
+
+    @Test
+    void createMultiLegTransfer_whenRejected_shouldReturnBadRequest() throws Exception {
+        given(transactionService.createMultiLegTransfer(any(MultiLegTransfer.class)))
+            .willThrow(new IllegalArgumentException("Insufficient balance"));
+
+        mockMvc.perform(post("/api/transactions/multi-leg")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"fromAccountNumber\":\"A001\",\"legs\":[{\"toAccountNumber\":\"A002\",\"amount\":1e9}]}"))
+            .andExpect(status().isBadRequest())
+            .andExpect(content().string("Insufficient balance"));
+    }
+
+    @Test
+    void streamTransactions_shouldRejectWhenSubscriberLimitReached() throws Exception {
+        given(transactionFeed.subscribe(any(), any()))
+            .willThrow(new IllegalStateException("Too many live feed subscribers"));
+
+        mockMvc.perform(get("/api/transactions/stream").param("accountId", "A001"))
+            .andExpect(status().isServiceUnavailable());
+    }
 }
@@ -0,0 +1,73 @@
+package org.qianli.bank.controller;
+
+import org.junit.jupiter.api.Test;
+import org.qianli.bank.repository.AccountRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.math.BigDecimal;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+/**
+ * 不经过mock，确认单笔和异步提交在服务层拒绝非正金额和不足一分的金额：负数存款、取款、转账都不能绕过余额检查
+ */
+@SpringBootTest
+@AutoConfigureMockMvc
+class TransactionValidationTest {
+    private static final String[] INVALID = {
+        "{\"type\":\"DEPOSIT\",\"toAccountNumber\":\"A001\",\"amount\":-20000}",
+        "{\"type\":\"WITHDRAWAL\",\"fromAccountNumber\":\"A001\",\"amount\":-5}",
+        "{\"type\":\"TRANSFER\",\"fromAccountNumber\":\"A002\",\"toAccountNumber\":\"A001\",\"amount\":-5}",
+        "{\"type\":\"DEPOSIT\",\"toAccountNumber\":\"A001\",\"amount\":0}",
+        "{\"type\":\"DEPOSIT\",\"toAccountNumber\":\"A001\"}",
+        "{\"type\":\"DEPOSIT\",\"toAccountNumber\":\"A001\",\"amount\":0.005}"
+    };
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private AccountRepository accountRepository;
+
+    private BigDecimal balanceOf(String accountNumber) {
+        return accountRepository.findByAccountNumber(accountNumber).orElseThrow().getBalance();
+    }
+
+    @Test
+    void createTransaction_shouldRejectNonPositiveAmounts() throws Exception {
+        BigDecimal a001 = balanceOf("A001");
+        BigDecimal a002 = balanceOf("A002");
+        for (String body : INVALID) {
+            mockMvc.perform(post("/api/transactions")
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .content(body))
+                .andExpect(status().isBadRequest());
+        }
+        assertEquals(a001, balanceOf("A001"));
+        assertEquals(a002, balanceOf("A002"));
+    }
+
+    @Test
+    void createTransactionAsync_shouldRejectNonPositiveAmounts() throws Exception {
+        BigDecimal a001 = balanceOf("A001");
+        BigDecimal a002 = balanceOf("A002");
+        for (String body : INVALID) {
+            MvcResult result = mockMvc.perform(post("/api/transactions/async")
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .content(body))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+            mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isBadRequest());
+        }
+        assertEquals(a001, balanceOf("A001"));
+        assertEquals(a002, balanceOf("A002"));
+    }
+}
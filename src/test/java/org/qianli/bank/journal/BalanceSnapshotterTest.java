@@ -0,0 +1,190 @@
+package org.qianli.bank.journal;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.qianli.bank.model.Transaction;
+import org.qianli.bank.model.TransactionStats;
+import org.qianli.bank.repository.AccountRegistry;
+import org.qianli.bank.repository.InMemoryAccountRepository;
+import org.qianli.bank.repository.IndexedTransactionRepository;
+import org.qianli.bank.service.TransactionStatistics;
+
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BalanceSnapshotterTest {
+
+    @TempDir
+    Path directory;
+
+    private TransactionJournal openJournal() throws Exception {
+        return new TransactionJournal(directory.resolve("journal").toString(), 4096, FsyncPolicy.ASYNC, 200);
+    }
+
+    private BalanceSnapshotter openSnapshotter(TransactionJournal journal, boolean restoreHistory) throws Exception {
+        // interval为0：不启动定时任务，由测试手动触发
+        return new BalanceSnapshotter(journal, directory.resolve("snapshots").toString(), 0, 2,
+                restoreHistory, new SimpleMeterRegistry());
+    }
+
+    private static Transaction transaction(long id, Transaction.Type type, String from, String to, String amount) {
+        Transaction transaction = new Transaction(new BigDecimal(amount), "snapshot 测试", LocalDateTime.now());
+        transaction.setId(id);
+        transaction.setType(type);
+        transaction.setFromAccountNumber(from);
+        transaction.setToAccountNumber(to);
+        return transaction;
+    }
+
+    // 写入两笔交易后打快照，再写一笔只存在于日志尾部的交易；restoreHistory决定快照是否带交易历史
+    private void writeHistory(boolean restoreHistory) throws Exception {
+        TransactionJournal journal = openJournal();
+        BalanceSnapshotter snapshotter = openSnapshotter(journal, restoreHistory);
+        new JournalRecovery(journal, new IndexedTransactionRepository(), new InMemoryAccountRepository(), snapshotter).recover();
+
+        journal.onSaved(transaction(1, Transaction.Type.DEPOSIT, null, "A001", "100.00"));
+        journal.onSaved(transaction(2, Transaction.Type.TRANSFER, "A001", "A002", "60.00"));
+        BalanceSnapshot snapshot = snapshotter.takeSnapshot().orElseThrow();
+        assertEquals(3L, snapshot.nextId());
+        assertEquals(new BigDecimal("10040.00"), snapshot.balances().get("A001"));
+        assertTrue(snapshotter.takeSnapshot().isEmpty(), "no new records, no new snapshot");
+
+        journal.onSaved(transaction(3, Transaction.Type.WITHDRAWAL, "A002", null, "40.00"));
+        journal.close();
+        snapshotter.stop();
+    }
+
+    @Test
+    void recovery_shouldStartFromSnapshotAndReplayOnlyTheTail() throws Exception {
+        writeHistory(false);
+
+        TransactionJournal journal = openJournal();
+        IndexedTransactionRepository transactions = new IndexedTransactionRepository();
+        InMemoryAccountRepository accounts = new InMemoryAccountRepository();
+        JournalRecovery recovery = new JournalRecovery(journal, transactions, accounts, openSnapshotter(journal, false));
+        recovery.recover();
+
+        assertEquals(1, recovery.getRecoveredRecords());
+        assertEquals(1, transactions.getTransactionCount());
+        assertTrue(transactions.findById(1L).isEmpty());
+        assertEquals(Transaction.Type.WITHDRAWAL, transactions.findById(3L).orElseThrow().getType());
+        assertEquals(new BigDecimal("10040.00"), accounts.findByAccountNumber("A001").orElseThrow().getBalance());
+        assertEquals(new BigDecimal("10020.00"), accounts.findByAccountNumber("A002").orElseThrow().getBalance());
+
+        Transaction next = new Transaction();
+        next.setType(Transaction.Type.DEPOSIT);
+        assertEquals(4L, transactions.save(next).getId());
+        journal.close();
+    }
+
+    @Test
+    void recovery_withRestoreHistory_shouldLoadAllTransactionsWithoutDoubleCounting() throws Exception {
+        writeHistory(false);
+
+        TransactionJournal journal = openJournal();
+        IndexedTransactionRepository transactions = new IndexedTransactionRepository();
+        InMemoryAccountRepository accounts = new InMemoryAccountRepository();
+        BalanceSnapshotter snapshotter = openSnapshotter(journal, true);
+        JournalRecovery recovery = new JournalRecovery(journal, transactions, accounts, snapshotter);
+        recovery.recover();
+
+        // 快照不带历史，只能从头回放
+        assertEquals(3, recovery.getRecoveredRecords());
+        assertEquals(3, transactions.getTransactionCount());
+        assertEquals(new BigDecimal("10040.00"), accounts.findByAccountNumber("A001").orElseThrow().getBalance());
+        assertEquals(new BigDecimal("10020.00"), accounts.findByAccountNumber("A002").orElseThrow().getBalance());
+
+        // 下一个快照从日志开头补齐历史，余额不重复累加
+        journal.onSaved(transaction(4, Transaction.Type.DEPOSIT, null, "A001", "1.00"));
+        assertEquals(new BigDecimal("10041.00"), snapshotter.takeSnapshot().orElseThrow().balances().get("A001"));
+        journal.close();
+        snapshotter.stop();
+
+        journal = openJournal();
+        transactions = new IndexedTransactionRepository();
+        recovery = new JournalRecovery(journal, transactions, new InMemoryAccountRepository(), openSnapshotter(journal, true));
+        recovery.recover();
+        assertEquals(0, recovery.getRecoveredRecords());
+        assertEquals(4, transactions.getTransactionCount());
+        journal.close();
+    }
+
+    @Test
+    void recovery_byDefault_shouldLoadHistoryFromSnapshotWithoutDecodingEarlierRecords() throws Exception {
+        writeHistory(true);
+
+        TransactionJournal journal = openJournal();
+        IndexedTransactionRepository transactions = new IndexedTransactionRepository();
+        BalanceSnapshotter snapshotter = openSnapshotter(journal, true);
+        JournalRecovery recovery = new JournalRecovery(journal, transactions, new InMemoryAccountRepository(), snapshotter);
+        recovery.recover();
+
+        // 只解码了快照之后的一条日志，快照之前的两笔交易来自快照文件
+        assertEquals(1, recovery.getRecoveredRecords());
+        assertEquals(3, transactions.getTransactionCount());
+        assertEquals(Transaction.Type.TRANSFER, transactions.findById(2L).orElseThrow().getType());
+
+        // 修改快照之前的交易后再打快照，历史从上一个快照续写并合并修改
+        Transaction modified = transaction(1, Transaction.Type.DEPOSIT, null, "A001", "100.00");
+        modified.setDescription("修改后");
+        modified.setModifyFlg("1");
+        journal.onUpdated(modified);
+        journal.onSaved(transaction(4, Transaction.Type.DEPOSIT, null, "A003", "5.00"));
+        BalanceSnapshot snapshot = snapshotter.takeSnapshot().orElseThrow();
+        assertEquals(snapshot.cutLsn(), snapshot.historyLsn());
+        journal.onSaved(transaction(5, Transaction.Type.WITHDRAWAL, "A003", null, "1.00"));
+        journal.close();
+        snapshotter.stop();
+
+        journal = openJournal();
+        transactions = new IndexedTransactionRepository();
+        InMemoryAccountRepository accounts = new InMemoryAccountRepository();
+        recovery = new JournalRecovery(journal, transactions, accounts, openSnapshotter(journal, true));
+        recovery.recover();
+
+        assertEquals(1, recovery.getRecoveredRecords());
+        assertEquals(5, transactions.getTransactionCount());
+        assertEquals("修改后", transactions.findById(1L).orElseThrow().getDescription());
+        assertEquals(new BigDecimal("10040.00"), accounts.findByAccountNumber("A001").orElseThrow().getBalance());
+        assertEquals(new BigDecimal("10020.00"), accounts.findByAccountNumber("A002").orElseThrow().getBalance());
+        assertEquals(new BigDecimal("10004.00"), accounts.findByAccountNumber("A003").orElseThrow().getBalance());
+        journal.close();
+    }
+
+    @Test
+    void recovery_shouldMarkStatisticsPartialOnlyWhenHistoryIsSkipped() throws Exception {
+        writeHistory(false);
+
+        for (boolean restoreHistory : new boolean[]{true, false}) {
+            TransactionJournal journal = openJournal();
+            TransactionStatistics statistics = new TransactionStatistics(new AccountRegistry(), 30);
+            new JournalRecovery(journal, new IndexedTransactionRepository(), new InMemoryAccountRepository(),
+                    openSnapshotter(journal, restoreHistory), null, List.of(statistics)).recover();
+
+            TransactionStats stats = statistics.snapshot(null, 0);
+            assertEquals(!restoreHistory, stats.isPartial());
+            assertEquals(restoreHistory ? 3 : 1, stats.getTotal().getCount());
+            journal.close();
+        }
+    }
+
+    @Test
+    void loadLatest_shouldSkipCorruptSnapshot() throws Exception {
+        writeHistory(false);
+        TransactionJournal journal = openJournal();
+        BalanceSnapshotter snapshotter = openSnapshotter(journal, false);
+        Path valid = snapshotter.snapshotFiles().get(0);
+        // 比有效快照更新、但内容已损坏的文件
+        Files.write(valid.resolveSibling("ffffffffffffffff.snapshot"), new byte[]{1, 2, 3});
+
+        BalanceSnapshot snapshot = snapshotter.loadLatest().orElseThrow();
+        assertEquals(3L, snapshot.nextId());
+        journal.close();
+    }
+}
@@ -0,0 +1,134 @@
+package org.qianli.bank.journal;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.qianli.bank.model.Transaction;
+import org.qianli.bank.repository.InMemoryAccountRepository;
+import org.qianli.bank.repository.IndexedTransactionRepository;
+
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TransactionJournalTest {
+
+    @TempDir
+    Path directory;
+
+    private TransactionJournal open(FsyncPolicy policy) throws Exception {
+        // 小分段，便于覆盖切换分段的逻辑
+        return new TransactionJournal(directory.toString(), 4096, policy, 200);
+    }
+
+    private static Transaction transaction(long id, Transaction.Type type, String from, String to, String amount) {
+        Transaction transaction = new Transaction(new BigDecimal(amount), "journal 测试", LocalDateTime.now());
+        transaction.setId(id);
+        transaction.setType(type);
+        transaction.setFromAccountNumber(from);
+        transaction.setToAccountNumber(to);
+        return transaction;
+    }
+
+    @Test
+    void onSavedAll_shouldWaitForOneGroupCommitPerBatch() throws Exception {
+        // 组提交间隔100ms：逐条等待刷盘时50条至少要5秒
+        TransactionJournal journal = new TransactionJournal(directory.toString(), 4096, FsyncPolicy.GROUP, 100_000);
+        List<Transaction> batch = new ArrayList<>();
+        for (long id = 1; id <= 50; id++) {
+            batch.add(transaction(id, Transaction.Type.TRANSFER, "A001", "A002", "1.25"));
+        }
+
+        long start = System.nanoTime();
+        journal.onSavedAll(batch);
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+        assertTrue(elapsedMillis < 1_000, "batch waited " + elapsedMillis + " ms");
+        List<JournalRecord> records = new ArrayList<>();
+        journal.replay(0, records::add);
+        assertEquals(50, records.size());
+        assertEquals(50L, records.get(49).transaction().getId());
+        journal.close();
+    }
+
+    @Test
+    void replay_shouldReturnRecordsAcrossSegmentsAfterReopen() throws Exception {
+        TransactionJournal journal = open(FsyncPolicy.GROUP);
+        for (long id = 1; id <= 200; id++) {
+            journal.onSaved(transaction(id, Transaction.Type.TRANSFER, "A001", "A002", "1.25"));
+        }
+        journal.close();
+
+        TransactionJournal reopened = open(FsyncPolicy.EVERY_WRITE);
+        List<JournalRecord> records = new ArrayList<>();
+        reopened.replay(0, records::add);
+
+        assertEquals(200, records.size());
+        Transaction last = records.get(199).transaction();
+        assertEquals(200L, last.getId());
+        assertEquals(new BigDecimal("1.25"), last.getAmount());
+        assertEquals("journal 测试", last.getDescription());
+        assertEquals(Transaction.Type.TRANSFER, last.getType());
+        assertTrue(reopened.getWrittenLsn() > 4096, "records should span several segments");
+
+        reopened.onSaved(transaction(201, Transaction.Type.DEPOSIT, null, "A001", "3.00"));
+        List<JournalRecord> tail = new ArrayList<>();
+        reopened.replay(records.get(199).endLsn(), tail::add);
+        assertEquals(1, tail.size());
+        assertEquals(201L, tail.get(0).transaction().getId());
+        reopened.close();
+    }
+
+    @Test
+    void open_shouldTruncateTornTail() throws Exception {
+        TransactionJournal journal = open(FsyncPolicy.EVERY_WRITE);
+        journal.onSaved(transaction(1, Transaction.Type.DEPOSIT, null, "A001", "10.00"));
+        long end = journal.getWrittenLsn();
+        journal.close();
+
+        // 模拟宕机时只写了一半的记录：长度已写入但CRC对不上
+        try (RandomAccessFile file = new RandomAccessFile(directory.resolve("00000000.journal").toFile(), "rw")) {
+            file.seek(end);
+            file.writeInt(40);
+            file.writeInt(12345);
+        }
+
+        TransactionJournal reopened = open(FsyncPolicy.EVERY_WRITE);
+        assertEquals(end, reopened.getWrittenLsn());
+        reopened.onSaved(transaction(2, Transaction.Type.DEPOSIT, null, "A001", "5.00"));
+        List<JournalRecord> records = new ArrayList<>();
+        reopened.replay(0, records::add);
+        assertEquals(2, records.size());
+        reopened.close();
+    }
+
+    @Test
+    void recovery_shouldRebuildTransactionsAndBalances() throws Exception {
+        TransactionJournal journal = open(FsyncPolicy.ASYNC);
+        journal.onSaved(transaction(1, Transaction.Type.DEPOSIT, null, "A001", "100.00"));
+        journal.onSaved(transaction(3, Transaction.Type.WITHDRAWAL, "A002", null, "40.00"));
+        journal.onSaved(transaction(2, Transaction.Type.TRANSFER, "A001", "A002", "60.00"));
+        Transaction modified = transaction(1, Transaction.Type.DEPOSIT, null, "A001", "100.00");
+        modified.setModifyFlg("1");
+        journal.onUpdated(modified);
+        journal.close();
+
+        IndexedTransactionRepository transactions = new IndexedTransactionRepository();
+        InMemoryAccountRepository accounts = new InMemoryAccountRepository();
+        new JournalRecovery(open(FsyncPolicy.ASYNC), transactions, accounts, (BalanceSnapshotter) null).recover();
+
+        assertEquals(3, transactions.getTransactionCount());
+        assertEquals("1", transactions.findById(1L).orElseThrow().getModifyFlg());
+        assertEquals(2, transactions.findAll(0, 10, null, "A002").size());
+        assertEquals(new BigDecimal("10040.00"), accounts.findByAccountNumber("A001").orElseThrow().getBalance());
+        assertEquals(new BigDecimal("10020.00"), accounts.findByAccountNumber("A002").orElseThrow().getBalance());
+
+        Transaction next = new Transaction();
+        next.setType(Transaction.Type.DEPOSIT);
+        assertEquals(4L, transactions.save(next).getId());
+    }
+}
@@ -0,0 +1,63 @@
+package org.qianli.bank.repository;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AccountRegistryTest {
+
+    private final AccountRegistry registry = new AccountRegistry();
+
+    @Test
+    void intern_shouldAssignDenseStableIds() {
+        assertEquals(AccountRegistry.NONE, registry.intern(null));
+        assertEquals(AccountRegistry.NONE, registry.intern(""));
+        assertEquals(AccountRegistry.NONE, registry.idOf("A001"));
+
+        int first = registry.intern("A001");
+        int second = registry.intern(new String("A002"));
+        assertEquals(1, first);
+        assertEquals(2, second);
+        assertEquals(first, registry.intern(new String("A001")));
+        assertEquals(second, registry.idOf("A002"));
+        assertEquals("A002", registry.nameOf(second));
+        assertNull(registry.nameOf(AccountRegistry.NONE));
+        assertEquals(2, registry.size());
+    }
+
+    @Test
+    void intern_concurrently_shouldGiveEachAccountOneId() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<int[]>> futures = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            futures.add(executor.submit(() -> {
+                int[] ids = new int[1_000];
+                for (int i = 0; i < ids.length; i++) {
+                    ids[i] = registry.intern("ACC" + i);
+                }
+                return ids;
+            }));
+        }
+        int[] expected = futures.get(0).get();
+        for (Future<int[]> future : futures) {
+            assertArrayEquals(expected, future.get());
+        }
+        executor.shutdown();
+
+        Set<Integer> distinct = new HashSet<>();
+        for (int i = 0; i < expected.length; i++) {
+            distinct.add(expected[i]);
+            assertEquals("ACC" + i, registry.nameOf(expected[i]));
+        }
+        assertEquals(1_000, distinct.size());
+        assertEquals(1_000, registry.size());
+    }
+}
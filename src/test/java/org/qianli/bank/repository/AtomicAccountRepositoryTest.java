@@ -0,0 +1,105 @@
+package org.qianli.bank.repository;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AtomicAccountRepositoryTest {
+
+    private AtomicAccountRepository repository;
+
+    @BeforeEach
+    void setUp() {
+        repository = new AtomicAccountRepository();
+    }
+
+    private BigDecimal balanceOf(String accountNumber) {
+        return repository.findByAccountNumber(accountNumber).orElseThrow().getBalance();
+    }
+
+    @Test
+    void withdraw_shouldRejectOverdraft() {
+        assertTrue(repository.withdraw("A001", new BigDecimal("9999.99")));
+        assertFalse(repository.withdraw("A001", new BigDecimal("0.02")));
+        assertEquals(new BigDecimal("0.01"), balanceOf("A001"));
+        assertFalse(repository.withdraw("A999", BigDecimal.ONE));
+    }
+
+    @Test
+    void deposit_shouldRejectSubCentAmounts() {
+        assertThrows(IllegalArgumentException.class, () -> repository.deposit("A001", new BigDecimal("0.001")));
+        assertEquals(new BigDecimal("10000.00"), balanceOf("A001"));
+    }
+
+    @Test
+    void transfer_shouldMoveFundsOrLeaveBothUntouched() {
+        assertTrue(repository.transfer("A001", "A002", new BigDecimal("2500.50")));
+        assertEquals(new BigDecimal("7499.50"), balanceOf("A001"));
+        assertEquals(new BigDecimal("12500.50"), balanceOf("A002"));
+
+        assertFalse(repository.transfer("A001", "A002", new BigDecimal("7499.51")));
+        assertFalse(repository.transfer("A001", "A999", BigDecimal.ONE));
+        assertEquals(new BigDecimal("7499.50"), balanceOf("A001"));
+        assertEquals(new BigDecimal("12500.50"), balanceOf("A002"));
+    }
+
+    @Test
+    void concurrentWithdrawals_shouldNeverOverdraw() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        AtomicInteger succeeded = new AtomicInteger();
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < 5_000; i++) {
+                    if (repository.withdraw("A001", new BigDecimal("1.00"))) {
+                        succeeded.incrementAndGet();
+                    }
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        assertEquals(10_000, succeeded.get());
+        assertEquals(new BigDecimal("0.00"), balanceOf("A001"));
+    }
+
+    @Test
+    void concurrentTransfers_shouldConserveTotalBalance() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            int offset = t;
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < 10_000; i++) {
+                    String from = String.format("A%03d", (i + offset) % 10 + 1);
+                    String to = String.format("A%03d", (i * 7 + offset + 1) % 10 + 1);
+                    if (!from.equals(to)) {
+                        repository.transfer(from, to, new BigDecimal("3.33"));
+                    }
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        BigDecimal total = repository.findAll().stream()
+                .map(a -> a.getBalance())
+                .reduce(BigDecimal.ZERO, BigDecimal::add);
+        assertEquals(new BigDecimal("100000.00"), total);
+        repository.findAll().forEach(a -> assertTrue(a.getBalance().signum() >= 0));
+    }
+}
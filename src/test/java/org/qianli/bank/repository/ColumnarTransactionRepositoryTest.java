@@ -0,0 +1,109 @@
+package org.qianli.bank.repository;
+
+import org.junit.jupiter.api.Test;
+import org.qianli.bank.model.Transaction;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 列式仓库跑一遍分段仓库的全部用例，另外检查列编码能否还原交易
+ */
+class ColumnarTransactionRepositoryTest extends IndexedTransactionRepositoryTest {
+
+    @Override
+    TransactionRepository createRepository() {
+        return new ColumnarTransactionRepository();
+    }
+
+    @Test
+    void findById_shouldMaterializeStoredColumns() {
+        LocalDateTime timestamp = LocalDateTime.of(2024, 3, 1, 12, 30, 15, 123_456_000);
+        Transaction transfer = transaction(Transaction.Type.TRANSFER, "A001", "A002", "1234.5");
+        transfer.setDescription("房租 March");
+        transfer.setTimestamp(timestamp);
+        Transaction precise = transaction(Transaction.Type.DEPOSIT, null, "A002", "0.015");
+        precise.setDescription(null);
+        precise.setTimestamp(null);
+        repository.saveAll(List.of(transfer, precise));
+
+        Transaction loaded = repository.findById(1L).orElseThrow();
+        assertNotSame(transfer, loaded);
+        assertEquals(Transaction.Type.TRANSFER, loaded.getType());
+        assertEquals(new BigDecimal("1234.50"), loaded.getAmount());
+        assertEquals("房租 March", loaded.getDescription());
+        assertEquals(timestamp, loaded.getTimestamp());
+        assertEquals("A001", loaded.getFromAccountNumber());
+        assertEquals("A002", loaded.getToAccountNumber());
+        assertEquals("0", loaded.getModifyFlg());
+
+        // 无法用分表示的金额保留原值；账户号物化为字典中的同一个实例
+        Transaction second = repository.findById(2L).orElseThrow();
+        assertEquals(new BigDecimal("0.015"), second.getAmount());
+        assertNull(second.getDescription());
+        assertNull(second.getTimestamp());
+        assertNull(second.getFromAccountNumber());
+        assertSame(loaded.getToAccountNumber(), second.getToAccountNumber());
+    }
+
+    @Test
+    void update_shouldRewriteMutableColumns() {
+        repository.save(transaction(Transaction.Type.DEPOSIT, null, "A001", "10.00"));
+
+        Transaction existing = repository.findById(1L).orElseThrow();
+        existing.setModifyFlg("1");
+        existing.setDescription("corrected");
+        existing.setAmount(new BigDecimal("-2.50"));
+        repository.update(existing);
+
+        Transaction reloaded = repository.findById(1L).orElseThrow();
+        assertEquals("1", reloaded.getModifyFlg());
+        assertEquals("corrected", reloaded.getDescription());
+        assertEquals(new BigDecimal("-2.50"), reloaded.getAmount());
+        assertEquals(existing.getTimestamp(), reloaded.getTimestamp());
+    }
+
+    @Test
+    void findById_shouldNeverSeeHalfRewrittenRows() throws Exception {
+        int rows = 64;
+        for (int i = 0; i < rows; i++) {
+            repository.save(transaction(Transaction.Type.DEPOSIT, null, "A001", "1.00"));
+        }
+        // 两种状态交替：存款配1.00，取款配无法用分表示的0.015；读到的行只能是其中一种
+        AtomicBoolean running = new AtomicBoolean(true);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<Integer> reader = executor.submit(() -> {
+            int reads = 0;
+            while (running.get()) {
+                for (long id = 1; id <= rows; id++) {
+                    Transaction loaded = repository.findById(id).orElseThrow();
+                    BigDecimal expected = loaded.getType() == Transaction.Type.DEPOSIT
+                            ? new BigDecimal("1.00") : new BigDecimal("0.015");
+                    assertEquals(expected, loaded.getAmount(), "row " + id);
+                    reads++;
+                }
+            }
+            return reads;
+        });
+        for (int round = 0; round < 200; round++) {
+            boolean wide = round % 2 == 0;
+            for (long id = 1; id <= rows; id++) {
+                Transaction update = repository.findById(id).orElseThrow();
+                update.setType(wide ? Transaction.Type.WITHDRAWAL : Transaction.Type.DEPOSIT);
+                update.setAmount(new BigDecimal(wide ? "0.015" : "1.00"));
+                repository.update(update);
+            }
+            Thread.yield();
+        }
+        running.set(false);
+        assertTrue(reader.get() > 0);
+        executor.shutdown();
+    }
+}
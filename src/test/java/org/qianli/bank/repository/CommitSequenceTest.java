@@ -0,0 +1,114 @@
+package org.qianli.bank.repository;
+
+import org.junit.jupiter.api.Test;
+import org.qianli.bank.model.Account;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CommitSequenceTest {
+
+    @Test
+    void visible_shouldStopBeforeFirstUncommittedSequence() {
+        CommitSequence commits = new CommitSequence();
+        long first = commits.begin();
+        long second = commits.begin();
+        long third = commits.begin();
+
+        commits.commit(second);
+        commits.commit(third);
+        assertEquals(first - 1, commits.visible());
+
+        commits.commit(first);
+        assertEquals(third, commits.visible());
+    }
+
+    @Test
+    void horizon_shouldNotPassAnOpenSnapshot() {
+        CommitSequence commits = new CommitSequence();
+        commits.commit(commits.begin());
+        CommitSequence.Snapshot snapshot = commits.openSnapshot();
+        assertEquals(1, snapshot.seq());
+
+        for (int i = 0; i < 3 * CommitSequence.EPOCH; i++) {
+            commits.commit(commits.begin());
+        }
+        assertTrue(commits.horizon() <= snapshot.seq());
+
+        snapshot.close();
+        commits.commit(commits.begin());
+        assertEquals(commits.visible(), commits.horizon());
+    }
+
+    @Test
+    void findAll_shouldSeeConsistentTotalsWhileTransfersRun() throws Exception {
+        assertConsistentSnapshots(new InMemoryAccountRepository());
+        assertConsistentSnapshots(new AtomicAccountRepository());
+    }
+
+    private static void assertConsistentSnapshots(AccountRepository repository) throws Exception {
+        BigDecimal total = total(repository.findAll());
+        AtomicBoolean running = new AtomicBoolean(true);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<?>> writers = new ArrayList<>();
+        for (int t = 0; t < 3; t++) {
+            int offset = t;
+            writers.add(executor.submit(() -> {
+                // 不经过TransactionService，也不加账户锁
+                for (int i = 0; i < 20_000; i++) {
+                    repository.transfer(String.format("A%03d", (i + offset) % 10 + 1),
+                            String.format("A%03d", (i + offset + 3) % 10 + 1), new BigDecimal("3.00"));
+                }
+            }));
+        }
+        Future<Integer> reader = executor.submit(() -> {
+            int reads = 0;
+            while (running.get()) {
+                assertEquals(total, total(repository.findAll()));
+                reads++;
+            }
+            return reads;
+        });
+        for (Future<?> writer : writers) {
+            writer.get();
+        }
+        running.set(false);
+        assertTrue(reader.get() > 0);
+        executor.shutdown();
+
+        List<Account> accounts = repository.findAll();
+        assertEquals(total, total(accounts));
+        accounts.forEach(a -> assertTrue(a.getBalance().signum() >= 0));
+    }
+
+    @Test
+    void failedWrite_shouldNotFreezeSnapshotsOrLeaveReservations() {
+        assertRecoversFromFailedWrites(new InMemoryAccountRepository());
+        assertRecoversFromFailedWrites(new AtomicAccountRepository());
+    }
+
+    private static void assertRecoversFromFailedWrites(AccountRepository repository) {
+        BigDecimal total = total(repository.findAll());
+        // 写入过程中抛异常：已取的序号仍要提交，预留标记要撤下
+        assertThrows(RuntimeException.class, () -> repository.deposit("A001", null));
+        assertThrows(RuntimeException.class, () -> repository.transfer("A001", "A002", null));
+
+        assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+            assertTrue(repository.deposit("A001", new BigDecimal("5.00")));
+            assertTrue(repository.transfer("A002", "A001", new BigDecimal("1.00")));
+        });
+        assertEquals(total.add(new BigDecimal("5.00")), total(repository.findAll()));
+    }
+
+    private static BigDecimal total(List<Account> accounts) {
+        return accounts.stream().map(Account::getBalance).reduce(BigDecimal.ZERO, BigDecimal::add);
+    }
+}
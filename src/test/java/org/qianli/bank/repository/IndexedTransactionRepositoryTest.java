@@ -0,0 +1,209 @@
+package org.qianli.bank.repository;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.qianli.bank.model.Transaction;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IndexedTransactionRepositoryTest {
+
+    TransactionRepository repository;
+
+    TransactionRepository createRepository() {
+        return new IndexedTransactionRepository();
+    }
+
+    @BeforeEach
+    void setUp() {
+        repository = createRepository();
+    }
+
+    static Transaction transaction(Transaction.Type type, String from, String to, String amount) {
+        Transaction transaction = new Transaction(new BigDecimal(amount), "test", LocalDateTime.now());
+        transaction.setType(type);
+        transaction.setFromAccountNumber(from);
+        transaction.setToAccountNumber(to);
+        return transaction;
+    }
+
+    @Test
+    void findRange_shouldMatchFullScanWhenTimestampsArriveOutOfOrder() {
+        LocalDateTime base = LocalDateTime.of(2024, 1, 1, 0, 0);
+        List<Transaction> all = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            Transaction t = i % 2 == 0
+                    ? transaction(Transaction.Type.DEPOSIT, null, "A00" + (i % 5), "1.00")
+                    : transaction(Transaction.Type.TRANSFER, "A00" + (i % 5), "A009", "1.00");
+            // 每7条中有一条的时间比前一条早几秒，模拟加锁前取时间、加锁后才写入
+            t.setTimestamp(base.plusSeconds(i % 7 == 0 ? Math.max(0, i - 5) : i));
+            all.add(t);
+        }
+        // 跨越多个分段的批量写入
+        repository.saveAll(all.subList(0, 5_000));
+        all.subList(5_000, all.size()).forEach(repository::save);
+        repository.deleteById(4_000L);
+
+        LocalDateTime from = base.plusSeconds(4_000);
+        LocalDateTime to = base.plusSeconds(6_000);
+        for (String accountId : new String[]{null, "A003"}) {
+            for (String type : new String[]{null, "DEPOSIT"}) {
+                List<Long> expected = new ArrayList<>();
+                repository.scanAfter(0, type, accountId, t -> {
+                    if (!t.getTimestamp().isBefore(from) && t.getTimestamp().isBefore(to)) {
+                        expected.add(t.getId());
+                    }
+                    return true;
+                });
+                List<Long> actual = repository.findRange(0, 100_000, from, to, type, accountId).stream()
+                        .map(Transaction::getId).toList();
+                assertFalse(expected.isEmpty());
+                assertEquals(expected, actual, "type=" + type + ", accountId=" + accountId);
+            }
+        }
+
+        // 与游标组合：从范围中间继续
+        List<Transaction> page = repository.findRange(0, 10, from, to, null, null);
+        List<Transaction> next = repository.findRange(page.get(9).getId(), 10, from, to, null, null);
+        assertTrue(next.get(0).getId() > page.get(9).getId());
+        assertTrue(repository.findRange(0, 10, base.plusSeconds(20_000), null, null, null).isEmpty());
+        assertEquals(1L, repository.findRange(0, 10, null, base.plusSeconds(1), null, null).get(0).getId());
+    }
+
+    @Test
+    void save_shouldAssignSequentialIdsAndSupportLookup() {
+        for (int i = 0; i < 10_000; i++) {
+            repository.save(transaction(Transaction.Type.DEPOSIT, null, "A001", "1.00"));
+        }
+
+        assertEquals(10_000, repository.getTransactionCount());
+        assertEquals(4097L, repository.findById(4097L).orElseThrow().getId());
+        assertTrue(repository.findById(10_001L).isEmpty());
+        assertTrue(repository.findById(0L).isEmpty());
+    }
+
+    @Test
+    void findAll_shouldFilterByTypeAndAccount() {
+        repository.save(transaction(Transaction.Type.DEPOSIT, null, "A001", "10.00"));
+        repository.save(transaction(Transaction.Type.TRANSFER, "A001", "A002", "5.00"));
+        repository.save(transaction(Transaction.Type.WITHDRAWAL, "A002", null, "1.00"));
+        repository.save(transaction(Transaction.Type.DEPOSIT, null, "A002", "3.00"));
+
+        assertEquals(4, repository.findAll(0, 10, null, null).size());
+        assertEquals(2, repository.findAll(0, 10, "deposit", null).size());
+        assertEquals(2, repository.findAll(0, 10, null, "A001").size());
+        assertEquals(3, repository.findAll(0, 10, null, "A002").size());
+
+        List<Transaction> a002Deposits = repository.findAll(0, 10, "DEPOSIT", "A002");
+        assertEquals(1, a002Deposits.size());
+        assertEquals(4L, a002Deposits.get(0).getId());
+
+        assertTrue(repository.findAll(0, 10, "UNKNOWN", null).isEmpty());
+        assertTrue(repository.findAll(0, 10, null, "A999").isEmpty());
+    }
+
+    @Test
+    void findAll_shouldPageThroughPostingList() {
+        for (int i = 0; i < 25; i++) {
+            repository.save(transaction(Transaction.Type.DEPOSIT, null, "A001", "1.00"));
+            repository.save(transaction(Transaction.Type.WITHDRAWAL, "A002", null, "1.00"));
+        }
+
+        List<Transaction> page = repository.findAll(2, 10, null, "A001");
+        assertEquals(5, page.size());
+        assertEquals(41L, page.get(0).getId());
+        assertTrue(repository.findAll(3, 10, null, "A001").isEmpty());
+    }
+
+    @Test
+    void findAfter_shouldContinueFromCursorPosition() {
+        for (int i = 0; i < 25; i++) {
+            repository.save(transaction(Transaction.Type.DEPOSIT, null, "A001", "1.00"));
+            repository.save(transaction(Transaction.Type.WITHDRAWAL, "A002", null, "1.00"));
+        }
+        repository.deleteById(4L);
+
+        List<Transaction> first = repository.findAfter(0, 3, null, null);
+        assertEquals(List.of(1L, 2L, 3L), first.stream().map(Transaction::getId).toList());
+        // 空洞被跳过
+        assertEquals(5L, repository.findAfter(3, 1, null, null).get(0).getId());
+
+        List<Transaction> a001 = repository.findAfter(20, 10, null, "A001");
+        assertEquals(10, a001.size());
+        assertEquals(21L, a001.get(0).getId());
+        assertEquals(23L, a001.get(1).getId());
+        assertEquals(List.of(50L), repository.findAfter(48, 10, "WITHDRAWAL", null).stream().map(Transaction::getId).toList());
+        assertTrue(repository.findAfter(50, 10, null, null).isEmpty());
+    }
+
+    @Test
+    void findLatest_shouldReturnNewestFirstForAccount() {
+        for (int i = 0; i < 30; i++) {
+            repository.save(transaction(Transaction.Type.DEPOSIT, null, "A001", "1.00"));
+            repository.save(transaction(Transaction.Type.TRANSFER, "A001", "A002", "1.00"));
+        }
+        repository.deleteById(60L);
+
+        List<Transaction> latest = repository.findLatest("A001", null, 3);
+        assertEquals(List.of(59L, 58L, 57L), latest.stream().map(Transaction::getId).toList());
+        assertEquals(List.of(58L, 56L), repository.findLatest("A001", "TRANSFER", 2).stream().map(Transaction::getId).toList());
+        assertEquals(29, repository.findLatest("A002", null, 100).size());
+        assertTrue(repository.findLatest("A999", null, 10).isEmpty());
+    }
+
+    @Test
+    void update_shouldReindexChangedType() {
+        Transaction saved = repository.save(transaction(Transaction.Type.DEPOSIT, null, "A001", "10.00"));
+
+        Transaction changed = transaction(Transaction.Type.WITHDRAWAL, null, "A001", "10.00");
+        changed.setId(saved.getId());
+        repository.update(changed);
+
+        assertTrue(repository.findAll(0, 10, "DEPOSIT", "A001").isEmpty());
+        assertEquals(1, repository.findAll(0, 10, "WITHDRAWAL", "A001").size());
+        assertEquals(1, repository.findAll(0, 10, "WITHDRAWAL", null).size());
+    }
+
+    @Test
+    void deleteById_shouldLeaveHoleSkippedByReads() {
+        repository.save(transaction(Transaction.Type.DEPOSIT, null, "A001", "1.00"));
+        repository.save(transaction(Transaction.Type.DEPOSIT, null, "A001", "2.00"));
+
+        repository.deleteById(1L);
+
+        assertTrue(repository.findById(1L).isEmpty());
+        assertEquals(1, repository.getTransactionCount());
+        assertEquals(1, repository.findAll(0, 10, null, "A001").size());
+    }
+
+    @Test
+    void save_shouldBeSafeUnderConcurrentWriters() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < 5_000; i++) {
+                    repository.save(transaction(Transaction.Type.TRANSFER, "A001", "A002", "1.00"));
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        assertEquals(40_000, repository.getTransactionCount());
+        assertEquals(40_000, repository.findAll(0, 50_000, null, "A002").size());
+        for (long id = 1; id <= 40_000; id += 997) {
+            assertEquals(id, repository.findById(id).orElseThrow().getId());
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package org.qianli.bank.repository;
+
+import org.junit.jupiter.api.Test;
+import org.qianli.bank.model.Account;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 热点账户拆分成子余额后的存取款、跨子余额扣款和读取，两个余额引擎各跑一遍
+ */
+class StripedBalanceTest {
+
+    @Test
+    void stripedAccount_shouldBorrowAcrossStripesWithoutOverdraft() {
+        assertBorrowsAcrossStripes(new InMemoryAccountRepository());
+        assertBorrowsAcrossStripes(new AtomicAccountRepository());
+    }
+
+    @Test
+    void concurrentTransfersThroughStripedAccount_shouldKeepSnapshotsConsistent() throws Exception {
+        assertConsistentUnderLoad(new InMemoryAccountRepository());
+        assertConsistentUnderLoad(new AtomicAccountRepository());
+    }
+
+    private static void assertBorrowsAcrossStripes(AccountRepository repository) {
+        int id = repository.getRegistry().idOf("A001");
+        int other = repository.getRegistry().idOf("A002");
+        assertTrue(repository.stripe(id, 4));
+        assertTrue(repository.stripe(id, 4));
+        assertFalse(repository.stripe(repository.getRegistry().intern("A999"), 4));
+
+        // 入账分散到各子余额，单个子余额都不够扣15000
+        for (int i = 0; i < 100; i++) {
+            assertTrue(repository.deposit(id, new BigDecimal("100.00")));
+        }
+        assertEquals(new BigDecimal("20000.00"), balanceOf(repository, "A001"));
+        assertTrue(repository.withdraw(id, new BigDecimal("15000.00")));
+        assertEquals(new BigDecimal("5000.00"), balanceOf(repository, "A001"));
+        assertFalse(repository.withdraw(id, new BigDecimal("5000.01")));
+
+        assertTrue(repository.transfer(id, other, new BigDecimal("4999.00")));
+        assertFalse(repository.transfer(id, other, new BigDecimal("1.01")));
+        assertTrue(repository.transfer(other, id, new BigDecimal("0.50")));
+        assertEquals(new BigDecimal("1.50"), balanceOf(repository, "A001"));
+        assertEquals(new BigDecimal("14998.50"), balanceOf(repository, "A002"));
+        assertEquals(0, new BigDecimal("95000.00").compareTo(total(repository.findAll())));
+
+        // 覆盖保存时其他子余额清零；删除后任何子余额都不再接受入账
+        repository.save(new Account(1L, "A001", "账户1", new BigDecimal("300.00")));
+        assertEquals(0, new BigDecimal("300.00").compareTo(balanceOf(repository, "A001")));
+        repository.deleteByAccountNumber("A001");
+        for (int i = 0; i < 10; i++) {
+            assertFalse(repository.deposit(id, BigDecimal.ONE));
+        }
+        assertTrue(repository.findByAccountNumber("A001").isEmpty());
+    }
+
+    private static void assertConsistentUnderLoad(AccountRepository repository) throws Exception {
+        int hot = repository.getRegistry().idOf("A001");
+        assertTrue(repository.stripe(hot, 4));
+        BigDecimal before = total(repository.findAll());
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicInteger rejected = new AtomicInteger();
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<?>> writers = new ArrayList<>();
+        for (int t = 0; t < 3; t++) {
+            int offset = t;
+            writers.add(executor.submit(() -> {
+                // 转入小额、转出大额，热点账户的余额很快耗尽，转出经常需要跨子余额凑够或被拒绝
+                for (int i = 0; i < 10_000; i++) {
+                    int other = repository.getRegistry().idOf(String.format("A%03d", 2 + (i + offset) % 9));
+                    if ((i + offset) % 2 == 0) {
+                        repository.transfer(other, hot, new BigDecimal("1.00"));
+                    } else if (!repository.transfer(hot, other, new BigDecimal("7.00"))) {
+                        rejected.incrementAndGet();
+                    }
+                }
+            }));
+        }
+        Future<Integer> reader = executor.submit(() -> {
+            int reads = 0;
+            while (running.get()) {
+                assertEquals(0, before.compareTo(total(repository.findAll())));
+                reads++;
+            }
+            return reads;
+        });
+        for (Future<?> writer : writers) {
+            writer.get();
+        }
+        running.set(false);
+        assertTrue(reader.get() > 0);
+        executor.shutdown();
+
+        List<Account> accounts = repository.findAll();
+        assertEquals(0, before.compareTo(total(accounts)));
+        assertTrue(rejected.get() > 0);
+        accounts.forEach(a -> assertTrue(a.getBalance().signum() >= 0, a.getAccountNumber()));
+    }
+
+    private static BigDecimal balanceOf(AccountRepository repository, String accountNumber) {
+        return repository.findByAccountNumber(accountNumber).orElseThrow().getBalance();
+    }
+
+    private static BigDecimal total(List<Account> accounts) {
+        return accounts.stream().map(Account::getBalance).reduce(BigDecimal.ZERO, BigDecimal::add);
+    }
+}
@@ -0,0 +1,87 @@
+package org.qianli.bank.schedule;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TimingWheelTest {
+
+    @Test
+    void entries_shouldFireInTheTickOfTheirDeadline() {
+        // 每格10ms、每层8格：第0层80ms，第1层640ms，第2层5120ms，远的条目要逐层下放
+        TimingWheel<Long> wheel = new TimingWheel<>(10, 8, 1000);
+        Random random = new Random(42);
+        Map<Long, Long> deadlines = new HashMap<>();
+        for (long i = 0; i < 2000; i++) {
+            long deadline = 1010 + random.nextInt(20_000);
+            deadlines.put(i, deadline);
+            assertNotNull(wheel.add(i, deadline));
+        }
+        assertEquals(2000, wheel.size());
+
+        Map<Long, Long> firedAt = new HashMap<>();
+        for (long now = 1000; now <= 22_000; now += 10) {
+            long tick = now;
+            wheel.advance(now, item -> assertNull(firedAt.put(item, tick)));
+        }
+        assertEquals(0, wheel.size());
+        assertEquals(deadlines.size(), firedAt.size());
+        deadlines.forEach((item, deadline) ->
+                assertEquals(deadline - deadline % 10, firedAt.get(item), "item " + item));
+    }
+
+    @Test
+    void advance_shouldDeliverEverythingDueWhenJumpingAhead() {
+        TimingWheel<String> wheel = new TimingWheel<>(10, 8, 0);
+        wheel.add("near", 50);
+        wheel.add("far", 3_000);
+        wheel.add("later", 100_000);
+        List<String> due = new ArrayList<>();
+
+        wheel.advance(5_000, due::add);
+        assertEquals(List.of("near", "far"), due);
+        assertEquals(5_000, wheel.currentTime());
+        assertEquals(1, wheel.size());
+
+        wheel.advance(100_005, due::add);
+        assertEquals(List.of("near", "far", "later"), due);
+    }
+
+    @Test
+    void add_shouldRejectDueEntriesAndCancelShouldUnlink() {
+        TimingWheel<String> wheel = new TimingWheel<>(10, 8, 1000);
+        assertNull(wheel.add("past", 900));
+        assertNull(wheel.add("current tick", 1009));
+
+        TimingWheel.Entry<String> kept = wheel.add("kept", 1500);
+        TimingWheel.Entry<String> cancelled = wheel.add("cancelled", 1500);
+        assertTrue(wheel.cancel(cancelled));
+        assertFalse(wheel.cancel(cancelled));
+        assertEquals(1, wheel.size());
+
+        List<String> due = new ArrayList<>();
+        wheel.advance(2000, due::add);
+        assertEquals(List.of("kept"), due);
+        assertFalse(wheel.cancel(kept));
+    }
+
+    @Test
+    void emptyWheel_shouldRealignAfterIdlePeriod() {
+        TimingWheel<String> wheel = new TimingWheel<>(10, 8, 0);
+        wheel.advance(1_000_000_007, item -> fail("wheel is empty"));
+        assertEquals(1_000_000_000, wheel.currentTime());
+
+        wheel.add("a", 1_000_000_700);
+        List<String> due = new ArrayList<>();
+        wheel.advance(1_000_000_690, due::add);
+        assertTrue(due.isEmpty());
+        wheel.advance(1_000_000_700, due::add);
+        assertEquals(List.of("a"), due);
+    }
+}
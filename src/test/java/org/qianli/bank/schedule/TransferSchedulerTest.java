@@ -0,0 +1,199 @@
+package org.qianli.bank.schedule;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.qianli.bank.model.Account;
+import org.qianli.bank.model.ScheduledTransfer;
+import org.qianli.bank.model.Transaction;
+import org.qianli.bank.repository.AccountRepository;
+import org.qianli.bank.repository.AtomicAccountRepository;
+import org.qianli.bank.repository.InMemoryAccountRepository;
+import org.qianli.bank.repository.IndexedTransactionRepository;
+import org.qianli.bank.service.TransactionService;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TransferSchedulerTest {
+    private static final LocalDateTime BASE = LocalDateTime.of(2030, 1, 1, 9, 0);
+    private static final long BASE_MILLIS = BASE.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+
+    @TempDir
+    Path directory;
+
+    private static TransactionService service(AccountRepository accountRepository) {
+        accountRepository.save(new Account(1L, "A001", "payer", new BigDecimal("1000.00")));
+        accountRepository.save(new Account(2L, "A002", "payee", BigDecimal.ZERO));
+        TransactionService service = new TransactionService();
+        ReflectionTestUtils.setField(service, "transactionRepository", new IndexedTransactionRepository());
+        ReflectionTestUtils.setField(service, "accountRepository", accountRepository);
+        ReflectionTestUtils.setField(service, "listeners", List.of());
+        ReflectionTestUtils.setField(service, "maxBatchSize", 1000);
+        return service;
+    }
+
+    private ScheduleStore store(boolean persist) {
+        return new ScheduleStore(persist, directory.resolve("schedules.jsonl").toString(), true,
+                new ObjectMapper().findAndRegisterModules());
+    }
+
+    // 不启动调度线程，由测试调用tick推进时间
+    private static TransferScheduler scheduler(TransactionService service, ScheduleStore store, int maxPerSecond) {
+        TransferScheduler scheduler = new TransferScheduler(service, store, new SimpleMeterRegistry(),
+                false, 1000, 500, maxPerSecond, 0, 100);
+        scheduler.recover(BASE_MILLIS);
+        return scheduler;
+    }
+
+    private static ScheduledTransfer transfer(String amount, long delaySeconds, Long intervalSeconds) {
+        ScheduledTransfer request = new ScheduledTransfer();
+        request.setType(Transaction.Type.TRANSFER);
+        request.setFromAccountNumber("A001");
+        request.setToAccountNumber("A002");
+        request.setAmount(new BigDecimal(amount));
+        request.setDescription("rent");
+        request.setExecuteAt(BASE.plusSeconds(delaySeconds));
+        request.setIntervalSeconds(intervalSeconds);
+        return request;
+    }
+
+    private static long at(long seconds) {
+        return BASE_MILLIS + seconds * 1000;
+    }
+
+    private static BigDecimal balanceOf(AccountRepository repository, String accountNumber) {
+        return repository.findByAccountNumber(accountNumber).orElseThrow().getBalance();
+    }
+
+    @Test
+    void oneOffTransfer_shouldExecuteAtItsTime() {
+        assertExecutesOnce(new InMemoryAccountRepository());
+        assertExecutesOnce(new AtomicAccountRepository());
+    }
+
+    private void assertExecutesOnce(AccountRepository repository) {
+        TransferScheduler scheduler = scheduler(service(repository), store(false), 0);
+        ScheduledTransfer scheduled = scheduler.schedule(transfer("100.00", 5, null));
+        ScheduledTransfer overdrawn = scheduler.schedule(transfer("5000.00", 5, null));
+
+        assertEquals(0, scheduler.tick(at(4)));
+        assertEquals(2, scheduler.tick(at(5)));
+        assertEquals(0, scheduler.tick(at(6)));
+
+        ScheduledTransfer done = scheduler.findById(scheduled.getId()).orElseThrow();
+        assertEquals(ScheduledTransfer.Status.COMPLETED, done.getStatus());
+        assertEquals(1, done.getExecutions());
+        assertNotNull(done.getLastTransactionId());
+        assertEquals(0, new BigDecimal("100.00").compareTo(balanceOf(repository, "A002")));
+
+        ScheduledTransfer failed = scheduler.findById(overdrawn.getId()).orElseThrow();
+        assertEquals(ScheduledTransfer.Status.FAILED, failed.getStatus());
+        assertNotNull(failed.getLastError());
+        assertTrue(scheduler.getPending(0, 10).isEmpty());
+    }
+
+    @Test
+    void recurringTransfer_shouldRunOnceForMissedIntervalsAndContinue() {
+        InMemoryAccountRepository repository = new InMemoryAccountRepository();
+        TransferScheduler scheduler = scheduler(service(repository), store(false), 0);
+        ScheduledTransfer scheduled = scheduler.schedule(transfer("10.00", 10, 60L));
+
+        // 10秒、70秒、130秒、190秒四次都错过，只补执行一次，下一次是250秒
+        assertEquals(1, scheduler.tick(at(200)));
+        ScheduledTransfer pending = scheduler.findById(scheduled.getId()).orElseThrow();
+        assertEquals(ScheduledTransfer.Status.SCHEDULED, pending.getStatus());
+        assertEquals(1, pending.getExecutions());
+        assertEquals(BASE.plusSeconds(250), pending.getExecuteAt());
+
+        assertEquals(0, scheduler.tick(at(249)));
+        assertEquals(1, scheduler.tick(at(250)));
+        assertEquals(BASE.plusSeconds(310), scheduler.findById(scheduled.getId()).orElseThrow().getExecuteAt());
+        assertEquals(0, new BigDecimal("20.00").compareTo(balanceOf(repository, "A002")));
+    }
+
+    @Test
+    void dueTransfers_shouldBeSmoothedByRateLimit() {
+        InMemoryAccountRepository repository = new InMemoryAccountRepository();
+        TransferScheduler scheduler = scheduler(service(repository), store(false), 10);
+        for (int i = 0; i < 25; i++) {
+            scheduler.schedule(transfer("1.00", 1, null));
+        }
+
+        assertEquals(10, scheduler.tick(at(1)));
+        assertEquals(10, scheduler.tick(at(2)));
+        assertEquals(5, scheduler.tick(at(3)));
+        assertEquals(0, scheduler.tick(at(4)));
+        assertEquals(0, new BigDecimal("25.00").compareTo(balanceOf(repository, "A002")));
+    }
+
+    @Test
+    void cancel_shouldStopPendingTransfer() {
+        InMemoryAccountRepository repository = new InMemoryAccountRepository();
+        TransferScheduler scheduler = scheduler(service(repository), store(false), 0);
+        ScheduledTransfer scheduled = scheduler.schedule(transfer("10.00", 5, 60L));
+
+        assertEquals(ScheduledTransfer.Status.CANCELLED, scheduler.cancel(scheduled.getId()).orElseThrow().getStatus());
+        assertEquals(0, scheduler.tick(at(100)));
+        assertThrows(IllegalStateException.class, () -> scheduler.cancel(scheduled.getId()));
+        assertTrue(scheduler.cancel(999L).isEmpty());
+        assertEquals(0, BigDecimal.ZERO.compareTo(balanceOf(repository, "A002")));
+    }
+
+    @Test
+    void schedule_shouldRejectInvalidRequests() {
+        TransferScheduler scheduler = scheduler(service(new InMemoryAccountRepository()), store(false), 0);
+        assertThrows(IllegalArgumentException.class, () -> scheduler.schedule(transfer("0", 5, null)));
+        assertThrows(IllegalArgumentException.class, () -> scheduler.schedule(transfer("1.00", 5, 0L)));
+        ScheduledTransfer sameAccount = transfer("1.00", 5, null);
+        sameAccount.setToAccountNumber("A001");
+        assertThrows(IllegalArgumentException.class, () -> scheduler.schedule(sameAccount));
+        ScheduledTransfer noTime = transfer("1.00", 5, null);
+        noTime.setExecuteAt(null);
+        assertThrows(IllegalArgumentException.class, () -> scheduler.schedule(noTime));
+    }
+
+    @Test
+    void restart_shouldRunMissedTransfersAndNotRetryInterruptedOnes() {
+        InMemoryAccountRepository repository = new InMemoryAccountRepository();
+        TransactionService service = service(repository);
+        ScheduleStore store = store(true);
+        TransferScheduler scheduler = scheduler(service, store, 0);
+        ScheduledTransfer missed = scheduler.schedule(transfer("10.00", 30, null));
+        ScheduledTransfer recurring = scheduler.schedule(transfer("1.00", 30, 3600L));
+        ScheduledTransfer interrupted = scheduler.schedule(transfer("100.00", 5, null));
+        ScheduledTransfer finished = scheduler.schedule(transfer("5.00", 1, null));
+        assertEquals(1, scheduler.tick(at(1)));
+        // 模拟取出执行后、写入结果前宕机
+        ScheduledTransfer running = interrupted.copy();
+        running.setRunningAt(running.getExecuteAt());
+        store.write(List.of(running));
+
+        // 停机期间30秒的两个预约到期
+        ScheduleStore reopened = store(true);
+        TransferScheduler restarted = new TransferScheduler(service, reopened, new SimpleMeterRegistry(),
+                false, 1000, 500, 0, 0, 100);
+        restarted.recover(at(60));
+        assertEquals(ScheduledTransfer.Status.FAILED, restarted.findById(interrupted.getId()).orElseThrow().getStatus());
+        assertNotNull(restarted.findById(interrupted.getId()).orElseThrow().getLastError());
+        assertTrue(restarted.findById(finished.getId()).isEmpty());
+
+        assertEquals(2, restarted.tick(at(61)));
+        assertEquals(ScheduledTransfer.Status.COMPLETED, restarted.findById(missed.getId()).orElseThrow().getStatus());
+        assertEquals(BASE.plusSeconds(3630), restarted.findById(recurring.getId()).orElseThrow().getExecuteAt());
+        // 5 + 10 + 1，被中断的100没有重试
+        assertEquals(0, new BigDecimal("16.00").compareTo(balanceOf(repository, "A002")));
+
+        ScheduledTransfer next = restarted.schedule(transfer("1.00", 7200, null));
+        assertTrue(next.getId() > finished.getId());
+        assertEquals(List.of(recurring.getId(), next.getId()),
+                restarted.getPending(0, 10).stream().map(ScheduledTransfer::getId).toList());
+    }
+}
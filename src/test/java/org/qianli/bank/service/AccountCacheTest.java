@@ -0,0 +1,73 @@
+package org.qianli.bank.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import org.junit.jupiter.api.Test;
+import org.qianli.bank.config.CacheConfig;
+import org.qianli.bank.model.Account;
+import org.qianli.bank.model.Transaction;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.caffeine.CaffeineCache;
+
+import java.math.BigDecimal;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// atomic引擎返回余额快照而不是共享对象，缓存失效不及时会直接读到旧余额
+@SpringBootTest(properties = "bank.account.store=atomic")
+class AccountCacheTest {
+
+    @Autowired
+    private AccountService accountService;
+
+    @Autowired
+    private TransactionService transactionService;
+
+    @Autowired
+    private CacheManager cacheManager;
+
+    private Cache<Object, Object> nativeCache(String name) {
+        return ((CaffeineCache) cacheManager.getCache(name)).getNativeCache();
+    }
+
+    private static Transaction transaction(Transaction.Type type, String from, String to, String amount) {
+        Transaction transaction = new Transaction(new BigDecimal(amount), "cache test", null);
+        transaction.setType(type);
+        transaction.setFromAccountNumber(from);
+        transaction.setToAccountNumber(to);
+        return transaction;
+    }
+
+    @Test
+    void accountReads_shouldHitCacheAndSeeEveryBalanceChange() {
+        BigDecimal before = accountService.getAccountByAccountNumber("A007").orElseThrow().getBalance();
+        long hits = nativeCache(CacheConfig.ACCOUNTS).stats().hitCount();
+        accountService.getAccountByAccountNumber("A007");
+        assertEquals(hits + 1, nativeCache(CacheConfig.ACCOUNTS).stats().hitCount());
+
+        transactionService.createTransaction(transaction(Transaction.Type.DEPOSIT, null, "A007", "5.00"));
+        assertEquals(before.add(new BigDecimal("5.00")),
+                accountService.getAccountByAccountNumber("A007").orElseThrow().getBalance());
+
+        accountService.getAccountByAccountNumber("A008");
+        transactionService.createTransaction(transaction(Transaction.Type.TRANSFER, "A007", "A008", "2.00"));
+        assertEquals(before.add(new BigDecimal("3.00")),
+                accountService.getAccountByAccountNumber("A007").orElseThrow().getBalance());
+    }
+
+    @Test
+    void accountList_shouldBeInvalidatedByWithdrawal() {
+        BigDecimal before = balanceInList("A009");
+        transactionService.createTransaction(transaction(Transaction.Type.WITHDRAWAL, "A009", null, "1.50"));
+        assertEquals(before.subtract(new BigDecimal("1.50")), balanceInList("A009"));
+    }
+
+    private BigDecimal balanceInList(String accountNumber) {
+        return accountService.getAllAccounts().stream()
+                .filter(a -> a.getAccountNumber().equals(accountNumber))
+                .map(Account::getBalance)
+                .findFirst()
+                .orElseThrow();
+    }
+}
@@ -0,0 +1,53 @@
+package org.qianli.bank.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.qianli.bank.model.Transaction;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+
+class AsyncTransactionSubmitterTest {
+
+    @Test
+    void fullQueue_shouldRejectAndExpiredTasks_shouldBeShed() throws Exception {
+        TransactionService service = mock(TransactionService.class);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Transaction created = new Transaction();
+        given(service.createTransaction(any(Transaction.class))).willAnswer(invocation -> {
+            started.countDown();
+            release.await();
+            return created;
+        });
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        AsyncTransactionSubmitter submitter = new AsyncTransactionSubmitter(service, registry, 1, 2, 50, 1);
+
+        CompletableFuture<Transaction> running = submitter.submit(new Transaction());
+        started.await();
+        CompletableFuture<Transaction> queued1 = submitter.submit(new Transaction());
+        CompletableFuture<Transaction> queued2 = submitter.submit(new Transaction());
+        assertEquals(2.0, registry.get("bank.async.queue.depth").gauge().value());
+        assertThrows(RejectedExecutionException.class, () -> submitter.submit(new Transaction()));
+
+        // 排队超过50ms的任务出队后不再执行
+        Thread.sleep(100);
+        release.countDown();
+        assertSame(created, running.join());
+        CompletionException expired = assertThrows(CompletionException.class, queued1::join);
+        assertInstanceOf(RejectedExecutionException.class, expired.getCause());
+        assertThrows(CompletionException.class, queued2::join);
+
+        assertEquals(1.0, registry.get("bank.async.rejected").tag("reason", "queue_full").counter().count());
+        assertEquals(2.0, registry.get("bank.async.rejected").tag("reason", "wait_expired").counter().count());
+        assertEquals(3, registry.get("bank.async.queue.wait").timer().count());
+        submitter.shutdown();
+    }
+}
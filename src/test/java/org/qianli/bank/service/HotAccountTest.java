@@ -0,0 +1,125 @@
+package org.qianli.bank.service;
+
+import org.junit.jupiter.api.Test;
+import org.qianli.bank.model.Account;
+import org.qianli.bank.model.Transaction;
+import org.qianli.bank.repository.AccountRepository;
+import org.qianli.bank.repository.AtomicAccountRepository;
+import org.qianli.bank.repository.InMemoryAccountRepository;
+import org.qianli.bank.repository.IndexedTransactionRepository;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 热点账户检测：账户锁上的竞争（无锁引擎为入账次数）达到阈值后拆分余额，之后入账不再取账户锁
+ */
+class HotAccountTest {
+
+    private static TransactionService service(AccountRepository accountRepository) {
+        TransactionService service = new TransactionService();
+        ReflectionTestUtils.setField(service, "transactionRepository", new IndexedTransactionRepository());
+        ReflectionTestUtils.setField(service, "accountRepository", accountRepository);
+        ReflectionTestUtils.setField(service, "listeners", List.of());
+        ReflectionTestUtils.setField(service, "hotThreshold", 4);
+        ReflectionTestUtils.setField(service, "hotWindowMillis", 60_000L);
+        ReflectionTestUtils.setField(service, "hotStripes", 4);
+        return service;
+    }
+
+    private static Transaction deposit(String to, String amount) {
+        Transaction transaction = new Transaction();
+        transaction.setType(Transaction.Type.DEPOSIT);
+        transaction.setToAccountNumber(to);
+        transaction.setAmount(new BigDecimal(amount));
+        transaction.setTimestamp(LocalDateTime.now());
+        return transaction;
+    }
+
+    private static Transaction withdrawal(String from, String amount) {
+        Transaction transaction = deposit(null, amount);
+        transaction.setType(Transaction.Type.WITHDRAWAL);
+        transaction.setFromAccountNumber(from);
+        return transaction;
+    }
+
+    private static int hotAccounts(TransactionService service) {
+        return ((AtomicInteger) ReflectionTestUtils.getField(service, "hotAccounts")).get();
+    }
+
+    private static void awaitQueued(ReentrantLock lock, int threads) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (lock.getQueueLength() < threads && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(threads, lock.getQueueLength());
+    }
+
+    @Test
+    void contendedDeposits_shouldStripeAccountAndBypassItsLock() throws Exception {
+        InMemoryAccountRepository accountRepository = new InMemoryAccountRepository();
+        TransactionService service = service(accountRepository);
+        int id = accountRepository.getRegistry().idOf("A001");
+        ReentrantLock lock = ReflectionTestUtils.invokeMethod(service, "lockFor", id);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<Transaction>> futures = new ArrayList<>();
+        lock.lock();
+        try {
+            for (int i = 0; i < 4; i++) {
+                futures.add(executor.submit(() -> service.createTransaction(deposit("A001", "10.00"))));
+            }
+            // 4笔入账都在锁上排队，拿到锁时各记一次竞争
+            awaitQueued(lock, 4);
+        } finally {
+            lock.unlock();
+        }
+        for (Future<Transaction> future : futures) {
+            future.get();
+        }
+        assertEquals(1, hotAccounts(service));
+
+        // 拆分后入账不取账户锁：锁被占用时入账照样完成
+        lock.lock();
+        try {
+            executor.submit(() -> service.createTransaction(deposit("A001", "5.00"))).get(10, TimeUnit.SECONDS);
+        } finally {
+            lock.unlock();
+        }
+        executor.shutdown();
+        assertEquals(new BigDecimal("10045.00"), accountRepository.findByAccountNumber("A001").orElseThrow().getBalance());
+
+        // 取款仍在锁内检查余额，跨子余额扣款，不会透支
+        service.createTransaction(withdrawal("A001", "10045.00"));
+        assertThrows(RuntimeException.class, () -> service.createTransaction(withdrawal("A001", "0.01")));
+        assertEquals(0, BigDecimal.ZERO.compareTo(accountRepository.findByAccountNumber("A001").orElseThrow().getBalance()));
+    }
+
+    @Test
+    void frequentDepositsOnLockFreeEngine_shouldStripeAccount() {
+        AtomicAccountRepository accountRepository = new AtomicAccountRepository();
+        TransactionService service = service(accountRepository);
+        BigDecimal before = accountRepository.findAll().stream()
+                .map(Account::getBalance).reduce(BigDecimal.ZERO, BigDecimal::add);
+
+        // 抽样比例1/16，2000笔入账中抽不到4次的概率可以忽略
+        for (int i = 0; i < 2_000; i++) {
+            service.createTransaction(deposit("A002", "1.00"));
+        }
+        assertEquals(1, hotAccounts(service));
+        assertEquals(new BigDecimal("12000.00"), accountRepository.findByAccountNumber("A002").orElseThrow().getBalance());
+        assertEquals(0, before.add(new BigDecimal("2000")).compareTo(accountRepository.findAll().stream()
+                .map(Account::getBalance).reduce(BigDecimal.ZERO, BigDecimal::add)));
+    }
+}
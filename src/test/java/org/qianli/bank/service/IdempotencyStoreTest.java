@@ -0,0 +1,121 @@
+package org.qianli.bank.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IdempotencyStoreTest {
+
+    @Test
+    void concurrentDuplicates_shouldWaitForFirstExecution() throws Exception {
+        IdempotencyStore store = new IdempotencyStore(60, 100);
+        AtomicInteger executions = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+
+        List<Future<IdempotencyStore.Result<Integer>>> futures = new ArrayList<>();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < 50; i++) {
+                futures.add(executor.submit(() -> store.execute("k", "same", () -> {
+                    executions.incrementAndGet();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return 42;
+                }, v -> true)));
+            }
+            Thread.sleep(100);
+            release.countDown();
+        }
+
+        assertEquals(1, executions.get());
+        long replayed = 0;
+        for (Future<IdempotencyStore.Result<Integer>> future : futures) {
+            assertEquals(42, future.get().value());
+            replayed += future.get().replayed() ? 1 : 0;
+        }
+        assertEquals(49, replayed);
+    }
+
+    @Test
+    void uncacheableResult_shouldBeExecutedAgain() {
+        IdempotencyStore store = new IdempotencyStore(60, 100);
+        AtomicInteger executions = new AtomicInteger();
+
+        assertThrows(RuntimeException.class, () -> store.execute("k", "f", () -> {
+            executions.incrementAndGet();
+            throw new RuntimeException("boom");
+        }, v -> true));
+        store.execute("k", "f", executions::incrementAndGet, v -> v >= 3);
+        store.execute("k", "f", executions::incrementAndGet, v -> v >= 3);
+        IdempotencyStore.Result<Integer> result = store.execute("k", "f", executions::incrementAndGet, v -> v >= 3);
+
+        assertEquals(3, executions.get());
+        assertTrue(result.replayed());
+        assertEquals(3, result.value());
+    }
+
+    @Test
+    void differentFingerprint_shouldBeRejected() {
+        IdempotencyStore store = new IdempotencyStore(60, 100);
+        store.execute("k", "a", () -> 1, v -> true);
+
+        assertThrows(IllegalStateException.class, () -> store.execute("k", "b", () -> 2, v -> true));
+        assertThrows(IllegalArgumentException.class, () -> store.execute(" ", "a", () -> 1, v -> true));
+    }
+
+    @Test
+    void fullStore_shouldNeverEvictInFlightKeysAndShouldEvictOldestFirst() throws Exception {
+        IdempotencyStore store = new IdempotencyStore(60, 100);
+        for (int i = 0; i < 1_000; i++) {
+            store.execute("old-" + i, "f", () -> 0, v -> true);
+        }
+        AtomicInteger executions = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            Future<IdempotencyStore.Result<Integer>> first = executor.submit(() -> store.execute("fresh", "f", () -> {
+                executions.incrementAndGet();
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return 42;
+            }, v -> true));
+            started.await();
+            // 执行期间又写满几轮，执行中的键不能被挤掉
+            for (int i = 0; i < 1_000; i++) {
+                store.execute("more-" + i, "f", () -> 0, v -> true);
+            }
+            Future<IdempotencyStore.Result<Integer>> retry = executor.submit(() ->
+                    store.execute("fresh", "f", executions::incrementAndGet, v -> true));
+            Thread.sleep(50);
+            release.countDown();
+
+            assertFalse(first.get().replayed());
+            assertTrue(retry.get().replayed());
+            assertEquals(42, retry.get().value());
+        }
+
+        // 完成后再写入99个键，它仍在最新的100个之内；最早完成的键已被淘汰
+        for (int i = 0; i < 99; i++) {
+            store.execute("after-" + i, "f", () -> 0, v -> true);
+        }
+        assertTrue(store.execute("fresh", "f", executions::incrementAndGet, v -> true).replayed());
+        assertEquals(1, executions.get());
+        assertFalse(store.execute("more-0", "f", () -> 0, v -> true).replayed());
+        assertTrue(store.size() <= 100);
+    }
+}
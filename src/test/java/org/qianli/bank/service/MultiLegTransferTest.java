@@ -0,0 +1,241 @@
+package org.qianli.bank.service;
+
+import org.junit.jupiter.api.Test;
+import org.qianli.bank.model.Account;
+import org.qianli.bank.model.MultiLegTransfer;
+import org.qianli.bank.model.Transaction;
+import org.qianli.bank.repository.AccountRepository;
+import org.qianli.bank.repository.AtomicAccountRepository;
+import org.qianli.bank.repository.InMemoryAccountRepository;
+import org.qianli.bank.repository.IndexedTransactionRepository;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 多腿转账：合计金额一次检查，全部腿一起生效或都不生效，每条腿记一笔转账；两个余额引擎和分片模式各跑一遍
+ */
+class MultiLegTransferTest {
+
+    private static TransactionService service(AccountRepository accountRepository) {
+        TransactionService service = new TransactionService();
+        ReflectionTestUtils.setField(service, "transactionRepository", new IndexedTransactionRepository());
+        ReflectionTestUtils.setField(service, "accountRepository", accountRepository);
+        ReflectionTestUtils.setField(service, "listeners", List.of());
+        ReflectionTestUtils.setField(service, "maxBatchSize", 100);
+        return service;
+    }
+
+    private static TransactionService shardedService(AccountRepository accountRepository, ShardedLedgerExecutor executor) {
+        TransactionService service = service(accountRepository);
+        ReflectionTestUtils.setField(service, "ledgerExecutor", executor);
+        return service;
+    }
+
+    private static MultiLegTransfer request(String from, String... legs) {
+        MultiLegTransfer request = new MultiLegTransfer();
+        request.setFromAccountNumber(from);
+        request.setDescription("payroll");
+        request.setLegs(new ArrayList<>());
+        for (int i = 0; i < legs.length; i += 2) {
+            MultiLegTransfer.Leg leg = new MultiLegTransfer.Leg();
+            leg.setToAccountNumber(legs[i]);
+            leg.setAmount(new BigDecimal(legs[i + 1]));
+            request.getLegs().add(leg);
+        }
+        return request;
+    }
+
+    private static BigDecimal balanceOf(AccountRepository repository, String accountNumber) {
+        return repository.findByAccountNumber(accountNumber).orElseThrow().getBalance();
+    }
+
+    private static BigDecimal total(List<Account> accounts) {
+        return accounts.stream().map(Account::getBalance).reduce(BigDecimal.ZERO, BigDecimal::add);
+    }
+
+    @Test
+    void multiLegTransfer_shouldDebitOnceAndRecordEachLeg() {
+        assertAppliesAllLegs(new InMemoryAccountRepository());
+        assertAppliesAllLegs(new AtomicAccountRepository());
+        ShardedLedgerExecutor executor = new ShardedLedgerExecutor(4, 64);
+        try {
+            assertAppliesAllLegs(new InMemoryAccountRepository(), executor);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void rejectedMultiLegTransfer_shouldApplyNoLeg() {
+        assertAppliesNothingOnFailure(new InMemoryAccountRepository());
+        assertAppliesNothingOnFailure(new AtomicAccountRepository());
+        ShardedLedgerExecutor executor = new ShardedLedgerExecutor(4, 64);
+        try {
+            assertAppliesNothingOnFailure(new InMemoryAccountRepository(), executor);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void shardedMultiLegTransfer_shouldCreditEachPayeeOnItsOwnShard() throws Exception {
+        AccountRepository repository = new InMemoryAccountRepository();
+        ShardedLedgerExecutor executor = new ShardedLedgerExecutor(4, 64);
+        try {
+            TransactionService service = shardedService(repository, executor);
+            int from = repository.getRegistry().idOf("A001");
+            String payee = null;
+            for (int i = 2; payee == null; i++) {
+                String candidate = String.format("A%03d", i);
+                if (executor.shardOf(repository.getRegistry().idOf(candidate)) != executor.shardOf(from)) {
+                    payee = candidate;
+                }
+            }
+
+            // 占住转入账户的分片：入账只能在该分片上执行，放行之前转出账户已扣款、转入账户还未入账
+            CountDownLatch release = new CountDownLatch(1);
+            executor.submit(repository.getRegistry().idOf(payee), () -> {
+                try {
+                    return release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            String to = payee;
+            CompletableFuture<List<Transaction>> transfer = CompletableFuture.supplyAsync(
+                    () -> service.createMultiLegTransfer(request("A001", to, "100.00")));
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (balanceOf(repository, "A001").compareTo(new BigDecimal("9900.00")) != 0 && System.nanoTime() < deadline) {
+                Thread.onSpinWait();
+            }
+
+            assertEquals(0, new BigDecimal("9900.00").compareTo(balanceOf(repository, "A001")));
+            assertEquals(0, new BigDecimal("10000.00").compareTo(balanceOf(repository, payee)));
+            assertFalse(transfer.isDone());
+
+            release.countDown();
+            assertEquals(1, transfer.get(10, TimeUnit.SECONDS).size());
+            assertEquals(0, new BigDecimal("10100.00").compareTo(balanceOf(repository, payee)));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void concurrentMultiLegTransfers_shouldKeepSnapshotsConsistent() throws Exception {
+        assertConsistentUnderLoad(new InMemoryAccountRepository());
+        assertConsistentUnderLoad(new AtomicAccountRepository());
+    }
+
+    private static void assertAppliesAllLegs(AccountRepository repository) {
+        assertAppliesAllLegs(repository, null);
+    }
+
+    private static void assertAppliesAllLegs(AccountRepository repository, ShardedLedgerExecutor executor) {
+        TransactionService service = shardedService(repository, executor);
+        // 同一转入账户的两条腿合并入账，但各自记账；转出账户拆分过时跨子余额扣款
+        assertTrue(repository.stripe(repository.getRegistry().idOf("A001"), 4));
+        List<Transaction> legs = service.createMultiLegTransfer(
+                request("A001", "A003", "100.00", "A002", "2500.50", "A003", "25.00"));
+
+        assertEquals(3, legs.size());
+        assertEquals(3, service.getTransactionCount());
+        for (Transaction leg : legs) {
+            assertNotNull(leg.getId());
+            assertEquals(Transaction.Type.TRANSFER, leg.getType());
+            assertEquals("A001", leg.getFromAccountNumber());
+            assertEquals("payroll", leg.getDescription());
+        }
+        assertEquals("A002", legs.get(1).getToAccountNumber());
+        assertEquals(0, new BigDecimal("7374.50").compareTo(balanceOf(repository, "A001")));
+        assertEquals(0, new BigDecimal("12500.50").compareTo(balanceOf(repository, "A002")));
+        assertEquals(0, new BigDecimal("10125.00").compareTo(balanceOf(repository, "A003")));
+        assertEquals(0, new BigDecimal("100000.00").compareTo(total(repository.findAll())));
+    }
+
+    private static void assertAppliesNothingOnFailure(AccountRepository repository) {
+        assertAppliesNothingOnFailure(repository, null);
+    }
+
+    private static void assertAppliesNothingOnFailure(AccountRepository repository, ShardedLedgerExecutor executor) {
+        TransactionService service = shardedService(repository, executor);
+
+        // 每条腿都够，合计超过余额
+        IllegalArgumentException insufficient = assertThrows(IllegalArgumentException.class,
+                () -> service.createMultiLegTransfer(request("A001", "A002", "6000.00", "A003", "4000.01")));
+        assertEquals("Insufficient balance", insufficient.getMessage());
+
+        IllegalArgumentException unknown = assertThrows(IllegalArgumentException.class,
+                () -> service.createMultiLegTransfer(request("A001", "A002", "1.00", "A999", "1.00")));
+        assertEquals("Leg 1: To account not found", unknown.getMessage());
+        assertThrows(IllegalArgumentException.class,
+                () -> service.createMultiLegTransfer(request("A001", "A002", "1.00", "A001", "1.00")));
+        assertThrows(IllegalArgumentException.class,
+                () -> service.createMultiLegTransfer(request("A001", "A002", "-1.00")));
+        assertThrows(IllegalArgumentException.class, () -> service.createMultiLegTransfer(request("A001")));
+
+        // 已登记但被删除的转入账户在仓库提交时才发现
+        repository.deleteByAccountNumber("A003");
+        IllegalArgumentException deleted = assertThrows(IllegalArgumentException.class,
+                () -> service.createMultiLegTransfer(request("A001", "A002", "1.00", "A003", "1.00")));
+        assertEquals("To account not found: A003", deleted.getMessage());
+
+        assertEquals(0, service.getTransactionCount());
+        assertEquals(0, new BigDecimal("10000.00").compareTo(balanceOf(repository, "A001")));
+        assertEquals(0, new BigDecimal("10000.00").compareTo(balanceOf(repository, "A002")));
+    }
+
+    private static void assertConsistentUnderLoad(AccountRepository repository) throws Exception {
+        TransactionService service = service(repository);
+        BigDecimal expected = total(repository.findAll());
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        AtomicBoolean running = new AtomicBoolean(true);
+        try {
+            // 方向交错的多腿转账，加锁和预留顺序不同时会互相等待
+            List<Future<?>> writers = new ArrayList<>();
+            String[][] requests = {
+                    {"A001", "A002", "1.00", "A005", "2.00", "A009", "3.00"},
+                    {"A009", "A005", "1.00", "A001", "2.00", "A002", "3.00"},
+                    {"A005", "A009", "1.00", "A002", "2.00", "A001", "3.00"}
+            };
+            for (String[] legs : requests) {
+                writers.add(executor.submit(() -> {
+                    for (int i = 0; i < 2_000; i++) {
+                        service.createMultiLegTransfer(request(legs[0], Arrays.copyOfRange(legs, 1, legs.length)));
+                    }
+                }));
+            }
+            Future<Integer> reader = executor.submit(() -> {
+                int reads = 0;
+                while (running.get()) {
+                    assertEquals(0, expected.compareTo(total(repository.findAll())));
+                    reads++;
+                }
+                return reads;
+            });
+            for (Future<?> writer : writers) {
+                writer.get();
+            }
+            running.set(false);
+            assertTrue(reader.get() > 0);
+        } finally {
+            running.set(false);
+            executor.shutdown();
+        }
+        assertEquals(6_000 * 3, service.getTransactionCount());
+        assertEquals(0, expected.compareTo(total(repository.findAll())));
+    }
+}
@@ -0,0 +1,124 @@
+package org.qianli.bank.service;
+
+import org.junit.jupiter.api.Test;
+import org.qianli.bank.model.Account;
+import org.qianli.bank.model.Transaction;
+import org.qianli.bank.repository.AccountRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(properties = {"bank.execution.mode=sharded", "bank.execution.shards=4"})
+class ShardedLedgerExecutorTest {
+
+    @Autowired
+    private ShardedLedgerExecutor ledgerExecutor;
+
+    @Autowired
+    private TransactionService transactionService;
+
+    @Autowired
+    private AccountRepository accountRepository;
+
+    @Test
+    void submit_shouldPreservePerAccountOrder() {
+        int accountId = accountRepository.getRegistry().idOf("A001");
+        List<Integer> seen = new ArrayList<>();
+        List<CompletableFuture<Integer>> futures = new ArrayList<>();
+        for (int i = 0; i < 1_000; i++) {
+            int value = i;
+            futures.add(ledgerExecutor.submit(accountId, () -> {
+                seen.add(value);
+                return value;
+            }));
+        }
+        futures.forEach(CompletableFuture::join);
+
+        assertEquals(1_000, seen.size());
+        for (int i = 0; i < seen.size(); i++) {
+            assertEquals(i, seen.get(i));
+        }
+    }
+
+    @Test
+    void concurrentTransfers_shouldConserveTotalBalance() throws Exception {
+        BigDecimal before = totalBalance();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            int offset = t;
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < 500; i++) {
+                    Transaction transaction = new Transaction();
+                    transaction.setType(Transaction.Type.TRANSFER);
+                    transaction.setAmount(new BigDecimal("7.00"));
+                    transaction.setDescription("sharded");
+                    transaction.setFromAccountNumber(String.format("A%03d", (i + offset) % 10 + 1));
+                    transaction.setToAccountNumber(String.format("A%03d", (i + offset + 3) % 10 + 1));
+                    try {
+                        transactionService.createTransaction(transaction);
+                    } catch (RuntimeException e) {
+                        // 余额不足的转账被拒绝即可
+                    }
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        assertEquals(before, totalBalance());
+        accountRepository.findAll().forEach(a -> assertTrue(a.getBalance().signum() >= 0));
+    }
+
+    @Test
+    void shutdown_shouldDrainQueuedTasksAndRejectLaterSubmissions() throws Exception {
+        ShardedLedgerExecutor executor = new ShardedLedgerExecutor(1, 1);
+        CountDownLatch release = new CountDownLatch(1);
+        executor.submit(0, () -> {
+            try {
+                return release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        // 分片线程被占住：一个任务在容量为1的队列里等待，另一个提交阻塞在满队列上
+        CompletableFuture<Integer> queued = executor.submit(0, () -> 1);
+        CompletableFuture<CompletableFuture<Integer>> blocked = CompletableFuture.supplyAsync(() -> executor.submit(0, () -> 2));
+        Thread.sleep(100);
+        CompletableFuture<Void> shutdown = CompletableFuture.runAsync(executor::shutdown);
+
+        // 停止后阻塞在满队列上的提交不再等待，以失败返回
+        CompletionException rejected = assertThrows(CompletionException.class,
+                () -> blocked.get(5, TimeUnit.SECONDS).join());
+        assertInstanceOf(IllegalStateException.class, rejected.getCause());
+        assertFalse(shutdown.isDone());
+
+        // shutdown等分片线程处理完已入队的任务才返回
+        release.countDown();
+        shutdown.get(5, TimeUnit.SECONDS);
+        assertEquals(1, queued.get(1, TimeUnit.SECONDS));
+
+        CompletableFuture<Integer> late = executor.submit(0, () -> 3);
+        assertTrue(late.isCompletedExceptionally());
+    }
+
+    private BigDecimal totalBalance() {
+        return accountRepository.findAll().stream()
+                .map(Account::getBalance)
+                .reduce(BigDecimal.ZERO, BigDecimal::add);
+    }
+}
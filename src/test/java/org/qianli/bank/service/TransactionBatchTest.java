@@ -0,0 +1,91 @@
+package org.qianli.bank.service;
+
+import org.junit.jupiter.api.Test;
+import org.qianli.bank.model.BatchItemResult;
+import org.qianli.bank.model.Transaction;
+import org.qianli.bank.repository.AccountRepository;
+import org.qianli.bank.repository.AtomicAccountRepository;
+import org.qianli.bank.repository.InMemoryAccountRepository;
+import org.qianli.bank.repository.IndexedTransactionRepository;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 批量提交：无效条目单独拒绝，不影响同批其他条目；两个余额引擎各跑一遍
+ */
+class TransactionBatchTest {
+
+    private static TransactionService service(AccountRepository accountRepository) {
+        TransactionService service = new TransactionService();
+        ReflectionTestUtils.setField(service, "transactionRepository", new IndexedTransactionRepository());
+        ReflectionTestUtils.setField(service, "accountRepository", accountRepository);
+        ReflectionTestUtils.setField(service, "listeners", List.of());
+        ReflectionTestUtils.setField(service, "maxBatchSize", 100);
+        return service;
+    }
+
+    private static Transaction transaction(Transaction.Type type, String from, String to, String amount) {
+        Transaction transaction = new Transaction();
+        transaction.setType(type);
+        transaction.setFromAccountNumber(from);
+        transaction.setToAccountNumber(to);
+        transaction.setAmount(new BigDecimal(amount));
+        return transaction;
+    }
+
+    private static BigDecimal balanceOf(AccountRepository repository, String accountNumber) {
+        return repository.findByAccountNumber(accountNumber).orElseThrow().getBalance();
+    }
+
+    @Test
+    void nonPositiveAmounts_shouldBeRejectedPerItem() {
+        assertRejectsNonPositiveAmounts(new InMemoryAccountRepository());
+        assertRejectsNonPositiveAmounts(new AtomicAccountRepository());
+    }
+
+    private static void assertRejectsNonPositiveAmounts(AccountRepository repository) {
+        TransactionService service = service(repository);
+        BigDecimal before = balanceOf(repository, "A001");
+
+        List<BatchItemResult> results = service.createTransactions(List.of(
+                transaction(Transaction.Type.DEPOSIT, null, "A001", "10.00"),
+                transaction(Transaction.Type.DEPOSIT, null, "A001", "-500.00"),
+                transaction(Transaction.Type.WITHDRAWAL, "A001", null, "0"),
+                transaction(Transaction.Type.TRANSFER, "A001", "A002", "-1.00"),
+                transaction(Transaction.Type.WITHDRAWAL, "A001", null, "1.00")));
+
+        assertEquals(List.of(BatchItemResult.Status.CREATED, BatchItemResult.Status.REJECTED,
+                        BatchItemResult.Status.REJECTED, BatchItemResult.Status.REJECTED, BatchItemResult.Status.CREATED),
+                results.stream().map(BatchItemResult::getStatus).toList());
+        assertEquals("Amount must be greater than 0", results.get(1).getError());
+        assertEquals(0, before.add(new BigDecimal("9.00")).compareTo(balanceOf(repository, "A001")));
+        assertEquals(2, service.getTransactionCount());
+    }
+
+    @Test
+    void subCentAmounts_shouldBeRejectedOnEveryEngine() {
+        assertRejectsSubCentAmounts(new InMemoryAccountRepository());
+        assertRejectsSubCentAmounts(new AtomicAccountRepository());
+    }
+
+    // 原先内存引擎照记0.005，原子引擎拒绝，统计按0.01计；现在入口统一拒绝，末尾的0不算小数位
+    private static void assertRejectsSubCentAmounts(AccountRepository repository) {
+        TransactionService service = service(repository);
+        BigDecimal before = balanceOf(repository, "A001");
+
+        List<BatchItemResult> results = service.createTransactions(List.of(
+                transaction(Transaction.Type.DEPOSIT, null, "A001", "0.005"),
+                transaction(Transaction.Type.DEPOSIT, null, "A001", "1.500")));
+
+        assertEquals(List.of(BatchItemResult.Status.REJECTED, BatchItemResult.Status.CREATED),
+                results.stream().map(BatchItemResult::getStatus).toList());
+        assertEquals("Amount must have at most 2 decimal places: 0.005", results.get(0).getError());
+        assertEquals(0, before.add(new BigDecimal("1.50")).compareTo(balanceOf(repository, "A001")));
+        assertThrows(IllegalArgumentException.class, () -> service.createTransaction(
+                transaction(Transaction.Type.WITHDRAWAL, "A001", null, "0.001")));
+    }
+}
@@ -0,0 +1,262 @@
+package org.qianli.bank.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.qianli.bank.model.Account;
+import org.qianli.bank.model.Transaction;
+import org.qianli.bank.repository.AccountRepository;
+import org.qianli.bank.repository.AtomicAccountRepository;
+import org.qianli.bank.repository.InMemoryAccountRepository;
+import org.qianli.bank.repository.IndexedTransactionRepository;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 修改、删除交易的工作单元：标记、差额交易和记账要么全部生效，要么全部撤销；同一笔交易的并发修改只有一个生效
+ */
+class TransactionCompensationTest {
+
+    private AccountRepository accountRepository;
+    private IndexedTransactionRepository transactionRepository;
+    private TransactionService service;
+
+    @BeforeEach
+    void setUp() {
+        useAccounts(new InMemoryAccountRepository(), null);
+    }
+
+    // 换成新的服务：指定余额引擎，executor不为空时为分片模式
+    private void useAccounts(AccountRepository accounts, ShardedLedgerExecutor executor) {
+        accountRepository = accounts;
+        transactionRepository = new IndexedTransactionRepository(accountRepository.getRegistry());
+        service = new TransactionService();
+        ReflectionTestUtils.setField(service, "transactionRepository", transactionRepository);
+        ReflectionTestUtils.setField(service, "accountRepository", accountRepository);
+        ReflectionTestUtils.setField(service, "ledgerExecutor", executor);
+        ReflectionTestUtils.setField(service, "listeners", List.of());
+    }
+
+    private static Transaction transaction(Transaction.Type type, String from, String to, String amount) {
+        Transaction transaction = new Transaction(new BigDecimal(amount), "test", LocalDateTime.now());
+        transaction.setType(type);
+        transaction.setFromAccountNumber(from);
+        transaction.setToAccountNumber(to);
+        return transaction;
+    }
+
+    private BigDecimal balanceOf(String accountNumber) {
+        return accountRepository.findByAccountNumber(accountNumber).orElseThrow().getBalance();
+    }
+
+    private BigDecimal totalBalance() {
+        return accountRepository.findAll().stream().map(Account::getBalance).reduce(BigDecimal.ZERO, BigDecimal::add);
+    }
+
+    @Test
+    void deleteOfSpentDeposit_shouldRollBackFlagAndCompensatingEntry() {
+        Transaction deposit = service.createTransaction(transaction(Transaction.Type.DEPOSIT, null, "A001", "500.00"));
+        service.createTransaction(transaction(Transaction.Type.TRANSFER, "A001", "A002", "10400.00"));
+        int count = service.getTransactionCount();
+
+        // 撤销存款需要从A001扣回500，余额只剩100
+        assertThrows(IllegalArgumentException.class, () -> service.deleteTransaction(deposit.getId()));
+        assertEquals("0", service.getTransactionById(deposit.getId()).orElseThrow().getModifyFlg());
+        assertEquals(count, service.getTransactionCount());
+        assertEquals(0, new BigDecimal("100.00").compareTo(balanceOf("A001")));
+
+        // 余额补足后可以正常删除，且只能删除一次
+        service.createTransaction(transaction(Transaction.Type.DEPOSIT, null, "A001", "400.00"));
+        service.deleteTransaction(deposit.getId());
+        assertEquals("1", service.getTransactionById(deposit.getId()).orElseThrow().getModifyFlg());
+        assertEquals(0, BigDecimal.ZERO.compareTo(balanceOf("A001")));
+        assertThrows(IllegalStateException.class, () -> service.deleteTransaction(deposit.getId()));
+    }
+
+    @Test
+    void updateOfTransfer_shouldMoveOnlyTheDifference() {
+        Transaction transfer = service.createTransaction(transaction(Transaction.Type.TRANSFER, "A001", "A002", "300.00"));
+        Transaction difference = service.updateTransaction(transfer.getId(),
+                transaction(Transaction.Type.TRANSFER, "A001", "A002", "100.00"));
+
+        assertEquals(0, new BigDecimal("-200.00").compareTo(difference.getAmount()));
+        assertEquals(0, new BigDecimal("9900.00").compareTo(balanceOf("A001")));
+        assertEquals(0, new BigDecimal("10100.00").compareTo(balanceOf("A002")));
+        assertThrows(IllegalStateException.class, () -> service.updateTransaction(transfer.getId(),
+                transaction(Transaction.Type.TRANSFER, "A001", "A002", "50.00")));
+    }
+
+    @Test
+    void concurrentEditsOfSameTransaction_shouldApplyExactlyOnce() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Transaction> transfers = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            String from = String.format("A%03d", 1 + i % 10);
+            String to = String.format("A%03d", 1 + (i + 3) % 10);
+            transfers.add(service.createTransaction(transaction(Transaction.Type.TRANSFER, from, to, "10.00")));
+        }
+        BigDecimal total = totalBalance();
+
+        // 每笔转账由4个线程同时删除或改金额，同时还有其他转账在跑
+        AtomicInteger applied = new AtomicInteger();
+        AtomicInteger rejected = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            int worker = t;
+            futures.add(executor.submit(() -> {
+                start.await();
+                for (Transaction transfer : transfers) {
+                    try {
+                        if (worker % 2 == 0) {
+                            service.deleteTransaction(transfer.getId());
+                        } else {
+                            service.updateTransaction(transfer.getId(), transaction(Transaction.Type.TRANSFER,
+                                    transfer.getFromAccountNumber(), transfer.getToAccountNumber(), "25.00"));
+                        }
+                        applied.incrementAndGet();
+                    } catch (IllegalStateException e) {
+                        rejected.incrementAndGet();
+                    }
+                }
+                return null;
+            }));
+        }
+        for (int t = 0; t < 2; t++) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < 2_000; i++) {
+                    service.createTransaction(transaction(Transaction.Type.TRANSFER,
+                            String.format("A%03d", 1 + i % 10), String.format("A%03d", 1 + (i + 7) % 10), "1.00"));
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        assertEquals(transfers.size(), applied.get());
+        assertEquals(3 * transfers.size(), rejected.get());
+        transfers.forEach(t -> assertEquals("1", service.getTransactionById(t.getId()).orElseThrow().getModifyFlg()));
+        assertEquals(0, total.compareTo(totalBalance()));
+        assertEquals(transfers.size() + transfers.size() + 4_000, service.getTransactionCount());
+
+        // 余额等于全部交易（原交易和差额交易）的净额
+        BigDecimal[] expected = new BigDecimal[10];
+        Arrays.fill(expected, new BigDecimal("10000.00"));
+        transactionRepository.scanAfter(0, null, null, t -> {
+            int from = Integer.parseInt(t.getFromAccountNumber().substring(1)) - 1;
+            int to = Integer.parseInt(t.getToAccountNumber().substring(1)) - 1;
+            expected[from] = expected[from].subtract(t.getAmount());
+            expected[to] = expected[to].add(t.getAmount());
+            return true;
+        });
+        for (int i = 0; i < 10; i++) {
+            assertEquals(0, expected[i].compareTo(balanceOf(String.format("A%03d", i + 1))), "A" + (i + 1));
+        }
+    }
+
+    @Test
+    void failedRepositoryWrite_shouldReverseTheAppliedMovement() {
+        assertReversesOnFailedWrite();
+        useAccounts(new AtomicAccountRepository(), null);
+        assertReversesOnFailedWrite();
+        ShardedLedgerExecutor executor = new ShardedLedgerExecutor(4, 64);
+        try {
+            useAccounts(new InMemoryAccountRepository(), executor);
+            assertReversesOnFailedWrite();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void unreversibleMovement_shouldFailLoudlyAndBeRecorded() {
+        useAccounts(new AtomicAccountRepository(), null);
+        assertRecordsUnreversibleMovement();
+        ShardedLedgerExecutor executor = new ShardedLedgerExecutor(4, 64);
+        try {
+            useAccounts(new InMemoryAccountRepository(), executor);
+            assertRecordsUnreversibleMovement();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private void assertRecordsUnreversibleMovement() {
+        Transaction transfer = service.createTransaction(transaction(Transaction.Type.TRANSFER, "A001", "A002", "300.00"));
+        AtomicInteger failSaves = new AtomicInteger(1);
+        IndexedTransactionRepository failing = new IndexedTransactionRepository(accountRepository.getRegistry()) {
+            @Override
+            public Transaction save(Transaction transaction) {
+                if (failSaves.getAndDecrement() > 0) {
+                    // 无锁时退回A001的300在写入失败前已被其他请求花掉
+                    assertTrue(accountRepository.withdraw("A001", new BigDecimal("9900.00")));
+                    throw new IllegalStateException("store unavailable");
+                }
+                return super.save(transaction);
+            }
+        };
+        failing.restoreAll(List.of(transfer), transfer.getId() + 1);
+        ReflectionTestUtils.setField(service, "transactionRepository", failing);
+
+        // 反向记账失败：不按冲突（IllegalStateException）或参数错误报告，余额保持已变动，记账登记为待对账
+        RuntimeException failure = assertThrows(RuntimeException.class, () -> service.deleteTransaction(transfer.getId()));
+        assertEquals(RuntimeException.class, failure.getClass());
+        assertEquals("store unavailable", failure.getCause().getMessage());
+        assertEquals(1, failure.getCause().getSuppressed().length);
+        assertEquals(0, new BigDecimal("100.00").compareTo(balanceOf("A001")));
+        assertEquals(0, new BigDecimal("10000.00").compareTo(balanceOf("A002")));
+        assertEquals("0", failing.findById(transfer.getId()).orElseThrow().getModifyFlg());
+        assertEquals(1, failing.getTransactionCount());
+
+        List<Transaction> unreconciled = service.getUnreconciledMovements();
+        assertEquals(1, unreconciled.size());
+        assertEquals(Transaction.Type.TRANSFER, unreconciled.get(0).getType());
+        assertEquals("A002", unreconciled.get(0).getFromAccountNumber());
+        assertEquals("A001", unreconciled.get(0).getToAccountNumber());
+        assertEquals(0, new BigDecimal("300.00").compareTo(unreconciled.get(0).getAmount()));
+    }
+
+    private void assertReversesOnFailedWrite() {
+        Transaction transfer = service.createTransaction(transaction(Transaction.Type.TRANSFER, "A001", "A002", "300.00"));
+        AtomicInteger failSaves = new AtomicInteger(1);
+        IndexedTransactionRepository failing = new IndexedTransactionRepository(accountRepository.getRegistry()) {
+            @Override
+            public Transaction save(Transaction transaction) {
+                if (failSaves.getAndDecrement() > 0) {
+                    throw new IllegalStateException("store unavailable");
+                }
+                return super.save(transaction);
+            }
+        };
+        failing.restoreAll(List.of(transfer), transfer.getId() + 1);
+        ReflectionTestUtils.setField(service, "transactionRepository", failing);
+
+        // 记账已完成，差额交易写入失败：余额反向记回，标记恢复
+        assertThrows(IllegalStateException.class, () -> service.deleteTransaction(transfer.getId()));
+        assertEquals(0, new BigDecimal("9700.00").compareTo(balanceOf("A001")));
+        assertEquals(0, new BigDecimal("10300.00").compareTo(balanceOf("A002")));
+        assertEquals("0", failing.findById(transfer.getId()).orElseThrow().getModifyFlg());
+        assertEquals(1, failing.getTransactionCount());
+
+        service.deleteTransaction(transfer.getId());
+        assertEquals(0, new BigDecimal("10000.00").compareTo(balanceOf("A001")));
+        assertEquals(0, new BigDecimal("10000.00").compareTo(balanceOf("A002")));
+        assertEquals("1", failing.findById(transfer.getId()).orElseThrow().getModifyFlg());
+    }
+}
@@ -0,0 +1,81 @@
+package org.qianli.bank.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.qianli.bank.model.Transaction;
+import org.qianli.bank.repository.IndexedTransactionRepository;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TransactionExporterTest {
+    private static final LocalDateTime BASE = LocalDateTime.of(2024, 1, 1, 0, 0);
+
+    private IndexedTransactionRepository repository;
+    private ObjectMapper objectMapper;
+    private TransactionExporter exporter;
+
+    @BeforeEach
+    void setUp() {
+        repository = new IndexedTransactionRepository();
+        objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        exporter = new TransactionExporter(repository, objectMapper);
+        for (int day = 0; day < 5; day++) {
+            Transaction transaction = new Transaction(new BigDecimal("10.50"), "day " + day, BASE.plusDays(day));
+            transaction.setType(Transaction.Type.TRANSFER);
+            transaction.setFromAccountNumber(day % 2 == 0 ? "A001" : "A003");
+            transaction.setToAccountNumber("A002");
+            repository.save(transaction);
+        }
+    }
+
+    private String export(TransactionExporter.Format format, TransactionExporter.Filter filter) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        exporter.export(format, filter, out);
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void export_ndjson_shouldWriteOneTransactionPerLine() throws Exception {
+        String body = export(TransactionExporter.Format.NDJSON,
+                new TransactionExporter.Filter(null, "A001", null, null));
+
+        List<String> lines = body.lines().toList();
+        assertEquals(3, lines.size());
+        assertTrue(body.endsWith("\n"));
+        Transaction first = objectMapper.readValue(lines.get(0), Transaction.class);
+        assertEquals(1L, first.getId());
+        assertEquals(new BigDecimal("10.50"), first.getAmount());
+    }
+
+    @Test
+    void export_csv_shouldFilterByDateRangeAndEscapeFields() throws Exception {
+        Transaction quoted = new Transaction(new BigDecimal("1.00"), "rent, \"March\"", BASE.plusDays(1).plusHours(1));
+        quoted.setType(Transaction.Type.DEPOSIT);
+        quoted.setToAccountNumber("A001");
+        repository.save(quoted);
+
+        String body = export(TransactionExporter.Format.CSV,
+                new TransactionExporter.Filter(null, null, BASE.plusDays(1), BASE.plusDays(3)));
+
+        List<String> lines = body.lines().toList();
+        assertEquals("id,type,amount,description,fromAccountNumber,toAccountNumber,modifyFlg,date", lines.get(0));
+        assertEquals(4, lines.size());
+        assertEquals("2,TRANSFER,10.50,day 1,A003,A002,0,2024-01-02T00:00:00Z", lines.get(1));
+        assertEquals("6,DEPOSIT,1.00,\"rent, \"\"March\"\"\",,A001,0,2024-01-02T01:00:00Z", lines.get(3));
+    }
+
+    @Test
+    void filter_shouldRejectEmptyRange() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new TransactionExporter.Filter(null, null, BASE, BASE));
+        assertThrows(IllegalArgumentException.class, () -> TransactionExporter.Format.parse("xml"));
+    }
+}
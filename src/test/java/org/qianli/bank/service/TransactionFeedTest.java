@@ -0,0 +1,135 @@
+package org.qianli.bank.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.qianli.bank.model.Transaction;
+import org.qianli.bank.repository.InMemoryAccountRepository;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TransactionFeedTest {
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final TransactionFeed feed = new TransactionFeed(new InMemoryAccountRepository(), registry, 1024, 8, 100, 60);
+
+    @AfterEach
+    void tearDown() {
+        feed.shutdown();
+    }
+
+    // 记录收到的事件，close后计数
+    private static class RecordingSink implements TransactionFeed.Sink {
+        final List<TransactionFeed.FeedEvent> events = new CopyOnWriteArrayList<>();
+        final CountDownLatch closed = new CountDownLatch(1);
+        final CountDownLatch received;
+
+        RecordingSink(int expected) {
+            this.received = new CountDownLatch(expected);
+        }
+
+        @Override
+        public void send(TransactionFeed.FeedEvent event) {
+            events.add(event);
+            received.countDown();
+        }
+
+        @Override
+        public void close() {
+            closed.countDown();
+        }
+    }
+
+    private static Transaction transfer(String from, String to) {
+        Transaction transaction = new Transaction(new BigDecimal("10.00"), "feed", null);
+        transaction.setType(Transaction.Type.TRANSFER);
+        transaction.setFromAccountNumber(from);
+        transaction.setToAccountNumber(to);
+        return transaction;
+    }
+
+    @Test
+    void events_shouldFanOutAndRespectAccountFilter() throws Exception {
+        RecordingSink all = new RecordingSink(6);
+        RecordingSink a003 = new RecordingSink(2);
+        RecordingSink a009 = new RecordingSink(1);
+        feed.subscribe(null, all);
+        feed.subscribe("A003", a003);
+        feed.subscribe("A009", a009);
+
+        feed.onSaved(transfer("A001", "A002"));
+        feed.onSaved(transfer("A001", "A003"));
+
+        // 全量订阅者：每笔交易一个交易事件加两个余额事件
+        assertTrue(all.received.await(5, TimeUnit.SECONDS));
+        assertTrue(a003.received.await(5, TimeUnit.SECONDS));
+        assertEquals(List.of("transaction", "balance", "balance", "transaction", "balance", "balance"),
+                all.events.stream().map(TransactionFeed.FeedEvent::name).toList());
+        assertEquals(2, a003.events.size());
+        assertEquals(new TransactionFeed.BalanceChange("A003", new BigDecimal("10000.00")), a003.events.get(1).data());
+        assertTrue(a009.events.isEmpty());
+        assertEquals(3, feed.getSubscriberCount());
+    }
+
+    @Test
+    void slowSubscriber_shouldBeDisconnectedWithoutAffectingOthers() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch slowClosed = new CountDownLatch(1);
+        feed.subscribe(null, new TransactionFeed.Sink() {
+            @Override
+            public void send(TransactionFeed.FeedEvent event) throws java.io.IOException {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new java.io.InterruptedIOException();
+                }
+            }
+
+            @Override
+            public void close() {
+                slowClosed.countDown();
+            }
+        });
+        RecordingSink fast = new RecordingSink(30);
+        feed.subscribe("A002", fast);
+
+        // 慢订阅者的缓冲只有8个事件，第三笔交易就会溢出；快订阅者逐笔消费，不受影响
+        for (int i = 1; i <= 15; i++) {
+            feed.onSaved(transfer("A001", "A002"));
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (fast.events.size() < 2 * i && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+        }
+        assertTrue(slowClosed.await(5, TimeUnit.SECONDS));
+        assertTrue(fast.received.await(5, TimeUnit.SECONDS));
+        assertEquals(30, fast.events.size());
+        assertEquals(1, feed.getSubscriberCount());
+        assertEquals(1.0, registry.get("bank.feed.dropped").tag("reason", "slow_subscriber").counter().count());
+        release.countDown();
+    }
+
+    @Test
+    void cancelledSubscribers_shouldNotLeaveEmptyAccountEntries() {
+        for (int i = 0; i < 50; i++) {
+            feed.subscribe("A" + i, new RecordingSink(0)).cancel();
+        }
+        TransactionFeed.Subscription kept = feed.subscribe("A001", new RecordingSink(0));
+        feed.subscribe("A001", new RecordingSink(0)).cancel();
+
+        Map<?, ?> byAccount = (Map<?, ?>) ReflectionTestUtils.getField(feed, "byAccount");
+        assertEquals(Set.of("A001"), byAccount.keySet());
+        assertEquals(1, feed.getSubscriberCount());
+        kept.cancel();
+        assertTrue(byAccount.isEmpty());
+        assertEquals(0, feed.getSubscriberCount());
+    }
+}
@@ -0,0 +1,58 @@
+package org.qianli.bank.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.qianli.bank.model.Transaction;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TransactionMetricsTest {
+
+    @Test
+    void recordFailed_shouldTagByTypeAndReason() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        TransactionMetrics metrics = new TransactionMetrics(registry, true, 1);
+
+        RuntimeException failure = new RuntimeException("Transaction failed",
+                new IllegalArgumentException("Insufficient balance"));
+        metrics.recordFailed(Transaction.Type.WITHDRAWAL, failure, 1_000);
+        metrics.recordFailed(Transaction.Type.WITHDRAWAL, failure, 1_000);
+        metrics.recordCompleted(Transaction.Type.DEPOSIT, 2_000);
+
+        assertEquals(2, registry.get("bank.transaction.failed")
+                .tags("type", "WITHDRAWAL", "reason", "insufficient_balance")
+                .timer().count());
+        assertEquals(1, registry.get("bank.transaction.create")
+                .tags("type", "DEPOSIT", "outcome", "success")
+                .timer().count());
+    }
+
+    @Test
+    void prometheusScrape_shouldContainSuccessAndFailureSeries() {
+        PrometheusMeterRegistry registry = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+        TransactionMetrics metrics = new TransactionMetrics(registry, false, 1);
+
+        metrics.recordCompleted(Transaction.Type.WITHDRAWAL, 2_000);
+        metrics.recordFailed(Transaction.Type.WITHDRAWAL, new IllegalArgumentException("Insufficient balance"), 1_000);
+
+        String scrape = registry.scrape();
+        assertTrue(scrape.contains("bank_transaction_create_seconds_count{outcome=\"success\",type=\"WITHDRAWAL\",} 1.0"), scrape);
+        assertTrue(scrape.contains("bank_transaction_failed_seconds_count{reason=\"insufficient_balance\",type=\"WITHDRAWAL\",} 1.0"), scrape);
+    }
+
+    @Test
+    void lockTimers_shouldCollapseAccountsWhenTagsDisabled() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        TransactionMetrics metrics = new TransactionMetrics(registry, false, 1);
+
+        metrics.recordLockWait("A001", TimeUnit.MICROSECONDS.toNanos(5));
+        metrics.recordLockWait("A002", TimeUnit.MICROSECONDS.toNanos(7));
+
+        assertEquals(1, registry.find("bank.account.lock.wait").timers().size());
+        assertEquals(2, registry.get("bank.account.lock.wait").tag("account", "all").timer().count());
+    }
+}
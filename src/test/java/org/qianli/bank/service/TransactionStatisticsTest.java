@@ -0,0 +1,76 @@
+package org.qianli.bank.service;
+
+import org.junit.jupiter.api.Test;
+import org.qianli.bank.model.Transaction;
+import org.qianli.bank.model.TransactionStats;
+import org.qianli.bank.repository.AccountRegistry;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TransactionStatisticsTest {
+
+    private static Transaction transaction(Transaction.Type type, String from, String to, String amount, LocalDateTime time) {
+        Transaction transaction = new Transaction(new BigDecimal(amount), "test", time);
+        transaction.setType(type);
+        transaction.setFromAccountNumber(from);
+        transaction.setToAccountNumber(to);
+        return transaction;
+    }
+
+    @Test
+    void snapshot_shouldReflectTypesAccountsAndDays() {
+        TransactionStatistics statistics = new TransactionStatistics(new AccountRegistry(), 3);
+        LocalDateTime day1 = LocalDateTime.of(2024, 1, 1, 10, 0);
+        statistics.onSaved(transaction(Transaction.Type.DEPOSIT, null, "A001", "100.00", day1));
+        statistics.onSaved(transaction(Transaction.Type.WITHDRAWAL, "A001", null, "30.50", day1.plusDays(1)));
+        statistics.onRestored(transaction(Transaction.Type.TRANSFER, "A001", "A002", "20.00", day1.plusDays(2)));
+        statistics.onSaved(transaction(Transaction.Type.DEPOSIT, null, "A002", "1.00", day1.plusDays(3)));
+
+        TransactionStats stats = statistics.snapshot("A001", 3);
+
+        assertEquals(4, stats.getTotal().getCount());
+        assertEquals(new BigDecimal("151.50"), stats.getTotal().getAmount());
+        assertEquals(2, stats.getByType().get(Transaction.Type.DEPOSIT).getCount());
+        assertEquals(new BigDecimal("101.00"), stats.getByType().get(Transaction.Type.DEPOSIT).getAmount());
+        assertEquals(new BigDecimal("100.00"), stats.getAccount().getInflow().getAmount());
+        assertEquals(2, stats.getAccount().getOutflow().getCount());
+        assertEquals(new BigDecimal("50.50"), stats.getAccount().getOutflow().getAmount());
+        // 只保留3天，最早的一天已被丢弃
+        assertEquals(List.of(day1.plusDays(1).toLocalDate(), day1.plusDays(2).toLocalDate(), day1.plusDays(3).toLocalDate()),
+                stats.getDaily().stream().map(TransactionStats.DailyTotals::getDate).toList());
+        assertEquals(0, statistics.snapshot("A404", 0).getAccount().getInflow().getCount());
+        assertThrows(IllegalArgumentException.class, () -> statistics.snapshot(null, 4));
+    }
+
+    @Test
+    void concurrentWriters_shouldNotLoseUpdates() throws Exception {
+        TransactionStatistics statistics = new TransactionStatistics(new AccountRegistry(), 30);
+        LocalDateTime now = LocalDateTime.now();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < 10_000; i++) {
+                    statistics.onSaved(transaction(Transaction.Type.TRANSFER, "A001", "A002", "0.01", now));
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        TransactionStats stats = statistics.snapshot("A002", 1);
+        assertEquals(80_000, stats.getTotal().getCount());
+        assertEquals(new BigDecimal("800.00"), stats.getAccount().getInflow().getAmount());
+        assertEquals(80_000, stats.getDaily().get(0).getCount());
+    }
+}
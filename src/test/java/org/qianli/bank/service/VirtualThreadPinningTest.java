@@ -0,0 +1,118 @@
+package org.qianli.bank.service;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.qianli.bank.journal.FsyncPolicy;
+import org.qianli.bank.journal.TransactionJournal;
+import org.qianli.bank.model.Account;
+import org.qianli.bank.model.Transaction;
+import org.qianli.bank.repository.InMemoryAccountRepository;
+import org.qianli.bank.repository.IndexedTransactionRepository;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 虚拟线程在账户锁和日志组提交上等待时不应钉住载体线程，用JFR的VirtualThreadPinned事件检查
+ */
+class VirtualThreadPinningTest {
+    private static final String PINNED = "jdk.VirtualThreadPinned";
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void contendedTransfersOnVirtualThreads_shouldNotPinCarriers() throws Exception {
+        InMemoryAccountRepository accountRepository = new InMemoryAccountRepository();
+        TransactionJournal journal = new TransactionJournal(dir.resolve("journal").toString(), 1 << 20, FsyncPolicy.GROUP, 200);
+        TransactionService service = new TransactionService();
+        ReflectionTestUtils.setField(service, "transactionRepository", new IndexedTransactionRepository());
+        ReflectionTestUtils.setField(service, "accountRepository", accountRepository);
+        ReflectionTestUtils.setField(service, "listeners", List.of(journal));
+        BigDecimal before = totalBalance(accountRepository);
+
+        List<RecordedEvent> events;
+        try {
+            events = record(() -> {
+                try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+                    List<Future<?>> futures = new ArrayList<>();
+                    for (int i = 0; i < 2_000; i++) {
+                        // 全部经过热点账户A001，保证账户锁上有竞争
+                        String other = String.format("A%03d", 2 + i % 9);
+                        boolean out = i % 2 == 0;
+                        futures.add(executor.submit(() -> service.createTransaction(
+                                transfer(out ? "A001" : other, out ? other : "A001"))));
+                    }
+                    for (Future<?> future : futures) {
+                        future.get();
+                    }
+                }
+            });
+        } finally {
+            journal.close();
+        }
+
+        assertEquals(List.of(), events.stream().map(e -> e.getStackTrace().toString()).toList());
+        assertEquals(0, before.compareTo(totalBalance(accountRepository)));
+        assertEquals(2_000, service.getTransactionCount());
+    }
+
+    @Test
+    void blockingInsideSynchronized_isDetected() throws Exception {
+        Object monitor = new Object();
+        List<RecordedEvent> events = record(() -> Thread.ofVirtual().start(() -> {
+            synchronized (monitor) {
+                try {
+                    Thread.sleep(5);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }).join());
+
+        assertFalse(events.isEmpty(), "JFR should report the pinned virtual thread");
+    }
+
+    private interface Workload {
+        void run() throws Exception;
+    }
+
+    private List<RecordedEvent> record(Workload workload) throws Exception {
+        Path file = dir.resolve("pinning.jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable(PINNED).withThreshold(Duration.ZERO).withStackTrace();
+            recording.start();
+            workload.run();
+            recording.stop();
+            recording.dump(file);
+        }
+        return RecordingFile.readAllEvents(file).stream()
+                .filter(e -> e.getEventType().getName().equals(PINNED))
+                .toList();
+    }
+
+    private static Transaction transfer(String from, String to) {
+        Transaction transaction = new Transaction(new BigDecimal("1.00"), "vt", LocalDateTime.now());
+        transaction.setType(Transaction.Type.TRANSFER);
+        transaction.setFromAccountNumber(from);
+        transaction.setToAccountNumber(to);
+        return transaction;
+    }
+
+    private static BigDecimal totalBalance(InMemoryAccountRepository repository) {
+        return repository.findAll().stream().map(Account::getBalance).reduce(BigDecimal.ZERO, BigDecimal::add);
+    }
+}